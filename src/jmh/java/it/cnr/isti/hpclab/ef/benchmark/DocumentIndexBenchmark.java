@@ -0,0 +1,115 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.cnr.isti.hpclab.ef.EliasFano;
+import it.cnr.isti.hpclab.ef.structures.EFDocumentIndex;
+
+/**
+ * Measures document length lookups in {@link EFDocumentIndex}, 
+ * in increasing docid order, as during query processing, and at random,
+ * with the document lengths decoded in memory or bit-packed and memory-mapped.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DocumentIndexBenchmark
+{
+	/** The number of documents of the index. */
+	@Param({"1000000", "50000000"})
+	public int numDocs;
+	
+	/** The encoding of the document lengths. */
+	@Param({EliasFano.GAMMA_CODEC, EliasFano.PACKED_CODEC})
+	public String codec;
+	
+	/** The number of random docids, a power of two. */
+	private static final int NUM_DOCIDS = 1 << 16;
+	
+	private SyntheticIndex index;
+	private File packedSizes;
+	private EFDocumentIndex documentIndex;
+	private int[] docids;
+	private int docid;
+	private int next;
+	
+	@Setup(Level.Trial)
+	public void createIndex() throws IOException
+	{
+		index = new SyntheticIndex(numDocs, 0, 1, 8, false, 42);
+		final Random rnd = new Random(42);
+		docids = new int[NUM_DOCIDS];
+		for (int i = 0; i < NUM_DOCIDS; i++)
+			docids[i] = rnd.nextInt(numDocs);
+		
+		if (EliasFano.PACKED_CODEC.equals(codec)) {
+			packedSizes = File.createTempFile("ef-jmh", EliasFano.SIZE_EXTENSION);
+			EFDocumentIndex.writePacked(index.documentIndex, packedSizes.getPath());
+			documentIndex = new EFDocumentIndex(packedSizes.getPath(), numDocs, ByteOrder.nativeOrder());
+		} else {
+			documentIndex = index.documentIndex;
+		}
+	}
+	
+	@TearDown(Level.Trial)
+	public void deleteIndex() throws IOException
+	{
+		index.close();
+		if (packedSizes != null)
+			packedSizes.delete();
+	}
+	
+	@Benchmark
+	public int getDocumentLength() throws IOException
+	{
+		if (++docid == numDocs)
+			docid = 0;
+		return documentIndex.getDocumentLength(docid);
+	}
+	
+	@Benchmark
+	public int getDocumentLengthAt() throws IOException
+	{
+		return documentIndex.getDocumentLength(docids[next++ & (NUM_DOCIDS - 1)]);
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.cnr.isti.hpclab.ef.util.LongWordBitReader;
+import it.cnr.isti.hpclab.ef.util.LongWordBitWriter;
+import it.unimi.dsi.fastutil.longs.LongBigList;
+import it.unimi.dsi.util.ByteBufferLongBigList;
+
+/**
+ * Measures the extraction of fixed-width values with {@link LongWordBitReader}, i.e., the lower bits of Elias-Fano lists, 
+ * both sequentially and at random positions, for every width up to 32 bits.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LongWordBitReaderBenchmark
+{
+	/** The width of the extracted values. */
+	@Param({"1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13", "14", "15", "16", 
+		    "17", "18", "19", "20", "21", "22", "23", "24", "25", "26", "27", "28", "29", "30", "31", "32"})
+	public int width;
+	
+	/** The number of longwords of the list. */
+	private static final int NUM_WORDS = 1 << 20;
+	/** The number of random positions, a power of two. */
+	private static final int NUM_POSITIONS = 1 << 16;
+
+	private File file;
+	private LongWordBitReader reader;
+	private long numValues;
+	private long value;
+	private long[] positions;
+	private int position;
+	
+	@Setup(Level.Trial)
+	public void createList() throws IOException
+	{
+		final Random rnd = new Random(42);
+		file = File.createTempFile("ef-jmh", ".longs");
+		final LongWordBitWriter writer = new LongWordBitWriter(new FileOutputStream(file).getChannel(), ByteOrder.nativeOrder());
+		for (int i = 0; i < NUM_WORDS; i++)
+			writer.append(rnd.nextLong(), Long.SIZE);
+		writer.close();
+		
+		final LongBigList list;
+		try (FileInputStream in = new FileInputStream(file)) {
+			list = ByteBufferLongBigList.map(in.getChannel(), ByteOrder.nativeOrder(), MapMode.READ_ONLY);
+		}
+		reader = new LongWordBitReader(list, width);
+		numValues = (long) NUM_WORDS * Long.SIZE / width - 1;
+		positions = new long[NUM_POSITIONS];
+		for (int i = 0; i < NUM_POSITIONS; i++)
+			positions[i] = (long) (rnd.nextDouble() * numValues) * width;
+	}
+	
+	@TearDown(Level.Trial)
+	public void deleteList()
+	{
+		file.delete();
+	}
+	
+	@Benchmark
+	public long extract()
+	{
+		if (++value == numValues) {
+			reader.position(0);
+			value = 0;
+		}
+		return reader.extract();
+	}
+	
+	@Benchmark
+	public long extractAt()
+	{
+		return reader.extract(positions[position++ & (NUM_POSITIONS - 1)]);
+	}
+}
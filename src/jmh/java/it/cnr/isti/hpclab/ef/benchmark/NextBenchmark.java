@@ -0,0 +1,62 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.benchmark;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures sequential decoding: docids, frequencies and positions, one posting per invocation.
+ */
+@State(Scope.Thread)
+public class NextBenchmark extends PostingListBenchmark
+{
+	@Benchmark
+	public int next() throws IOException
+	{
+		return nextPosting();
+	}
+
+	@Benchmark
+	public int getFrequency() throws IOException
+	{
+		nextPosting();
+		return posting.getFrequency();
+	}
+
+	@Benchmark
+	public int[] getPositions() throws IOException
+	{
+		nextPosting();
+		return posting.getPositions();
+	}
+
+	@Benchmark
+	public void getPositionBuffer(final Blackhole bh) throws IOException
+	{
+		nextPosting();
+		bh.consume(posting.getPositionBuffer());
+		bh.consume(posting.getPositionCount());
+	}
+}
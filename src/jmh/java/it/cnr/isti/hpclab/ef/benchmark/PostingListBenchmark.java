@@ -0,0 +1,106 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.cnr.isti.hpclab.ef.structures.EFBlockIterablePosting;
+
+/**
+ * The common state of the benchmarks over the posting lists of a {@link SyntheticIndex}.
+ * Every benchmark invocation performs a single operation on the cursor, restarting the posting list when it is exhausted.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class PostingListBenchmark
+{
+	/** The number of documents of the index. */
+	@Param({"1000000"})
+	public int numDocs;
+	
+	/** The skew of the document frequencies of the terms. */
+	@Param({"0.8", "1.5"})
+	public double skew;
+	
+	/** The encoding of docid lists, <tt>ef</tt> or <tt>pef</tt>. */
+	@Param({"ef", "pef"})
+	public String codec;
+	
+	/** The term whose posting list is traversed, 0 being the most frequent one. */
+	@Param({"0", "4", "15"})
+	public int term;
+	
+	/** The quantum used to encode forward (skip) pointers. */
+	@Param({"8"})
+	public int log2Quantum;
+	
+	/** The number of terms of the index. */
+	protected static final int NUM_TERMS = 16;
+	
+	protected SyntheticIndex index;
+	protected EFBlockIterablePosting posting;
+	
+	@Setup(Level.Trial)
+	public void createIndex() throws IOException
+	{
+		if (!"ef".equals(codec) && !"pef".equals(codec))
+			throw new IllegalArgumentException("Unknown codec " + codec);
+		index = new SyntheticIndex(numDocs, NUM_TERMS, skew, log2Quantum, "pef".equals(codec), 42);
+		posting = index.newPosting();
+		index.reset(posting, term);
+	}
+	
+	@TearDown(Level.Trial)
+	public void deleteIndex() throws IOException
+	{
+		index.close();
+	}
+	
+	/**
+	 * Moves the cursor to the next posting, restarting the posting list when it is exhausted.
+	 * 
+	 * @return the docid of the next posting
+	 * @throws IOException if something goes wrong
+	 */
+	protected int nextPosting() throws IOException
+	{
+		int docid = posting.next();
+		if (docid == EFBlockIterablePosting.END_OF_LIST) {
+			index.reset(posting, term);
+			docid = posting.next();
+		}
+		return docid;
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.benchmark;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures skipping with {@link it.cnr.isti.hpclab.ef.structures.EFBasicIterablePosting#next(int)}, 
+ * the target being a given number of postings ahead of the current one.
+ */
+@State(Scope.Thread)
+public class SkipBenchmark extends PostingListBenchmark
+{
+	/** The number of postings skipped by every invocation. */
+	@Param({"1", "8", "64", "512", "4096"})
+	public int distance;
+	
+	/** The docids targeted by the invocations. */
+	private int[] targets;
+	/** The next target. */
+	private int target;
+	
+	@Setup(Level.Trial)
+	public void createTargets()
+	{
+		final int[] docids = index.docids(term);
+		targets = new int[Math.max(1, docids.length / distance)];
+		for (int i = 0; i < targets.length; i++)
+			targets[i] = docids[Math.min(docids.length - 1, (i + 1) * distance - 1)];
+	}
+	
+	@Benchmark
+	public int nextTarget() throws IOException
+	{
+		if (target == targets.length) {
+			index.reset(posting, term);
+			target = 0;
+		}
+		return posting.next(targets[target++]);
+	}
+}
@@ -0,0 +1,256 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.benchmark;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import it.cnr.isti.hpclab.ef.EliasFano;
+import it.cnr.isti.hpclab.ef.structures.EFBlockIterablePosting;
+import it.cnr.isti.hpclab.ef.structures.EFDocumentIndex;
+import it.cnr.isti.hpclab.ef.structures.PEFBlockIterablePosting;
+import it.cnr.isti.hpclab.ef.util.LongWordBitWriter;
+import it.cnr.isti.hpclab.ef.util.PartitionedSequenceEncoder;
+import it.cnr.isti.hpclab.ef.util.SequenceEncoder;
+import it.unimi.dsi.fastutil.longs.LongBigList;
+import it.unimi.dsi.io.OutputBitStream;
+import it.unimi.dsi.util.ByteBufferLongBigList;
+
+/**
+ * A synthetic Elias-Fano index with positions, written in a temporary directory with the same encoders used by the compressors.
+ * The document frequency of the <i>t</i>-th term is proportional to <i>1/(t+1)<sup>skew</sup></i>, the most frequent one 
+ * appearing in half of the documents; frequencies are geometrically distributed and positions are uniformly spread in the documents.
+ */
+public class SyntheticIndex implements Closeable
+{
+	/** The size of the buffers of the encoders, spilling to disk beyond it. */
+	private static final int CACHE_SIZE = 1 << 20;
+	
+	/** The number of documents. */
+	public final int numDocs;
+	/** The quantum used to encode forward (skip) pointers. */
+	public final int log2Quantum;
+	/** Whether docid lists are encoded with partitioned Elias-Fano. */
+	public final boolean partitioned;
+	/** The document index. */
+	public final EFDocumentIndex documentIndex;
+	
+	/** The temporary directory holding the index. */
+	private final File dir;
+	/** The docids of each term. */
+	private final int[][] docids;
+	/** The number of occurrences of each term. */
+	private final int[] occurrences;
+	/** The bit offsets of the docid lists. */
+	private final long[] docidsOffsets;
+	/** The bit offsets of the frequency lists. */
+	private final long[] freqsOffsets;
+	/** The bit offsets of the position lists. */
+	private final long[] posOffsets;
+	
+	private final LongBigList docidsList;
+	private final LongBigList freqsList;
+	private final LongBigList posList;
+
+	/**
+	 * Writes a synthetic index in a new temporary directory.
+	 * 
+	 * @param numDocs the number of documents
+	 * @param numTerms the number of terms
+	 * @param skew the skew of the document frequencies
+	 * @param log2Quantum the quantum used to encode forward (skip) pointers
+	 * @param partitioned whether docid lists are encoded with partitioned Elias-Fano
+	 * @param seed the seed of the random generator
+	 * @throws IOException if something goes wrong
+	 */
+	public SyntheticIndex(final int numDocs, final int numTerms, final double skew, final int log2Quantum, final boolean partitioned, final long seed) throws IOException
+	{
+		this.numDocs = numDocs;
+		this.log2Quantum = log2Quantum;
+		this.partitioned = partitioned;
+		this.dir = Files.createTempDirectory("ef-jmh").toFile();
+		this.docids = new int[numTerms][];
+		this.occurrences = new int[numTerms];
+		this.docidsOffsets = new long[numTerms];
+		this.freqsOffsets = new long[numTerms];
+		this.posOffsets = new long[numTerms];
+		
+		final Random rnd = new Random(seed);
+		final int[] docLengths = new int[numDocs];
+		final OutputBitStream sizes = new OutputBitStream(new FileOutputStream(file(EliasFano.SIZE_EXTENSION)));
+		for (int d = 0; d < numDocs; d++) {
+			docLengths[d] = 64 + rnd.nextInt(960);
+			sizes.writeGamma(docLengths[d]);
+		}
+		sizes.close();
+		documentIndex = new EFDocumentIndex(file(EliasFano.SIZE_EXTENSION).getPath(), numDocs);
+		
+		final LongWordBitWriter docidsWriter = new LongWordBitWriter(new FileOutputStream(file(EliasFano.DOCID_EXTENSION)).getChannel(), ByteOrder.nativeOrder());
+		final LongWordBitWriter freqsWriter = new LongWordBitWriter(new FileOutputStream(file(EliasFano.FREQ_EXTENSION)).getChannel(), ByteOrder.nativeOrder());
+		final LongWordBitWriter posWriter = new LongWordBitWriter(new FileOutputStream(file(EliasFano.POS_EXTENSION)).getChannel(), ByteOrder.nativeOrder());
+		final SequenceEncoder docidsAccumulator = new SequenceEncoder(CACHE_SIZE, log2Quantum);
+		final PartitionedSequenceEncoder partitionedDocidsAccumulator = new PartitionedSequenceEncoder();
+		final SequenceEncoder freqsAccumulator = new SequenceEncoder(CACHE_SIZE, log2Quantum);
+		final SequenceEncoder posAccumulator = new SequenceEncoder(CACHE_SIZE, log2Quantum);
+		
+		long docidsOffset = 0, freqsOffset = 0, posOffset = 0;
+		for (int t = 0; t < numTerms; t++) {
+			// docids are sampled with geometric gaps, frequencies are geometric, positions are spread in the documents
+			final double p = Math.min(0.5, 0.5 / Math.pow(t + 1, skew));
+			int[] d = new int[16];
+			int df = 0;
+			for (int docid = gap(rnd, p) - 1; docid < numDocs; docid += gap(rnd, p)) {
+				if (df == d.length)
+					d = Arrays.copyOf(d, 2 * df);
+				d[df++] = docid;
+			}
+			if (df == 0)
+				d[df++] = rnd.nextInt(numDocs);
+			docids[t] = d = Arrays.copyOf(d, df);
+			
+			final int[][] positions = new int[df][];
+			long sumMaxPos = 0;
+			for (int i = 0; i < df; i++) {
+				int f = 1;
+				while (f < 32 && rnd.nextBoolean())
+					f++;
+				final int docLength = docLengths[d[i]];
+				positions[i] = new int[f];
+				for (int j = 0, pos = -1; j < f; j++) {
+					final int room = docLength - 1 - pos - (f - 1 - j);
+					pos += 1 + rnd.nextInt(Math.max(1, room / (f - j)));
+					positions[i][j] = pos;
+				}
+				occurrences[t] += f;
+				sumMaxPos += positions[i][f - 1];
+			}
+			
+			docidsOffsets[t] = docidsOffset;
+			freqsOffsets[t] = freqsOffset;
+			posOffsets[t] = posOffset;
+			
+			if (partitioned)
+				partitionedDocidsAccumulator.init(df, numDocs);
+			else
+				docidsAccumulator.init(df, numDocs, false, true, log2Quantum);
+			freqsAccumulator.init(df, occurrences[t], true, false, log2Quantum);
+			posAccumulator.init(occurrences[t], df + sumMaxPos, true, false, log2Quantum);
+			
+			long lastDocid = 0;
+			for (int i = 0; i < df; i++) {
+				if (partitioned)
+					partitionedDocidsAccumulator.add(d[i] - lastDocid);
+				else
+					docidsAccumulator.add(d[i] - lastDocid);
+				lastDocid = d[i];
+				freqsAccumulator.add(positions[i].length);
+				posAccumulator.add(1 + positions[i][0]);
+				for (int j = 1; j < positions[i].length; j++)
+					posAccumulator.add(positions[i][j] - positions[i][j - 1]);
+			}
+			
+			docidsOffset += partitioned ? partitionedDocidsAccumulator.dump(docidsWriter) : docidsAccumulator.dump(docidsWriter);
+			freqsOffset += freqsAccumulator.dump(freqsWriter);
+			posOffset += posWriter.writeGamma(posAccumulator.lowerBits());
+			posOffset += posAccumulator.numberOfPointers() == 0 ? 0 : posWriter.writeNonZeroGamma(posAccumulator.pointerSize());
+			posOffset += posAccumulator.dump(posWriter);
+		}
+		docidsAccumulator.close();
+		partitionedDocidsAccumulator.close();
+		freqsAccumulator.close();
+		posAccumulator.close();
+		docidsWriter.close();
+		freqsWriter.close();
+		posWriter.close();
+		
+		docidsList = map(EliasFano.DOCID_EXTENSION);
+		freqsList = map(EliasFano.FREQ_EXTENSION);
+		posList = map(EliasFano.POS_EXTENSION);
+	}
+	
+	/** Returns a geometrically distributed gap, not smaller than 1. */
+	private static int gap(final Random rnd, final double p)
+	{
+		return 1 + (int) Math.min(Integer.MAX_VALUE / 2, Math.floor(Math.log(1 - rnd.nextDouble()) / Math.log(1 - p)));
+	}
+	
+	private File file(final String extension)
+	{
+		return new File(dir, "data" + extension);
+	}
+	
+	private LongBigList map(final String extension) throws IOException
+	{
+		try (FileInputStream in = new FileInputStream(file(extension))) {
+			return ByteBufferLongBigList.map(in.getChannel(), ByteOrder.nativeOrder(), MapMode.READ_ONLY);
+		}
+	}
+	
+	/**
+	 * Creates a posting cursor over this index, not yet positioned on any posting list.
+	 * 
+	 * @return a posting cursor over this index
+	 */
+	public EFBlockIterablePosting newPosting()
+	{
+		return partitioned 
+			? new PEFBlockIterablePosting(docidsList, freqsList, posList, documentIndex, numDocs, log2Quantum)
+			: new EFBlockIterablePosting(docidsList, freqsList, posList, documentIndex, numDocs, log2Quantum);
+	}
+	
+	/**
+	 * Positions a posting cursor at the beginning of the posting list of a term.
+	 * 
+	 * @param posting the posting cursor
+	 * @param term the term
+	 */
+	public void reset(final EFBlockIterablePosting posting, final int term)
+	{
+		posting.reset(docids[term].length, occurrences[term], docidsOffsets[term], freqsOffsets[term], posOffsets[term]);
+	}
+	
+	/**
+	 * Returns the docids of a term.
+	 * 
+	 * @param term the term
+	 * @return the docids of the term
+	 */
+	public int[] docids(final int term)
+	{
+		return docids[term];
+	}
+
+	/** Deletes the index files. */
+	@Override
+	public void close() throws IOException
+	{
+		for (File f: dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+}
@@ -19,56 +19,66 @@
  */
 package it.cnr.isti.hpclab.ef;
 
-import java.io.File;
-import java.io.FileOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.ByteOrder;
-import java.util.Iterator;
+import java.nio.channels.Channels;
 import java.util.Map.Entry;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.terrier.structures.BitIndexPointer;
-import org.terrier.structures.FSOMapFileLexiconOutputStream;
 import org.terrier.structures.Index;
 import org.terrier.structures.LexiconEntry;
 import org.terrier.structures.LexiconOutputStream;
-import org.terrier.structures.collections.FSOrderedMapFile;
 import org.terrier.structures.postings.IterablePosting;
-import org.terrier.structures.seralization.FixedSizeTextFactory;
 
 import it.cnr.isti.hpclab.ef.structures.EFLexiconEntry;
-import it.cnr.isti.hpclab.ef.util.IndexUtil;
+import it.cnr.isti.hpclab.ef.util.BitmapEncoder;
+import it.cnr.isti.hpclab.ef.util.BlockMaxEncoder;
+import it.cnr.isti.hpclab.ef.util.DirectSequenceEncoder;
 import it.cnr.isti.hpclab.ef.util.LongWordBitWriter;
+import it.cnr.isti.hpclab.ef.util.PartitionedSequenceEncoder;
 import it.cnr.isti.hpclab.ef.util.SequenceEncoder;
 
 /**
  * This is a Elias-Fano compressor focusing on lexicon and posting lists only. It compresses only a range of input termids.
- * All lexicon entries have offsets aligned to this portion of the whole index only, and the docis/freqs files are closed at the end, so such files are byte-aligned.
- * This must be taken into account when merging.
+ * The files and lexicon entries are written as placed by a {@link CompressorLayout}: at the offsets of the partition in the final files,
+ * or in files of the partition, with offsets aligned to this portion of the whole index only, to be laid out once all the partitions are compressed.
+ * The docids/freqs files are closed at the end, so such files are byte-aligned.
  */
 public class BasicCompressor extends Compressor
 {
     protected static final Logger LOGGER = LoggerFactory.getLogger(BasicCompressor.class);
     protected static final int DEFAULT_CACHE_SIZE = 64 * 1024 * 1024;
+    protected static final int DIRECT_BUFFER_SIZE = 64 * 1024;
 
     protected int LOG2QUANTUM;
+    protected int LOG2SUBQUANTUM;
+    protected int SUB_INVENTORY_THRESHOLD;
+    protected boolean PARTITIONED_DOCIDS;
+    protected double BITMAP_DENSITY;
+    protected int LOG2BLOCKMAX;
     
     protected final String dst_index_path;
     protected final String dst_index_prefix;
     
     protected final Index src_index;
     protected final int num_docs;
+    /** The layout of the partitions in the final files. */
+    protected final CompressorLayout layout;
 
-    public BasicCompressor(final Index src_index, final String dst_index_path, final String dst_index_prefix)
+    public BasicCompressor(final Index src_index, final String dst_index_path, final String dst_index_prefix, final CompressorLayout layout)
     {
-        this(src_index, dst_index_path, dst_index_prefix, Integer.parseInt(System.getProperty(EliasFano.LOG2QUANTUM, "8")));
+        this(src_index, dst_index_path, dst_index_prefix, Integer.parseInt(System.getProperty(EliasFano.LOG2QUANTUM, "8")), layout);
     }
     
-    public BasicCompressor(final Index src_index, final String dst_index_path, final String dst_index_prefix, final int log2quantum)
+    public BasicCompressor(final Index src_index, final String dst_index_path, final String dst_index_prefix, final int log2quantum, final CompressorLayout layout)
     {
         this.dst_index_path = dst_index_path;
         this.dst_index_prefix = dst_index_prefix;
+        this.layout = layout;
         
         if (Index.existsIndex(dst_index_path, dst_index_prefix)) {
             LOGGER.error("Cannot compress index while an index already exists at " + dst_index_path + ", " + dst_index_prefix);
@@ -80,6 +90,11 @@ public class BasicCompressor extends Compressor
         this.num_docs = src_index.getCollectionStatistics().getNumberOfDocuments();
         
         this.LOG2QUANTUM = log2quantum;
+        this.LOG2SUBQUANTUM = Integer.parseInt(System.getProperty(EliasFano.LOG2SUBQUANTUM, "0"));
+        this.SUB_INVENTORY_THRESHOLD = Integer.parseInt(System.getProperty(EliasFano.SUB_INVENTORY_THRESHOLD, Integer.toString(EliasFano.DEFAULT_SUB_INVENTORY_THRESHOLD)));
+        this.PARTITIONED_DOCIDS = EliasFano.PEF_CODEC.equals(System.getProperty(EliasFano.DOCID_CODEC, EliasFano.EF_CODEC));
+        this.BITMAP_DENSITY = Double.parseDouble(System.getProperty(EliasFano.BITMAP_DENSITY, "0"));
+        this.LOG2BLOCKMAX = Integer.parseInt(System.getProperty(EliasFano.LOG2BLOCKMAX, "0"));
     }
     
     @SuppressWarnings("resource")
@@ -94,24 +109,37 @@ public class BasicCompressor extends Compressor
             return;
         }
 
-        // opening src index lexicon iterator and moving to the begin termid
-        Iterator<Entry<String, LexiconEntry>> lex_iter = src_index.getLexicon().iterator();
-        Entry<String, LexiconEntry> lee = null;
-        for (int pos = -1; pos < terms.begin(); pos++)
-            lee = lex_iter.next();
+        // opening src index lexicon iterator at the begin termid
+        LexiconIterator lex_iter = lexiconIterator(src_index, terms.begin());
+        Entry<String, LexiconEntry> lee = lex_iter.next();
 
         // writers
-        LexiconOutputStream<String> los    = new FSOMapFileLexiconOutputStream(         dst_index_path + File.separator + terms.prefix() + ".lexicon" + FSOrderedMapFile.USUAL_EXTENSION, new FixedSizeTextFactory(IndexUtil.DEFAULT_MAX_TERM_LENGTH));
-        LongWordBitWriter           docids = new LongWordBitWriter(new FileOutputStream(dst_index_path + File.separator + terms.prefix() + EliasFano.DOCID_EXTENSION).getChannel(), ByteOrder.nativeOrder());
-        LongWordBitWriter           freqs  = new LongWordBitWriter(new FileOutputStream(dst_index_path + File.separator + terms.prefix() + EliasFano.FREQ_EXTENSION).getChannel(), ByteOrder.nativeOrder());
+        LexiconOutputStream<String> los    = layout.lexicon(terms);
+        LongWordBitWriter           docids = new LongWordBitWriter(layout.open(terms, EliasFano.DOCID_EXTENSION), ByteOrder.nativeOrder());
+        LongWordBitWriter           freqs  = new LongWordBitWriter(layout.open(terms, EliasFano.FREQ_EXTENSION), ByteOrder.nativeOrder());
+        DataOutputStream            blockMax = LOG2BLOCKMAX == 0 ? null : new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(layout.open(terms, EliasFano.BLOCKMAX_EXTENSION))));
         
-        // The sequence encoder to generate posting lists (docids)
-        SequenceEncoder docidsAccumulator = new SequenceEncoder( DEFAULT_CACHE_SIZE, LOG2QUANTUM );
-        // The sequence encoder to generate posting lists (freqs)
-        SequenceEncoder freqsAccumulator = new SequenceEncoder( DEFAULT_CACHE_SIZE, LOG2QUANTUM );
+        // The sequence encoder to generate posting lists (docids), written directly to the file
+        DirectSequenceEncoder docidsAccumulator = PARTITIONED_DOCIDS ? null : new DirectSequenceEncoder( docids, DIRECT_BUFFER_SIZE );
+        // The sequence encoder to generate long posting lists (docids) with a second-level inventory, whose size is known only at the end
+        SequenceEncoder subInventoryDocidsAccumulator = PARTITIONED_DOCIDS || LOG2SUBQUANTUM == 0 ? null : new SequenceEncoder( DEFAULT_CACHE_SIZE, LOG2QUANTUM );
+        // The sequence encoder to generate posting lists (docids), if partitioned
+        PartitionedSequenceEncoder partitionedDocidsAccumulator = PARTITIONED_DOCIDS ? new PartitionedSequenceEncoder() : null;
+        // The encoder to generate dense posting lists (docids) as bitmaps
+        BitmapEncoder bitmapAccumulator = new BitmapEncoder();
+        // The encoder to generate the block-max sidecar
+        BlockMaxEncoder blockMaxAccumulator = LOG2BLOCKMAX == 0 ? null : new BlockMaxEncoder( LOG2BLOCKMAX );
+        // The sequence encoder to generate posting lists (freqs), written directly to the file
+        DirectSequenceEncoder freqsAccumulator = new DirectSequenceEncoder( freqs, DIRECT_BUFFER_SIZE );
                 
-        long docidsOffset = 0;
-        long freqsOffset = 0;
+        peak_direct_bytes = CompressionReport.directMemoryUsed();
+        final long input_start = sourcePosition(src_index, lee);
+        
+        // the offsets of the lexicon entries are absolute in the files written at the offsets of the partition
+        final long docidsStart = layout.start(terms, EliasFano.DOCID_EXTENSION);
+        final long freqsStart = layout.start(terms, EliasFano.FREQ_EXTENSION);
+        long docidsOffset = docidsStart;
+        long freqsOffset = freqsStart;
         
         LexiconEntry le = null;
         IterablePosting p = null;
@@ -122,32 +150,85 @@ public class BasicCompressor extends Compressor
             le = lee.getValue();
             p = src_index.getInvertedIndex().getPostings((BitIndexPointer)lee.getValue());
             
+            // bitmaps must start at a word boundary
+            final boolean bitmap = BITMAP_DENSITY > 0 && le.getDocumentFrequency() >= BITMAP_DENSITY * num_docs;
+            if (bitmap)
+                docidsOffset += docids.append(0, (int) (-docidsOffset & (Long.SIZE - 1)));
+            final boolean subInventory = !bitmap && !PARTITIONED_DOCIDS && LOG2SUBQUANTUM != 0 && le.getDocumentFrequency() >= SUB_INVENTORY_THRESHOLD;
+            
             // los.writeNextEntry(lee.getKey(), new EFLexiconEntry(local_termid, le.getDocumentFrequency(), le.getFrequency(), le.getMaxFrequencyInDocuments(), docidsOffset, freqsOffset));
-            los.writeNextEntry(lee.getKey(), new EFLexiconEntry(le.getTermId(), le.getDocumentFrequency(), le.getFrequency(), le.getMaxFrequencyInDocuments(), docidsOffset, freqsOffset));
+            los.writeNextEntry(lee.getKey(), new EFLexiconEntry(le.getTermId(), le.getDocumentFrequency(), le.getFrequency(), le.getMaxFrequencyInDocuments(), bitmap ? docidsOffset | EFLexiconEntry.BITMAP_FLAG : docidsOffset, freqsOffset));
 
-            docidsAccumulator.init( le.getDocumentFrequency(), num_docs, false, true, LOG2QUANTUM );
+            if (bitmap)
+                bitmapAccumulator.init( le.getDocumentFrequency(), num_docs );
+            else if (PARTITIONED_DOCIDS)
+                partitionedDocidsAccumulator.init( le.getDocumentFrequency(), num_docs );
+            else if (subInventory)
+                subInventoryDocidsAccumulator.init( le.getDocumentFrequency(), num_docs, false, LOG2QUANTUM, LOG2SUBQUANTUM );
+            else
+                docidsAccumulator.init( le.getDocumentFrequency(), num_docs, false, true, LOG2QUANTUM );
             freqsAccumulator.init(  le.getDocumentFrequency(), le.getFrequency(), true, false, LOG2QUANTUM );
+            if (LOG2BLOCKMAX != 0)
+                blockMaxAccumulator.init();
             
             long lastDocid = 0;
             while (p.next() != IterablePosting.END_OF_LIST) {
-                docidsAccumulator.add( p.getId() - lastDocid );
+                if (bitmap)
+                    bitmapAccumulator.add( p.getId() - lastDocid );
+                else if (PARTITIONED_DOCIDS)
+                    partitionedDocidsAccumulator.add( p.getId() - lastDocid );
+                else if (subInventory)
+                    subInventoryDocidsAccumulator.add( p.getId() - lastDocid );
+                else
+                    docidsAccumulator.add( p.getId() - lastDocid );
                 lastDocid = p.getId();
                 freqsAccumulator.add(p.getFrequency());
+                if (LOG2BLOCKMAX != 0)
+                    blockMaxAccumulator.add( p.getId(), p.getFrequency(), p.getDocumentLength() );
+                written_postings++;
             }
                         
-            docidsOffset += docidsAccumulator.dump(docids);
-            freqsOffset  += freqsAccumulator.dump(freqs);
+            if (bitmap)
+                docidsOffset += bitmapAccumulator.dump(docids);
+            else if (PARTITIONED_DOCIDS)
+                docidsOffset += partitionedDocidsAccumulator.dump(docids);
+            else
+                docidsOffset += subInventory ? subInventoryDocidsAccumulator.dump(docids) : docidsAccumulator.dump();
+            freqsOffset  += freqsAccumulator.dump();
+            if (LOG2BLOCKMAX != 0)
+                blockMaxAccumulator.dump(blockMax);
             // local_termid += 1;
             p.close();
             
+            // the buffers of the encoders still hold the posting list just compressed
+            peak_direct_bytes = Math.max(peak_direct_bytes, CompressionReport.directMemoryUsed());
+            
             lee = lex_iter.hasNext() ? lex_iter.next() : null;
             super.written_terms++;
         } 
                 
-        docidsAccumulator.close();
+        input_bits = sourcePosition(src_index, lee) - input_start;
+        docid_bits = docidsOffset - docidsStart;
+        freq_bits = freqsOffset - freqsStart;
+        blockmax_bytes = LOG2BLOCKMAX == 0 ? 0 : blockMax.size();
+        layout.check(terms, EliasFano.DOCID_EXTENSION, docid_bits);
+        layout.check(terms, EliasFano.FREQ_EXTENSION, freq_bits);
+        layout.check(terms, EliasFano.BLOCKMAX_EXTENSION, Byte.SIZE * blockmax_bytes);
+        spilled_bytes = subInventoryDocidsAccumulator == null ? 0 : subInventoryDocidsAccumulator.spilledBytes();
+        
+        if (PARTITIONED_DOCIDS)
+            partitionedDocidsAccumulator.close();
+        else
+            docidsAccumulator.close();
+        if (subInventoryDocidsAccumulator != null)
+            subInventoryDocidsAccumulator.close();
+        bitmapAccumulator.close();
         docids.close();
         freqsAccumulator.close();
         freqs.close();
+        if (LOG2BLOCKMAX != 0)
+            blockMax.close();
         los.close();
+        lex_iter.close();
     }
 }
\ No newline at end of file
@@ -19,57 +19,70 @@
  */
 package it.cnr.isti.hpclab.ef;
 
-import java.io.File;
-import java.io.FileOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.ByteOrder;
-import java.util.Iterator;
+import java.nio.channels.Channels;
 import java.util.Map.Entry;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.terrier.structures.BitIndexPointer;
-import org.terrier.structures.FSOMapFileLexiconOutputStream;
 import org.terrier.structures.Index;
 import org.terrier.structures.LexiconEntry;
 import org.terrier.structures.LexiconOutputStream;
-import org.terrier.structures.collections.FSOrderedMapFile;
 import org.terrier.structures.postings.BlockPosting;
 import org.terrier.structures.postings.IterablePosting;
-import org.terrier.structures.seralization.FixedSizeTextFactory;
 
+import it.cnr.isti.hpclab.ef.structures.BufferedBlockPosting;
 import it.cnr.isti.hpclab.ef.structures.EFBlockLexiconEntry;
-import it.cnr.isti.hpclab.ef.util.IndexUtil;
+import it.cnr.isti.hpclab.ef.structures.EFLexiconEntry;
+import it.cnr.isti.hpclab.ef.util.BitmapEncoder;
+import it.cnr.isti.hpclab.ef.util.BlockMaxEncoder;
+import it.cnr.isti.hpclab.ef.util.DirectSequenceEncoder;
 import it.cnr.isti.hpclab.ef.util.LongWordBitWriter;
+import it.cnr.isti.hpclab.ef.util.LongWordCache;
+import it.cnr.isti.hpclab.ef.util.PartitionedSequenceEncoder;
 import it.cnr.isti.hpclab.ef.util.SequenceEncoder;
 
 /**
  * This is a Elias-Fano compressor focusing on lexicon and posting lists only. It compresses only a range of input termids.
- * All lexicon entries have offsets aligned to this portion of the whole index only, and the docis/freqs/pos files are closed at the end, so such files are byte-aligned.
- * This must be taken into account when merging.
+ * The files and lexicon entries are written as placed by a {@link CompressorLayout}: at the offsets of the partition in the final files,
+ * or in files of the partition, with offsets aligned to this portion of the whole index only, to be laid out once all the partitions are compressed.
+ * The docids/freqs/pos files are closed at the end, so such files are byte-aligned.
  */
 public class BlockCompressor extends Compressor
 {
     protected static final Logger LOGGER = LoggerFactory.getLogger(BlockCompressor.class);
     protected static final int DEFAULT_CACHE_SIZE = 64 * 1024 * 1024;
+    protected static final int DIRECT_BUFFER_SIZE = 64 * 1024;
 
     protected int LOG2QUANTUM;
+    protected int LOG2SUBQUANTUM;
+    protected int SUB_INVENTORY_THRESHOLD;
+    protected boolean PARTITIONED_DOCIDS;
+    protected double BITMAP_DENSITY;
+    protected int LOG2BLOCKMAX;
     
     protected final String dst_index_path;
     protected final String dst_index_prefix;
     
     protected final Index src_index;
     protected final int num_docs;
+    /** The layout of the partitions in the final files. */
+    protected final CompressorLayout layout;
 
-    public BlockCompressor(final Index src_index, final String dst_index_path, final String dst_index_prefix)
+    public BlockCompressor(final Index src_index, final String dst_index_path, final String dst_index_prefix, final CompressorLayout layout)
     {
-        this(src_index, dst_index_path, dst_index_prefix, Integer.parseInt(System.getProperty(EliasFano.LOG2QUANTUM, "8")));
+        this(src_index, dst_index_path, dst_index_prefix, Integer.parseInt(System.getProperty(EliasFano.LOG2QUANTUM, "8")), layout);
     }
     
-    public BlockCompressor(final Index src_index, final String dst_index_path, final String dst_index_prefix, final int log2quantum)
+    public BlockCompressor(final Index src_index, final String dst_index_path, final String dst_index_prefix, final int log2quantum, final CompressorLayout layout)
     {
         this.dst_index_path = dst_index_path;
         this.dst_index_prefix = dst_index_prefix;
+        this.layout = layout;
         
         if (Index.existsIndex(dst_index_path, dst_index_prefix)) {
             LOGGER.error("Cannot compress index while an index already exists at " + dst_index_path + ", " + dst_index_prefix);
@@ -81,6 +94,11 @@ public class BlockCompressor extends Compressor
         this.num_docs = src_index.getCollectionStatistics().getNumberOfDocuments();
         
         this.LOG2QUANTUM = log2quantum;
+        this.LOG2SUBQUANTUM = Integer.parseInt(System.getProperty(EliasFano.LOG2SUBQUANTUM, "0"));
+        this.SUB_INVENTORY_THRESHOLD = Integer.parseInt(System.getProperty(EliasFano.SUB_INVENTORY_THRESHOLD, Integer.toString(EliasFano.DEFAULT_SUB_INVENTORY_THRESHOLD)));
+        this.PARTITIONED_DOCIDS = EliasFano.PEF_CODEC.equals(System.getProperty(EliasFano.DOCID_CODEC, EliasFano.EF_CODEC));
+        this.BITMAP_DENSITY = Double.parseDouble(System.getProperty(EliasFano.BITMAP_DENSITY, "0"));
+        this.LOG2BLOCKMAX = Integer.parseInt(System.getProperty(EliasFano.LOG2BLOCKMAX, "0"));
     }
     
     @SuppressWarnings("resource")
@@ -95,27 +113,42 @@ public class BlockCompressor extends Compressor
             return;
         }
 
-        // opening src index lexicon iterator and moving to the begin termid
-        Iterator<Entry<String, LexiconEntry>> lex_iter = src_index.getLexicon().iterator();
-        Entry<String, LexiconEntry> lee = null;
-        for (int pos = -1; pos < terms.begin(); pos++)
-            lee = lex_iter.next();
+        // opening src index lexicon iterator at the begin termid
+        LexiconIterator lex_iter = lexiconIterator(src_index, terms.begin());
+        Entry<String, LexiconEntry> lee = lex_iter.next();
 
         // writers
-        LexiconOutputStream<String> los    = new FSOMapFileLexiconOutputStream(         dst_index_path + File.separator + terms.prefix() + ".lexicon" + FSOrderedMapFile.USUAL_EXTENSION, new FixedSizeTextFactory(IndexUtil.DEFAULT_MAX_TERM_LENGTH));
-        LongWordBitWriter           docids = new LongWordBitWriter(new FileOutputStream(dst_index_path + File.separator + terms.prefix() + EliasFano.DOCID_EXTENSION).getChannel(), ByteOrder.nativeOrder());
-        LongWordBitWriter           freqs  = new LongWordBitWriter(new FileOutputStream(dst_index_path + File.separator + terms.prefix() + EliasFano.FREQ_EXTENSION).getChannel(), ByteOrder.nativeOrder());
-        LongWordBitWriter           pos    = new LongWordBitWriter(new FileOutputStream(dst_index_path + File.separator + terms.prefix() + EliasFano.POS_EXTENSION).getChannel(), ByteOrder.nativeOrder());
+        LexiconOutputStream<String> los    = layout.lexicon(terms);
+        LongWordBitWriter           docids = new LongWordBitWriter(layout.open(terms, EliasFano.DOCID_EXTENSION), ByteOrder.nativeOrder());
+        LongWordBitWriter           freqs  = new LongWordBitWriter(layout.open(terms, EliasFano.FREQ_EXTENSION), ByteOrder.nativeOrder());
+        DataOutputStream            blockMax = LOG2BLOCKMAX == 0 ? null : new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(layout.open(terms, EliasFano.BLOCKMAX_EXTENSION))));
+        LongWordBitWriter           pos    = new LongWordBitWriter(layout.open(terms, EliasFano.POS_EXTENSION), ByteOrder.nativeOrder());
         
-        // The sequence encoder to generate posting lists (docids)
-        SequenceEncoder docidsAccumulator = new SequenceEncoder( DEFAULT_CACHE_SIZE, LOG2QUANTUM );
-        // The sequence encoder to generate posting lists (freqs)
-        SequenceEncoder freqsAccumulator = new SequenceEncoder( DEFAULT_CACHE_SIZE, LOG2QUANTUM );
+        // The sequence encoder to generate posting lists (docids), written directly to the file
+        DirectSequenceEncoder docidsAccumulator = PARTITIONED_DOCIDS ? null : new DirectSequenceEncoder( docids, DIRECT_BUFFER_SIZE );
+        // The sequence encoder to generate long posting lists (docids) with a second-level inventory, whose size is known only at the end
+        SequenceEncoder subInventoryDocidsAccumulator = PARTITIONED_DOCIDS || LOG2SUBQUANTUM == 0 ? null : new SequenceEncoder( DEFAULT_CACHE_SIZE, LOG2QUANTUM );
+        // The sequence encoder to generate posting lists (docids), if partitioned
+        PartitionedSequenceEncoder partitionedDocidsAccumulator = PARTITIONED_DOCIDS ? new PartitionedSequenceEncoder() : null;
+        // The encoder to generate dense posting lists (docids) as bitmaps
+        BitmapEncoder bitmapAccumulator = new BitmapEncoder();
+        // The encoder to generate the block-max sidecar
+        BlockMaxEncoder blockMaxAccumulator = LOG2BLOCKMAX == 0 ? null : new BlockMaxEncoder( LOG2BLOCKMAX );
+        // The sequence encoder to generate posting lists (freqs), written directly to the file
+        DirectSequenceEncoder freqsAccumulator = new DirectSequenceEncoder( freqs, DIRECT_BUFFER_SIZE );
         // The sequence encoder to generate posting lists (positions)
-        SequenceEncoder posAccumulator = new SequenceEncoder( DEFAULT_CACHE_SIZE, LOG2QUANTUM );
+        DirectSequenceEncoder posAccumulator = new DirectSequenceEncoder( pos, DIRECT_BUFFER_SIZE );
+        // The spool of the gamma-coded position gaps read in the single pass, encoded once their upper bound is known
+        LongWordCache posSpool = new LongWordCache( DEFAULT_CACHE_SIZE, "positions" );
                 
-        long docidsOffset = 0;
-        long freqsOffset = 0;
+        peak_direct_bytes = CompressionReport.directMemoryUsed();
+        final long input_start = sourcePosition(src_index, lee);
+        
+        // the offsets of the lexicon entries are absolute in the files written at the offsets of the partition
+        final long docidsStart = layout.start(terms, EliasFano.DOCID_EXTENSION);
+        final long freqsStart = layout.start(terms, EliasFano.FREQ_EXTENSION);
+        long docidsOffset = docidsStart;
+        long freqsOffset = freqsStart;
         long posOffset = 0;
         
         LexiconEntry le = null;
@@ -127,19 +160,58 @@ public class BlockCompressor extends Compressor
             le = lee.getValue();
             p = src_index.getInvertedIndex().getPostings((BitIndexPointer)le);
             
-            docidsAccumulator.init( le.getDocumentFrequency(), num_docs, false, true, LOG2QUANTUM );
+            // bitmaps must start at a word boundary
+            final boolean bitmap = BITMAP_DENSITY > 0 && le.getDocumentFrequency() >= BITMAP_DENSITY * num_docs;
+            if (bitmap)
+                docidsOffset += docids.append(0, (int) (-docidsOffset & (Long.SIZE - 1)));
+            final boolean subInventory = !bitmap && !PARTITIONED_DOCIDS && LOG2SUBQUANTUM != 0 && le.getDocumentFrequency() >= SUB_INVENTORY_THRESHOLD;
+            
+            if (bitmap)
+                bitmapAccumulator.init( le.getDocumentFrequency(), num_docs );
+            else if (PARTITIONED_DOCIDS)
+                partitionedDocidsAccumulator.init( le.getDocumentFrequency(), num_docs );
+            else if (subInventory)
+                subInventoryDocidsAccumulator.init( le.getDocumentFrequency(), num_docs, false, LOG2QUANTUM, LOG2SUBQUANTUM );
+            else
+                docidsAccumulator.init( le.getDocumentFrequency(), num_docs, false, true, LOG2QUANTUM );
             freqsAccumulator.init(  le.getDocumentFrequency(), le.getFrequency(), true, false, LOG2QUANTUM );
+            if (LOG2BLOCKMAX != 0)
+                blockMaxAccumulator.init();
             
-            long sumMaxPos = 0; // in the first pass, we need to compute the upper bound to encode positions
+            long sumMaxPos = 0; // while spooling the positions, we need to compute the upper bound to encode them
             long occurrency = 0; // Do not trust le.getFrequency() because of block max limit!
+            posSpool.clear();
             
             long lastDocid = 0;
             while (p.next() != IterablePosting.END_OF_LIST) {
-                docidsAccumulator.add( p.getId() - lastDocid );
+                if (bitmap)
+                    bitmapAccumulator.add( p.getId() - lastDocid );
+                else if (PARTITIONED_DOCIDS)
+                    partitionedDocidsAccumulator.add( p.getId() - lastDocid );
+                else if (subInventory)
+                    subInventoryDocidsAccumulator.add( p.getId() - lastDocid );
+                else
+                    docidsAccumulator.add( p.getId() - lastDocid );
                 lastDocid = p.getId();
                 freqsAccumulator.add(p.getFrequency());
-                sumMaxPos += ((BlockPosting)p).getPositions()[((BlockPosting)p).getPositions().length - 1];
-                occurrency += ((BlockPosting)p).getPositions().length;
+                if (LOG2BLOCKMAX != 0)
+                    blockMaxAccumulator.add( p.getId(), p.getFrequency(), p.getDocumentLength() );
+                final int[] positions;
+                final int numPositions;
+                if (p instanceof BufferedBlockPosting) {
+                    positions = ((BufferedBlockPosting)p).getPositionBuffer();
+                    numPositions = ((BufferedBlockPosting)p).getPositionCount();
+                } else {
+                    // Terrier's own BlockIterablePosting, if it precedes the buffered one of this repository on the classpath
+                    positions = ((BlockPosting)p).getPositions();
+                    numPositions = positions.length;
+                }
+                posSpool.writeNonZeroGamma(1 + positions[0]);
+                for (int i = 1; i < numPositions; i++)
+                    posSpool.writeNonZeroGamma(positions[i] - positions[i-1]);
+                sumMaxPos += positions[numPositions - 1];
+                occurrency += numPositions;
+                written_postings++;
             }
             p.close();
             
@@ -147,42 +219,66 @@ public class BlockCompressor extends Compressor
                 throw new IllegalStateException("Lexicon term occurencies (" + le.getFrequency() + ") different form positions-counted occurrencies (" + occurrency + ")");
 
             // los.writeNextEntry(lee.getKey(), new EFBlockLexiconEntry(local_termid, le.getDocumentFrequency(), le.getFrequency(), le.getMaxFrequencyInDocuments(), docidsOffset, freqsOffset, posOffset));
-            los.writeNextEntry(lee.getKey(), new EFBlockLexiconEntry(le.getTermId(), le.getDocumentFrequency(), le.getFrequency(), le.getMaxFrequencyInDocuments(), docidsOffset, freqsOffset, posOffset));
-            // After computing sumMaxPos, we re-scan the posting list to encode the positions
+            los.writeNextEntry(lee.getKey(), new EFBlockLexiconEntry(le.getTermId(), le.getDocumentFrequency(), le.getFrequency(), le.getMaxFrequencyInDocuments(), bitmap ? docidsOffset | EFLexiconEntry.BITMAP_FLAG : docidsOffset, freqsOffset, posOffset));
+            // After computing sumMaxPos, we encode the spooled positions, without reading the posting list again
             posAccumulator.init(le.getFrequency(), le.getDocumentFrequency() + sumMaxPos, true, false, LOG2QUANTUM );
+            // Firstly we write decoding limits info, since the positions are written directly after them
+            posOffset += pos.writeGamma(posAccumulator.lowerBits());
+            posOffset += posAccumulator.numberOfPointers() == 0 ? 0 : pos.writeNonZeroGamma( posAccumulator.pointerSize() );
             
-            p = src_index.getInvertedIndex().getPostings((BitIndexPointer)le);
+            posSpool.rewind();
+            for (long i = 0; i < occurrency; i++)
+                posAccumulator.add(posSpool.readNonZeroGamma());
+            written_positions += occurrency;
             
-            int[] positions = null;
-            while (p.next() != IterablePosting.END_OF_LIST) {
-                positions = ((BlockPosting)p).getPositions();
-                posAccumulator.add(1 + positions[0]);
-                for (int i = 1; i < positions.length; i++)
-                    posAccumulator.add(positions[i] - positions[i-1]);
-            }
-            p.close();
-            
-            docidsOffset += docidsAccumulator.dump(docids);
-            freqsOffset  += freqsAccumulator.dump(freqs);
+            if (bitmap)
+                docidsOffset += bitmapAccumulator.dump(docids);
+            else if (PARTITIONED_DOCIDS)
+                docidsOffset += partitionedDocidsAccumulator.dump(docids);
+            else
+                docidsOffset += subInventory ? subInventoryDocidsAccumulator.dump(docids) : docidsAccumulator.dump();
+            freqsOffset  += freqsAccumulator.dump();
+            if (LOG2BLOCKMAX != 0)
+                blockMaxAccumulator.dump(blockMax);
             
-            // Firstly we write decoding limits info
-            posOffset += pos.writeGamma(posAccumulator.lowerBits());
-            posOffset += posAccumulator.numberOfPointers() == 0 ? 0 : pos.writeNonZeroGamma( posAccumulator.pointerSize() );
-            // Secondly we dump the EF representation of the position encoding
-            posOffset += posAccumulator.dump(pos);
+            // Secondly we complete the EF representation of the position encoding
+            posOffset += posAccumulator.dump();
 
             // local_termid += 1;
         
+            // the buffers of the encoders still hold the posting list just compressed
+            peak_direct_bytes = Math.max(peak_direct_bytes, CompressionReport.directMemoryUsed());
+            
             lee = lex_iter.hasNext() ? lex_iter.next() : null;
             super.written_terms++;
         } 
                 
-        docidsAccumulator.close();
+        input_bits = sourcePosition(src_index, lee) - input_start;
+        docid_bits = docidsOffset - docidsStart;
+        freq_bits = freqsOffset - freqsStart;
+        pos_bits = posOffset;
+        blockmax_bytes = LOG2BLOCKMAX == 0 ? 0 : blockMax.size();
+        layout.check(terms, EliasFano.DOCID_EXTENSION, docid_bits);
+        layout.check(terms, EliasFano.FREQ_EXTENSION, freq_bits);
+        layout.check(terms, EliasFano.BLOCKMAX_EXTENSION, Byte.SIZE * blockmax_bytes);
+        spilled_bytes = (subInventoryDocidsAccumulator == null ? 0 : subInventoryDocidsAccumulator.spilledBytes()) + posSpool.spilledBytes();
+        
+        if (PARTITIONED_DOCIDS)
+            partitionedDocidsAccumulator.close();
+        else
+            docidsAccumulator.close();
+        if (subInventoryDocidsAccumulator != null)
+            subInventoryDocidsAccumulator.close();
+        bitmapAccumulator.close();
         docids.close();
         freqsAccumulator.close();
         freqs.close();
+        if (LOG2BLOCKMAX != 0)
+            blockMax.close();
         posAccumulator.close();
+        posSpool.close();
         pos.close();
         los.close();
+        lex_iter.close();
     }
 }
\ No newline at end of file
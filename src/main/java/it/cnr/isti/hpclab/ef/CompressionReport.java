@@ -0,0 +1,263 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.terrier.structures.collections.FSOrderedMapFile;
+
+/**
+ * The statistics of an Elias-Fano compression, per partition and per phase, written as a JSON report next to the compressed index.
+ * Partitions are added concurrently by the compression threads, phases sequentially by the {@link Generator}.
+ */
+public class CompressionReport 
+{
+    /** The extensions of the files of the compressed index listed in the report. */
+    private static final String[] EXTENSIONS = { 
+        EliasFano.DOCID_EXTENSION, EliasFano.FREQ_EXTENSION, EliasFano.POS_EXTENSION, EliasFano.BLOCKMAX_EXTENSION, 
+        EliasFano.SIZE_EXTENSION, ".lexicon" + FSOrderedMapFile.USUAL_EXTENSION };
+
+    private final String dst_index_path;
+    private final String dst_index_prefix;
+    private final int num_threads;
+    private final int num_partitions;
+    private final boolean with_pos;
+    
+    /** The statistics of the compressed partitions. */
+    private final List<Map<String, Object>> partitions = new ArrayList<>();
+    /** The elapsed milliseconds of the phases. */
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    /** The peak direct memory usage observed so far, in bytes. */
+    private final AtomicLong peak_direct_bytes = new AtomicLong();
+    /** The size of the source posting lists, in bytes. */
+    private long input_bytes = 0;
+
+    public CompressionReport(final String dst_index_path, final String dst_index_prefix, final int num_threads, final boolean with_pos)
+    {
+        this(dst_index_path, dst_index_prefix, num_threads, num_threads, with_pos);
+    }
+
+    public CompressionReport(final String dst_index_path, final String dst_index_prefix, final int num_threads, final int num_partitions, final boolean with_pos)
+    {
+        this.dst_index_path = dst_index_path;
+        this.dst_index_prefix = dst_index_prefix;
+        this.num_threads = num_threads;
+        this.num_partitions = num_partitions;
+        this.with_pos = with_pos;
+    }
+    
+    /** The pool of the direct buffers of the JVM, null if it is not available. */
+    private static final BufferPoolMXBean DIRECT_POOL = directPool();
+    
+    private static BufferPoolMXBean directPool()
+    {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class))
+            if ("direct".equals(pool.getName()))
+                return pool;
+        return null;
+    }
+    
+    /**
+     * Returns the direct memory currently used by the JVM, i.e., by the memory buffers of the encoder caches.
+     * Cheap enough to be sampled after every posting list.
+     * 
+     * @return the direct memory currently used, in bytes
+     */
+    public static long directMemoryUsed()
+    {
+        return DIRECT_POOL == null ? 0 : DIRECT_POOL.getMemoryUsed();
+    }
+    
+    /**
+     * Updates the peak direct memory usage with the current one.
+     */
+    public void sampleDirectMemory()
+    {
+        peak_direct_bytes.accumulateAndGet(directMemoryUsed(), Math::max);
+    }
+
+    /**
+     * Adds the statistics of a compressed partition.
+     * 
+     * @param terms the partition
+     * @param compressor the compressor of the partition
+     * @param millis the elapsed milliseconds of the compression
+     * @throws IOException if something goes wrong
+     */
+    public void addPartition(final TermPartition terms, final Compressor compressor, final long millis) throws IOException
+    {
+        peak_direct_bytes.accumulateAndGet(compressor.peak_direct_bytes, Math::max);
+        
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("id", terms.id());
+        stats.put("begin", terms.begin());
+        stats.put("end", terms.end());
+        stats.put("estimated_cost", terms.cost());
+        stats.put("millis", millis);
+        // The partition is written in the final files, so its output size comes from the bits written by the compressor
+        stats.put("output_bytes", (compressor.docid_bits + compressor.freq_bits + compressor.pos_bits + Byte.SIZE - 1) / Byte.SIZE + compressor.blockmax_bytes);
+        put(stats, compressor.written_terms, compressor.written_postings, compressor.written_positions, millis,
+            compressor.input_bits / Byte.SIZE, compressor.docid_bits, compressor.freq_bits, compressor.pos_bits, 
+            compressor.blockmax_bytes, compressor.spilled_bytes);
+        stats.put("peak_direct_bytes", compressor.peak_direct_bytes);
+        synchronized (partitions) {
+            partitions.add(stats);
+        }
+    }
+    
+    /**
+     * Adds the elapsed time of a phase.
+     * 
+     * @param name the name of the phase
+     * @param millis the elapsed milliseconds of the phase
+     */
+    public void addPhase(final String name, final long millis)
+    {
+        phases.put(name, millis);
+    }
+    
+    /**
+     * Sets the size of the source posting lists, i.e., of the source inverted file.
+     * 
+     * @param input_bytes the size of the source posting lists, in bytes
+     */
+    public void setInputBytes(final long input_bytes)
+    {
+        this.input_bytes = input_bytes;
+    }
+    
+    private static void put(final Map<String, Object> stats, final long terms, final long postings, final long positions, final long millis, final long input_bytes, 
+                            final long docid_bits, final long freq_bits, final long pos_bits, final long blockmax_bytes, final long spilled_bytes)
+    {
+        stats.put("terms", terms);
+        stats.put("postings", postings);
+        stats.put("positions", positions);
+        stats.put("postings_per_second", millis == 0 ? 0 : postings * 1000.0 / millis);
+        stats.put("input_bytes", input_bytes);
+        stats.put("docid_bits", docid_bits);
+        stats.put("freq_bits", freq_bits);
+        stats.put("position_bits", pos_bits);
+        stats.put("bits_per_docid", postings == 0 ? 0 : (double) docid_bits / postings);
+        stats.put("bits_per_freq", postings == 0 ? 0 : (double) freq_bits / postings);
+        stats.put("bits_per_position", positions == 0 ? 0 : (double) pos_bits / positions);
+        stats.put("blockmax_bytes", blockmax_bytes);
+        stats.put("spilled_bytes", spilled_bytes);
+    }
+    
+    /**
+     * Writes the report, as <tt>prefix.report.json</tt> in the directory of the compressed index.
+     * 
+     * @throws IOException if something goes wrong
+     */
+    public void write() throws IOException
+    {
+        final Map<String, Object> totals = new LinkedHashMap<>();
+        long terms = 0, postings = 0, positions = 0, docid_bits = 0, freq_bits = 0, pos_bits = 0, blockmax_bytes = 0, spilled_bytes = 0;
+        for (Map<String, Object> stats : partitions) {
+            terms += (Long) stats.get("terms");
+            postings += (Long) stats.get("postings");
+            positions += (Long) stats.get("positions");
+            docid_bits += (Long) stats.get("docid_bits");
+            freq_bits += (Long) stats.get("freq_bits");
+            pos_bits += (Long) stats.get("position_bits");
+            blockmax_bytes += (Long) stats.get("blockmax_bytes");
+            spilled_bytes += (Long) stats.get("spilled_bytes");
+        }
+        long millis = 0;
+        for (long phase : phases.values())
+            millis += phase;
+        totals.put("millis", millis);
+        long output_bytes = 0;
+        for (String extension : EXTENSIONS) {
+            final Path file = Paths.get(dst_index_path, dst_index_prefix + extension);
+            if (Files.exists(file))
+                output_bytes += Files.size(file);
+        }
+        totals.put("output_bytes", output_bytes);
+        put(totals, terms, postings, positions, millis, input_bytes, docid_bits, freq_bits, pos_bits, blockmax_bytes, spilled_bytes);
+        totals.put("peak_direct_bytes", peak_direct_bytes.get());
+        
+        final Map<String, Object> files = new LinkedHashMap<>();
+        for (String extension : EXTENSIONS) {
+            final Path file = Paths.get(dst_index_path, dst_index_prefix + extension);
+            if (Files.exists(file))
+                files.put(dst_index_prefix + extension, Files.size(file));
+        }
+        
+        final Map<String, Object> settings = new LinkedHashMap<>();
+        settings.put("threads", num_threads);
+        settings.put("partitions", num_partitions);
+        settings.put("positions", with_pos);
+        settings.put(EliasFano.DOCID_CODEC, System.getProperty(EliasFano.DOCID_CODEC, EliasFano.EF_CODEC));
+        settings.put(EliasFano.SIZES_CODEC, System.getProperty(EliasFano.SIZES_CODEC, EliasFano.GAMMA_CODEC));
+        settings.put(EliasFano.LEXICON_CODEC, System.getProperty(EliasFano.LEXICON_CODEC, EliasFano.MAP_CODEC));
+        settings.put(EliasFano.LOG2QUANTUM, System.getProperty(EliasFano.LOG2QUANTUM, "8"));
+        settings.put(EliasFano.MEMORY_BUDGET, System.getProperty(EliasFano.MEMORY_BUDGET, "0"));
+        
+        partitions.sort((p1, p2) -> Integer.compare((Integer) p1.get("id"), (Integer) p2.get("id")));
+        
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(dst_index_path, dst_index_prefix + EliasFano.REPORT_EXTENSION), StandardCharsets.UTF_8))) {
+            out.println("{");
+            out.println("  \"index\": " + json(new File(dst_index_path, dst_index_prefix).getPath()) + ",");
+            out.println("  \"settings\": " + json(settings) + ",");
+            out.println("  \"phases\": " + json(phases) + ",");
+            out.println("  \"partitions\": [");
+            for (int i = 0; i < partitions.size(); i++)
+                out.println("    " + json(partitions.get(i)) + (i < partitions.size() - 1 ? "," : ""));
+            out.println("  ],");
+            out.println("  \"total\": " + json(totals) + ",");
+            out.println("  \"files\": " + json(files));
+            out.println("}");
+        }
+    }
+    
+    /** Returns the JSON representation of a string, a number, a boolean or a map of them. */
+    private static String json(final Object value)
+    {
+        if (value instanceof Map) {
+            final StringBuilder sb = new StringBuilder("{");
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+                if (sb.length() > 1)
+                    sb.append(", ");
+                sb.append(json(e.getKey().toString())).append(": ").append(json(e.getValue()));
+            }
+            return sb.append("}").toString();
+        }
+        if (value instanceof Double)
+            return String.format(Locale.ROOT, "%.3f", (Double) value);
+        if (value instanceof Number || value instanceof Boolean)
+            return value.toString();
+        return "\"" + value.toString().replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
@@ -1,14 +1,53 @@
 package it.cnr.isti.hpclab.ef;
 
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Map.Entry;
 
+import org.apache.hadoop.io.Text;
+
+import org.terrier.structures.BitIndexPointer;
+import org.terrier.structures.Index;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.Lexicon;
 import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.collections.FSOrderedMapFile;
+import org.terrier.structures.seralization.FixedSizeWriteableFactory;
 
 public abstract class Compressor 
 {
     protected int written_terms = 0;
     
+    // statistics of the compressed partition, collected in the compression report
+    
+    /** The number of postings written. */
+    protected long written_postings = 0;
+    /** The number of positions written. */
+    protected long written_positions = 0;
+    /** The size of the source posting lists, in bits. */
+    protected long input_bits = 0;
+    /** The size of the docid lists, in bits. */
+    protected long docid_bits = 0;
+    /** The size of the frequency lists, in bits. */
+    protected long freq_bits = 0;
+    /** The size of the position lists, in bits. */
+    protected long pos_bits = 0;
+    /** The size of the block-max sidecar, in bytes. */
+    protected long blockmax_bytes = 0;
+    /** The number of bytes spilled on disk by the encoders. */
+    protected long spilled_bytes = 0;
+    /** The peak direct memory usage observed during compression, sampled after every posting list, in bytes. */
+    protected long peak_direct_bytes = 0;
+    
     abstract void compress(final TermPartition terms) throws IOException;
     
     /*
@@ -22,5 +61,110 @@ public abstract class Compressor
     {
         return (lee == null || written_terms >= len);
     }
+    
+    /**
+     * Returns an iterator over the entries of the lexicon of a source index starting from the given position, 
+     * rather than walking the lexicon from its first term.
+     * If the lexicon is a map file on disk, the iterator seeks once to the entry at the position, then reads the following entries sequentially; 
+     * otherwise, every entry is read by its position.
+     */
+    @SuppressWarnings("unchecked")
+    static LexiconIterator lexiconIterator(final Index src_index, final int begin) throws IOException
+    {
+        final Lexicon<String> lexicon = src_index.getLexicon();
+        if (src_index instanceof IndexOnDisk && src_index.hasIndexStructure("lexicon-keyfactory") && src_index.hasIndexStructure("lexicon-valuefactory")) {
+            final File file = new File(((IndexOnDisk) src_index).getPath(), ((IndexOnDisk) src_index).getPrefix() + ".lexicon" + FSOrderedMapFile.USUAL_EXTENSION);
+            if (file.exists())
+                return new LexiconIterator(lexicon.numberOfEntries(), begin, file, 
+                                           (FixedSizeWriteableFactory<Text>) src_index.getIndexStructure("lexicon-keyfactory"), 
+                                           (FixedSizeWriteableFactory<LexiconEntry>) src_index.getIndexStructure("lexicon-valuefactory"));
+        }
+        return new LexiconIterator(lexicon, begin);
+    }
+    
+    /**
+     * An iterator over the entries of a source lexicon from a given position, reading them sequentially from the map file of the lexicon, 
+     * or by their position from the lexicon.
+     */
+    static final class LexiconIterator implements Iterator<Entry<String, LexiconEntry>>, Closeable
+    {
+        private final int end;
+        private int pos;
+        
+        /** The lexicon, if the entries are read by their position, null otherwise. */
+        private final Lexicon<String> lexicon;
+        /** The map file of the lexicon, positioned on the next entry, if the entries are read sequentially, null otherwise. */
+        private final DataInputStream in;
+        private final FixedSizeWriteableFactory<Text> keyFactory;
+        private final FixedSizeWriteableFactory<LexiconEntry> valueFactory;
+        
+        LexiconIterator(final Lexicon<String> lexicon, final int begin)
+        {
+            this.end = lexicon.numberOfEntries();
+            this.pos = begin;
+            this.lexicon = lexicon;
+            this.in = null;
+            this.keyFactory = null;
+            this.valueFactory = null;
+        }
+        
+        @SuppressWarnings("resource")
+        LexiconIterator(final int end, final int begin, final File file, final FixedSizeWriteableFactory<Text> keyFactory, final FixedSizeWriteableFactory<LexiconEntry> valueFactory) throws IOException
+        {
+            this.end = end;
+            this.pos = begin;
+            this.lexicon = null;
+            this.keyFactory = keyFactory;
+            this.valueFactory = valueFactory;
+            // the entries of a map file have a fixed size, and there is no header
+            final FileInputStream fis = new FileInputStream(file);
+            fis.getChannel().position((long) begin * (keyFactory.getSize() + valueFactory.getSize()));
+            this.in = new DataInputStream(new BufferedInputStream(fis));
+        }
+        
+        @Override
+        public boolean hasNext()
+        {
+            return pos < end;
+        }
+
+        @Override
+        public Entry<String, LexiconEntry> next()
+        {
+            if (pos >= end)
+                throw new NoSuchElementException();
+            if (in == null)
+                return lexicon.getIthLexiconEntry(pos++);
+            try {
+                final Text key = keyFactory.newInstance();
+                key.readFields(in);
+                final LexiconEntry value = valueFactory.newInstance();
+                value.readFields(in);
+                pos++;
+                return new AbstractMap.SimpleImmutableEntry<String, LexiconEntry>(key.toString(), value);
+            } catch (final IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        
+        @Override
+        public void close() throws IOException
+        {
+            if (in != null)
+                in.close();
+        }
+    }
+    
+    /**
+     * Returns the position in bits of the posting list of a source lexicon entry, 
+     * or the length in bits of the source inverted file if the entry is null, i.e., past the last term.
+     */
+    static long sourcePosition(final Index src_index, final Entry<String, LexiconEntry> lee) throws IOException
+    {
+        if (lee == null)
+            return Byte.SIZE * Files.size(Paths.get(((IndexOnDisk) src_index).getPath(), ((IndexOnDisk) src_index).getPrefix() + ".inverted.bf"));
+        final BitIndexPointer pointer = (BitIndexPointer) lee.getValue();
+        return Byte.SIZE * pointer.getOffset() + pointer.getOffsetBits();
+    }
 
 }
@@ -0,0 +1,347 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.function.Function;
+
+import org.apache.hadoop.io.Text;
+
+import org.terrier.structures.Index;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.LexiconOutputStream;
+import org.terrier.structures.collections.FSOrderedMapFile;
+import org.terrier.structures.seralization.FixedSizeTextFactory;
+import org.terrier.structures.seralization.FixedSizeWriteableFactory;
+
+import it.cnr.isti.hpclab.ef.Compressor.LexiconIterator;
+import it.cnr.isti.hpclab.ef.util.BlockMaxEncoder;
+import it.cnr.isti.hpclab.ef.util.DirectSequenceEncoder;
+import it.cnr.isti.hpclab.ef.util.IndexUtil;
+import it.cnr.isti.hpclab.ef.structures.EFBlockLexiconEntry;
+import it.cnr.isti.hpclab.ef.structures.EFLexiconEntry;
+import it.cnr.isti.hpclab.ef.structures.FSOMapFileAppendLexiconOutputStream;
+
+/**
+ * Lays out the compressed partitions in the files of the final index, replacing the sequential merge of the partitions.
+ * 
+ * Before compression, the sizes of the data not depending on the postings are computed from the source lexicon: 
+ * the lexicon entries have a fixed size, the Elias-Fano docid and frequency lists have sizes depending only on 
+ * their number of postings, the number of documents and the frequency of their term (see {@link DirectSequenceEncoder#size(long, long, boolean, boolean, int)}), 
+ * and the block-max sidecar has a fixed size per block. The offset of a partition in every such file is the sum of the sizes of the 
+ * preceding partitions, and every partition writes at its offsets in the final files, opened by {@link #open(TermPartition, String)}, 
+ * and its lexicon entries in place, through {@link #lexicon(TermPartition)}.
+ * 
+ * The data whose size depends on the postings (positions, and docids if some lists are partitioned, bitmaps padded to a word boundary 
+ * or with a second-level inventory) is compressed in files of each partition, with offsets relative to the partition.
+ * Once all the partitions are compressed, {@link #prepare()} renames the files of the first partition as the final files, 
+ * extended to their final sizes, and every other partition is copied at its offsets by {@link #apply(TermPartition)}, 
+ * shifting the offsets of its lexicon entries in place, independently of the others, so that the partitions can be laid out in parallel.
+ */
+class CompressorLayout implements Function<TermPartition,TermPartition>
+{
+    private static final String LEXICON_EXTENSION = ".lexicon" + FSOrderedMapFile.USUAL_EXTENSION;
+    
+    private final String dst_index_path;
+    private final String dst_index_prefix;
+    private final boolean with_pos;
+    
+    /** The compressed partitions, by id. */
+    private final TermPartition[] partitions;
+    private final FixedSizeWriteableFactory<Text> key_factory;
+    private final FixedSizeWriteableFactory<LexiconEntry> value_factory;
+    /** The size in bytes of a lexicon entry. */
+    private final int entry_size;
+    
+    /** The sizes in bits of the partitions in the files written at their final offsets, by extension and id. */
+    private final Map<String, long[]> sizes = new HashMap<>();
+    /** The offsets in bytes of the partitions in the final files, by extension and id, plus the final sizes. */
+    private final Map<String, long[]> offsets = new HashMap<>();
+    /** The extensions of the files compressed in files of each partition, then copied. */
+    private final List<String> copied = new ArrayList<>();
+    
+    /**
+     * Constructor. Computes the offsets of the partitions in the final files written during compression, and creates these files.
+     * 
+     * @param src_index_path the path of the source index
+     * @param src_index_prefix the prefix of the source index
+     * @param dst_index_path the path of the final index
+     * @param dst_index_prefix the prefix of the final index
+     * @param with_pos true if positions are compressed
+     * @param partitions the partitions to compress, whose ids are their positions in the array
+     * @throws IOException if something goes wrong in reading the source lexicon or in creating the final files
+     */
+    public CompressorLayout(final String src_index_path, final String src_index_prefix, final String dst_index_path, final String dst_index_prefix, 
+                            final boolean with_pos, final TermPartition[] partitions) throws IOException
+    {
+        this.dst_index_path = dst_index_path;
+        this.dst_index_prefix = dst_index_prefix;
+        this.with_pos = with_pos;
+        this.partitions = partitions;
+        for (int id = 0; id < partitions.length; id++)
+            if (partitions[id].id() != id)
+                throw new IllegalArgumentException("Partition " + partitions[id] + " is at position " + id);
+        
+        key_factory = new FixedSizeTextFactory(IndexUtil.DEFAULT_MAX_TERM_LENGTH);
+        value_factory = (!with_pos) ? new EFLexiconEntry.Factory() : new EFBlockLexiconEntry.Factory();
+        entry_size = key_factory.getSize() + value_factory.getSize();
+        
+        // the same settings of the compressors
+        final int log2Quantum = Integer.parseInt(System.getProperty(EliasFano.LOG2QUANTUM, "8"));
+        final int log2SubQuantum = Integer.parseInt(System.getProperty(EliasFano.LOG2SUBQUANTUM, "0"));
+        final int subInventoryThreshold = Integer.parseInt(System.getProperty(EliasFano.SUB_INVENTORY_THRESHOLD, Integer.toString(EliasFano.DEFAULT_SUB_INVENTORY_THRESHOLD)));
+        final boolean partitionedDocids = EliasFano.PEF_CODEC.equals(System.getProperty(EliasFano.DOCID_CODEC, EliasFano.EF_CODEC));
+        final double bitmapDensity = Double.parseDouble(System.getProperty(EliasFano.BITMAP_DENSITY, "0"));
+        final int log2BlockMax = Integer.parseInt(System.getProperty(EliasFano.LOG2BLOCKMAX, "0"));
+        
+        final long[] docid_bits = new long[partitions.length];
+        final long[] freq_bits = new long[partitions.length];
+        final long[] blockmax_bits = new long[partitions.length];
+        boolean variable_docids = partitionedDocids;
+        
+        IndexOnDisk src_index = Index.createIndex(src_index_path, src_index_prefix);
+        if (Index.getLastIndexLoadError() != null)
+            throw new IllegalArgumentException("Error loading index: " + Index.getLastIndexLoadError());
+        final int num_docs = src_index.getCollectionStatistics().getNumberOfDocuments();
+        try (LexiconIterator lex_iter = Compressor.lexiconIterator(src_index, 0)) {
+            int id = 0;
+            for (int termid = 0; lex_iter.hasNext(); termid++) {
+                final LexiconEntry le = lex_iter.next().getValue();
+                while (termid >= partitions[id].end())
+                    id++;
+                final int df = le.getDocumentFrequency();
+                final boolean bitmap = bitmapDensity > 0 && df >= bitmapDensity * num_docs;
+                final boolean subInventory = !bitmap && log2SubQuantum != 0 && df >= subInventoryThreshold;
+                variable_docids |= bitmap || subInventory;
+                docid_bits[id] += DirectSequenceEncoder.size(df, num_docs, false, true, log2Quantum);
+                freq_bits[id] += DirectSequenceEncoder.size(df, le.getFrequency(), true, false, log2Quantum);
+                if (log2BlockMax != 0)
+                    blockmax_bits[id] += BlockMaxEncoder.numberOfBlocks(df, log2BlockMax) * BlockMaxEncoder.ENTRY_SIZE * Long.SIZE;
+            }
+        }
+        src_index.close();
+        
+        if (variable_docids)
+            copied.add(EliasFano.DOCID_EXTENSION);
+        else
+            place(EliasFano.DOCID_EXTENSION, docid_bits, true);
+        place(EliasFano.FREQ_EXTENSION, freq_bits, true);
+        if (log2BlockMax != 0)
+            place(EliasFano.BLOCKMAX_EXTENSION, blockmax_bits, false);
+        if (with_pos)
+            copied.add(EliasFano.POS_EXTENSION);
+        
+        final long[] lexicon_offsets = new long[partitions.length + 1];
+        for (int id = 0; id < partitions.length; id++)
+            lexicon_offsets[id + 1] = (long) partitions[id].end() * entry_size;
+        create(LEXICON_EXTENSION, lexicon_offsets);
+    }
+    
+    /**
+     * Computes the offsets of the partitions in a final file from their sizes, and creates the file.
+     * 
+     * @param extension the extension of the file
+     * @param bits the sizes in bits of the partitions
+     * @param longwords true if the file is written by a bit writer, which ends every partition with a whole longword
+     */
+    private void place(final String extension, final long[] bits, final boolean longwords) throws IOException
+    {
+        final long[] offsets = new long[partitions.length + 1];
+        for (int id = 0; id < partitions.length; id++)
+            offsets[id + 1] = offsets[id] + (longwords ? (bits[id] / Long.SIZE + 1) * Long.BYTES : bits[id] / Byte.SIZE);
+        sizes.put(extension, bits);
+        create(extension, offsets);
+    }
+    
+    private void create(final String extension, final long[] offsets) throws IOException
+    {
+        this.offsets.put(extension, offsets);
+        // positional writes do not write past the end of a file
+        try (RandomAccessFile out = new RandomAccessFile(Paths.get(dst_index_path, dst_index_prefix + extension).toFile(), "rw")) {
+            out.setLength(offsets[partitions.length]);
+        }
+    }
+    
+    /**
+     * Returns whether a partition writes the file with the given extension at its offset in the final file, 
+     * rather than in a file of its own.
+     * 
+     * @param extension the extension of the file
+     * @return true if the offsets of the partitions in the final file are known before compression
+     */
+    public boolean placed(final String extension)
+    {
+        return sizes.containsKey(extension);
+    }
+    
+    /**
+     * Opens the file with the given extension where a partition writes, positioned at the offset of the partition:
+     * either the final file, or a file of the partition, to be copied in the final file once all the partitions are compressed.
+     * 
+     * @param terms the partition
+     * @param extension the extension of the file
+     * @return the channel of the file, to be closed by the partition
+     * @throws IOException if something goes wrong
+     */
+    public FileChannel open(final TermPartition terms, final String extension) throws IOException
+    {
+        if (!placed(extension))
+            return FileChannel.open(Paths.get(dst_index_path, terms.prefix() + extension), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        return FileChannel.open(Paths.get(dst_index_path, dst_index_prefix + extension), StandardOpenOption.WRITE).position(offsets.get(extension)[terms.id()]);
+    }
+    
+    /**
+     * Returns the offset in bits of a partition in the file with the given extension opened by {@link #open(TermPartition, String)},
+     * i.e., the offset of its first list in its lexicon entries.
+     * 
+     * @param terms the partition
+     * @param extension the extension of the file
+     * @return the offset in bits of the partition
+     */
+    public long start(final TermPartition terms, final String extension)
+    {
+        return placed(extension) ? Byte.SIZE * offsets.get(extension)[terms.id()] : 0;
+    }
+    
+    /**
+     * Checks that a partition has written as many bits as computed before compression in a file written at its offset.
+     * 
+     * @param terms the partition
+     * @param extension the extension of the file
+     * @param bits the number of bits written by the partition
+     */
+    public void check(final TermPartition terms, final String extension, final long bits)
+    {
+        if (placed(extension) && sizes.get(extension)[terms.id()] != bits)
+            throw new IllegalStateException("Partition " + terms + " wrote " + bits + " bits in " + extension + " instead of " + sizes.get(extension)[terms.id()]);
+    }
+    
+    /**
+     * Opens the output of the lexicon entries of a partition, at their position in the final lexicon.
+     * 
+     * @param terms the partition
+     * @return the output of the lexicon entries
+     * @throws IOException if something goes wrong
+     */
+    public LexiconOutputStream<String> lexicon(final TermPartition terms) throws IOException
+    {
+        return new FSOMapFileAppendLexiconOutputStream(dst_index_path + File.separator + dst_index_prefix + LEXICON_EXTENSION, key_factory, value_factory, 
+                                                       (long) terms.begin() * entry_size);
+    }
+    
+    /**
+     * Returns whether some files are compressed in files of each partition, to be laid out once all the partitions are compressed.
+     * 
+     * @return true if some files are copied
+     */
+    public boolean copies()
+    {
+        return !copied.isEmpty();
+    }
+    
+    /**
+     * Computes the offsets of the partitions in the copied files, from the sizes of their files, and renames the files 
+     * of the first partition as the final files, extended to their final sizes.
+     * Must be called once all the partitions are compressed, before laying out the other partitions.
+     * 
+     * @throws IOException if something goes wrong
+     */
+    public void prepare() throws IOException
+    {
+        for (String extension : copied) {
+            final long[] offsets = new long[partitions.length + 1];
+            for (int id = 0; id < partitions.length; id++)
+                offsets[id + 1] = offsets[id] + Files.size(Paths.get(dst_index_path, partitions[id].prefix() + extension));
+            Files.move(Paths.get(dst_index_path, partitions[0].prefix() + extension), Paths.get(dst_index_path, dst_index_prefix + extension));
+            create(extension, offsets);
+        }
+    }
+
+    /**
+     * Copies the files of a partition, other than the first one, at its offsets in the final files, 
+     * and shifts the offsets of its lexicon entries in the copied files.
+     * 
+     * @param terms the partition
+     * @return the partition
+     */
+    @Override
+    public TermPartition apply(TermPartition terms) 
+    {
+        final int id = terms.id();
+        if (id == 0 || !copies())
+            return terms;
+        
+        try {
+            // Copy positions and variable docids (low level): bitmaps stay aligned, as every file is made of longwords
+            for (String extension : copied)
+                copy(terms.prefix() + extension, dst_index_prefix + extension, offsets.get(extension)[id]);
+            
+            // Rewrite the lexicon entries of the partition in place, while shifting their offsets: every entry is read before being overwritten
+            final File lexicon = new File(dst_index_path, dst_index_prefix + LEXICON_EXTENSION);
+            final long docid_shift = placed(EliasFano.DOCID_EXTENSION) ? 0 : Byte.SIZE * offsets.get(EliasFano.DOCID_EXTENSION)[id];
+            final long pos_shift = with_pos ? Byte.SIZE * offsets.get(EliasFano.POS_EXTENSION)[id] : 0;
+            LexiconOutputStream<String> los = lexicon(terms);
+            try (LexiconIterator lex_iter = new LexiconIterator(terms.end(), terms.begin(), lexicon, key_factory, value_factory)) {
+                while (lex_iter.hasNext()) {
+                    Entry<String, LexiconEntry> lee = lex_iter.next();
+                    EFLexiconEntry le = (EFLexiconEntry) lee.getValue();
+                    le.docidOffset += docid_shift;
+                    if (with_pos)
+                        ((EFBlockLexiconEntry) le).posOffset += pos_shift;
+                    los.writeNextEntry(lee.getKey(), le);
+                }
+            }
+            los.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return terms;
+    }
+    
+    private void copy(final String prefix_in, final String prefix_out, final long offset) throws IOException 
+    {
+        Path in_file  = Paths.get(this.dst_index_path + File.separator + prefix_in);
+        Path out_file = Paths.get(this.dst_index_path + File.separator + prefix_out);
+
+        try (FileChannel out = FileChannel.open(out_file, StandardOpenOption.WRITE)) {
+            try (FileChannel in = FileChannel.open(in_file, StandardOpenOption.READ)) {
+                long l = in.size();
+                for (long p = 0; p < l; )
+                    p += out.transferFrom(in, offset + p, l - p);
+            }
+        }
+        
+        Files.delete(in_file);
+    }
+}
@@ -29,14 +29,23 @@ class CompressorMapper implements Function<TermPartition,TermPartition>
 {
     private final String src_index_path, src_index_prefix, dst_index_path, dst_index_prefix;
     private final boolean with_pos;
+    private final CompressorLayout layout;
+    private final CompressionReport report;
     
-    public CompressorMapper(final String src_index_path, final String src_index_prefix, final String dst_index_path, final String dst_index_prefix, final boolean with_pos) 
+    public CompressorMapper(final String src_index_path, final String src_index_prefix, final String dst_index_path, final String dst_index_prefix, final boolean with_pos, final CompressorLayout layout) 
+    {
+        this(src_index_path, src_index_prefix, dst_index_path, dst_index_prefix, with_pos, layout, null);
+    }
+    
+    public CompressorMapper(final String src_index_path, final String src_index_prefix, final String dst_index_path, final String dst_index_prefix, final boolean with_pos, final CompressorLayout layout, final CompressionReport report) 
     {
         this.src_index_path = src_index_path;
         this.src_index_prefix = src_index_prefix;
         this.dst_index_path = dst_index_path;
         this.dst_index_prefix = dst_index_prefix;
         this.with_pos = with_pos;
+        this.layout = layout;
+        this.report = report;
     }
 
     @Override
@@ -45,10 +54,13 @@ class CompressorMapper implements Function<TermPartition,TermPartition>
         String this_prefix = dst_index_prefix + "_partition_" + terms.id();
         terms.prefix(this_prefix);
         Compressor bc = (!with_pos) 
-            ? new BasicCompressor(Index.createIndex(src_index_path, src_index_prefix), dst_index_path, dst_index_prefix)
-            : new BlockCompressor(Index.createIndex(src_index_path, src_index_prefix), dst_index_path, dst_index_prefix);
+            ? new BasicCompressor(Index.createIndex(src_index_path, src_index_prefix), dst_index_path, dst_index_prefix, layout)
+            : new BlockCompressor(Index.createIndex(src_index_path, src_index_prefix), dst_index_path, dst_index_prefix, layout);
         try {
+            final long starttime = System.currentTimeMillis();
             bc.compress(terms);
+            if (report != null)
+                report.addPartition(terms, bc, System.currentTimeMillis() - starttime);
         } catch (IOException e) {
             e.printStackTrace();
         }
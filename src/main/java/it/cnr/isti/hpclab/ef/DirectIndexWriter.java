@@ -33,12 +33,12 @@ import org.terrier.structures.collections.FSArrayFile;
 import org.terrier.utility.Files;
 
 import it.cnr.isti.hpclab.ef.Invert2Direct.Posting;
+import it.cnr.isti.hpclab.ef.util.DirectSequenceEncoder;
 import it.cnr.isti.hpclab.ef.util.LongWordBitWriter;
-import it.cnr.isti.hpclab.ef.util.SequenceEncoder;
 
 public class DirectIndexWriter 
 {
-	protected static final int DEFAULT_CACHE_SIZE = 64 * 1024 * 1024;
+	protected static final int DIRECT_BUFFER_SIZE = 64 * 1024;
 	public static final int LOG2QUANTUM = 8;
 	public static final int ENTRY_SIZE = Long.BYTES + Long.BYTES + Integer.BYTES;
 
@@ -52,9 +52,9 @@ public class DirectIndexWriter
 	protected final DocumentIndex doi;
 
 	// The sequence encoder to generate posting lists (termids)
-	protected final SequenceEncoder termidsAccumulator = new SequenceEncoder( DEFAULT_CACHE_SIZE, LOG2QUANTUM );
+	protected final DirectSequenceEncoder termidsAccumulator;
 	// The sequence encoder to generate posting lists (freqs)
-	protected final SequenceEncoder freqsAccumulator   = new SequenceEncoder( DEFAULT_CACHE_SIZE, LOG2QUANTUM );
+	protected final DirectSequenceEncoder freqsAccumulator;
 
 	protected long termidsOffset = 0;
 	protected long freqsOffset = 0;
@@ -66,6 +66,8 @@ public class DirectIndexWriter
 	    dos     = new DataOutputStream(Files.writeFileStream(index.getPath() + File.separator + index.getPrefix() + ".direct" + FSArrayFile.USUAL_EXTENSION));			
 		termids = new LongWordBitWriter(new FileOutputStream(index.getPath() + File.separator + index.getPrefix() + ".direct" + EliasFano.DOCID_EXTENSION).getChannel(), ByteOrder.nativeOrder());
 		freqs   = new LongWordBitWriter(new FileOutputStream(index.getPath() + File.separator + index.getPrefix() + ".direct" + EliasFano.FREQ_EXTENSION).getChannel(),  ByteOrder.nativeOrder());
+		termidsAccumulator = new DirectSequenceEncoder( termids, DIRECT_BUFFER_SIZE );
+		freqsAccumulator   = new DirectSequenceEncoder( freqs, DIRECT_BUFFER_SIZE );
 		
 		this.upperBoundTermids = index.getCollectionStatistics().getNumberOfUniqueTerms();
 		this.doi = index.getDocumentIndex();
@@ -89,8 +91,8 @@ public class DirectIndexWriter
 				freqsAccumulator.add(p.tf);
 			}
 			
-			termidsOffset += termidsAccumulator.dump(termids);		
-			freqsOffset  += freqsAccumulator.dump(freqs);
+			termidsOffset += termidsAccumulator.dump();		
+			freqsOffset  += freqsAccumulator.dump();
 		}
 	}
 	
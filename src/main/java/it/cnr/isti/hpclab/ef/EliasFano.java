@@ -36,21 +36,112 @@ public final class EliasFano {
     public static final String FREQ_EXTENSION  = ".freqs";
     /** Filename constant. */
     public static final String POS_EXTENSION  = ".positions";
+    /** Filename constant. */
+    public static final String BLOCKMAX_EXTENSION  = ".blockmax";
 
     /** Filename constant. */
     public static final String USUAL_EXTENSION = ".ef";
     /** Filename constant. */
     public static final String SIZE_EXTENSION  = ".sizes";
+    /** Filename constant. */
+    public static final String REPORT_EXTENSION  = ".report.json";
+    /** Filename constant, following the name of the lexicon structure. */
+    public static final String HASH_EXTENSION  = ".mph";
+    /** Filename constant, following the name of the lexicon structure. */
+    public static final String VALUES_EXTENSION  = ".values";
+    /** Filename constant, following the name of the lexicon structure. */
+    public static final String TERMS_EXTENSION  = ".terms";
 
     /**
      * Constant used in the index properties file to specify the log2 of
      * the quantum used in elias-fano encoding.
      */
     public static final String LOG2QUANTUM  = "log2Quantum";
+    /**
+     * Constant used in the index properties file to specify the log2 of
+     * the quantum used for the second-level skip pointers of long docid lists 
+     * (0, the default, means no second-level skip pointers).
+     */
+    public static final String LOG2SUBQUANTUM  = "log2SubQuantum";
+    /**
+     * Constant used in the index properties file to specify the minimum 
+     * number of postings of a docid list with second-level skip pointers.
+     */
+    public static final String SUB_INVENTORY_THRESHOLD  = "subInventoryThreshold";
+    /**
+     * Default minimum number of postings of a docid list with second-level skip pointers.
+     */
+    public static final int DEFAULT_SUB_INVENTORY_THRESHOLD = 1 << 16;
+    /**
+     * Constant used in the index properties file to specify the encoding of docid lists,
+     * either {@link #EF_CODEC} (the default) or {@link #PEF_CODEC}.
+     */
+    public static final String DOCID_CODEC  = "docidCodec";
+    /**
+     * Docid lists encoded with Elias-Fano.
+     */
+    public static final String EF_CODEC  = "ef";
+    /**
+     * Docid lists encoded with partitioned Elias-Fano.
+     */
+    public static final String PEF_CODEC  = "pef";
+    /**
+     * Constant used in the index properties file to specify the encoding of document lengths,
+     * either {@link #GAMMA_CODEC} (the default) or {@link #PACKED_CODEC}.
+     */
+    public static final String SIZES_CODEC  = "sizesCodec";
+    /**
+     * Document lengths gamma-encoded, and decoded in memory when the index is loaded.
+     */
+    public static final String GAMMA_CODEC  = "gamma";
+    /**
+     * Document lengths bit-packed in blocks, and memory-mapped when the index is loaded.
+     */
+    public static final String PACKED_CODEC  = "packed";
+    /**
+     * Constant used in the index properties file to specify how terms are looked up in the lexicon,
+     * either {@link #MAP_CODEC} (the default) or {@link #HASH_CODEC}.
+     */
+    public static final String LEXICON_CODEC  = "lexiconCodec";
+    /**
+     * Terms looked up with a binary search over the lexicon map file.
+     */
+    public static final String MAP_CODEC  = "map";
+    /**
+     * Terms looked up with a minimal perfect hash function, memory-mapped when the index is loaded.
+     */
+    public static final String HASH_CODEC  = "hash";
+    /**
+     * Constant used in the index properties file to specify the minimum density 
+     * (document frequency over number of documents) of a docid list stored as a bitmap 
+     * (0, the default, means no bitmaps).
+     */
+    public static final String BITMAP_DENSITY  = "bitmapDensity";
+    /**
+     * Constant used in the index properties file to specify the log2 of
+     * the number of postings of a block of the block-max sidecar 
+     * (0, the default, means no block-max sidecar).
+     */
+    public static final String LOG2BLOCKMAX  = "log2BlockMax";
     /**
      * Constant used in the index properties file to specify the byte order.
      */
     public static final String BYTEORDER    = "ByteOrder";
+    /**
+     * System property enabling the traversal counters of the posting readers (false, the default, means no counting);
+     * it is read once, when the counters are first used.
+     */
+    public static final String TRAVERSAL_COUNTERS = "traversalCounters";
+    /**
+     * System property specifying the off-heap memory budget of the buffers of the encoders during compression, 
+     * in megabytes (0, the default, means no budget).
+     */
+    public static final String MEMORY_BUDGET = "memoryBudget";
+    /**
+     * System property specifying the directory of the files spilled by the buffers of the encoders during compression
+     * (the default is the temporary directory of the JVM).
+     */
+    public static final String SPILL_DIRECTORY = "spillDirectory";
 
     /**
      * Constant used in the index properties file to specify if the index
@@ -20,6 +20,8 @@
 package it.cnr.isti.hpclab.ef;
 
 import it.cnr.isti.hpclab.ef.structures.EFDocumentIndex;
+import it.cnr.isti.hpclab.ef.structures.EFHashLexicon;
+import it.cnr.isti.hpclab.ef.util.BufferPool;
 
 import java.io.File;
 import java.io.IOException;
@@ -27,10 +29,17 @@ import java.nio.ByteOrder;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Options;
@@ -52,7 +61,12 @@ public class Generator
 {
     protected static Logger LOGGER = LoggerFactory.getLogger(Generator.class);
     
+    /** The off-heap memory needed by a compression thread, bounding the parallelism degree within the memory budget. */
+    public static final long THREAD_MEMORY = 64L * 1024 * 1024;
+    
     private final int num_terms;
+    private final String src_index_path;
+    private final String src_index_prefix;
     
     public static class Command extends CLIParsedCLITool
     {
@@ -60,7 +74,13 @@ public class Generator
         protected Options getOptions() {
             Options opts = super.getOptions();
             opts.addOption("p", "parallelism", true, "parallelism degree (number of threads)");
+            opts.addOption("P", "partitions", true, "number of term partitions (at least the number of threads)");
             opts.addOption("b", "blocks", false, "use positions in new index");
+            opts.addOption("c", "codec", true, "encoding of docid lists (ef or pef)");
+            opts.addOption("l", "lengths", true, "encoding of document lengths (gamma or packed)");
+            opts.addOption("L", "lexicon", true, "lookup of lexicon terms (map or hash)");
+            opts.addOption("M", "memory", true, "off-heap memory budget of the encoder buffers, in megabytes");
+            opts.addOption("S", "spill", true, "directory of the files spilled by the encoder buffers");
             return opts;
         }
 
@@ -69,7 +89,19 @@ public class Generator
             Args args = new Args();
             if (line.hasOption("p"))
                 args.parallelism = line.getOptionValue("p");
+            if (line.hasOption("P"))
+                args.partitions = line.getOptionValue("P");
             args.with_pos = line.hasOption("b");
+            if (line.hasOption("c"))
+                args.codec = line.getOptionValue("c");
+            if (line.hasOption("l"))
+                args.lengths = line.getOptionValue("l");
+            if (line.hasOption("L"))
+                args.lexicon = line.getOptionValue("L");
+            if (line.hasOption("M"))
+                args.memory = line.getOptionValue("M");
+            if (line.hasOption("S"))
+                args.spill = line.getOptionValue("S");
             
             args.index = ApplicationSetup.TERRIER_INDEX_PATH + "/" + ApplicationSetup.TERRIER_INDEX_PREFIX + ".properties";
             
@@ -122,11 +154,29 @@ public class Generator
         @Option(name = "-p", metaVar = "[Number]", required = false, usage = "Parallelism degree")
         public String parallelism;
         
+        @Option(name = "-partitions", metaVar = "[Number]", required = false, usage = "Number of term partitions, at least the parallelism degree")
+        public String partitions;
+        
         @Option(name = "-b", required = false, usage = "Compress positions with Elias-Fano")
         public boolean with_pos = false;
         
         @Option(name = "-s", required = false, usage = "Create soft links to meta index files")
         public boolean soft_link = true;
+        
+        @Option(name = "-codec", metaVar = "[ef|pef]", required = false, usage = "Encoding of docid lists (Elias-Fano or partitioned Elias-Fano)")
+        public String codec;
+        
+        @Option(name = "-lengths", metaVar = "[gamma|packed]", required = false, usage = "Encoding of document lengths (gamma-encoded or bit-packed)")
+        public String lengths;
+        
+        @Option(name = "-lexicon", metaVar = "[map|hash]", required = false, usage = "Lookup of lexicon terms (binary search over the map file or minimal perfect hash function)")
+        public String lexicon;
+        
+        @Option(name = "-memory", metaVar = "[Number]", required = false, usage = "Off-heap memory budget of the encoder buffers, in megabytes")
+        public String memory;
+        
+        @Option(name = "-spill", metaVar = "[Directory]", required = false, usage = "Directory of the files spilled by the encoder buffers")
+        public String spill;
     }
     
     public static void main(String[] argv)
@@ -154,38 +204,93 @@ public class Generator
         final String dst_index_path = args.path;
         final String dst_index_prefix = args.prefix;
         
+        if (args.codec != null) {
+            if (!EliasFano.EF_CODEC.equals(args.codec) && !EliasFano.PEF_CODEC.equals(args.codec)) {
+                LOGGER.error("Unknown docid codec " + args.codec + ", expected " + EliasFano.EF_CODEC + " or " + EliasFano.PEF_CODEC);
+                return -1;
+            }
+            System.setProperty(EliasFano.DOCID_CODEC, args.codec);
+        }
+        if (args.lengths != null) {
+            if (!EliasFano.GAMMA_CODEC.equals(args.lengths) && !EliasFano.PACKED_CODEC.equals(args.lengths)) {
+                LOGGER.error("Unknown document length codec " + args.lengths + ", expected " + EliasFano.GAMMA_CODEC + " or " + EliasFano.PACKED_CODEC);
+                return -1;
+            }
+            System.setProperty(EliasFano.SIZES_CODEC, args.lengths);
+        }
+        if (args.lexicon != null) {
+            if (!EliasFano.MAP_CODEC.equals(args.lexicon) && !EliasFano.HASH_CODEC.equals(args.lexicon)) {
+                LOGGER.error("Unknown lexicon codec " + args.lexicon + ", expected " + EliasFano.MAP_CODEC + " or " + EliasFano.HASH_CODEC);
+                return -1;
+            }
+            System.setProperty(EliasFano.LEXICON_CODEC, args.lexicon);
+        }
+        
+        if (args.memory != null)
+            System.setProperty(EliasFano.MEMORY_BUDGET, args.memory);
+        if (args.spill != null)
+            System.setProperty(EliasFano.SPILL_DIRECTORY, args.spill);
+        final long memory_budget = Long.parseLong(System.getProperty(EliasFano.MEMORY_BUDGET, "0")) * 1024 * 1024;
+        try {
+            final String spill_directory = System.getProperty(EliasFano.SPILL_DIRECTORY);
+            BufferPool.configure(memory_budget, spill_directory == null ? null : new File(spill_directory));
+        } catch (IllegalArgumentException e) {
+            LOGGER.error(e.getMessage());
+            return -1;
+        }
+        
+        // Every thread needs its share of the memory budget, if any
+        final int max_threads = (memory_budget == 0)
+                                        ? Runtime.getRuntime().availableProcessors()
+                                        : (int) Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), memory_budget / THREAD_MEMORY));
         final int num_threads = ( (args.parallelism != null && Integer.parseInt(args.parallelism) > 1) 
-                                        ? Math.min(ForkJoinPool.commonPool().getParallelism(), Integer.parseInt(args.parallelism)) 
+                                        ? Math.min(max_threads, Integer.parseInt(args.parallelism)) 
                                         : 1) ;
                 
-        LOGGER.info("Started " + Generator.class.getSimpleName() + " with parallelism " + num_threads + " (out of " + ForkJoinPool.commonPool().getParallelism() + " max parallelism available)");
-        LOGGER.warn("Multi-threaded Elias-Fano compression is experimental - caution advised due to threads competing for available memory! YMMV.");
+        final int num_partitions = (args.partitions != null)
+                                        ? Math.max(num_threads, Integer.parseInt(args.partitions))
+                                        : num_threads;
+                
+        LOGGER.info("Started " + Generator.class.getSimpleName() + " with parallelism " + num_threads + " (out of " + max_threads + " max parallelism available) and " + num_partitions + " partitions");
+        if (memory_budget == 0 && num_threads > 1)
+            LOGGER.warn("Multi-threaded Elias-Fano compression without a memory budget is experimental - caution advised due to threads competing for available memory! YMMV.");
 
         long starttime = System.currentTimeMillis();
         
         try {
             Generator generator = new Generator(src_index_path, src_index_prefix, dst_index_path, dst_index_prefix);
             
-            TermPartition[] partitions = generator.partition(num_threads);
-            CompressorMapper mapper = new CompressorMapper(src_index_path, src_index_prefix, dst_index_path, dst_index_prefix, args.with_pos);
-            CompressorReducer merger = new CompressorReducer(dst_index_path, dst_index_prefix, args.with_pos);
+            TermPartition[] partitions = generator.partition(num_partitions, args.with_pos);
+            CompressionReport report = new CompressionReport(dst_index_path, dst_index_prefix, num_threads, partitions.length, args.with_pos);
+            report.setInputBytes(Files.size(Paths.get(src_index_path, src_index_prefix + ".inverted.bf")));
+            // The offsets of the partitions in the final files are computed from the source lexicon, for the data whose size does not depend on the postings
+            CompressorLayout layout = new CompressorLayout(src_index_path, src_index_prefix, dst_index_path, dst_index_prefix, args.with_pos, partitions);
+            CompressorMapper mapper = new CompressorMapper(src_index_path, src_index_prefix, dst_index_path, dst_index_prefix, args.with_pos, layout, report);
+            
+            long plantime = System.currentTimeMillis();
+            report.addPhase("planning", plantime - starttime);
 
             System.out.println("Parallel bitfile compression starting...");
-            // First we perform reassignment in parallel
-            TermPartition[] tmp_partitions = Arrays.stream(partitions).parallel().map(mapper).sorted().toArray(TermPartition[]::new);
+            // First we perform reassignment in parallel, on exactly num_threads threads: the partitions are submitted
+            // from the most expensive one, and every thread takes the next partition as soon as it is idle
+            TermPartition[] tmp_partitions = execute(partitions, mapper, num_threads);
             
             long compresstime = System.currentTimeMillis();
-            System.out.println("Parallel bitfile compression completed after " + (compresstime - starttime)/1000 + " seconds");
+            System.out.println("Parallel bitfile compression completed after " + (compresstime - plantime)/1000 + " seconds");
+            report.addPhase("compression", compresstime - plantime);
+            report.sampleDirectMemory();
 
-            System.out.println("Sequential merging starting...");
-            // Then we perform merging sequentially in a PRECISE order (if the order is wrong, everything is wrong)
-            TermPartition last_partition = Arrays.stream(tmp_partitions).reduce(merger).get();
-            
-            long mergetime = System.currentTimeMillis();
-            System.out.println("Sequential merging completed after " + (mergetime - compresstime)/1000 + " seconds");
+            if (layout.copies()) {
+                System.out.println("Parallel layout starting...");
+                // Then the files of every partition whose size depends on the postings are copied at its offsets in the final files, 
+                // known from the sizes of the preceding partitions
+                layout.prepare();
+                execute(tmp_partitions, layout, num_threads);
+            }
             
-            // Eventually, we rename the last merge
-            IndexUtil.renameIndex(args.path, last_partition.prefix(), dst_index_path, dst_index_prefix);
+            long layouttime = System.currentTimeMillis();
+            System.out.println("Parallel layout completed after " + (layouttime - compresstime)/1000 + " seconds");
+            report.addPhase("layout", layouttime - compresstime);
             
             IndexOnDisk src_index = Index.createIndex(src_index_path, src_index_prefix);
             if (Index.getLastIndexLoadError() != null) {
@@ -199,7 +304,10 @@ public class Generator
                 throw new IllegalArgumentException("Error loading index: " + Index.getLastIndexLoadError());
             }
             
-            EFDocumentIndex.write((org.terrier.structures.DocumentIndex) src_index.getDocumentIndex(), dst_index_path + File.separator + dst_index_prefix + ".sizes");
+            if (EliasFano.PACKED_CODEC.equals(System.getProperty(EliasFano.SIZES_CODEC, EliasFano.GAMMA_CODEC)))
+                EFDocumentIndex.writePacked((org.terrier.structures.DocumentIndex) src_index.getDocumentIndex(), dst_index_path + File.separator + dst_index_prefix + EliasFano.SIZE_EXTENSION);
+            else
+                EFDocumentIndex.write((org.terrier.structures.DocumentIndex) src_index.getDocumentIndex(), dst_index_path + File.separator + dst_index_prefix + EliasFano.SIZE_EXTENSION);
             // IndexUtil.copyStructure(src_index, dst_index, "document", "document");
             
             if (args.soft_link) {
@@ -222,23 +330,35 @@ public class Generator
             }
 
             long copytime = System.currentTimeMillis();
-            System.out.println("Copying other index structures completed after " + (copytime - mergetime)/1000 + " seconds");
+            System.out.println("Copying other index structures completed after " + (copytime - layouttime)/1000 + " seconds");
+            report.addPhase("copy", copytime - layouttime);
             
             writeProperties(src_index, dst_index, args.with_pos);
             LexiconBuilder.optimise(dst_index, "lexicon");
+            if (EliasFano.HASH_CODEC.equals(System.getProperty(EliasFano.LEXICON_CODEC, EliasFano.MAP_CODEC))) {
+                // the map file is still written, the hash function is built over its terms
+                EFHashLexicon.write(dst_index, "lexicon");
+                dst_index.setIndexProperty("index.lexicon.class", EFHashLexicon.class.getName());
+                dst_index.flush();
+            }
 
             long opttime = System.currentTimeMillis();
             System.out.println("Lexicon optimization completed after " + (opttime - copytime)/1000 + " seconds");
+            report.addPhase("lexicon_optimisation", opttime - copytime);
+            report.write();
 
             dst_index.close();
             src_index.close();
             
             System.out.println("Parallel Elias-Fano compression completed after " + (opttime - starttime)/1000 + " seconds, using "  + num_threads + " threads");
             System.out.println("Final index is at " + args.path + " with prefix " + args.prefix);
+            System.out.println("Compression report is at " + Paths.get(args.path, args.prefix + EliasFano.REPORT_EXTENSION));
             return 0;
         } catch (Exception e) {
             e.printStackTrace();
             return -1;
+        } finally {
+            BufferPool.clear();
         }
     }
     
@@ -272,6 +392,13 @@ public class Generator
         dst_index.setIndexProperty("num.Tokens",    Long.toString(src_index.getCollectionStatistics().getNumberOfTokens()));
         
         dst_index.setIndexProperty(EliasFano.LOG2QUANTUM, Integer.toString( Integer.parseInt(System.getProperty(EliasFano.LOG2QUANTUM, "8"))));
+        dst_index.setIndexProperty(EliasFano.LOG2SUBQUANTUM, Integer.toString( Integer.parseInt(System.getProperty(EliasFano.LOG2SUBQUANTUM, "0"))));
+        dst_index.setIndexProperty(EliasFano.SUB_INVENTORY_THRESHOLD, Integer.toString( Integer.parseInt(System.getProperty(EliasFano.SUB_INVENTORY_THRESHOLD, Integer.toString(EliasFano.DEFAULT_SUB_INVENTORY_THRESHOLD)))));
+        dst_index.setIndexProperty(EliasFano.BITMAP_DENSITY, Double.toString( Double.parseDouble(System.getProperty(EliasFano.BITMAP_DENSITY, "0"))));
+        dst_index.setIndexProperty(EliasFano.LOG2BLOCKMAX, Integer.toString( Integer.parseInt(System.getProperty(EliasFano.LOG2BLOCKMAX, "0"))));
+        dst_index.setIndexProperty(EliasFano.DOCID_CODEC, System.getProperty(EliasFano.DOCID_CODEC, EliasFano.EF_CODEC));
+        dst_index.setIndexProperty(EliasFano.SIZES_CODEC, System.getProperty(EliasFano.SIZES_CODEC, EliasFano.GAMMA_CODEC));
+        dst_index.setIndexProperty(EliasFano.LEXICON_CODEC, System.getProperty(EliasFano.LEXICON_CODEC, EliasFano.MAP_CODEC));
         dst_index.setIndexProperty(EliasFano.BYTEORDER,   ByteOrder.nativeOrder().toString());
         
         dst_index.setIndexProperty("max.term.length",Integer.toString(ApplicationSetup.MAX_TERM_LENGTH));
@@ -330,6 +457,8 @@ public class Generator
             throw new IllegalArgumentException("Error loading index: " + Index.getLastIndexLoadError());
         }
         this.num_terms = src_index.getCollectionStatistics().getNumberOfUniqueTerms();
+        this.src_index_path = src_index_path;
+        this.src_index_prefix = src_index_prefix;
         src_index.close();
         LOGGER.info("Input index contains " + this.num_terms + " terms");
         
@@ -342,8 +471,46 @@ public class Generator
         }        
     }
 
-    public TermPartition[] partition(final int num_threads)
+    /**
+     * Splits the terms of the source index in partitions of about the same estimated compression cost.
+     * 
+     * @param num_partitions the number of partitions
+     * @param with_pos true if positions are compressed
+     * @return the partitions
+     */
+    public TermPartition[] partition(final int num_partitions, final boolean with_pos) throws IOException
+    {
+        IndexOnDisk src_index = Index.createIndex(src_index_path, src_index_prefix);
+        if (Index.getLastIndexLoadError() != null) {
+            throw new IllegalArgumentException("Error loading index: " + Index.getLastIndexLoadError());
+        }
+        final TermPartition[] partitions = TermPartition.split(src_index.getLexicon(), num_partitions, with_pos);
+        src_index.close();
+        for (TermPartition partition : partitions)
+            LOGGER.info("Partition " + partition);
+        return partitions;
+    }
+    
+    /**
+     * Processes the partitions (i.e., compresses or lays them out) on a pool of the given number of threads, 
+     * submitting them in decreasing order of estimated cost.
+     * 
+     * @return the processed partitions, in increasing order of id
+     */
+    private static TermPartition[] execute(final TermPartition[] partitions, final Function<TermPartition, TermPartition> task, final int num_threads) throws InterruptedException, ExecutionException
     {
-        return TermPartition.split(num_terms, num_threads);
+        final List<Callable<TermPartition>> tasks = Arrays.stream(partitions)
+                                                          .sorted((t1, t2) -> Long.compare(t2.cost(), t1.cost()))
+                                                          .map(terms -> (Callable<TermPartition>) () -> task.apply(terms))
+                                                          .collect(Collectors.toList());
+        final ForkJoinPool pool = new ForkJoinPool(num_threads);
+        try {
+            final List<TermPartition> res = new ArrayList<>(partitions.length);
+            for (Future<TermPartition> future : pool.invokeAll(tasks))
+                res.add(future.get());
+            return res.stream().sorted().toArray(TermPartition[]::new);
+        } finally {
+            pool.shutdown();
+        }
     }
 }
\ No newline at end of file
@@ -20,6 +20,13 @@
 
 package it.cnr.isti.hpclab.ef;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.terrier.structures.Lexicon;
+import org.terrier.structures.LexiconEntry;
+
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
@@ -36,17 +43,31 @@ public class TermPartition implements Comparable<TermPartition>
     
     private final int begin;
     private final int end;
+    /** The estimated cost of compressing the partition. */
+    private final long cost;
+    
+    /**
+     * The estimated cost of compressing a term, besides the cost of its postings and positions,
+     * i.e., of opening its posting list and writing its lexicon entry and encoder metadata.
+     */
+    public static final long TERM_COST = 16;
     
     private TermPartition(final int begin, final int end, final int id) 
+    {
+        this(begin, end, id, end - begin);
+    }
+    
+    private TermPartition(final int begin, final int end, final int id, final long cost) 
     {
         this.begin = begin;
         this.end = end;
         this.id = id;
+        this.cost = cost;
     }
     
     @Override
     public String toString() {
-        return id + " [" + begin + "," + end + "] (" + prefix + ")";
+        return id + " [" + begin + "," + end + "] cost " + cost + " (" + prefix + ")";
     }
 
     /*
@@ -74,6 +95,62 @@ public class TermPartition implements Comparable<TermPartition>
         }
         return res;
     }
+    
+    /**
+     * Returns the estimated cost of compressing a term, proportional to the number of its postings and, 
+     * if positions are compressed, of its positions.
+     * 
+     * @param le the lexicon entry of the term
+     * @param with_pos true if positions are compressed
+     * @return the estimated cost of compressing the term
+     */
+    public static long cost(final LexiconEntry le, final boolean with_pos)
+    {
+        return TERM_COST + le.getDocumentFrequency() + (with_pos ? le.getFrequency() : 0);
+    }
+    
+    /**
+     * Splits the terms of a lexicon in contiguous partitions of about the same estimated compression cost,
+     * rather than of the same number of terms: as postings follow a Zipf distribution, a few partitions
+     * would otherwise hold most of the postings. Every partition holds at least one term, so that
+     * fewer partitions than requested are returned if the lexicon is smaller.
+     * 
+     * @param lexicon the lexicon, iterated twice
+     * @param bins the number of partitions
+     * @param with_pos true if positions are compressed
+     * @return the partitions
+     */
+    public static TermPartition[] split(final Lexicon<String> lexicon, final int bins, final boolean with_pos) 
+    {
+        final int max = lexicon.numberOfEntries();
+        if (max == 0)
+            return split(max, 1);
+        final int num_bins = Math.min(bins, max);
+        
+        long total = 0;
+        for (Entry<String, LexiconEntry> lee : lexicon)
+            total += cost(lee.getValue(), with_pos);
+        
+        final List<TermPartition> res = new ArrayList<>(num_bins);
+        int begin = 0, termid = 0;
+        long cumulative = 0, partition_cost = 0;
+        for (Entry<String, LexiconEntry> lee : lexicon) {
+            final long term_cost = cost(lee.getValue(), with_pos);
+            cumulative += term_cost;
+            partition_cost += term_cost;
+            termid++;
+            final int id = res.size();
+            final int following = num_bins - id - 1;
+            // the partition ends when its share of the total cost is reached, or when there are just enough terms left for the following partitions
+            if (following > 0 && (cumulative >= (double) total * (id + 1) / num_bins || max - termid == following)) {
+                res.add(new TermPartition(begin, termid, id, partition_cost));
+                begin = termid;
+                partition_cost = 0;
+            }
+        }
+        res.add(new TermPartition(begin, max, res.size(), partition_cost));
+        return res.toArray(new TermPartition[res.size()]);
+    }
 
     /*
     @Override
@@ -0,0 +1,131 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.matching;
+
+import java.io.IOException;
+
+import org.terrier.matching.models.WeightingModel;
+import org.terrier.structures.EntryStatistics;
+import org.terrier.structures.Index;
+import org.terrier.structures.postings.IterablePosting;
+
+import it.cnr.isti.hpclab.ef.structures.EFBasicIterablePosting;
+
+/**
+ * Block-Max WAND (Ding and Suel, SIGIR 2011) over the block-max sidecar of an Elias-Fano index
+ * (see {@link it.cnr.isti.hpclab.ef.util.BlockMaxEncoder}).
+ * 
+ * As in WAND, the pivot is the first document whose term upper bounds, summed in docid order, beat the threshold; 
+ * then the lists up to the pivot are moved, without decoding, to the blocks containing the pivot, 
+ * and the pivot is scored only if the block upper bounds beat the threshold as well. Otherwise, the lists jump 
+ * right after the first block ending among them, or to the next list, whichever comes first.
+ * Posting lists without block-max metadata use their term upper bound for every block, i.e., they are processed as in WAND.
+ */
+public class BlockMaxWAND extends EFMatching
+{
+	/**
+	 * Creates a Block-Max WAND matching strategy over the given index.
+	 * 
+	 * @param index the index
+	 */
+	public BlockMaxWAND(final Index index)
+	{
+		super(index);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void match(final IterablePosting[] postings, final EntryStatistics[] stats, final WeightingModel[][] models, final TopQueue top) throws IOException
+	{
+		final int n = postings.length;
+		final double[] upperBounds = upperBounds(stats, models);
+		// the query terms, by increasing docid of their current posting
+		final int[] order = new int[n];
+		for (int i = 0; i < n; i++)
+			order[i] = i;
+		
+		while (true) {
+			sortByDocid(order, postings);
+			
+			// the pivot term, i.e., the first one whose prefix sum of upper bounds beats the threshold
+			final double threshold = top.threshold();
+			double bound = 0;
+			int pivot = -1;
+			for (int i = 0; i < n && postings[order[i]].getId() != IterablePosting.END_OF_LIST; i++) {
+				bound += upperBounds[order[i]];
+				if (bound > threshold) {
+					pivot = i;
+					break;
+				}
+			}
+			if (pivot == -1)
+				break;
+			
+			final int pivotId = postings[order[pivot]].getId();
+			// the terms following the pivot on the same document contribute to its score as well
+			while (pivot + 1 < n && postings[order[pivot + 1]].getId() == pivotId)
+				pivot++;
+			
+			// the block upper bound of the pivot document
+			double blockBound = 0;
+			for (int i = 0; i <= pivot; i++) {
+				final IterablePosting p = postings[order[i]];
+				if (hasBlockMax(p)) {
+					final EFBasicIterablePosting ep = (EFBasicIterablePosting) p;
+					if (ep.shallowNext(pivotId) != IterablePosting.END_OF_LIST)
+						for (WeightingModel model: models[order[i]])
+							blockBound += ep.getBlockMaxScore(model);
+				} else {
+					blockBound += upperBounds[order[i]];
+				}
+			}
+			
+			if (blockBound > threshold) {
+				if (postings[order[0]].getId() == pivotId) {
+					// all the terms up to the pivot are on the pivot document
+					double score = 0;
+					for (int i = 0; i <= pivot; i++)
+						score += score(postings[order[i]], models[order[i]]);
+					top.insert(pivotId, score);
+					for (int i = 0; i <= pivot; i++)
+						postings[order[i]].next();
+				} else {
+					// move a term preceding the pivot to the pivot document
+					postings[order[0]].next(pivotId);
+				}
+			} else {
+				// no document before the end of the first block, or the next term, can beat the threshold
+				long nextId = pivot + 1 < n ? postings[order[pivot + 1]].getId() : IterablePosting.END_OF_LIST;
+				for (int i = 0; i <= pivot; i++) {
+					final IterablePosting p = postings[order[i]];
+					if (hasBlockMax(p))
+						nextId = Math.min(nextId, ((EFBasicIterablePosting) p).getBlockLastDocid() + 1L);
+				}
+				for (int i = 0; i <= pivot; i++)
+					postings[order[i]].next((int) Math.min(nextId, IterablePosting.END_OF_LIST));
+			}
+		}
+	}
+	
+	private static boolean hasBlockMax(final IterablePosting p)
+	{
+		return p instanceof EFBasicIterablePosting && ((EFBasicIterablePosting) p).hasBlockMax();
+	}
+}
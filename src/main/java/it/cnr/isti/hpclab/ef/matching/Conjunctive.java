@@ -0,0 +1,172 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.matching;
+
+import java.io.IOException;
+
+import org.terrier.matching.MatchingQueryTerms;
+import org.terrier.matching.ResultSet;
+import org.terrier.matching.models.WeightingModel;
+import org.terrier.structures.EntryStatistics;
+import org.terrier.structures.Index;
+import org.terrier.structures.postings.IterablePosting;
+
+/**
+ * Conjunctive (AND) matching over the posting lists of an Elias-Fano index, i.e., only the documents containing all the query terms are retrieved.
+ * 
+ * The intersection is driven by the rarest list: every candidate docid is looked up in the other lists by increasing document frequency 
+ * with {@link IterablePosting#next(int)}, which on Elias-Fano lists jumps through the skip pointers and the upper bits without decoding 
+ * the postings in between. As soon as a list skips beyond the candidate, the rarest list moves there. 
+ * Since Elias-Fano cursors decode frequencies lazily, frequencies are read only for the documents containing all the terms.
+ */
+public class Conjunctive extends EFMatching
+{
+	/**
+	 * Creates a conjunctive matching strategy over the given index.
+	 * 
+	 * @param index the index
+	 */
+	public Conjunctive(final Index index)
+	{
+		super(index);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected boolean allTermsRequired()
+	{
+		return true;
+	}
+
+	/** 
+	 * {@inheritDoc}
+	 * Every document containing all the query terms is offered to the queue, so the exact result size is the number of these documents.
+	 */
+	@Override
+	protected ResultSet toResultSet(final TopQueue top)
+	{
+		final int offered = top.offered();
+		final ResultSet rs = top.toResultSet();
+		rs.setExactResultSize(offered);
+		return rs;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void match(final IterablePosting[] postings, final EntryStatistics[] stats, final WeightingModel[][] models, final TopQueue top) throws IOException
+	{
+		if (postings.length == 0)
+			return;
+		
+		final int[] order = byDocumentFrequency(stats);
+		for (int docid = align(postings, order); docid != IterablePosting.END_OF_LIST; postings[order[0]].next(), docid = align(postings, order)) {
+			double score = 0;
+			for (int i = 0; i < postings.length; i++)
+				score += score(postings[i], models[i]);
+			top.insert(docid, score);
+		}
+	}
+	
+	/**
+	 * Returns the number of documents containing all the query terms, without scoring them.
+	 * 
+	 * @param mqt the query terms
+	 * @return the number of documents containing all the query terms, 0 if some query terms are not in the lexicon
+	 * @throws IOException if something goes wrong
+	 */
+	public int count(final MatchingQueryTerms mqt) throws IOException
+	{
+		final EFPostingListManager plm = new EFPostingListManager(index, collectionStatistics, mqt);
+		plm.prepare(true);
+		
+		final int numTerms = plm.getNumTerms();
+		if (numTerms < mqt.size()) {
+			plm.close();
+			return 0;
+		}
+		final IterablePosting[] postings = new IterablePosting[numTerms];
+		final EntryStatistics[] stats = new EntryStatistics[numTerms];
+		for (int i = 0; i < numTerms; i++) {
+			postings[i] = plm.getPosting(i);
+			stats[i] = plm.getStatistics(i);
+		}
+		
+		final int count = count(postings, stats);
+		plm.close();
+		return count;
+	}
+	
+	/**
+	 * Returns the number of documents contained in all the given posting lists, without decoding any frequency.
+	 * 
+	 * @param postings the posting lists, positioned on their first posting
+	 * @param stats the statistics of the posting lists
+	 * @return the number of documents contained in all the posting lists
+	 * @throws IOException if something goes wrong
+	 */
+	public static int count(final IterablePosting[] postings, final EntryStatistics[] stats) throws IOException
+	{
+		if (postings.length == 0)
+			return 0;
+		
+		final int[] order = byDocumentFrequency(stats);
+		int count = 0;
+		for (int docid = align(postings, order); docid != IterablePosting.END_OF_LIST; postings[order[0]].next(), docid = align(postings, order))
+			count++;
+		return count;
+	}
+	
+	/**
+	 * Moves all the lists to the first document contained in all of them, not smaller than the current document of the rarest list.
+	 * 
+	 * @param postings the posting lists
+	 * @param order the posting lists, by increasing document frequency
+	 * @return the first document contained in all the lists, or {@link IterablePosting#END_OF_LIST}
+	 * @throws IOException if something goes wrong
+	 */
+	static int align(final IterablePosting[] postings, final int[] order) throws IOException
+	{
+		int candidate = postings[order[0]].getId();
+		for (int i = 1; i < order.length && candidate != IterablePosting.END_OF_LIST; ) {
+			final int docid = postings[order[i]].next(candidate);
+			if (docid == candidate) {
+				i++;
+			} else {
+				// the candidate is missing from this list, restart from the rarest one
+				candidate = postings[order[0]].next(docid);
+				i = 1;
+			}
+		}
+		return candidate;
+	}
+	
+	/** Returns the query terms sorted by increasing document frequency. */
+	static int[] byDocumentFrequency(final EntryStatistics[] stats)
+	{
+		final int[] order = new int[stats.length];
+		for (int i = 0; i < stats.length; i++) {
+			int j = i;
+			for (; j > 0 && stats[order[j - 1]].getDocumentFrequency() > stats[i].getDocumentFrequency(); j--)
+				order[j] = order[j - 1];
+			order[j] = i;
+		}
+		return order;
+	}
+}
@@ -0,0 +1,275 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.matching;
+
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terrier.matching.Matching;
+import org.terrier.matching.MatchingQueryTerms;
+import org.terrier.matching.ResultSet;
+import org.terrier.matching.models.WeightingModel;
+import org.terrier.structures.CollectionStatistics;
+import org.terrier.structures.EntryStatistics;
+import org.terrier.structures.Index;
+import org.terrier.structures.postings.IterablePosting;
+import org.terrier.utility.ApplicationSetup;
+
+import it.cnr.isti.hpclab.ef.structures.EFBasicIterablePosting;
+import it.cnr.isti.hpclab.ef.structures.EFDocumentIndex;
+import it.cnr.isti.hpclab.ef.util.TraversalCounters;
+
+/**
+ * Base class of the document-at-a-time matching strategies over Elias-Fano indices, 
+ * pluggable in Terrier's query pipeline through the <code>matching</code> property.
+ * 
+ * The posting lists and weighting models of the query terms are prepared by a {@link EFPostingListManager},
+ * then the top {@link #numResults} documents are computed by {@link #match(IterablePosting[], EntryStatistics[], WeightingModel[][], TopQueue)}.
+ * The upper bound on the score of a term assumes weighting models increasing in the frequency and decreasing in the document length, 
+ * as BM25, and is never negative, since BM25 scores negatively the terms occurring in most documents.
+ * 
+ * If the traversal counters are enabled (see {@link TraversalCounters}), the work done on the posting list of every query term 
+ * and on the whole query is logged at the end of the query, and the latter is available from {@link #getQueryCounters()}.
+ */
+public abstract class EFMatching implements Matching
+{
+	protected static final Logger LOGGER = LoggerFactory.getLogger(EFMatching.class);
+	
+
+	/** The index. */
+	protected final Index index;
+	/** The collection statistics used for scoring. */
+	protected CollectionStatistics collectionStatistics;
+	/** The number of documents to retrieve. */
+	protected final int numResults;
+	/** The counters of the work done by the last query, null if counting is disabled. */
+	protected TraversalCounters queryCounters = null;
+
+	/**
+	 * Creates a matching strategy over the given index.
+	 * 
+	 * @param index the index
+	 */
+	public EFMatching(final Index index)
+	{
+		this.index = index;
+		this.collectionStatistics = index.getCollectionStatistics();
+		this.numResults = Integer.parseInt(ApplicationSetup.getProperty("matching.retrieved_set_size", "1000"));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setCollectionStatistics(final CollectionStatistics cs)
+	{
+		this.collectionStatistics = cs;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String getInfo()
+	{
+		return getClass().getSimpleName();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ResultSet match(final String queryNumber, final MatchingQueryTerms mqt) throws IOException
+	{
+		final EFPostingListManager plm = new EFPostingListManager(index, collectionStatistics, mqt);
+		plm.prepare(true);
+		
+		final int numTerms = plm.getNumTerms();
+		if (allTermsRequired() && numTerms < mqt.size()) {
+			// a query term without posting list (e.g., not in the lexicon) is dropped by the manager, and no document contains all the terms
+			plm.close();
+			return toResultSet(new TopQueue(numResults));
+		}
+		final IterablePosting[] postings = new IterablePosting[numTerms];
+		final EntryStatistics[] stats = new EntryStatistics[numTerms];
+		final WeightingModel[][] models = new WeightingModel[numTerms][];
+		for (int i = 0; i < numTerms; i++) {
+			postings[i] = plm.getPosting(i);
+			stats[i] = plm.getStatistics(i);
+			models[i] = plm.getModels(i);
+		}
+		setDocumentLengths(models);
+		
+		final TopQueue top = new TopQueue(numResults);
+		match(postings, stats, models, top);
+		if (TraversalCounters.ENABLED)
+			collectCounters(queryNumber, plm);
+		plm.close();
+		return toResultSet(top);
+	}
+
+	/**
+	 * Empties the queue of the retrieved documents into a result set, whose exact result size is the number of retrieved documents.
+	 * 
+	 * @param top the queue of the retrieved documents
+	 * @return the result set
+	 */
+	protected ResultSet toResultSet(final TopQueue top)
+	{
+		return top.toResultSet();
+	}
+
+	/**
+	 * Returns whether the retrieved documents must contain all the query terms, so that no document is retrieved
+	 * if some query terms have no posting list.
+	 * 
+	 * @return true if the retrieved documents must contain all the query terms
+	 */
+	protected boolean allTermsRequired()
+	{
+		return false;
+	}
+
+	/**
+	 * Sets the quantized document lengths of the index on the {@link QuantizedBM25} weighting models of the query terms,
+	 * before computing any upper bound, so that bounds and scores are computed on the same lengths.
+	 * Nothing is done if the document index is not an {@link EFDocumentIndex}.
+	 * 
+	 * @param models the weighting models of the query terms
+	 * @throws IOException if something goes wrong in reading the document lengths
+	 */
+	protected void setDocumentLengths(final WeightingModel[][] models) throws IOException
+	{
+		if (!(index.getDocumentIndex() instanceof EFDocumentIndex))
+			return;
+		for (WeightingModel[] termModels: models)
+			for (WeightingModel model: termModels)
+				if (model instanceof QuantizedBM25)
+					((QuantizedBM25) model).setDocumentLengths(((EFDocumentIndex) index.getDocumentIndex()).getQuantizedLengths());
+	}
+
+	/**
+	 * Sums the counters of the posting lists of the query terms into {@link #queryCounters}, logging them per term and per query.
+	 * Posting lists not read by an Elias-Fano cursor (e.g., phrases) are ignored.
+	 * 
+	 * @param queryNumber the identifier of the query
+	 * @param plm the posting list manager of the query, not yet closed
+	 */
+	protected void collectCounters(final String queryNumber, final EFPostingListManager plm)
+	{
+		queryCounters = new TraversalCounters();
+		for (int i = 0; i < plm.getNumTerms(); i++) {
+			if (!(plm.getPosting(i) instanceof EFBasicIterablePosting))
+				continue;
+			final TraversalCounters counters = ((EFBasicIterablePosting) plm.getPosting(i)).getCounters();
+			LOGGER.info("Query " + queryNumber + ", term " + plm.getTerm(i) + ": " + counters);
+			queryCounters.add(counters);
+		}
+		LOGGER.info("Query " + queryNumber + ": " + queryCounters);
+	}
+
+	/**
+	 * Returns the counters of the work done by the last query, summed over its terms.
+	 * 
+	 * @return the counters of the work done by the last query, or null if counting is disabled or no query has been processed
+	 */
+	public TraversalCounters getQueryCounters()
+	{
+		return queryCounters;
+	}
+
+	/**
+	 * Computes the top documents of a query.
+	 * 
+	 * @param postings the posting lists of the query terms, positioned on their first posting
+	 * @param stats the statistics of the query terms
+	 * @param models the weighting models of the query terms
+	 * @param top the queue to fill with the top documents
+	 * @throws IOException if something goes wrong
+	 */
+	public abstract void match(IterablePosting[] postings, EntryStatistics[] stats, WeightingModel[][] models, TopQueue top) throws IOException;
+
+	/**
+	 * Returns the upper bounds on the scores of the query terms.
+	 * 
+	 * @param stats the statistics of the query terms
+	 * @param models the weighting models of the query terms
+	 * @return the upper bounds on the scores of the query terms
+	 * @see #upperBound(EntryStatistics, WeightingModel[])
+	 */
+	protected static double[] upperBounds(final EntryStatistics[] stats, final WeightingModel[][] models)
+	{
+		final double[] upperBounds = new double[stats.length];
+		for (int i = 0; i < stats.length; i++)
+			upperBounds[i] = upperBound(stats[i], models[i]);
+		return upperBounds;
+	}
+
+	/**
+	 * Returns an upper bound on the score of a term in any document, i.e., the score of its maximum frequency in a document as short as possible.
+	 * The bound of a {@link QuantizedBM25} model is computed by {@link QuantizedBM25#upperBound(int)}.
+	 * The bound of every model is at least 0, since the score of the maximum frequency is not an upper bound if the model scores the term negatively
+	 * (e.g., BM25 on a term occurring in more than half of the documents).
+	 * 
+	 * @param stats the statistics of the term
+	 * @param models the weighting models of the term
+	 * @return an upper bound on the score of the term
+	 */
+	public static double upperBound(final EntryStatistics stats, final WeightingModel[] models)
+	{
+		// a document is at least as long as the frequency of any of its terms
+		final int maxFrequency = stats.getMaxFrequencyInDocuments();
+		double bound = 0;
+		for (WeightingModel model: models)
+			bound += Math.max(0, model instanceof QuantizedBM25 
+				? ((QuantizedBM25) model).upperBound(maxFrequency) 
+				: model.score(maxFrequency, maxFrequency));
+		return bound;
+	}
+
+	/**
+	 * Returns the score of the current posting of a term.
+	 * 
+	 * @param posting the posting list of the term
+	 * @param models the weighting models of the term
+	 * @return the score of the current posting
+	 */
+	protected static double score(final IterablePosting posting, final WeightingModel[] models)
+	{
+		double score = 0;
+		for (WeightingModel model: models)
+			score += model.score(posting);
+		return score;
+	}
+
+	/**
+	 * Sorts the query terms by the docid of their current posting.
+	 * Insertion sort is used, since the terms are almost sorted after every move of a document-at-a-time strategy.
+	 * 
+	 * @param order the query terms to sort
+	 * @param postings the posting lists of the query terms
+	 */
+	protected static void sortByDocid(final int[] order, final IterablePosting[] postings)
+	{
+		for (int i = 1; i < order.length; i++) {
+			final int t = order[i];
+			final int id = postings[t].getId();
+			int j = i;
+			for (; j > 0 && postings[order[j - 1]].getId() > id; j--)
+				order[j] = order[j - 1];
+			order[j] = t;
+		}
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.matching;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.terrier.matching.matchops.Operator;
+import org.terrier.matching.matchops.PhraseOp;
+import org.terrier.structures.EntryStatistics;
+import org.terrier.structures.postings.IterablePosting;
+
+import it.cnr.isti.hpclab.ef.structures.EFBlockIterablePosting;
+
+/**
+ * The <tt>#1</tt> (exact phrase) operator of the Terrier query language, matched with an {@link OrderedWindowIterablePosting} 
+ * when all the terms have Elias-Fano posting lists with positions, and as a Terrier phrase otherwise.
+ */
+public class EFPhraseOp extends PhraseOp
+{
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Creates a phrase of the given operators.
+	 * 
+	 * @param ts the operators
+	 */
+	public EFPhraseOp(final Operator[] ts)
+	{
+		super(ts);
+	}
+
+	/**
+	 * Creates a phrase of the given terms.
+	 * 
+	 * @param ts the terms
+	 */
+	public EFPhraseOp(final String[] ts)
+	{
+		super(ts);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected IterablePosting createFinalPostingIterator(final List<IterablePosting> postings, final List<EntryStatistics> pointers) throws IOException
+	{
+		final EFBlockIterablePosting[] efPostings = PositionalIterablePosting.asPositional(postings);
+		if (efPostings == null)
+			return super.createFinalPostingIterator(postings, pointers);
+		return OrderedWindowIterablePosting.phrase(efPostings, pointers.toArray(new EntryStatistics[pointers.size()]));
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.matching;
+
+import java.io.IOException;
+
+import org.terrier.matching.MatchingQueryTerms;
+import org.terrier.matching.MatchingQueryTerms.MatchingTerm;
+import org.terrier.matching.PostingListManager;
+import org.terrier.matching.matchops.Operator;
+import org.terrier.matching.matchops.PhraseOp;
+import org.terrier.matching.matchops.UnorderedWindowOp;
+import org.terrier.matching.models.WeightingModel;
+import org.terrier.structures.CollectionStatistics;
+import org.terrier.structures.Index;
+
+/**
+ * A posting list manager exposing the weighting models of every query term, 
+ * needed by dynamic pruning strategies to compute score upper bounds.
+ * The phrases and unordered windows of the query, as parsed by Terrier, are matched by {@link EFPhraseOp} and {@link EFUnorderedWindowOp}.
+ */
+public class EFPostingListManager extends PostingListManager
+{
+	/**
+	 * Creates a posting list manager for the given query terms.
+	 * 
+	 * @param index the index
+	 * @param cs the collection statistics
+	 * @param mqt the query terms
+	 * @throws IOException if something goes wrong
+	 */
+	public EFPostingListManager(final Index index, final CollectionStatistics cs, final MatchingQueryTerms mqt) throws IOException
+	{
+		super(index, cs, positionalOperators(mqt));
+	}
+	
+	/**
+	 * Returns a copy of the query terms where the phrase and unordered window operators are replaced by {@link EFPhraseOp} and {@link EFUnorderedWindowOp}.
+	 * The query terms of the caller are left untouched, as they may be matched again, or by another matching strategy.
+	 * 
+	 * @param mqt the query terms
+	 * @return a copy of the query terms, with the operators replaced, or the same query terms if there is nothing to replace
+	 */
+	static MatchingQueryTerms positionalOperators(final MatchingQueryTerms mqt)
+	{
+		MatchingQueryTerms efMqt = mqt;
+		for (int i = 0; i < mqt.size(); i++) {
+			final Operator op = mqt.get(i).getKey();
+			final Operator efOp;
+			if (op instanceof PhraseOp && !(op instanceof EFPhraseOp))
+				efOp = new EFPhraseOp(((PhraseOp) op).getConstituents());
+			else if (op instanceof UnorderedWindowOp && !(op instanceof EFUnorderedWindowOp))
+				efOp = new EFUnorderedWindowOp(((UnorderedWindowOp) op).getConstituents(), ((UnorderedWindowOp) op).getDistance());
+			else
+				continue;
+			// the copy shares the term properties, but not the list of the terms
+			if (efMqt == mqt)
+				efMqt = (MatchingQueryTerms) mqt.clone();
+			efMqt.set(i, new MatchingTerm(efOp, mqt.get(i).getValue()));
+		}
+		return efMqt;
+	}
+	
+	/**
+	 * Returns the weighting models of the i-th query term.
+	 * 
+	 * @param i the index of the query term
+	 * @return the weighting models of the query term
+	 */
+	public WeightingModel[] getModels(final int i)
+	{
+		return termModels.get(i);
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.matching;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.terrier.matching.matchops.Operator;
+import org.terrier.matching.matchops.UnorderedWindowOp;
+import org.terrier.structures.EntryStatistics;
+import org.terrier.structures.postings.IterablePosting;
+
+import it.cnr.isti.hpclab.ef.structures.EFBlockIterablePosting;
+
+/**
+ * The <tt>#uwN</tt> (unordered window) operator of the Terrier query language, matched with an {@link UnorderedWindowIterablePosting} 
+ * when all the terms have Elias-Fano posting lists with positions, and as a Terrier unordered window otherwise.
+ */
+public class EFUnorderedWindowOp extends UnorderedWindowOp
+{
+	private static final long serialVersionUID = 1L;
+	
+	/** The width of the window. */
+	private final int width;
+
+	/**
+	 * Creates an unordered window of the given operators.
+	 * 
+	 * @param ts the operators
+	 * @param width the width of the window
+	 */
+	public EFUnorderedWindowOp(final Operator[] ts, final int width)
+	{
+		super(ts, width);
+		this.width = width;
+	}
+
+	/**
+	 * Creates an unordered window of the given terms.
+	 * 
+	 * @param ts the terms
+	 * @param width the width of the window
+	 */
+	public EFUnorderedWindowOp(final String[] ts, final int width)
+	{
+		super(ts, width);
+		this.width = width;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected IterablePosting createFinalPostingIterator(final List<IterablePosting> postings, final List<EntryStatistics> pointers) throws IOException
+	{
+		final EFBlockIterablePosting[] efPostings = PositionalIterablePosting.asPositional(postings);
+		if (efPostings == null)
+			return super.createFinalPostingIterator(postings, pointers);
+		return new UnorderedWindowIterablePosting(efPostings, pointers.toArray(new EntryStatistics[pointers.size()]), width);
+	}
+}
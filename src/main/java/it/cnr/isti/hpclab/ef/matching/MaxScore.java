@@ -0,0 +1,114 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.matching;
+
+import java.io.IOException;
+
+import org.terrier.matching.models.WeightingModel;
+import org.terrier.structures.EntryStatistics;
+import org.terrier.structures.Index;
+import org.terrier.structures.postings.IterablePosting;
+
+/**
+ * MaxScore (Turtle and Flood, IP&amp;M 1995) over the posting lists of an Elias-Fano index, in its document-at-a-time flavour.
+ * 
+ * Query terms are sorted by increasing upper bound, and the shortest prefix of them whose upper bounds sum 
+ * to no more than the threshold is <i>non-essential</i>: a document containing non-essential terms only cannot beat the threshold.
+ * Candidate documents are generated from the essential lists only, while the non-essential lists are 
+ * moved to the candidates with {@link IterablePosting#next(int)}, by decreasing upper bound, as long as the candidate can still beat the threshold.
+ */
+public class MaxScore extends EFMatching
+{
+	/**
+	 * Creates a MaxScore matching strategy over the given index.
+	 * 
+	 * @param index the index
+	 */
+	public MaxScore(final Index index)
+	{
+		super(index);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void match(final IterablePosting[] postings, final EntryStatistics[] stats, final WeightingModel[][] models, final TopQueue top) throws IOException
+	{
+		final int n = postings.length;
+		final double[] upperBounds = upperBounds(stats, models);
+		// the query terms, by increasing upper bound
+		final int[] order = new int[n];
+		for (int i = 0; i < n; i++)
+			order[i] = i;
+		for (int i = 1; i < n; i++) {
+			final int t = order[i];
+			int j = i;
+			for (; j > 0 && upperBounds[order[j - 1]] > upperBounds[t]; j--)
+				order[j] = order[j - 1];
+			order[j] = t;
+		}
+		// the sum of the upper bounds of the terms up to the given one
+		final double[] prefixBounds = new double[n];
+		for (int i = 0; i < n; i++)
+			prefixBounds[i] = (i == 0 ? 0 : prefixBounds[i - 1]) + upperBounds[order[i]];
+		
+		// the first essential term
+		int essential = 0;
+		double threshold = top.threshold();
+		while (essential < n && prefixBounds[essential] <= threshold)
+			essential++;
+		
+		while (essential < n) {
+			// the next candidate is the smallest docid in the essential lists
+			int candidate = IterablePosting.END_OF_LIST;
+			for (int i = essential; i < n; i++)
+				candidate = Math.min(candidate, postings[order[i]].getId());
+			if (candidate == IterablePosting.END_OF_LIST)
+				break;
+			
+			double score = 0;
+			for (int i = essential; i < n; i++) {
+				final IterablePosting p = postings[order[i]];
+				if (p.getId() == candidate) {
+					score += score(p, models[order[i]]);
+					p.next();
+				}
+			}
+			
+			boolean pruned = false;
+			for (int i = essential - 1; i >= 0; i--) {
+				if (score + prefixBounds[i] <= threshold) {
+					pruned = true;
+					break;
+				}
+				final IterablePosting p = postings[order[i]];
+				if (p.getId() < candidate)
+					p.next(candidate);
+				if (p.getId() == candidate)
+					score += score(p, models[order[i]]);
+			}
+			
+			if (!pruned && top.insert(candidate, score)) {
+				threshold = top.threshold();
+				while (essential < n && prefixBounds[essential] <= threshold)
+					essential++;
+			}
+		}
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.matching;
+
+import static it.cnr.isti.hpclab.ef.structures.EFBlockIterablePosting.END_OF_POSITIONS;
+
+import org.terrier.structures.EntryStatistics;
+
+import it.cnr.isti.hpclab.ef.structures.EFBlockIterablePosting;
+
+/**
+ * A posting list of the documents where the query terms appear in query order within a window of a given width, 
+ * i.e., at positions <i>p<sub>0</sub> &lt; p<sub>1</sub> &lt; ... &lt; p<sub>n-1</sub></i> with <i>p<sub>n-1</sub> - p<sub>0</sub> &lt; width</i>.
+ * An exact phrase is an ordered window whose width is the number of terms, see {@link #phrase(EFBlockIterablePosting[], EntryStatistics[])}.
+ * The frequency of a document is the number of positions of the first term starting a window.
+ * 
+ * Given the position of the first term, each following term is moved to its first position after the previous term: 
+ * such positions give the narrowest window starting there, and never move backwards for later starting positions, 
+ * so every position is decoded at most once.
+ */
+public class OrderedWindowIterablePosting extends PositionalIterablePosting
+{
+	/** The width of the window. */
+	private final int width;
+	
+	/**
+	 * Creates an ordered window posting list over the given posting lists.
+	 * 
+	 * @param postings the posting lists of the query terms, in query order
+	 * @param stats the statistics of the posting lists
+	 * @param width the width of the window, not smaller than the number of terms
+	 */
+	public OrderedWindowIterablePosting(final EFBlockIterablePosting[] postings, final EntryStatistics[] stats, final int width)
+	{
+		super(postings, stats);
+		if (width < postings.length)
+			throw new IllegalArgumentException("The window width " + width + " is smaller than the number of terms " + postings.length);
+		this.width = width;
+	}
+	
+	/**
+	 * Creates an exact phrase posting list over the given posting lists.
+	 * 
+	 * @param postings the posting lists of the query terms, in query order
+	 * @param stats the statistics of the posting lists
+	 * @return the phrase posting list
+	 */
+	public static OrderedWindowIterablePosting phrase(final EFBlockIterablePosting[] postings, final EntryStatistics[] stats)
+	{
+		return new OrderedWindowIterablePosting(postings, stats, postings.length);
+	}
+	
+	/**
+	 * Finds the first window starting at the current position of the first term or later.
+	 * 
+	 * @return the position of the first term starting the window, or {@link EFBlockIterablePosting#END_OF_POSITIONS}
+	 */
+	private int nextWindow()
+	{
+		for (; positions[0] != END_OF_POSITIONS; positions[0] = postings[0].nextPosition()) {
+			int last = positions[0];
+			for (int i = 1; i < postings.length; i++) {
+				while (positions[i] <= last)
+					positions[i] = postings[i].nextPosition();
+				if (positions[i] == END_OF_POSITIONS)
+					return END_OF_POSITIONS;
+				last = positions[i];
+				// a term too far away rules out this starting position
+				if (last - positions[0] >= width)
+					break;
+			}
+			if (last - positions[0] < width)
+				return positions[0];
+		}
+		return END_OF_POSITIONS;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	protected boolean matches()
+	{
+		firstPositions();
+		return nextWindow() != END_OF_POSITIONS;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected int countMatches()
+	{
+		firstPositions();
+		int count = 0;
+		for (; nextWindow() != END_OF_POSITIONS; positions[0] = postings[0].nextPosition())
+			count++;
+		return count;
+	}
+}
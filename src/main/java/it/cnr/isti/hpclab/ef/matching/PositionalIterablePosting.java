@@ -0,0 +1,182 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.matching;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.terrier.structures.EntryStatistics;
+import org.terrier.structures.postings.BasicPostingImpl;
+import org.terrier.structures.postings.IterablePosting;
+import org.terrier.structures.postings.WritablePosting;
+
+import it.cnr.isti.hpclab.ef.structures.EFBlockIterablePosting;
+
+/**
+ * A posting list of the documents where some positional constraint among the positions of the query terms holds, e.g., a phrase.
+ * Its frequencies are the number of matches of the constraint in the documents.
+ * 
+ * The docid lists are intersected first, as in {@link Conjunctive}. Only then the positions of a candidate document are walked, 
+ * decoding them lazily with {@link EFBlockIterablePosting#firstPosition()} and {@link EFBlockIterablePosting#nextPosition()}, 
+ * and the walk stops as soon as the first match is found or ruled out. The remaining matches are counted only if the frequency is requested.
+ */
+public abstract class PositionalIterablePosting implements IterablePosting
+{
+	/** The posting lists of the query terms, in query order. */
+	protected final EFBlockIterablePosting[] postings;
+	/** The current positions of the posting lists, while walking the positions of a document. */
+	protected final int[] positions;
+	/** The posting lists, by increasing document frequency. */
+	private final int[] order;
+	/** The current docid. */
+	private int id = -1;
+	/** The number of matches in the current document, or 0 if not counted yet. */
+	private int frequency;
+
+	/**
+	 * Creates a positional posting list over the given posting lists, not yet positioned on any document.
+	 * 
+	 * @param postings the posting lists of the query terms, in query order
+	 * @param stats the statistics of the posting lists
+	 */
+	protected PositionalIterablePosting(final EFBlockIterablePosting[] postings, final EntryStatistics[] stats)
+	{
+		if (postings.length == 0)
+			throw new IllegalArgumentException("At least one posting list is required");
+		this.postings = postings;
+		this.positions = new int[postings.length];
+		this.order = Conjunctive.byDocumentFrequency(stats);
+	}
+	
+	/**
+	 * Checks if the positional constraint holds at least once in the current document.
+	 * 
+	 * @return true if the positional constraint holds in the current document
+	 */
+	protected abstract boolean matches();
+	
+	/**
+	 * Counts the matches of the positional constraint in the current document.
+	 * 
+	 * @return the number of matches of the positional constraint in the current document
+	 */
+	protected abstract int countMatches();
+	
+	/**
+	 * Positions every posting list on its first position in the current document.
+	 */
+	protected void firstPositions()
+	{
+		for (int i = 0; i < postings.length; i++)
+			positions[i] = postings[i].firstPosition();
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public int next() throws IOException 
+	{
+		return id == END_OF_LIST ? END_OF_LIST : next(id + 1);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int next(final int target) throws IOException 
+	{
+		if (id >= target)
+			return id;
+		
+		postings[order[0]].next(target);
+		int docid;
+		while ((docid = Conjunctive.align(postings, order)) != END_OF_LIST && !matches())
+			postings[order[0]].next();
+		
+		frequency = 0;
+		return id = docid;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public boolean endOfPostings() 
+	{
+		return id == END_OF_LIST;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getId() 
+	{
+		return id;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getFrequency() 
+	{
+		if (frequency == 0)
+			frequency = countMatches();
+		return frequency;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getDocumentLength() 
+	{
+		return postings[0].getDocumentLength();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setId(final int id) 
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public WritablePosting asWritablePosting() 
+	{
+		return new BasicPostingImpl(id, getFrequency());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() throws IOException 
+	{
+		for (IterablePosting posting: postings)
+			posting.close();
+	}
+	
+	/**
+	 * Returns the given posting lists as Elias-Fano posting lists with positions, if all of them are.
+	 * 
+	 * @param postings the posting lists
+	 * @return the given posting lists as Elias-Fano posting lists with positions, or null if some of them is not
+	 */
+	public static EFBlockIterablePosting[] asPositional(final List<IterablePosting> postings)
+	{
+		final EFBlockIterablePosting[] rtr = new EFBlockIterablePosting[postings.size()];
+		for (int i = 0; i < rtr.length; i++) {
+			if (!(postings.get(i) instanceof EFBlockIterablePosting))
+				return null;
+			rtr[i] = (EFBlockIterablePosting) postings.get(i);
+		}
+		return rtr;
+	}
+}
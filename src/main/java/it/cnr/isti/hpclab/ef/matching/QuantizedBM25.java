@@ -0,0 +1,179 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.matching;
+
+import java.io.IOException;
+
+import org.terrier.matching.models.WeightingModel;
+import org.terrier.matching.models.WeightingModelLibrary;
+import org.terrier.structures.DocumentIndex;
+import org.terrier.structures.postings.Posting;
+
+import it.cnr.isti.hpclab.ef.structures.EFBasicIterablePosting;
+import it.cnr.isti.hpclab.ef.structures.EFDocumentIndex;
+import it.cnr.isti.hpclab.ef.structures.QuantizedDocumentLengths;
+
+/**
+ * BM25 scoring documents by their quantized length, as Terrier's <code>BM25</code> with the same parameters.
+ * 
+ * The length normalisation of BM25 depends on the document only through its length, hence on quantized lengths 
+ * it is precomputed in a table of {@link QuantizedDocumentLengths#NUM_CODES} entries, indexed by the code of the document, 
+ * and the score of a posting costs a table lookup, a sum and a division, without reading the document index.
+ * The quantized lengths are set by {@link #setDocumentLengths(QuantizedDocumentLengths)}, as done by {@link EFMatching}, 
+ * or obtained from the {@link EFDocumentIndex} of the first posting scored; until then, documents are scored by their exact length.
+ * Since the representative length of a code may exceed the frequency of the term in a document with the code, 
+ * the upper bound on the scores used by dynamic pruning strategies is computed over all codes by {@link #upperBound(int)}.
+ */
+public class QuantizedBM25 extends WeightingModel
+{
+	private static final long serialVersionUID = 1L;
+
+	/** The constant k_1. */
+	private double k_1 = 1.2d;
+	/** The constant k_3. */
+	private double k_3 = 8d;
+	/** The parameter b. */
+	private double b = 0.75d;
+
+	/** The quantized document lengths, null if documents are scored by their exact length. */
+	private QuantizedDocumentLengths lengths = null;
+	/** The length normalisation of every code. */
+	private double[] normalisations = null;
+	/** The part of the score independent of the document, computed by {@link #prepare()}. */
+	private double weight;
+
+	/** {@inheritDoc} */
+	@Override
+	public String getInfo()
+	{
+		return "QuantizedBM25b" + b;
+	}
+
+	/**
+	 * Sets the quantized document lengths, precomputing the length normalisation of every code.
+	 * 
+	 * @param lengths the quantized document lengths
+	 */
+	public void setDocumentLengths(final QuantizedDocumentLengths lengths)
+	{
+		this.lengths = lengths;
+		normalise();
+	}
+
+	/**
+	 * Returns the quantized document lengths.
+	 * 
+	 * @return the quantized document lengths, or null if documents are scored by their exact length
+	 */
+	public QuantizedDocumentLengths getDocumentLengths()
+	{
+		return lengths;
+	}
+
+	/** Computes the length normalisation of every code, if the quantized document lengths are set. */
+	private void normalise()
+	{
+		if (lengths == null)
+			return;
+		// a new table, since clones share it
+		final double[] normalisations = new double[QuantizedDocumentLengths.NUM_CODES];
+		for (int code = 0; code < normalisations.length; code++)
+			normalisations[code] = k_1 * ((1 - b) + b * lengths.getLength(code) / averageDocumentLength);
+		this.normalisations = normalisations;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void prepare()
+	{
+		super.prepare();
+		weight = WeightingModelLibrary.log((numberOfDocuments - documentFrequency + 0.5d) / (documentFrequency + 0.5d))
+			* (k_1 + 1d) * ((k_3 + 1d) * keyFrequency / (k_3 + keyFrequency));
+		normalise();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * If the quantized document lengths are set, the document length is replaced by the representative length of its code.
+	 */
+	@Override
+	public double score(final double tf, final double docLength)
+	{
+		final double normalisation = normalisations != null 
+			? normalisations[lengths.code((int) docLength)]
+			: k_1 * ((1 - b) + b * docLength / averageDocumentLength);
+		return weight * tf / (normalisation + tf);
+	}
+
+	/**
+	 * Returns an upper bound on the score of the term in any document, given its maximum frequency in a document.
+	 * If the quantized document lengths are set, the bound is the maximum over all codes of the score of the highest frequency 
+	 * in a document with the code, i.e., the maximum frequency capped by the largest length of the code.
+	 * 
+	 * @param maxFrequency the maximum frequency of the term in a document
+	 * @return an upper bound on the score of the term
+	 */
+	public double upperBound(final int maxFrequency)
+	{
+		if (normalisations == null)
+			return score(maxFrequency, maxFrequency);
+		double bound = 0;
+		for (int code = 0; code < normalisations.length; code++) {
+			final double tf = Math.min(maxFrequency, lengths.getMaxLength(code));
+			bound = Math.max(bound, weight * tf / (normalisations[code] + tf));
+		}
+		return bound;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public double score(final Posting p)
+	{
+		if (normalisations == null && p instanceof EFBasicIterablePosting) {
+			final DocumentIndex doi = ((EFBasicIterablePosting) p).getDocumentIndex();
+			if (doi instanceof EFDocumentIndex) {
+				try {
+					setDocumentLengths(((EFDocumentIndex) doi).getQuantizedLengths());
+				} catch (final IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		}
+		if (normalisations == null)
+			return score(p.getFrequency(), p.getDocumentLength());
+		final double tf = p.getFrequency();
+		return weight * tf / (normalisations[lengths.getCode(p.getId())] + tf);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setParameter(final double _b)
+	{
+		this.b = _b;
+		normalise();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public double getParameter()
+	{
+		return this.b;
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.matching;
+
+import java.util.Arrays;
+
+import org.terrier.matching.QueryResultSet;
+import org.terrier.matching.ResultSet;
+
+/**
+ * A bounded queue of the top scored documents, i.e., a min-heap on the scores of at most <i>k</i> documents.
+ * Its smallest score is the threshold a document must beat to enter the top <i>k</i>, as used by dynamic pruning strategies.
+ */
+public class TopQueue
+{
+	/** The maximum number of documents. */
+	private final int k;
+	/** The docids of the heap. */
+	private final int[] docids;
+	/** The scores of the heap. */
+	private final double[] scores;
+	/** The number of documents in the heap. */
+	private int size;
+	/** The number of documents offered to the queue. */
+	private int offered;
+
+	/**
+	 * Creates an empty queue.
+	 *
+	 * @param k the maximum number of documents
+	 */
+	public TopQueue(final int k)
+	{
+		if (k <= 0)
+			throw new IllegalArgumentException("The queue must hold at least one document");
+		this.k = k;
+		this.docids = new int[k];
+		this.scores = new double[k];
+	}
+
+	/**
+	 * Returns the score a document must beat to enter the queue,
+	 * i.e., the smallest score in the queue if it is full, negative infinity otherwise.
+	 *
+	 * @return the score a document must beat to enter the queue
+	 */
+	public double threshold()
+	{
+		return size < k ? Double.NEGATIVE_INFINITY : scores[0];
+	}
+
+	/**
+	 * Offers a scored document to the queue; the document enters the queue only if its score beats the threshold.
+	 *
+	 * @param docid the docid
+	 * @param score the score
+	 * @return true if the document entered the queue
+	 */
+	public boolean insert(final int docid, final double score)
+	{
+		offered++;
+		if (size < k) {
+			int i = size++;
+			while (i > 0 && scores[(i - 1) >>> 1] > score) {
+				docids[i] = docids[(i - 1) >>> 1];
+				scores[i] = scores[(i - 1) >>> 1];
+				i = (i - 1) >>> 1;
+			}
+			docids[i] = docid;
+			scores[i] = score;
+			return true;
+		}
+		if (score <= scores[0])
+			return false;
+
+		// sift the new document down from the root, replacing the smallest score
+		int i = 0;
+		for (int child; (child = 2 * i + 1) < size; i = child) {
+			if (child + 1 < size && scores[child + 1] < scores[child])
+				child++;
+			if (scores[child] >= score)
+				break;
+			docids[i] = docids[child];
+			scores[i] = scores[child];
+		}
+		docids[i] = docid;
+		scores[i] = score;
+		return true;
+	}
+
+	/**
+	 * Returns the number of documents in the queue.
+	 *
+	 * @return the number of documents in the queue
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Returns the number of documents offered to the queue so far.
+	 *
+	 * @return the number of documents offered to the queue so far
+	 */
+	public int offered()
+	{
+		return offered;
+	}
+
+	/**
+	 * Empties the queue into a result set, sorted by decreasing score (ties by increasing docid).
+	 * The exact result size of the result set is the number of documents retrieved, since dynamic pruning strategies
+	 * do not offer every matching document to the queue; exhaustive strategies may set it to {@link #offered()}.
+	 *
+	 * @return the result set
+	 */
+	public ResultSet toResultSet()
+	{
+		final int n = size;
+		final QueryResultSet rs = new QueryResultSet(n);
+		final int[] rsDocids = rs.getDocids();
+		final double[] rsScores = rs.getScores();
+
+		// repeatedly extract the smallest score, filling the result set from its end
+		while (size > 0) {
+			final int last = --size;
+			rsDocids[last] = docids[0];
+			rsScores[last] = scores[0];
+			final int docid = docids[last];
+			final double score = scores[last];
+			int i = 0;
+			for (int child; (child = 2 * i + 1) < size; i = child) {
+				if (child + 1 < size && scores[child + 1] < scores[child])
+					child++;
+				if (scores[child] >= score)
+					break;
+				docids[i] = docids[child];
+				scores[i] = scores[child];
+			}
+			docids[i] = docid;
+			scores[i] = score;
+		}
+		// documents with the same score are sorted by docid
+		for (int from = 0, to; from < n; from = to) {
+			for (to = from + 1; to < n && rsScores[to] == rsScores[from]; to++)
+				;
+			Arrays.sort(rsDocids, from, to);
+		}
+		rs.setExactResultSize(n);
+		return rs;
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.matching;
+
+import static it.cnr.isti.hpclab.ef.structures.EFBlockIterablePosting.END_OF_POSITIONS;
+
+import org.terrier.structures.EntryStatistics;
+
+import it.cnr.isti.hpclab.ef.structures.EFBlockIterablePosting;
+
+/**
+ * A posting list of the documents where the query terms appear in any order within a window of a given width,
+ * i.e., at positions whose maximum and minimum differ by less than the width.
+ * The frequency of a document is the number of positions of the query terms starting a window.
+ * 
+ * The positions are merged by always moving the term with the smallest position, 
+ * so every position is decoded at most once, and the walk stops as soon as a term runs out of positions.
+ */
+public class UnorderedWindowIterablePosting extends PositionalIterablePosting
+{
+	/** The width of the window. */
+	private final int width;
+	
+	/**
+	 * Creates an unordered window posting list over the given posting lists.
+	 * 
+	 * @param postings the posting lists of the query terms
+	 * @param stats the statistics of the posting lists
+	 * @param width the width of the window, not smaller than the number of terms
+	 */
+	public UnorderedWindowIterablePosting(final EFBlockIterablePosting[] postings, final EntryStatistics[] stats, final int width)
+	{
+		super(postings, stats);
+		if (width < postings.length)
+			throw new IllegalArgumentException("The window width " + width + " is smaller than the number of terms " + postings.length);
+		this.width = width;
+	}
+	
+	/**
+	 * Finds the first window starting at the current smallest position or later.
+	 * 
+	 * @return the term with the smallest position in the window, or -1 if there are no more windows
+	 */
+	private int nextWindow()
+	{
+		while (true) {
+			int min = 0;
+			int max = positions[0];
+			for (int i = 1; i < postings.length; i++) {
+				if (positions[i] < positions[min])
+					min = i;
+				if (positions[i] > max)
+					max = positions[i];
+			}
+			if (max == END_OF_POSITIONS)
+				return -1;
+			if (max - positions[min] < width)
+				return min;
+			positions[min] = postings[min].nextPosition();
+		}
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	protected boolean matches()
+	{
+		firstPositions();
+		return nextWindow() >= 0;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected int countMatches()
+	{
+		firstPositions();
+		int count = 0;
+		for (int min; (min = nextWindow()) >= 0; positions[min] = postings[min].nextPosition())
+			count++;
+		return count;
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.matching;
+
+import java.io.IOException;
+
+import org.terrier.matching.models.WeightingModel;
+import org.terrier.structures.EntryStatistics;
+import org.terrier.structures.Index;
+import org.terrier.structures.postings.IterablePosting;
+
+/**
+ * WAND (Broder et al., CIKM 2003) over the posting lists of an Elias-Fano index.
+ * 
+ * The pivot is the first document whose term upper bounds, summed in docid order, beat the threshold. 
+ * If all the lists up to the pivot are on the pivot document it is scored, otherwise the preceding lists 
+ * jump to the pivot document with {@link IterablePosting#next(int)}, skipping the documents in between without decoding them.
+ */
+public class WAND extends EFMatching
+{
+	/**
+	 * Creates a WAND matching strategy over the given index.
+	 * 
+	 * @param index the index
+	 */
+	public WAND(final Index index)
+	{
+		super(index);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void match(final IterablePosting[] postings, final EntryStatistics[] stats, final WeightingModel[][] models, final TopQueue top) throws IOException
+	{
+		final int n = postings.length;
+		final double[] upperBounds = upperBounds(stats, models);
+		// the query terms, by increasing docid of their current posting
+		final int[] order = new int[n];
+		for (int i = 0; i < n; i++)
+			order[i] = i;
+		
+		while (true) {
+			sortByDocid(order, postings);
+			
+			// the pivot term, i.e., the first one whose prefix sum of upper bounds beats the threshold
+			final double threshold = top.threshold();
+			double bound = 0;
+			int pivot = -1;
+			for (int i = 0; i < n && postings[order[i]].getId() != IterablePosting.END_OF_LIST; i++) {
+				bound += upperBounds[order[i]];
+				if (bound > threshold) {
+					pivot = i;
+					break;
+				}
+			}
+			if (pivot == -1)
+				break;
+			
+			final int pivotId = postings[order[pivot]].getId();
+			if (postings[order[0]].getId() == pivotId) {
+				// all the terms up to the pivot, and maybe some following ones, are on the pivot document
+				double score = 0;
+				for (int i = 0; i < n && postings[order[i]].getId() == pivotId; i++) {
+					score += score(postings[order[i]], models[order[i]]);
+					postings[order[i]].next();
+				}
+				top.insert(pivotId, score);
+			} else {
+				// no document before the pivot can beat the threshold
+				for (int i = 0; i < pivot && postings[order[i]].getId() < pivotId; i++)
+					postings[order[i]].next(pivotId);
+			}
+		}
+	}
+}
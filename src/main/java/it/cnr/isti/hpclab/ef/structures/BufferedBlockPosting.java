@@ -0,0 +1,43 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.structures;
+
+import org.terrier.structures.postings.BlockPosting;
+
+/**
+ * A block posting whose positions can be read from a buffer owned by the posting, without allocating an array for every posting.
+ * The buffer is reused, i.e., its content is valid only until the posting moves.
+ */
+public interface BufferedBlockPosting extends BlockPosting
+{
+	/**
+	 * Returns the buffer holding the positions of the current posting in its first {@link #getPositionCount()} elements.
+	 * 
+	 * @return the buffer holding the positions of the current posting
+	 */
+	int[] getPositionBuffer();
+	
+	/**
+	 * Returns the number of positions of the current posting.
+	 * 
+	 * @return the number of positions of the current posting
+	 */
+	int getPositionCount();
+}
@@ -20,14 +20,17 @@
 
 package it.cnr.isti.hpclab.ef.structures;
 
+import it.cnr.isti.hpclab.ef.util.BlockMaxEncoder;
 import it.cnr.isti.hpclab.ef.util.DocidReader;
 import it.cnr.isti.hpclab.ef.util.EFUtils;
 import it.cnr.isti.hpclab.ef.util.FreqReader;
 import it.cnr.isti.hpclab.ef.util.LongWordBitReader;
+import it.cnr.isti.hpclab.ef.util.TraversalCounters;
 import it.unimi.dsi.fastutil.longs.LongBigList;
 
 import java.io.IOException;
 
+import org.terrier.matching.models.WeightingModel;
 import org.terrier.structures.DocumentIndex;
 import org.terrier.structures.postings.BasicPostingImpl;
 import org.terrier.structures.postings.IterablePosting;
@@ -36,7 +39,7 @@ import org.terrier.structures.postings.WritablePosting;
 /**
  * Elias-Fano implementation of an iterable posting, i.e., a posting cursor over a posting list.
  */
-public class EFBasicIterablePosting implements IterablePosting
+public class EFBasicIterablePosting implements IterablePosting, Cloneable
 {
 	private DocumentIndex doi;
 
@@ -44,7 +47,28 @@ public class EFBasicIterablePosting implements IterablePosting
 	protected FreqReader freqReader = null;
 	protected long currentDocument;
 	protected long currentFrequency;
+	protected boolean frequencyDecoded;
 	protected long N;
+	protected long numEntries;
+	protected int log2Quantum;
+	protected int log2SubQuantum;
+	protected int subInventoryThreshold;
+	/** The counters of the work done on the current posting list, null if counting is disabled. */
+	protected TraversalCounters counters = null;
+	
+	/** The inverted index this cursor is returned to when closed, null if not pooled or already closed. */
+	EFInvertedIndex pool = null;
+	
+	/** The block-max sidecar of the index, null if there is none. */
+	LongBigList blockMaxList = null;
+	/** The logarithm of the number of postings of a block of the block-max sidecar. */
+	int log2BlockMax;
+	/** The index of the first block of the current posting list in the block-max sidecar. */
+	protected long blockMaxStart;
+	/** The number of blocks of the current posting list. */
+	protected long numBlocks;
+	/** The current block, i.e., the block of the current posting, or a following one after {@link #shallowNext(int)}. */
+	protected long block;
 	
 	/** 
 	 * Create an empty EFBasicIterablePosting.
@@ -69,37 +93,163 @@ public class EFBasicIterablePosting implements IterablePosting
 	public EFBasicIterablePosting(final LongBigList docidList, final LongBigList freqList, final DocumentIndex doi,
 								  final int numEntries, final int upperBoundDocid, final int upperBoundFreq, final int log2Quantum,
 								  final long docidsPosition, final long freqsPosition)
+	{
+		this(docidList, freqList, doi, upperBoundDocid, log2Quantum);
+		reset(numEntries, upperBoundFreq, docidsPosition, freqsPosition);
+	}
+
+	/**
+	 * Create a EFBasicIterablePosting object not yet positioned on any posting list. 
+	 * The cursor must be positioned with {@link #reset(EFLexiconEntry)} or {@link #reset(int, int, long, long)} before use, 
+	 * and it can be repositioned on a different posting list of the same index any number of times.
+	 * 
+	 * @param docidList the Elias-Fano compressed list view to access to read docids
+	 * @param freqList the Elias-Fano compressed list view to access to read frequencies
+	 * @param doi the document index to use to read document lengths
+	 * @param upperBoundDocid upper bound on the docids
+	 * @param log2Quantum the quantum used to encode forward (skip) pointers
+	 */
+	public EFBasicIterablePosting(final LongBigList docidList, final LongBigList freqList, final DocumentIndex doi,
+								  final int upperBoundDocid, final int log2Quantum)
+	{
+		this(docidList, freqList, doi, upperBoundDocid, log2Quantum, 0, 0);
+	}
+
+	/**
+	 * Create a EFBasicIterablePosting object not yet positioned on any posting list, over an index where 
+	 * long docid lists carry a second-level inventory of skip pointers.
+	 * 
+	 * @param docidList the Elias-Fano compressed list view to access to read docids
+	 * @param freqList the Elias-Fano compressed list view to access to read frequencies
+	 * @param doi the document index to use to read document lengths
+	 * @param upperBoundDocid upper bound on the docids
+	 * @param log2Quantum the quantum used to encode forward (skip) pointers
+	 * @param subInventoryThreshold the minimum number of postings of a list with a second-level inventory
+	 * @param log2SubQuantum the quantum used to encode second-level skip pointers, 0 if there is no second-level inventory
+	 */
+	public EFBasicIterablePosting(final LongBigList docidList, final LongBigList freqList, final DocumentIndex doi,
+								  final int upperBoundDocid, final int log2Quantum, final int subInventoryThreshold, final int log2SubQuantum)
 	{
 		this.doi = doi;
 		this.N = upperBoundDocid;
+		this.log2Quantum = log2Quantum;
+		this.subInventoryThreshold = subInventoryThreshold;
+		this.log2SubQuantum = log2SubQuantum;
 		
+		this.docidReader = newDocidReader(docidList);
+		this.freqReader = new FreqReader(freqList, log2Quantum);
 		
+		if (TraversalCounters.ENABLED) {
+			this.counters = new TraversalCounters();
+			docidReader.counters(counters);
+			freqReader.counters(counters);
+		}
+	}
+
+	/**
+	 * Creates the reader of the docids of this cursor, not yet positioned on any list.
+	 * Subclasses reading differently encoded docid lists override this method together with {@link #resetDocidReader(int, long)}.
+	 * 
+	 * @param docidList the compressed list view to access to read docids
+	 * @return the docid reader
+	 */
+	protected DocidReader newDocidReader(final LongBigList docidList)
+	{
+		return new DocidReader(docidList, new LongWordBitReader(docidList, 0), new LongWordBitReader(docidList, 0), log2Quantum);
+	}
+
+	/**
+	 * Positions the docid reader at the beginning of a docid list.
+	 * 
+	 * @param numEntries number of postings in the posting list
+	 * @param docidsPosition the initial bit offset in the docids file of this posting list
+	 */
+	protected void resetDocidReader(final int numEntries, final long docidsPosition)
+	{
 		// the number of lower bits for the EF encoding of a list of given length, upper bound and strictness.
-		final int l = EFUtils.lowerBits(numEntries + 1, upperBoundDocid, false);
+		final int l = EFUtils.lowerBits(numEntries + 1, N, false);
 		// the size in bits of forward or skip pointers to the EF encoding of a list of
 		// given length, upper bound and strictness.
-		final int pointerSize = EFUtils.pointerSize(numEntries + 1, upperBoundDocid, false, true);
+		final int pointerSize = EFUtils.pointerSize(numEntries + 1, N, false, true);
 		// the number of skip pointers to the EF encoding of a list of given length,
 		// upper bound and strictness.
-		final long numberOfPointers = EFUtils.numberOfPointers(numEntries + 1, upperBoundDocid, log2Quantum, false,
+		final long numberOfPointers = EFUtils.numberOfPointers(numEntries + 1, N, log2Quantum, false,
 				true);
 
-		// Reader of elements of size pointerSize
-		final LongWordBitReader skipPointers = new LongWordBitReader(docidList, pointerSize);
-		// Reader of elements of size l
-		final LongWordBitReader lowerBits = new LongWordBitReader(docidList, l);
-
 		final long skipPointersStart = docidsPosition;
 		// Where to start reading the lower bits array
 		final long lowerBitsStart = skipPointersStart + pointerSize * numberOfPointers;
-		lowerBits.position(lowerBitsStart);
 
-		this.docidReader = new DocidReader(docidList, lowerBits, lowerBitsStart, l, skipPointers, skipPointersStart,
-				numberOfPointers, pointerSize, numEntries, log2Quantum);
+		if (log2SubQuantum != 0 && numEntries >= subInventoryThreshold)
+			docidReader.reset(l, skipPointersStart, numberOfPointers, pointerSize, numEntries, 
+							  EFUtils.numberOfSubPointers(numEntries + 1, N, log2Quantum, log2SubQuantum, false), log2SubQuantum);
+		else
+			docidReader.reset(lowerBitsStart, l, skipPointersStart, numberOfPointers, pointerSize, numEntries);
+	}
+
+	/**
+	 * Position this cursor at the beginning of the posting list described by a lexicon entry.
+	 * 
+	 * @param le the lexicon entry of the posting list
+	 */
+	public void reset(final EFLexiconEntry le)
+	{
+		reset(le.getDocumentFrequency(), le.getFrequency(), le.getDocidOffset(), le.getFreqOffset());
+	}
+	
+	/**
+	 * Position this cursor at the beginning of a posting list.
+	 * 
+	 * @param numEntries number of postings in the posting list
+	 * @param upperBoundFreq upper bound on the frequency
+	 * @param docidsPosition the initial bit offset in the docids file of this posting list
+	 * @param freqsPosition the initial bit offset in the freq file of this posting list
+	 */
+	public void reset(final int numEntries, final int upperBoundFreq, final long docidsPosition, final long freqsPosition)
+	{
+		this.numEntries = numEntries;
+		if (counters != null)
+			counters.clear();
+		
+		resetDocidReader(numEntries, docidsPosition);
 		currentDocument = -2;
 
-		this.freqReader = new FreqReader(freqList, freqsPosition, numEntries, upperBoundFreq, log2Quantum);
+		freqReader.reset(freqsPosition, numEntries, upperBoundFreq);
 		currentFrequency = 0;
+		frequencyDecoded = true;
+	}
+
+	/**
+	 * Position the block-max metadata of this cursor at the beginning of the current posting list.
+	 * 
+	 * @param blockMaxStart the index of the first block of the posting list in the block-max sidecar
+	 */
+	void resetBlockMax(final long blockMaxStart)
+	{
+		this.blockMaxStart = blockMaxStart;
+		this.numBlocks = BlockMaxEncoder.numberOfBlocks(numEntries, log2BlockMax);
+		this.block = 0;
+	}
+
+	/**
+	 * Returns the counters of the work done on the current posting list, since this cursor was positioned on it.
+	 * Counting is enabled by the {@link it.cnr.isti.hpclab.ef.EliasFano#TRAVERSAL_COUNTERS} system property.
+	 * 
+	 * @return the counters of the work done on the current posting list, or null if counting is disabled
+	 */
+	public TraversalCounters getCounters()
+	{
+		return counters;
+	}
+
+	/**
+	 * Returns the document index used to read document lengths.
+	 * 
+	 * @return the document index used to read document lengths
+	 */
+	public DocumentIndex getDocumentIndex()
+	{
+		return doi;
 	}
 
 	/** {@inheritDoc} */
@@ -108,9 +258,17 @@ public class EFBasicIterablePosting implements IterablePosting
 		return (int) currentDocument;
 	}
 
-	/** {@inheritDoc} */
+	/** 
+	 * {@inheritDoc} 
+	 * The frequency is decoded on the first invocation after the cursor has moved, 
+	 * since callers interested in docids only (e.g., boolean filters or dynamic pruning) never ask for it.
+	 */
 	@Override
 	public int getFrequency() {
+		if (!frequencyDecoded) {
+			currentFrequency = freqReader.getLong(docidReader.currentIndex - 1);
+			frequencyDecoded = true;
+		}
 		return (int) currentFrequency;
 	}
 
@@ -134,13 +292,40 @@ public class EFBasicIterablePosting implements IterablePosting
 	/** {@inheritDoc} */
 	@Override
 	public WritablePosting asWritablePosting() {
-		return new BasicPostingImpl((int) currentDocument, (int) currentFrequency);
+		return new BasicPostingImpl((int) currentDocument, getFrequency());
 	}
 
-	/** Empty method, do nothing */
+	/** 
+	 * If this cursor was obtained from {@link EFInvertedIndex#getPostings(org.terrier.structures.Pointer)}, 
+	 * its state is returned to the pool of the index and it must not be used anymore. 
+	 */
 	@Override
 	public void close() throws IOException {
-		// do nothing
+		if (pool != null)
+			pool.release(this);
+	}
+
+	/**
+	 * Detaches this cursor from its pool, returning a shallow copy taking over its state (readers, counters and pool).
+	 * This cursor is left at the end of its list without readers, so that using it after closing it fails fast
+	 * instead of moving the readers of the copy.
+	 * 
+	 * @return a copy of this cursor, still attached to the pool
+	 */
+	EFBasicIterablePosting detach()
+	{
+		try {
+			final EFBasicIterablePosting copy = (EFBasicIterablePosting) super.clone();
+			pool = null;
+			docidReader = null;
+			freqReader = null;
+			counters = null;
+			currentDocument = IterablePosting.END_OF_LIST;
+			frequencyDecoded = false;
+			return copy;
+		} catch (final CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
 	}
 
 	/** {@inheritDoc} */
@@ -152,7 +337,7 @@ public class EFBasicIterablePosting implements IterablePosting
 		if ((currentDocument = docidReader.getNextPrefixSum()) >= N) {
 			currentDocument = IterablePosting.END_OF_LIST;
 		} else {
-			currentFrequency = freqReader.getLong(docidReader.currentIndex - 1);
+			frequencyDecoded = false;
 		}
 
 		return (int) currentDocument;
@@ -171,12 +356,155 @@ public class EFBasicIterablePosting implements IterablePosting
 		if ( ( currentDocument = docidReader.skipTo( targetId ) ) >= N ) {
 			currentDocument = IterablePosting.END_OF_LIST;
 		}  else {
-			currentFrequency = freqReader.getLong( docidReader.currentIndex - 1 );
+			frequencyDecoded = false;
 		}
 		
 		return (int) currentDocument;
 	}
 
+	/**
+	 * Decodes up to <code>docids.length</code> postings at once, starting from the posting following the current one.
+	 * Docids and frequencies are read straight from the Elias-Fano bit arrays into the given arrays,
+	 * so the per-posting bookkeeping of {@link #next()} is paid once per block.
+	 * After the call, the cursor is positioned on the last decoded posting, as if {@link #next()} had been called 
+	 * once for every decoded posting; the two methods can be freely interleaved.
+	 * 
+	 * If <code>freqs</code> is <code>null</code> only docids are decoded, and the frequency of the last decoded posting
+	 * is still available through {@link #getFrequency()}.
+	 * 
+	 * @param docids the array where to store the decoded docids
+	 * @param freqs the array where to store the decoded frequencies, at least as long as <code>docids</code>, or <code>null</code>
+	 * @return the number of decoded postings, 0 if the end of the posting list has been reached
+	 * @throws IOException if something goes wrong
+	 */
+	public int nextBlock(final int[] docids, final int[] freqs) throws IOException 
+	{
+		if (currentDocument == IterablePosting.END_OF_LIST)
+			return 0;
+		
+		final long first = docidReader.currentIndex;
+		final int n = (int) Math.min(docids.length, numEntries - first);
+		if (n <= 0) {
+			currentDocument = IterablePosting.END_OF_LIST;
+			return 0;
+		}
+		
+		docidReader.getNextPrefixSums(docids, n);
+		currentDocument = docids[n - 1];
+		
+		if (freqs != null) {
+			freqReader.getLongs(first, freqs, n);
+			currentFrequency = freqs[n - 1];
+			frequencyDecoded = true;
+		} else {
+			frequencyDecoded = false;
+		}
+		return n;
+	}
+
+	/**
+	 * Return true if this cursor exposes the block-max metadata of its posting list, false otherwise.
+	 * 
+	 * @return true if this cursor exposes the block-max metadata of its posting list
+	 */
+	public boolean hasBlockMax()
+	{
+		return blockMaxList != null;
+	}
+	
+	/** Moves the current block forward to the block of the current posting, if it is behind. */
+	private void syncBlock()
+	{
+		if (blockMaxList == null)
+			throw new IllegalStateException("The index has no block-max sidecar");
+		if (currentDocument == IterablePosting.END_OF_LIST)
+			block = numBlocks;
+		else if (currentDocument >= 0)
+			block = Math.max(block, (docidReader.currentIndex - 1) >>> log2BlockMax);
+	}
+	
+	/**
+	 * Moves the current block forward to the first block whose last docid is not smaller than the target, 
+	 * without decoding any posting (a <em>shallow</em> move, in Block-Max WAND terminology).
+	 * The current block never moves backward, and the cursor stays on its current posting.
+	 * 
+	 * @param targetId the target docid
+	 * @return the last docid of the new current block, or {@link IterablePosting#END_OF_LIST} if there is no such block
+	 */
+	public int shallowNext(final int targetId)
+	{
+		syncBlock();
+		while (block < numBlocks && blockLastDocid() < targetId)
+			block++;
+		return getBlockLastDocid();
+	}
+	
+	/**
+	 * Moves the cursor to the first posting following the current block.
+	 * 
+	 * @return the docid of the new current posting, or {@link IterablePosting#END_OF_LIST}
+	 * @throws IOException if something goes wrong
+	 */
+	public int skipToNextBlock() throws IOException
+	{
+		final int last = getBlockLastDocid();
+		if (last == IterablePosting.END_OF_LIST)
+			return (int) (currentDocument = IterablePosting.END_OF_LIST);
+		return next(last + 1);
+	}
+	
+	private long blockLastDocid()
+	{
+		return blockMaxList.getLong(BlockMaxEncoder.ENTRY_SIZE * (blockMaxStart + block)) >>> Integer.SIZE;
+	}
+	
+	/**
+	 * Returns the last docid of the current block.
+	 * 
+	 * @return the last docid of the current block, or {@link IterablePosting#END_OF_LIST} if the posting list is exhausted
+	 */
+	public int getBlockLastDocid()
+	{
+		syncBlock();
+		return block < numBlocks ? (int) blockLastDocid() : IterablePosting.END_OF_LIST;
+	}
+	
+	/**
+	 * Returns the maximum frequency in the current block.
+	 * 
+	 * @return the maximum frequency in the current block, or 0 if the posting list is exhausted
+	 */
+	public int getBlockMaxFrequency()
+	{
+		syncBlock();
+		return block < numBlocks ? (int) blockMaxList.getLong(BlockMaxEncoder.ENTRY_SIZE * (blockMaxStart + block)) : 0;
+	}
+	
+	/**
+	 * Returns the minimum document length in the current block.
+	 * 
+	 * @return the minimum document length in the current block, or {@link Integer#MAX_VALUE} if the posting list is exhausted
+	 */
+	public int getBlockMinDocumentLength()
+	{
+		syncBlock();
+		return block < numBlocks ? (int) blockMaxList.getLong(BlockMaxEncoder.ENTRY_SIZE * (blockMaxStart + block) + 1) : Integer.MAX_VALUE;
+	}
+	
+	/**
+	 * Returns an upper bound on the score of the postings of the current block, i.e., the score of a posting 
+	 * with the maximum frequency and the minimum document length of the block. 
+	 * The bound holds for weighting models increasing in the frequency and decreasing in the document length, as BM25.
+	 * 
+	 * @param model the weighting model, already prepared for the term of this posting list
+	 * @return an upper bound on the score of the postings of the current block, or 0 if the posting list is exhausted
+	 */
+	public double getBlockMaxScore(final WeightingModel model)
+	{
+		final int maxFrequency = getBlockMaxFrequency();
+		return maxFrequency == 0 ? 0 : model.score(maxFrequency, getBlockMinDocumentLength());
+	}
+	
 	/** {@inheritDoc} */
 	@Override
 	public boolean endOfPostings() 
@@ -184,11 +512,13 @@ public class EFBasicIterablePosting implements IterablePosting
 		return (currentDocument == IterablePosting.END_OF_LIST);
 	}
 	
-	/** {@inheritDoc} */
+	/**
+	 * Returns the current docid and, if already decoded, its frequency, without moving the frequency reader.
+	 */
 	@Override
 	public String toString()
 	{
-		return "(" + currentDocument + "," + currentFrequency + ")";
+		return "(" + currentDocument + "," + (frequencyDecoded ? Long.toString(currentFrequency) : "?") + ")";
 	}
 	
 	/**
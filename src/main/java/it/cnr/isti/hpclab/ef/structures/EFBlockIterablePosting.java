@@ -23,9 +23,7 @@ import java.io.IOException;
 import java.util.Arrays;
 
 import org.terrier.structures.DocumentIndex;
-import org.terrier.structures.postings.BlockPosting;
 import org.terrier.structures.postings.BlockPostingImpl;
-import org.terrier.structures.postings.IterablePosting;
 import org.terrier.structures.postings.WritablePosting;
 
 import it.cnr.isti.hpclab.ef.util.LongWordBitReader;
@@ -37,12 +35,22 @@ import it.unimi.dsi.fastutil.longs.LongBigList;
  * Elias-Fano implementation of an block iterable posting, i.e., a posting cursor over a posting list with positional information stored in postings.
  */
 
-public class EFBlockIterablePosting extends EFBasicIterablePosting implements BlockPosting
+public class EFBlockIterablePosting extends EFBasicIterablePosting implements BufferedBlockPosting
 {
 	private PositionReader posReader = null;
+	private LongWordBitReader posHeaderReader = null;
 	
+	/** The value returned by {@link #nextPosition()} when the positions of the current posting are exhausted. */
+	public static final int END_OF_POSITIONS = Integer.MAX_VALUE;
+	
+	/** The positions of the current posting decoded so far, in a buffer reused by all the postings. */
+	private int[] positionBuffer = new int[16];
+	/** A copy of the positions of the current posting returned by {@link #getPositions()}, or null. */
 	private int[] currentPositions;
-	private boolean positionsDecoded;
+	/** The number of positions of the current posting decoded so far. */
+	private int numDecodedPositions;
+	/** The index of the current position of {@link #firstPosition()} and {@link #nextPosition()}. */
+	private int positionIndex;
 
 	/** 
 	 * Create an empty EFBlockIterablePosting.
@@ -72,81 +80,223 @@ public class EFBlockIterablePosting extends EFBasicIterablePosting implements Bl
 								  final int log2Quantum, 
 								  final long docidsPosition, final long freqsPosition, final long posPosition)
 	{
-		super(docidList, freqList, doi, numEntries, upperBoundDocid, upperBoundFreq, log2Quantum, docidsPosition, freqsPosition);
+		this(docidList, freqList, posList, doi, upperBoundDocid, log2Quantum);
+		reset(numEntries, upperBoundFreq, docidsPosition, freqsPosition, posPosition);
+	}
+
+	/**
+	 * Create a EFBlockIterablePosting object not yet positioned on any posting list.
+	 * The cursor must be positioned with {@link #reset(EFLexiconEntry)} or {@link #reset(int, int, long, long, long)} before use. 
+	 * 
+	 * @param docidList the Elias-Fano compressed list view to access to read docids
+	 * @param freqList the Elias-Fano compressed list view to access to read frequencies
+	 * @param posList the Elias-Fano compressed list view to access to read positional information
+	 * @param doi the document index to use to read document lengths
+	 * @param upperBoundDocid upper bound on the docids
+	 * @param log2Quantum the quantum used to encode forward (skip) pointers
+	 */
+	public EFBlockIterablePosting(final LongBigList docidList, final LongBigList freqList, final LongBigList posList, 
+								  final DocumentIndex doi, final int upperBoundDocid, final int log2Quantum)
+	{
+		this(docidList, freqList, posList, doi, upperBoundDocid, log2Quantum, 0, 0);
+	}
+
+	/**
+	 * Create a EFBlockIterablePosting object not yet positioned on any posting list, over an index where 
+	 * long docid lists carry a second-level inventory of skip pointers.
+	 * 
+	 * @param docidList the Elias-Fano compressed list view to access to read docids
+	 * @param freqList the Elias-Fano compressed list view to access to read frequencies
+	 * @param posList the Elias-Fano compressed list view to access to read positional information
+	 * @param doi the document index to use to read document lengths
+	 * @param upperBoundDocid upper bound on the docids
+	 * @param log2Quantum the quantum used to encode forward (skip) pointers
+	 * @param subInventoryThreshold the minimum number of postings of a list with a second-level inventory
+	 * @param log2SubQuantum the quantum used to encode second-level skip pointers, 0 if there is no second-level inventory
+	 */
+	public EFBlockIterablePosting(final LongBigList docidList, final LongBigList freqList, final LongBigList posList, 
+								  final DocumentIndex doi, final int upperBoundDocid, final int log2Quantum,
+								  final int subInventoryThreshold, final int log2SubQuantum)
+	{
+		super(docidList, freqList, doi, upperBoundDocid, log2Quantum, subInventoryThreshold, log2SubQuantum);
+		
+		this.posHeaderReader = new LongWordBitReader( posList, 0 );
+		this.posReader = new PositionReader( posList, log2Quantum );
+		
+		if (counters != null) {
+			posHeaderReader.counters(counters);
+			posReader.counters(counters);
+		}
+	}
+
+	/** {@inheritDoc} The position readers and buffers are taken over by the copy as well. */
+	@Override
+	EFBasicIterablePosting detach()
+	{
+		final EFBasicIterablePosting copy = super.detach();
+		posReader = null;
+		posHeaderReader = null;
+		positionBuffer = null;
+		currentPositions = null;
+		numDecodedPositions = positionIndex = 0;
+		return copy;
+	}
+
+	/**
+	 * Position this cursor at the beginning of the posting list described by a lexicon entry, 
+	 * that must be a {@link EFBlockLexiconEntry}.
+	 * 
+	 * @param le the lexicon entry of the posting list
+	 */
+	@Override
+	public void reset(final EFLexiconEntry le)
+	{
+		reset(le.getDocumentFrequency(), le.getFrequency(), le.getDocidOffset(), le.getFreqOffset(), ((EFBlockLexiconEntry) le).getPosOffset());
+	}
+
+	/**
+	 * Position this cursor at the beginning of a posting list.
+	 * 
+	 * @param numEntries number of postings in the posting list
+	 * @param upperBoundFreq upper bound on the frequency
+	 * @param docidsPosition the initial bit offset in the docids file of this posting list
+	 * @param freqsPosition the initial bit offset in the freq file of this posting list
+	 * @param posPosition the initial bit offset in the position file of this posting list
+	 */
+	public void reset(final int numEntries, final int upperBoundFreq, final long docidsPosition, final long freqsPosition, final long posPosition)
+	{
+		super.reset(numEntries, upperBoundFreq, docidsPosition, freqsPosition);
 		
-		LongWordBitReader posLongWordBitReader = new LongWordBitReader( posList, 0 );
-		posLongWordBitReader.position(posPosition);
+		posHeaderReader.position(posPosition);
 				
 		// the number of lower bits for the EF encoding of a list of given length, upper bound and strictness.
-		int l = (int) posLongWordBitReader.readGamma();
+		int l = (int) posHeaderReader.readGamma();
 		// the number of skip pointers to the EF encoding of a list of given length, upper bound and strictness.
 		long numberOfPointers = EFUtils.numberOfPointers( upperBoundFreq, -1, log2Quantum, true, false );
 		// the size in bits of forward or skip pointers to the EF encoding of a list of given length, upper bound and strictness.
-		int pointerSize = (numberOfPointers == 0 ? -1 : (int) posLongWordBitReader.readNonZeroGamma());
+		int pointerSize = (numberOfPointers == 0 ? -1 : (int) posHeaderReader.readNonZeroGamma());
 		
-		
-		this.posReader = new PositionReader( posList, l, posLongWordBitReader.position(), numberOfPointers, pointerSize, upperBoundFreq, log2Quantum );
+		posReader.reset( l, posHeaderReader.position(), numberOfPointers, pointerSize, upperBoundFreq );
+		clearPositions();
+	}
+	
+	/**
+	 * Forgets the positions of the current posting, before moving to another posting.
+	 */
+	private void clearPositions()
+	{
+		numDecodedPositions = 0;
 		currentPositions = null;
 	}
 	
-	/** {@inheritDoc} */
+	/**
+	 * Decodes the positions of the current posting up to the given one, if not already decoded.
+	 * 
+	 * @param i the index of the position
+	 * @return the position
+	 */
+	private int decodePosition(final int i)
+	{
+		if (numDecodedPositions == 0) {
+			// the frequency must be decoded first, to position the frequency reader on the current posting
+			final int numPositions = getFrequency();
+			if (positionBuffer.length < numPositions)
+				positionBuffer = new int[Math.max(numPositions, 2 * positionBuffer.length)];
+			positionBuffer[0] = posReader.getFirstPosition(super.freqReader.prevPrefixSum() + super.freqReader.currentIndex() - 1);
+			numDecodedPositions = 1;
+		}
+		while (numDecodedPositions <= i)
+			positionBuffer[numDecodedPositions++] = posReader.getNextPosition();
+		return positionBuffer[i];
+	}
+	
+	/** 
+	 * {@inheritDoc}
+	 * The returned array is a copy of the positions, allocated once per posting: 
+	 * {@link #getPositionBuffer()} or {@link #firstPosition()} and {@link #nextPosition()} do not allocate at all.
+	 */
 	@Override
 	public int[] getPositions()
 	{
-		if (!positionsDecoded) {
-			int numPositions = super.getFrequency();
-			currentPositions = new int[numPositions];
-		
-			currentPositions[0] = posReader.getFirstPosition(super.freqReader.prevPrefixSum() + super.freqReader.currentIndex() - 1);
-			for (int i = 1; i < numPositions; i++)
-				currentPositions[i] = posReader.getNextPosition();
-			positionsDecoded = true;
-		}
+		if (currentPositions == null)
+			currentPositions = Arrays.copyOf(getPositionBuffer(), getPositionCount());
 		return currentPositions;
 	}
 	
 	/** {@inheritDoc} */
 	@Override
-	public int next() throws IOException 
+	public int[] getPositionBuffer()
 	{
-		if ( currentDocument == IterablePosting.END_OF_LIST ) 
-			return IterablePosting.END_OF_LIST;
-
-		if ( ( currentDocument = docidReader.getNextPrefixSum() ) >= N ) {
-			currentDocument = IterablePosting.END_OF_LIST;
-		} else {
-			currentFrequency = freqReader.getLong( docidReader.currentIndex - 1 );
-			positionsDecoded = false;
+		decodePosition(getFrequency() - 1);
+		return positionBuffer;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public int getPositionCount()
+	{
+		return getFrequency();
+	}
+	
+	/**
+	 * Returns the first position of the current posting. 
+	 * Together with {@link #nextPosition()}, positions are decoded lazily, so that positional checks 
+	 * can stop as soon as they succeed or fail; restarting from the first position does not decode positions again.
+	 * 
+	 * @return the first position of the current posting
+	 */
+	public int firstPosition()
+	{
+		positionIndex = 0;
+		return decodePosition(0);
+	}
+	
+	/**
+	 * Returns the position following the last one returned by {@link #firstPosition()} or {@link #nextPosition()}.
+	 * 
+	 * @return the next position of the current posting, or {@link #END_OF_POSITIONS} if there are no more positions
+	 */
+	public int nextPosition()
+	{
+		if (positionIndex + 1 >= getFrequency()) {
+			positionIndex = getFrequency();
+			return END_OF_POSITIONS;
 		}
-		
-		return (int) currentDocument;	
+		return decodePosition(++positionIndex);
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public int next() throws IOException 
+	{
+		clearPositions();
+		return super.next();
 	}
 
 	/** {@inheritDoc} */
 	@Override
 	public int next(int targetId) throws IOException 
 	{
-		if ( targetId >= N ) 
-			return (int) (currentDocument = IterablePosting.END_OF_LIST);
-
 		if ( currentDocument >= targetId ) 
 			return (int) currentDocument;
 
-		if ( ( currentDocument = docidReader.skipTo( targetId ) ) >= N ) {
-			currentDocument = IterablePosting.END_OF_LIST;
-		}  else {
-			currentFrequency = freqReader.getLong( docidReader.currentIndex - 1 );
-			positionsDecoded = false;
-		}
-		
-		return (int) currentDocument;
+		clearPositions();
+		return super.next(targetId);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int nextBlock(final int[] docids, final int[] freqs) throws IOException 
+	{
+		clearPositions();
+		return super.nextBlock(docids, freqs);
 	}
 
 	/** {@inheritDoc} */
 	@Override
 	public String toString()
 	{
-		return super.toString() + "[" + Arrays.toString(currentPositions) + "]";
+		return super.toString() + "[" + Arrays.toString(Arrays.copyOf(positionBuffer, numDecodedPositions)) + "]";
 	}
 
 	/** {@inheritDoc} */
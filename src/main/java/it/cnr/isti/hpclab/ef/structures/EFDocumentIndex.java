@@ -20,8 +20,11 @@
 package it.cnr.isti.hpclab.ef.structures;
 
 import it.cnr.isti.hpclab.ef.EliasFano;
+import it.cnr.isti.hpclab.ef.util.LongWordBitWriter;
+import it.unimi.dsi.fastutil.longs.LongBigList;
 import it.unimi.dsi.io.InputBitStream;
 import it.unimi.dsi.io.OutputBitStream;
+import it.unimi.dsi.util.ByteBufferLongBigList;
 
 import java.io.DataInput;
 import java.io.DataOutput;
@@ -29,6 +32,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.Iterator;
 
 import org.apache.log4j.Logger;
@@ -46,12 +51,33 @@ import org.terrier.structures.Pointer;
  * It is a lightweight implementation, where only document lengths are stored, 
  * and loaded uncompressed in main memory at construction time.
  * This new document index is automatically generated by the Elias-Fano index conversion processes.
+ * 
+ * Document lengths can also be stored in a packed format, selected by the {@link EliasFano#SIZES_CODEC} index property,
+ * that is memory-mapped instead of loaded: documents are grouped in blocks of {@link #PACKED_BLOCK_SIZE} documents,
+ * and the lengths of a block are written with the bits of the longest one. A directory with a longword per block,
+ * holding the bit offset and the width of the block, precedes the lengths, so that any length is accessed in constant time.
  */
 public class EFDocumentIndex implements DocumentIndex
 {
 	private static Logger LOGGER = Logger.getLogger( EFDocumentIndex.class );
 	
+	/** The logarithm of the number of documents of a block of the packed format. */
+	public static final int LOG2_PACKED_BLOCK_SIZE = 7;
+	/** The number of documents of a block of the packed format. */
+	public static final int PACKED_BLOCK_SIZE = 1 << LOG2_PACKED_BLOCK_SIZE;
+	/** The number of bits of the width in a directory entry of the packed format. */
+	private static final int WIDTH_BITS = 6;
+	
+	/** The document lengths, null if they are packed. */
 	private final int[] docLengths;
+	/** The packed document lengths, null if they are loaded in memory. */
+	private final LongBigList packedLengths;
+	/** The starting position of the lengths in {@link #packedLengths}, i.e., the length of the directory in bits. */
+	private final long packedStart;
+	/** The number of documents. */
+	private final int numberOfDocuments;
+	/** The quantized document lengths, built on first use. */
+	private QuantizedDocumentLengths quantizedLengths;
 	
 	/**
 	 * Constructor.
@@ -60,7 +86,16 @@ public class EFDocumentIndex implements DocumentIndex
 	 */
 	public EFDocumentIndex(final IndexOnDisk index) throws IOException
 	{
-		this(index.getPath() + File.separator + index.getPrefix() + EliasFano.SIZE_EXTENSION, index.getCollectionStatistics().getNumberOfDocuments());
+		final String path = index.getPath() + File.separator + index.getPrefix() + EliasFano.SIZE_EXTENSION;
+		this.numberOfDocuments = index.getCollectionStatistics().getNumberOfDocuments();
+		if (EliasFano.PACKED_CODEC.equals(index.getIndexProperty(EliasFano.SIZES_CODEC, EliasFano.GAMMA_CODEC))) {
+			this.docLengths = null;
+			this.packedLengths = map(path, EFInvertedIndex.byteOrder(index));
+		} else {
+			this.docLengths = readGammas(path, numberOfDocuments);
+			this.packedLengths = null;
+		}
+		this.packedStart = numberOfPackedBlocks(numberOfDocuments) * (long) Long.SIZE;
 	}
 	
 	/**
@@ -71,12 +106,53 @@ public class EFDocumentIndex implements DocumentIndex
 	 */
 	public EFDocumentIndex(final String path, final int size) throws IOException
 	{
-		docLengths = new int[size];
+		this.docLengths = readGammas(path, size);
+		this.packedLengths = null;
+		this.packedStart = 0;
+		this.numberOfDocuments = size;
+	}
+	
+	/**
+	 * Constructor of a document index in the packed format, memory-mapped without reading the lengths.
+	 * @param path the file path of the packed document lengths
+	 * @param size the number of documents
+	 * @param byteOrder the byte order of the file
+	 * @throws IOException is something goes wrong in opening/accessing/closing the document index file
+	 */
+	public EFDocumentIndex(final String path, final int size, final ByteOrder byteOrder) throws IOException
+	{
+		this.docLengths = null;
+		this.packedLengths = map(path, byteOrder);
+		this.packedStart = numberOfPackedBlocks(size) * (long) Long.SIZE;
+		this.numberOfDocuments = size;
+	}
+	
+	private static int[] readGammas(final String path, final int size) throws IOException
+	{
+		final int[] docLengths = new int[size];
 		final InputBitStream in = new InputBitStream( new FileInputStream( path ), false );
 		LOGGER.debug( "Loading document lengths..." );
 		in.readGammas( docLengths, docLengths.length );		  
 		LOGGER.debug( "Completed." );
 		in.close();
+		return docLengths;
+	}
+	
+	@SuppressWarnings("resource")
+	private static LongBigList map(final String path, final ByteOrder byteOrder) throws IOException
+	{
+		return ByteBufferLongBigList.map( new FileInputStream( path ).getChannel(), byteOrder, MapMode.READ_ONLY );
+	}
+	
+	private static int numberOfPackedBlocks(final int size)
+	{
+		return (int) ((size + PACKED_BLOCK_SIZE - 1L) >>> LOG2_PACKED_BLOCK_SIZE);
+	}
+	
+	/** Returns the docid following the last one of a block of the packed format. */
+	private static int blockEnd(final int block, final int size)
+	{
+		return (int) Math.min(size, (block + 1L) << LOG2_PACKED_BLOCK_SIZE);
 	}
 	
 	@Override
@@ -89,14 +165,38 @@ public class EFDocumentIndex implements DocumentIndex
 	@Override
 	public int getDocumentLength(final int docid) throws IOException 
 	{
-		return docLengths[docid];
+		if (docLengths != null)
+			return docLengths[docid];
+		
+		final long entry = packedLengths.getLong(docid >>> LOG2_PACKED_BLOCK_SIZE);
+		final int width = (int) (entry & (1 << WIDTH_BITS) - 1);
+		if (width == 0)
+			return 0;
+		final long position = packedStart + (entry >>> WIDTH_BITS) + (long) (docid & PACKED_BLOCK_SIZE - 1) * width;
+		final int bitPosition = (int) (position % Long.SIZE);
+		long length = packedLengths.getLong(position / Long.SIZE) >>> bitPosition;
+		if (bitPosition + width > Long.SIZE)
+			length |= packedLengths.getLong(position / Long.SIZE + 1) << -bitPosition;
+		return (int) (length & (1L << width) - 1);
 	}
 
 	/** {@inheritDoc} */
 	@Override
 	public int getNumberOfDocuments() 
 	{
-		return docLengths.length;
+		return numberOfDocuments;
+	}
+
+	/**
+	 * Returns the quantized document lengths, built from the document lengths on the first invocation.
+	 * @return the quantized document lengths
+	 * @throws IOException is something goes wrong in accessing the document lengths
+	 */
+	public synchronized QuantizedDocumentLengths getQuantizedLengths() throws IOException
+	{
+		if (quantizedLengths == null)
+			quantizedLengths = new QuantizedDocumentLengths(this);
+		return quantizedLengths;
 	}
 
 	/**
@@ -113,6 +213,35 @@ public class EFDocumentIndex implements DocumentIndex
 		out.close();
 	}
 	
+	/**
+	 * Static methods to store the document lengths of a document index in the packed format on file, in native byte order.
+	 * @param index the document index containing the integer to encode and write to file.
+	 * @param path the destination file
+	 * @throws IOException is something goes wrong in opening/accessing/closing the document index file 
+	 */
+	public static void writePacked(final DocumentIndex index, final String path) throws IOException
+	{
+		final int size = index.getNumberOfDocuments();
+		final int numBlocks = numberOfPackedBlocks(size);
+		final int[] widths = new int[numBlocks];
+		for (int block = 0; block < numBlocks; block++) {
+			int max = 0;
+			for (int i = block << LOG2_PACKED_BLOCK_SIZE; i < blockEnd(block, size); i++)
+				max |= index.getDocumentLength(i);
+			widths[block] = Integer.SIZE - Integer.numberOfLeadingZeros(max);
+		}
+		
+		final LongWordBitWriter out = new LongWordBitWriter(new FileOutputStream(path).getChannel(), ByteOrder.nativeOrder());
+		long offset = 0;
+		for (int block = 0; block < numBlocks; block++) {
+			out.append(offset << WIDTH_BITS | widths[block], Long.SIZE);
+			offset += (long) widths[block] * (blockEnd(block, size) - (block << LOG2_PACKED_BLOCK_SIZE));
+		}
+		for (int i = 0; i < size; i++)
+			out.append(index.getDocumentLength(i), widths[i >>> LOG2_PACKED_BLOCK_SIZE]);
+		out.close();
+	}
+	
 	public static void main(String[] args) throws IOException
 	{
 		Index.setIndexLoadingProfileAsRetrieval(false);
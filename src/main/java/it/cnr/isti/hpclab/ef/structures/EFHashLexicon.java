@@ -0,0 +1,240 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.structures;
+
+import it.cnr.isti.hpclab.ef.EliasFano;
+import it.cnr.isti.hpclab.ef.util.EFUtils;
+import it.cnr.isti.hpclab.ef.util.LongWordBitWriter;
+import it.cnr.isti.hpclab.ef.util.MinimalPerfectHash;
+import it.cnr.isti.hpclab.ef.util.MinimalPerfectHashEncoder;
+import it.unimi.dsi.fastutil.longs.LongBigList;
+import it.unimi.dsi.util.ByteBufferLongBigList;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.terrier.structures.FSOMapFileLexicon;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.Lexicon;
+import org.terrier.structures.LexiconEntry;
+
+/**
+ * A lexicon looking up terms with a signed minimal perfect hash function, rather than with a binary search over the map file.
+ * 
+ * The function, built by {@link #write(IndexOnDisk, String)} and memory-mapped from the {@link EliasFano#HASH_EXTENSION} file,
+ * maps every term to a position, where the index of the term in the map file, i.e., its termid, is stored. 
+ * The values of the entries are written in the succinct form of {@link EFLexiconValues}, returned by {@link #getValues()},
+ * and the terms are front-coded by {@link EFLexiconTerms}, returned by {@link #getTerms()}.
+ * A term is thus found in constant time, reading a few longwords of the memory-mapped files and no entry of the map file;
+ * most terms not in the lexicon are rejected by their signature, and the others by comparing the term of their termid.
+ * Likewise, the entry of a termid is rebuilt in constant time.
+ * Iterations and ranges are delegated to the underlying {@link FSOMapFileLexicon}, which is still written as usual.
+ * 
+ * It is selected by the {@link EliasFano#LEXICON_CODEC} index property.
+ */
+public class EFHashLexicon extends Lexicon<String>
+{
+	/** The width of the signatures of the terms. */
+	public static final int SIGNATURE_WIDTH = 16;
+	
+	/** The underlying lexicon. */
+	private final FSOMapFileLexicon lexicon;
+	/** The minimal perfect hash function of the terms. */
+	private final MinimalPerfectHash mph;
+	/** The underlying list of the function and of the indices of the terms. */
+	private final LongBigList list;
+	/** The starting position of the indices of the terms. */
+	private final long indicesStart;
+	/** The width of the index of a term. */
+	private final int indexWidth;
+	/** The values of the entries, by termid. */
+	private final EFLexiconValues values;
+	/** The terms, by termid. */
+	private final EFLexiconTerms terms;
+	
+	/**
+	 * Constructor.
+	 * @param structureName the name of the lexicon structure
+	 * @param index the index containing the lexicon
+	 * @throws IOException if something goes wrong in opening the lexicon files
+	 */
+	public EFHashLexicon(final String structureName, final IndexOnDisk index) throws IOException
+	{
+		this.lexicon = new FSOMapFileLexicon(structureName, index);
+		this.list = map(path(structureName, index), EFInvertedIndex.byteOrder(index));
+		this.mph = new MinimalPerfectHash(list, 0);
+		this.indicesStart = mph.end();
+		this.indexWidth = indexWidth(mph.size());
+		this.values = new EFLexiconValues(structureName, index);
+		this.terms = new EFLexiconTerms(structureName, index);
+	}
+	
+	@SuppressWarnings("resource")
+	private static LongBigList map(final String path, final ByteOrder byteOrder) throws IOException
+	{
+		return ByteBufferLongBigList.map( new FileInputStream( path ).getChannel(), byteOrder, MapMode.READ_ONLY );
+	}
+	
+	private static String path(final String structureName, final IndexOnDisk index)
+	{
+		return index.getPath() + File.separator + index.getPrefix() + "." + structureName + EliasFano.HASH_EXTENSION;
+	}
+	
+	private static int indexWidth(final long size)
+	{
+		return Long.SIZE - Long.numberOfLeadingZeros(Math.max(0, size - 1));
+	}
+	
+	/**
+	 * Returns the index of a term in the map file.
+	 * @param term the term
+	 * @return the index of the term in the map file, or -1 if the term is not in the lexicon
+	 */
+	public int getIndex(final String term)
+	{
+		final long position = mph.getLong(term);
+		if (position < 0)
+			return -1;
+		return (int) EFUtils.extract(list, indicesStart + position * indexWidth, indexWidth);
+	}
+	
+	/**
+	 * Returns the values of the entries of the lexicon.
+	 * @return the values of the entries of the lexicon, by termid
+	 */
+	public EFLexiconValues getValues()
+	{
+		return values;
+	}
+	
+	/**
+	 * Returns the terms of the lexicon.
+	 * @return the terms of the lexicon, by termid
+	 */
+	public EFLexiconTerms getTerms()
+	{
+		return terms;
+	}
+	
+	/**
+	 * Returns the term of a termid.
+	 * @param termid the termid
+	 * @return the term
+	 */
+	public String getTerm(final int termid)
+	{
+		return terms.getTerm(termid);
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public LexiconEntry getLexiconEntry(final String term) 
+	{
+		final int index = getIndex(term);
+		// a term not in the lexicon may still have a matching signature
+		if (index < 0 || !terms.getTerm(index).equals(term))
+			return null;
+		return values.getLexiconEntry(index);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int numberOfEntries() 
+	{
+		return lexicon.numberOfEntries();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map.Entry<String, LexiconEntry> getLexiconEntry(final int termid) 
+	{
+		if (termid < 0 || termid >= values.numberOfEntries())
+			return null;
+		return new AbstractMap.SimpleImmutableEntry<String, LexiconEntry>(terms.getTerm(termid), values.getLexiconEntry(termid));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map.Entry<String, LexiconEntry> getIthLexiconEntry(final int index) 
+	{
+		// termids are aligned to the order of the terms
+		return getLexiconEntry(index);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Iterator<Map.Entry<String, LexiconEntry>> getLexiconEntryRange(final String from, final String to) 
+	{
+		return lexicon.getLexiconEntryRange(from, to);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Iterator<Map.Entry<String, LexiconEntry>> iterator() 
+	{
+		return lexicon.iterator();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() throws IOException 
+	{
+		lexicon.close();
+	}
+	
+	/**
+	 * Builds the minimal perfect hash function of the terms of a lexicon written as a map file, 
+	 * and writes it with the indices of the terms in the map file, followed by the values of the entries and the terms.
+	 * @param index the index containing the lexicon
+	 * @param structureName the name of the lexicon structure
+	 * @throws IOException if something goes wrong in reading the lexicon or writing the function
+	 */
+	public static void write(final IndexOnDisk index, final String structureName) throws IOException
+	{
+		final FSOMapFileLexicon lexicon = new FSOMapFileLexicon(structureName, index);
+		final int numberOfEntries = lexicon.numberOfEntries();
+		final MinimalPerfectHashEncoder encoder = new MinimalPerfectHashEncoder(numberOfEntries, SIGNATURE_WIDTH);
+		for (Map.Entry<String, LexiconEntry> entry: lexicon)
+			encoder.add(entry.getKey());
+		lexicon.close();
+		
+		// the index of the term at every position
+		final int[] indices = new int[numberOfEntries];
+		for (int i = 0; i < numberOfEntries; i++)
+			indices[encoder.position(i)] = i;
+		
+		final LongWordBitWriter out = new LongWordBitWriter(new FileOutputStream(path(structureName, index)).getChannel(), EFInvertedIndex.byteOrder(index));
+		encoder.dump(out);
+		final int indexWidth = indexWidth(numberOfEntries);
+		for (int i: indices)
+			out.append(i, indexWidth);
+		out.close();
+		
+		EFLexiconValues.write(index, structureName);
+		EFLexiconTerms.write(index, structureName);
+	}
+}
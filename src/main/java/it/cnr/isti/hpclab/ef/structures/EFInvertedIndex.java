@@ -21,6 +21,8 @@
 package it.cnr.isti.hpclab.ef.structures;
 
 import it.cnr.isti.hpclab.ef.EliasFano;
+import it.cnr.isti.hpclab.ef.util.BitmapDocidReader;
+import it.cnr.isti.hpclab.ef.util.BlockMaxEncoder;
 import it.unimi.dsi.fastutil.longs.LongBigList;
 import it.unimi.dsi.util.ByteBufferLongBigList;
 import java.io.File;
@@ -28,6 +30,8 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteOrder;
 import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Map;
 import org.terrier.structures.BitIndexPointer;
 import org.terrier.structures.DocumentIndex;
@@ -50,6 +54,34 @@ public class EFInvertedIndex implements PostingIndex<BitIndexPointer> {
     protected final LongBigList docidsList;
     protected final LongBigList freqsList;
     protected final LongBigList posList;
+    protected final LongBigList blockMaxList;
+    
+    /** The number of documents in the collection, i.e., the upper bound on docids. */
+    protected final int N;
+    /** The logarithm of the quantum used to encode forward (skip) pointers. */
+    protected final int log2Quantum;
+    /** True if the index contains positional information. */
+    protected final boolean hasPositions;
+    /** The logarithm of the quantum used to encode second-level skip pointers, 0 if there are none. */
+    protected final int log2SubQuantum;
+    /** The minimum number of postings of a list with second-level skip pointers. */
+    protected final int subInventoryThreshold;
+    /** True if docid lists are encoded with partitioned Elias-Fano. */
+    protected final boolean partitioned;
+    /** The logarithm of the number of postings of a block of the block-max sidecar, 0 if there is none. */
+    protected final int log2BlockMax;
+    /** The index of the first block of every posting list in the block-max sidecar, by termid, null if there is no sidecar. */
+    protected final long[] blockMaxStarts;
+    
+    /** The maximum number of idle cursors of each kind kept by the index. */
+    public static final int MAX_POOLED_CURSORS = 64;
+    /** 
+     * The idle cursors, reused by {@link #getPostings(Pointer)} and refilled by {@link IterablePosting#close()}, shared by all threads.
+     * The pools are plain fields, so they never outlive the index, and are guarded by their own lock.
+     */
+    private final Deque<EFBasicIterablePosting> cursors = new ArrayDeque<>();
+    /** The idle cursors over bitmap docid lists. */
+    private final Deque<EFBasicIterablePosting> bitmapCursors = new ArrayDeque<>();
     
     /**
      * Basic Constructor.
@@ -66,55 +98,150 @@ public class EFInvertedIndex implements PostingIndex<BitIndexPointer> {
     {
         this.index = index;
         this.doi = doi;
-
-        String byteOrderString = index.getIndexProperty(EliasFano.BYTEORDER, "");
-        ByteOrder byteOrder;
-        if ("LITTLE_ENDIAN".equals(byteOrderString)) {
-            byteOrder = ByteOrder.LITTLE_ENDIAN;
-        } else if ("BIG_ENDIAN".equals(byteOrderString)) {
-            byteOrder = ByteOrder.BIG_ENDIAN;
-        } else {
+        
+        this.N = index.getCollectionStatistics().getNumberOfDocuments();
+        this.log2Quantum = index.getIntIndexProperty(EliasFano.LOG2QUANTUM, 0);
+        this.hasPositions = "true".equals(index.getIndexProperty(EliasFano.HAS_POSITIONS, "false"));
+        this.log2SubQuantum = index.getIntIndexProperty(EliasFano.LOG2SUBQUANTUM, 0);
+        this.subInventoryThreshold = index.getIntIndexProperty(EliasFano.SUB_INVENTORY_THRESHOLD, 0);
+        this.partitioned = EliasFano.PEF_CODEC.equals(index.getIndexProperty(EliasFano.DOCID_CODEC, EliasFano.EF_CODEC));
+        this.log2BlockMax = index.getIntIndexProperty(EliasFano.LOG2BLOCKMAX, 0);
+        
+        // Sanity check
+        if (log2Quantum == 0) {
             throw new IllegalStateException();
         }
 
+        final ByteOrder byteOrder = byteOrder(index);
+
         docidsList  = ByteBufferLongBigList.map( new FileInputStream( index.getPath() + File.separator + index.getPrefix() + EliasFano.DOCID_EXTENSION ).getChannel(), byteOrder, MapMode.READ_ONLY );
         freqsList   = ByteBufferLongBigList.map( new FileInputStream( index.getPath() + File.separator + index.getPrefix() + EliasFano.FREQ_EXTENSION  ).getChannel(), byteOrder, MapMode.READ_ONLY );
         
-        if (hasPositions())
+        if (hasPositions)
             posList = ByteBufferLongBigList.map( new FileInputStream( index.getPath() + File.separator + index.getPrefix() + EliasFano.POS_EXTENSION   ).getChannel(), byteOrder, MapMode.READ_ONLY );
         else
             posList = null;
+        
+        if (log2BlockMax != 0) {
+            // the sidecar is written with a DataOutput, hence it is always big-endian
+            blockMaxList = ByteBufferLongBigList.map( new FileInputStream( index.getPath() + File.separator + index.getPrefix() + EliasFano.BLOCKMAX_EXTENSION ).getChannel(), ByteOrder.BIG_ENDIAN, MapMode.READ_ONLY );
+            blockMaxStarts = blockMaxStarts();
+        } else {
+            blockMaxList = null;
+            blockMaxStarts = null;
+        }
     }
     
-    @Override
-    public IterablePosting getPostings(final Pointer pointer) throws IOException {
-        int df           = ((EFLexiconEntry)pointer).getDocumentFrequency();
-        long docidOffset = ((EFLexiconEntry)pointer).getDocidOffset();
-        long freqOffset  = ((EFLexiconEntry)pointer).getFreqOffset();
-        int F            = ((EFLexiconEntry)pointer).getFrequency();
-        
-        int N            = index.getCollectionStatistics().getNumberOfDocuments();
-        int log2Quantum  = index.getIntIndexProperty(EliasFano.LOG2QUANTUM, 0);
+    /**
+     * Returns the byte order of the files of an Elias-Fano index, as recorded in its properties.
+     * 
+     * @param index the index
+     * @return the byte order of the files of the index
+     */
+    static ByteOrder byteOrder(final IndexOnDisk index)
+    {
+        final String byteOrderString = index.getIndexProperty(EliasFano.BYTEORDER, "");
+        if ("LITTLE_ENDIAN".equals(byteOrderString))
+            return ByteOrder.LITTLE_ENDIAN;
+        else if ("BIG_ENDIAN".equals(byteOrderString))
+            return ByteOrder.BIG_ENDIAN;
+        throw new IllegalStateException();
+    }
+    
+    /**
+     * Computes the index of the first block of every posting list in the block-max sidecar.
+     * The sidecar does not need pointers in the lexicon entries, since the number of blocks of a list
+     * depends only on its length and lists appear in the sidecar in lexicon order.
+     * 
+     * @return the index of the first block of every posting list, by termid
+     * @throws IOException if something goes wrong
+     */
+    private long[] blockMaxStarts() throws IOException
+    {
+        final long[] starts = new long[index.getCollectionStatistics().getNumberOfUniqueTerms()];
+        final MapFileLexiconIterator lexIter = (MapFileLexiconIterator) index.getIndexStructureInputStream("lexicon");
+        long start = 0;
+        while (lexIter.hasNext()) {
+            final LexiconEntry le = lexIter.next().getValue();
+            starts[le.getTermId()] = start;
+            start += BlockMaxEncoder.numberOfBlocks(le.getDocumentFrequency(), log2BlockMax);
+        }
+        lexIter.close();
         
         // Sanity check
-        if (log2Quantum == 0) {
-            throw new IllegalStateException();
+        if (BlockMaxEncoder.ENTRY_SIZE * start != blockMaxList.size64())
+            throw new IllegalStateException("Block-max sidecar has " + blockMaxList.size64() + " longs, expected " + BlockMaxEncoder.ENTRY_SIZE * start);
+        return starts;
+    }
+    
+    /**
+     * Return true if the posting lists of this index carry block-max metadata, false otherwise.
+     * @return true if the posting lists of this index carry block-max metadata, false otherwise.
+     */
+    public boolean hasBlockMax() {
+        return blockMaxList != null;
+    }
+    
+    /**
+     * {@inheritDoc}
+     * The returned cursor is taken from the pool of the index, if any, and repositioned on the posting list.
+     * Closing the cursor returns its state to the pool, hence it must not be used after {@link IterablePosting#close()};
+     * closing it again has no effect, even if its state has been reissued in the meantime.
+     * Posting lists flagged as bitmaps in their lexicon entry are read by a bitmap cursor.
+     * If the index has a block-max sidecar, the cursor exposes the block-max metadata of the posting list.
+     */
+    @Override
+    public IterablePosting getPostings(final Pointer pointer) throws IOException {
+        final EFLexiconEntry le = (EFLexiconEntry) pointer;
+        final Deque<EFBasicIterablePosting> pool = le.isBitmap() ? bitmapCursors : cursors;
+        EFBasicIterablePosting rtr;
+        synchronized (pool) {
+            rtr = pool.poll();
         }
-        
-        IterablePosting rtr = null;
-        if (hasPositions()) {
-            long posOffset  = ((EFBlockLexiconEntry)pointer).getPosOffset();
-            rtr = new EFBlockIterablePosting(docidsList, freqsList, posList, doi, df, N, F, log2Quantum, docidOffset, freqOffset, posOffset);
-        } else {
-            rtr = new EFBasicIterablePosting(docidsList, freqsList, doi, df, N, F, log2Quantum, docidOffset, freqOffset);
+        if (rtr == null) {
+            if (le.isBitmap())
+                rtr = hasPositions ? new BitmapBlockIterablePosting(docidsList, freqsList, posList, doi, N, log2Quantum)
+                                   : new BitmapBasicIterablePosting(docidsList, freqsList, doi, N, log2Quantum);
+            else if (partitioned)
+                rtr = hasPositions ? new PEFBlockIterablePosting(docidsList, freqsList, posList, doi, N, log2Quantum)
+                                   : new PEFBasicIterablePosting(docidsList, freqsList, doi, N, log2Quantum);
+            else if (hasPositions)
+                rtr = new EFBlockIterablePosting(docidsList, freqsList, posList, doi, N, log2Quantum, subInventoryThreshold, log2SubQuantum);
+            else
+                rtr = new EFBasicIterablePosting(docidsList, freqsList, doi, N, log2Quantum, subInventoryThreshold, log2SubQuantum);
+            rtr.pool = this;
+            rtr.blockMaxList = blockMaxList;
+            rtr.log2BlockMax = log2BlockMax;
         }
+        rtr.reset(le);
+        if (blockMaxList != null)
+            rtr.resetBlockMax(blockMaxStarts[le.getTermId()]);
         return rtr;
     }
     
-    /**  Empty method, nothing to close. */
+    /**
+     * Return the state of a closed cursor to the pool, as a new cursor sharing its readers.
+     * The closed cursor is detached from the pool, so that closing it again does not return the reissued state twice.
+     * @param cursor the closed cursor
+     */
+    void release(final EFBasicIterablePosting cursor) {
+        final Deque<EFBasicIterablePosting> pool = cursor.docidReader instanceof BitmapDocidReader ? bitmapCursors : cursors;
+        final EFBasicIterablePosting idle = cursor.detach();
+        synchronized (pool) {
+            if (pool.size() < MAX_POOLED_CURSORS)
+                pool.push(idle);
+        }
+    }
+    
+    /** Drops the idle cursors of all threads; cursors closed later are pooled again. */
     @Override
     public void close() {
-        // do nothing
+        synchronized (cursors) {
+            cursors.clear();
+        }
+        synchronized (bitmapCursors) {
+            bitmapCursors.clear();
+        }
     }
 
     /**
@@ -122,7 +249,7 @@ public class EFInvertedIndex implements PostingIndex<BitIndexPointer> {
      * @return true if the index contains positional information, false otherwise.
      */
     public boolean hasPositions() {
-        return "true".equals(index.getIndexProperty(EliasFano.HAS_POSITIONS, "false"));
+        return hasPositions;
     }
     
     public static class InputIterator implements PostingIndexInputStream, Skipable {
@@ -38,6 +38,9 @@ public class EFLexiconEntry extends LexiconEntry implements BitIndexPointer
 {
 	private static final long serialVersionUID = 1L;
 
+	/** The flag set in {@link #docidOffset} if the docids of this entry are stored as a bitmap. */
+	public static final long BITMAP_FLAG = 1L << 63;
+
 	/** the term id of this entry */
 	public int termId;
 	/** the number of document that this entry occurs in */
@@ -47,7 +50,7 @@ public class EFLexiconEntry extends LexiconEntry implements BitIndexPointer
 	/** the largest in-document term frequency in the documents that this entry occurs in */
 	public int maxtf;
 	
-	/** the offsets we need */
+	/** the offsets we need (the docid offset may carry the {@link #BITMAP_FLAG}) */
 	public long docidOffset;
 	public long freqOffset;
 	
@@ -119,7 +122,15 @@ public class EFLexiconEntry extends LexiconEntry implements BitIndexPointer
 	 */
 	public long getDocidOffset() 
 	{
-		return this.docidOffset;
+		return this.docidOffset & ~BITMAP_FLAG;
+	}
+
+	/** 
+	 * Return true if the docids of the posting list are stored as a bitmap rather than with Elias-Fano
+	 */
+	public boolean isBitmap() 
+	{
+		return (this.docidOffset & BITMAP_FLAG) != 0;
 	}
 
 	/** 
@@ -158,7 +169,7 @@ public class EFLexiconEntry extends LexiconEntry implements BitIndexPointer
 	@Override
 	public String toString()
 	{
-		return "term "+ termId + " Nt = " + n_t + " TF = " + TF  + "max tf = " + maxtf + " [docid @ " + this.docidOffset + " freq @ " + this.freqOffset + "]";
+		return "term "+ termId + " Nt = " + n_t + " TF = " + TF  + "max tf = " + maxtf + " [docid @ " + getDocidOffset() + (isBitmap() ? " (bitmap)" : "") + " freq @ " + this.freqOffset + "]";
 	}
 
 	/** {@inheritDoc} */
@@ -0,0 +1,229 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.structures;
+
+import it.cnr.isti.hpclab.ef.EliasFano;
+import it.cnr.isti.hpclab.ef.util.LongWordBitReader;
+import it.cnr.isti.hpclab.ef.util.LongWordBitWriter;
+import it.cnr.isti.hpclab.ef.util.OffsetReader;
+import it.cnr.isti.hpclab.ef.util.SequenceEncoder;
+import it.unimi.dsi.fastutil.longs.LongBigList;
+import it.unimi.dsi.util.ByteBufferLongBigList;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.terrier.structures.FSOMapFileLexicon;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.LexiconEntry;
+
+/**
+ * The terms of a lexicon, memory-mapped from the {@link EliasFano#TERMS_EXTENSION} file and decoded by termid.
+ * 
+ * The terms, in termid order, are front-coded in blocks of {@link #BLOCK_SIZE} terms: the first term of a block is written in full,
+ * every other term as the length of the prefix it shares with the previous one and the remaining bytes of its UTF-8 encoding.
+ * The bit offsets of the blocks are stored in an Elias-Fano sequence read by {@link OffsetReader}, so a term is decoded 
+ * in constant time by locating its block and decoding at most {@link #BLOCK_SIZE} terms.
+ * 
+ * The reader has no state, so it can be used concurrently by several threads.
+ */
+public class EFLexiconTerms
+{
+	/** The number of terms of a block. */
+	public static final int BLOCK_SIZE = 16;
+	/** The logarithm of the quantum of the forward pointers of the block offsets. */
+	private static final int LOG2_QUANTUM = 6;
+	/** The size in bytes of the cache of the block offset encoder. */
+	private static final int CACHE_SIZE = 16 * 1024 * 1024;
+	
+	/** The underlying list. */
+	private final LongBigList list;
+	/** The number of terms. */
+	private final int numberOfEntries;
+	/** The starting positions of the blocks, relative to the end of the block offsets. */
+	private final OffsetReader blockOffsets;
+	/** The starting position of the blocks. */
+	private final long blocksStart;
+
+	/**
+	 * Constructor.
+	 * @param structureName the name of the lexicon structure
+	 * @param index the index containing the lexicon
+	 * @throws IOException if something goes wrong in opening the terms file
+	 */
+	public EFLexiconTerms(final String structureName, final IndexOnDisk index) throws IOException
+	{
+		this(map(path(structureName, index), EFInvertedIndex.byteOrder(index)));
+	}
+	
+	/**
+	 * Constructor.
+	 * @param list the underlying list, starting with the terms
+	 */
+	public EFLexiconTerms(final LongBigList list)
+	{
+		this.list = list;
+		final LongWordBitReader header = new LongWordBitReader(list, 0).position(0);
+		numberOfEntries = (int) header.readGamma();
+		final long lastBlockOffset = header.readGamma();
+		
+		blockOffsets = new OffsetReader(list, header.position(), numberOfBlocks(numberOfEntries), lastBlockOffset, LOG2_QUANTUM);
+		blocksStart = blockOffsets.end();
+	}
+	
+	@SuppressWarnings("resource")
+	private static LongBigList map(final String path, final ByteOrder byteOrder) throws IOException
+	{
+		return ByteBufferLongBigList.map( new FileInputStream( path ).getChannel(), byteOrder, MapMode.READ_ONLY );
+	}
+	
+	private static String path(final String structureName, final IndexOnDisk index)
+	{
+		return index.getPath() + File.separator + index.getPrefix() + "." + structureName + EliasFano.TERMS_EXTENSION;
+	}
+	
+	private static int numberOfBlocks(final int numberOfEntries)
+	{
+		return (numberOfEntries + BLOCK_SIZE - 1) / BLOCK_SIZE;
+	}
+	
+	private static int gammaLength(final long value)
+	{
+		return 2 * (Long.SIZE - 1 - Long.numberOfLeadingZeros(value + 1)) + 1;
+	}
+	
+	/**
+	 * Returns the number of terms.
+	 * @return the number of terms
+	 */
+	public int numberOfEntries()
+	{
+		return numberOfEntries;
+	}
+	
+	/**
+	 * Returns a term.
+	 * @param termid the termid
+	 * @return the term
+	 */
+	public String getTerm(final int termid)
+	{
+		if (termid < 0 || termid >= numberOfEntries)
+			throw new IllegalArgumentException("Termid " + termid + " out of range [0, " + numberOfEntries + ")");
+		final LongWordBitReader reader = new LongWordBitReader(list, Byte.SIZE).position(blocksStart + blockOffsets.getLong(termid / BLOCK_SIZE));
+		
+		int length = (int) reader.readGamma();
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++)
+			bytes[i] = (byte) reader.extract();
+		for (int i = termid % BLOCK_SIZE; i > 0; i--) {
+			final int prefix = (int) reader.readGamma();
+			length = prefix + (int) reader.readGamma();
+			if (length > bytes.length)
+				bytes = Arrays.copyOf(bytes, Math.max(length, 2 * bytes.length));
+			for (int j = prefix; j < length; j++)
+				bytes[j] = (byte) reader.extract();
+		}
+		return new String(bytes, 0, length, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Writes the terms of a lexicon written as a map file, whose termids must be aligned to the order of the terms.
+	 * @param index the index containing the lexicon
+	 * @param structureName the name of the lexicon structure
+	 * @throws IOException if something goes wrong in reading the lexicon or writing the terms
+	 */
+	public static void write(final IndexOnDisk index, final String structureName) throws IOException
+	{
+		// first pass: the offsets of the blocks
+		FSOMapFileLexicon lexicon = new FSOMapFileLexicon(structureName, index);
+		final int numberOfEntries = lexicon.numberOfEntries();
+		final long[] offsets = new long[numberOfBlocks(numberOfEntries)];
+		long offset = 0;
+		byte[] previous = new byte[0];
+		int termid = 0;
+		for (Map.Entry<String, LexiconEntry> entry: lexicon) {
+			if (entry.getValue().getTermId() != termid)
+				throw new IllegalStateException("Term " + entry.getKey() + " has termid " + entry.getValue().getTermId() + " instead of " + termid);
+			final byte[] bytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+			if (termid % BLOCK_SIZE == 0) {
+				offsets[termid / BLOCK_SIZE] = offset;
+				offset += gammaLength(bytes.length) + (long) Byte.SIZE * bytes.length;
+			} else {
+				final int prefix = commonPrefix(previous, bytes);
+				offset += gammaLength(prefix) + gammaLength(bytes.length - prefix) + (long) Byte.SIZE * (bytes.length - prefix);
+			}
+			previous = bytes;
+			termid++;
+		}
+		lexicon.close();
+		
+		final LongWordBitWriter out = new LongWordBitWriter(new FileOutputStream(path(structureName, index)).getChannel(), EFInvertedIndex.byteOrder(index));
+		final long lastBlockOffset = offsets.length == 0 ? 0 : offsets[offsets.length - 1];
+		out.writeGamma(numberOfEntries);
+		out.writeGamma(lastBlockOffset);
+		final SequenceEncoder encoder = new SequenceEncoder(CACHE_SIZE, LOG2_QUANTUM);
+		encoder.init(offsets.length, lastBlockOffset, false, false, LOG2_QUANTUM);
+		long last = 0;
+		for (long o: offsets) {
+			encoder.add(o - last);
+			last = o;
+		}
+		encoder.dump(out);
+		encoder.close();
+		
+		// second pass: the blocks
+		lexicon = new FSOMapFileLexicon(structureName, index);
+		previous = new byte[0];
+		termid = 0;
+		for (Map.Entry<String, LexiconEntry> entry: lexicon) {
+			final byte[] bytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+			int prefix = 0;
+			if (termid++ % BLOCK_SIZE == 0) {
+				out.writeGamma(bytes.length);
+			} else {
+				prefix = commonPrefix(previous, bytes);
+				out.writeGamma(prefix);
+				out.writeGamma(bytes.length - prefix);
+			}
+			for (int i = prefix; i < bytes.length; i++)
+				out.append(bytes[i] & 0xFF, Byte.SIZE);
+			previous = bytes;
+		}
+		lexicon.close();
+		out.close();
+	}
+	
+	private static int commonPrefix(final byte[] a, final byte[] b)
+	{
+		final int length = Math.min(a.length, b.length);
+		int i = 0;
+		while (i < length && a[i] == b[i])
+			i++;
+		return i;
+	}
+}
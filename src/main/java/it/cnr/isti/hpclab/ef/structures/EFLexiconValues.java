@@ -0,0 +1,316 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.structures;
+
+import it.cnr.isti.hpclab.ef.EliasFano;
+import it.cnr.isti.hpclab.ef.util.EFUtils;
+import it.cnr.isti.hpclab.ef.util.LongWordBitReader;
+import it.cnr.isti.hpclab.ef.util.LongWordBitWriter;
+import it.cnr.isti.hpclab.ef.util.OffsetReader;
+import it.cnr.isti.hpclab.ef.util.SequenceEncoder;
+import it.unimi.dsi.fastutil.longs.LongBigList;
+import it.unimi.dsi.util.ByteBufferLongBigList;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Map;
+
+import org.terrier.structures.FSOMapFileLexicon;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.LexiconEntry;
+
+/**
+ * The values of the entries of a lexicon, i.e., the statistics and the posting list offsets of every term, 
+ * memory-mapped from the {@link EliasFano#VALUES_EXTENSION} file and accessed by termid in constant time.
+ * 
+ * The document frequency, the frequency, the maximum in-document frequency and the bitmap flag of every term 
+ * are bit-packed with the width of their largest value. The docid, frequency and position offsets, 
+ * non-decreasing in termid order, are stored in three Elias-Fano sequences read by {@link OffsetReader}, 
+ * taking a few bits per term rather than a long each as in the lexicon map file.
+ * Lexicon entries are rebuilt only by {@link #getLexiconEntry(int)}, the other methods return single values.
+ * 
+ * The reader has no state, so it can be used concurrently by several threads.
+ */
+public class EFLexiconValues
+{
+	/** The logarithm of the quantum of the forward pointers of the offsets. */
+	public static final int LOG2_QUANTUM = 6;
+	/** The size in bytes of the caches of the offset encoders. */
+	private static final int CACHE_SIZE = 16 * 1024 * 1024;
+	
+	/** The underlying list. */
+	private final LongBigList list;
+	/** The number of terms. */
+	private final int numberOfEntries;
+	/** True if the lexicon entries have position offsets. */
+	private final boolean hasPositions;
+	/** The width of a document frequency. */
+	private final int dfWidth;
+	/** The width of a frequency. */
+	private final int tfWidth;
+	/** The width of a maximum in-document frequency. */
+	private final int maxtfWidth;
+	/** The width of a bitmap flag, 0 if no docid list is a bitmap. */
+	private final int bitmapWidth;
+	/** The starting position of the bit-packed statistics. */
+	private final long recordsStart;
+	/** The width of the bit-packed statistics of a term. */
+	private final int recordWidth;
+	/** The docid offsets. */
+	private final OffsetReader docidOffsets;
+	/** The frequency offsets. */
+	private final OffsetReader freqOffsets;
+	/** The position offsets, null if there are no positions. */
+	private final OffsetReader posOffsets;
+
+	/**
+	 * Constructor.
+	 * @param structureName the name of the lexicon structure
+	 * @param index the index containing the lexicon
+	 * @throws IOException if something goes wrong in opening the values file
+	 */
+	public EFLexiconValues(final String structureName, final IndexOnDisk index) throws IOException
+	{
+		this(map(path(structureName, index), EFInvertedIndex.byteOrder(index)));
+	}
+	
+	/**
+	 * Constructor.
+	 * @param list the underlying list, starting with the values
+	 */
+	public EFLexiconValues(final LongBigList list)
+	{
+		this.list = list;
+		final LongWordBitReader header = new LongWordBitReader(list, 0).position(0);
+		numberOfEntries = (int) header.readGamma();
+		hasPositions = header.readGamma() != 0;
+		dfWidth = (int) header.readGamma();
+		tfWidth = (int) header.readGamma();
+		maxtfWidth = (int) header.readGamma();
+		bitmapWidth = (int) header.readGamma();
+		final long lastDocidOffset = header.readGamma();
+		final long lastFreqOffset = header.readGamma();
+		final long lastPosOffset = header.readGamma();
+		
+		recordsStart = header.position();
+		recordWidth = dfWidth + tfWidth + maxtfWidth + bitmapWidth;
+		docidOffsets = new OffsetReader(list, recordsStart + (long) numberOfEntries * recordWidth, numberOfEntries, lastDocidOffset, LOG2_QUANTUM);
+		freqOffsets = new OffsetReader(list, docidOffsets.end(), numberOfEntries, lastFreqOffset, LOG2_QUANTUM);
+		posOffsets = hasPositions ? new OffsetReader(list, freqOffsets.end(), numberOfEntries, lastPosOffset, LOG2_QUANTUM) : null;
+	}
+	
+	@SuppressWarnings("resource")
+	private static LongBigList map(final String path, final ByteOrder byteOrder) throws IOException
+	{
+		return ByteBufferLongBigList.map( new FileInputStream( path ).getChannel(), byteOrder, MapMode.READ_ONLY );
+	}
+	
+	private static String path(final String structureName, final IndexOnDisk index)
+	{
+		return index.getPath() + File.separator + index.getPrefix() + "." + structureName + EliasFano.VALUES_EXTENSION;
+	}
+	
+	private static int width(final long value)
+	{
+		return Long.SIZE - Long.numberOfLeadingZeros(value);
+	}
+	
+	/**
+	 * Returns the number of terms.
+	 * @return the number of terms
+	 */
+	public int numberOfEntries()
+	{
+		return numberOfEntries;
+	}
+	
+	/**
+	 * Returns the number of documents a term occurs in.
+	 * @param termid the termid
+	 * @return the number of documents the term occurs in
+	 */
+	public int getDocumentFrequency(final int termid)
+	{
+		return (int) EFUtils.extract(list, recordsStart + (long) termid * recordWidth, dfWidth);
+	}
+	
+	/**
+	 * Returns the number of occurrences of a term.
+	 * @param termid the termid
+	 * @return the number of occurrences of the term
+	 */
+	public int getFrequency(final int termid)
+	{
+		return (int) EFUtils.extract(list, recordsStart + (long) termid * recordWidth + dfWidth, tfWidth);
+	}
+	
+	/**
+	 * Returns the largest in-document frequency of a term.
+	 * @param termid the termid
+	 * @return the largest in-document frequency of the term
+	 */
+	public int getMaxFrequencyInDocuments(final int termid)
+	{
+		return (int) EFUtils.extract(list, recordsStart + (long) termid * recordWidth + dfWidth + tfWidth, maxtfWidth);
+	}
+	
+	/**
+	 * Returns true if the docids of a term are stored as a bitmap.
+	 * @param termid the termid
+	 * @return true if the docids of the term are stored as a bitmap
+	 */
+	public boolean isBitmap(final int termid)
+	{
+		return EFUtils.extract(list, recordsStart + (long) termid * recordWidth + dfWidth + tfWidth + maxtfWidth, bitmapWidth) != 0;
+	}
+	
+	/**
+	 * Returns the bit offset of the posting list of a term in the docid file.
+	 * @param termid the termid
+	 * @return the bit offset of the posting list of the term in the docid file
+	 */
+	public long getDocidOffset(final int termid)
+	{
+		return docidOffsets.getLong(termid);
+	}
+	
+	/**
+	 * Returns the bit offset of the posting list of a term in the freq file.
+	 * @param termid the termid
+	 * @return the bit offset of the posting list of the term in the freq file
+	 */
+	public long getFreqOffset(final int termid)
+	{
+		return freqOffsets.getLong(termid);
+	}
+	
+	/**
+	 * Returns the bit offset of the posting list of a term in the positions file.
+	 * @param termid the termid
+	 * @return the bit offset of the posting list of the term in the positions file
+	 */
+	public long getPosOffset(final int termid)
+	{
+		if (posOffsets == null)
+			throw new IllegalStateException("The lexicon has no position offsets");
+		return posOffsets.getLong(termid);
+	}
+	
+	/**
+	 * Rebuilds the lexicon entry of a term.
+	 * @param termid the termid
+	 * @return the lexicon entry of the term, an {@link EFBlockLexiconEntry} if the lexicon has position offsets
+	 */
+	public EFLexiconEntry getLexiconEntry(final int termid)
+	{
+		final long docidOffset = getDocidOffset(termid) | (isBitmap(termid) ? EFLexiconEntry.BITMAP_FLAG : 0);
+		if (hasPositions)
+			return new EFBlockLexiconEntry(termid, getDocumentFrequency(termid), getFrequency(termid), getMaxFrequencyInDocuments(termid), docidOffset, getFreqOffset(termid), getPosOffset(termid));
+		return new EFLexiconEntry(termid, getDocumentFrequency(termid), getFrequency(termid), getMaxFrequencyInDocuments(termid), docidOffset, getFreqOffset(termid));
+	}
+	
+	/**
+	 * Writes the values of the entries of a lexicon written as a map file, whose termids must be aligned to the order of the terms.
+	 * @param index the index containing the lexicon
+	 * @param structureName the name of the lexicon structure
+	 * @throws IOException if something goes wrong in reading the lexicon or writing the values
+	 */
+	public static void write(final IndexOnDisk index, final String structureName) throws IOException
+	{
+		final boolean hasPositions = "true".equals(index.getIndexProperty(EliasFano.HAS_POSITIONS, "false"));
+		
+		// first pass: the widths of the statistics and the last offsets, checking that the offsets are non-decreasing
+		FSOMapFileLexicon lexicon = new FSOMapFileLexicon(structureName, index);
+		final int numberOfEntries = lexicon.numberOfEntries();
+		long maxdf = 0, maxtf = 0, maxmaxtf = 0;
+		boolean bitmaps = false;
+		long lastDocidOffset = 0, lastFreqOffset = 0, lastPosOffset = 0;
+		int termid = 0;
+		for (Map.Entry<String, LexiconEntry> entry: lexicon) {
+			final EFLexiconEntry le = (EFLexiconEntry) entry.getValue();
+			if (le.getTermId() != termid++)
+				throw new IllegalStateException("Term " + entry.getKey() + " has termid " + le.getTermId() + " instead of " + (termid - 1));
+			maxdf = Math.max(maxdf, le.getDocumentFrequency());
+			maxtf = Math.max(maxtf, le.getFrequency());
+			maxmaxtf = Math.max(maxmaxtf, le.getMaxFrequencyInDocuments());
+			bitmaps |= le.isBitmap();
+			if (le.getDocidOffset() < lastDocidOffset || le.getFreqOffset() < lastFreqOffset || (hasPositions && ((EFBlockLexiconEntry) le).getPosOffset() < lastPosOffset))
+				throw new IllegalStateException("The offsets of term " + entry.getKey() + " are smaller than those of the previous term");
+			lastDocidOffset = le.getDocidOffset();
+			lastFreqOffset = le.getFreqOffset();
+			if (hasPositions)
+				lastPosOffset = ((EFBlockLexiconEntry) le).getPosOffset();
+		}
+		lexicon.close();
+		
+		final int dfWidth = width(maxdf), tfWidth = width(maxtf), maxtfWidth = width(maxmaxtf), bitmapWidth = bitmaps ? 1 : 0;
+		final LongWordBitWriter out = new LongWordBitWriter(new FileOutputStream(path(structureName, index)).getChannel(), EFInvertedIndex.byteOrder(index));
+		out.writeGamma(numberOfEntries);
+		out.writeGamma(hasPositions ? 1 : 0);
+		out.writeGamma(dfWidth);
+		out.writeGamma(tfWidth);
+		out.writeGamma(maxtfWidth);
+		out.writeGamma(bitmapWidth);
+		out.writeGamma(lastDocidOffset);
+		out.writeGamma(lastFreqOffset);
+		out.writeGamma(lastPosOffset);
+		
+		// second pass: the statistics are written, the gaps between offsets are encoded
+		final SequenceEncoder docidOffsets = new SequenceEncoder(CACHE_SIZE, LOG2_QUANTUM);
+		final SequenceEncoder freqOffsets = new SequenceEncoder(CACHE_SIZE, LOG2_QUANTUM);
+		final SequenceEncoder posOffsets = hasPositions ? new SequenceEncoder(CACHE_SIZE, LOG2_QUANTUM) : null;
+		docidOffsets.init(numberOfEntries, lastDocidOffset, false, false, LOG2_QUANTUM);
+		freqOffsets.init(numberOfEntries, lastFreqOffset, false, false, LOG2_QUANTUM);
+		if (hasPositions)
+			posOffsets.init(numberOfEntries, lastPosOffset, false, false, LOG2_QUANTUM);
+		long docidOffset = 0, freqOffset = 0, posOffset = 0;
+		lexicon = new FSOMapFileLexicon(structureName, index);
+		for (Map.Entry<String, LexiconEntry> entry: lexicon) {
+			final EFLexiconEntry le = (EFLexiconEntry) entry.getValue();
+			out.append(le.getDocumentFrequency(), dfWidth);
+			out.append(le.getFrequency(), tfWidth);
+			out.append(le.getMaxFrequencyInDocuments(), maxtfWidth);
+			out.append(le.isBitmap() ? 1 : 0, bitmapWidth);
+			docidOffsets.add(le.getDocidOffset() - docidOffset);
+			docidOffset = le.getDocidOffset();
+			freqOffsets.add(le.getFreqOffset() - freqOffset);
+			freqOffset = le.getFreqOffset();
+			if (hasPositions) {
+				posOffsets.add(((EFBlockLexiconEntry) le).getPosOffset() - posOffset);
+				posOffset = ((EFBlockLexiconEntry) le).getPosOffset();
+			}
+		}
+		lexicon.close();
+		
+		docidOffsets.dump(out);
+		freqOffsets.dump(out);
+		docidOffsets.close();
+		freqOffsets.close();
+		if (hasPositions) {
+			posOffsets.dump(out);
+			posOffsets.close();
+		}
+		out.close();
+	}
+}
@@ -4,6 +4,10 @@ import java.io.BufferedOutputStream;
 import java.io.DataOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
@@ -19,8 +23,9 @@ import org.terrier.structures.seralization.FixedSizeWriteableFactory;
 
 /**
  * This class is a copy of the org.terrier.structures.FSOMapFileLexiconOutputStream,
- * but the only difference being the underlying map file (local filesystem only), which is opened in append mode.
- * This class is used only by the CompressorReducer class, to avoid wasting time in copying lexicons. 
+ * but the only difference being the underlying map file (local filesystem only), which is opened in append mode,
+ * or at a given position, to write the entries following those written by other streams.
+ * This class is used only by the CompressorLayout class, to avoid wasting time in copying lexicons. 
  */
 public class FSOMapFileAppendLexiconOutputStream extends LexiconOutputStream<String>
 {
@@ -36,6 +41,14 @@ public class FSOMapFileAppendLexiconOutputStream extends LexiconOutputStream<Str
 		this.value_size = valueFactory.getSize();
 	}
 
+	public FSOMapFileAppendLexiconOutputStream(final String filename, final FixedSizeWriteableFactory<Text> keyFactory, final FixedSizeWriteableFactory<LexiconEntry> valueFactory, final long position) throws IOException 
+	{	
+		this.mapFileWriter = mapFileWrite(filename, position);
+		this.tempKey = keyFactory.newInstance();
+		this.key_size   = keyFactory.getSize();
+		this.value_size = valueFactory.getSize();
+	}
+
 	@Override
 	public int writeNextEntry(String _key, LexiconEntry _value) throws IOException 
 	{
@@ -66,11 +79,25 @@ public class FSOMapFileAppendLexiconOutputStream extends LexiconOutputStream<Str
      * Input data MUST be sorted by key. 
      */
     public static MapFileWriter mapFileWrite(final String filename) throws IOException
+    {
+        return mapFileWrite(new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename, true))));
+    }
+    
+    /* 
+     * Returns a utility class which can be used to write a FSOrderedMapFile starting from the given position in bytes,
+     * the file being shared with other writers. Input data MUST be sorted by key. 
+     */
+    @SuppressWarnings("resource")
+    public static MapFileWriter mapFileWrite(final String filename, final long position) throws IOException
+    {
+        final FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.WRITE, StandardOpenOption.CREATE).position(position);
+        return mapFileWrite(new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel))));
+    }
+    
+    private static MapFileWriter mapFileWrite(final DataOutputStream out)
     {
         return new MapFileWriter() 
         {
-            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename, true)));
-            
             @SuppressWarnings("rawtypes")
 			public void write(WritableComparable key, Writable value) throws IOException
             {
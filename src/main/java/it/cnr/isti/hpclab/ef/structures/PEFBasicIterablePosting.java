@@ -0,0 +1,62 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package it.cnr.isti.hpclab.ef.structures;
+
+import it.cnr.isti.hpclab.ef.util.DocidReader;
+import it.cnr.isti.hpclab.ef.util.PartitionedDocidReader;
+import it.unimi.dsi.fastutil.longs.LongBigList;
+
+import org.terrier.structures.DocumentIndex;
+
+/**
+ * Posting cursor over an index whose docid lists are encoded with partitioned Elias-Fano 
+ * (see {@link it.cnr.isti.hpclab.ef.util.PartitionedSequenceEncoder}); frequencies are Elias-Fano encoded as usual.
+ */
+public class PEFBasicIterablePosting extends EFBasicIterablePosting
+{
+	/**
+	 * Create a PEFBasicIterablePosting object not yet positioned on any posting list. 
+	 * 
+	 * @param docidList the partitioned Elias-Fano compressed list view to access to read docids
+	 * @param freqList the Elias-Fano compressed list view to access to read frequencies
+	 * @param doi the document index to use to read document lengths
+	 * @param upperBoundDocid upper bound on the docids
+	 * @param log2Quantum the quantum used to encode forward pointers of frequencies
+	 */
+	public PEFBasicIterablePosting(final LongBigList docidList, final LongBigList freqList, final DocumentIndex doi,
+								   final int upperBoundDocid, final int log2Quantum)
+	{
+		super(docidList, freqList, doi, upperBoundDocid, log2Quantum);
+	}
+
+	@Override
+	protected DocidReader newDocidReader(final LongBigList docidList)
+	{
+		return new PartitionedDocidReader(docidList, N);
+	}
+
+	@Override
+	protected void resetDocidReader(final int numEntries, final long docidsPosition)
+	{
+		((PartitionedDocidReader) docidReader).reset(docidsPosition, numEntries);
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package it.cnr.isti.hpclab.ef.structures;
+
+import it.cnr.isti.hpclab.ef.util.DocidReader;
+import it.cnr.isti.hpclab.ef.util.PartitionedDocidReader;
+import it.unimi.dsi.fastutil.longs.LongBigList;
+
+import org.terrier.structures.DocumentIndex;
+
+/**
+ * Posting cursor with positions over an index whose docid lists are encoded with partitioned Elias-Fano 
+ * (see {@link it.cnr.isti.hpclab.ef.util.PartitionedSequenceEncoder}); frequencies and positions are Elias-Fano encoded as usual.
+ */
+public class PEFBlockIterablePosting extends EFBlockIterablePosting
+{
+	/**
+	 * Create a PEFBlockIterablePosting object not yet positioned on any posting list.
+	 * 
+	 * @param docidList the partitioned Elias-Fano compressed list view to access to read docids
+	 * @param freqList the Elias-Fano compressed list view to access to read frequencies
+	 * @param posList the Elias-Fano compressed list view to access to read positional information
+	 * @param doi the document index to use to read document lengths
+	 * @param upperBoundDocid upper bound on the docids
+	 * @param log2Quantum the quantum used to encode forward (skip) pointers of frequencies and positions
+	 */
+	public PEFBlockIterablePosting(final LongBigList docidList, final LongBigList freqList, final LongBigList posList, 
+								   final DocumentIndex doi, final int upperBoundDocid, final int log2Quantum)
+	{
+		super(docidList, freqList, posList, doi, upperBoundDocid, log2Quantum);
+	}
+
+	@Override
+	protected DocidReader newDocidReader(final LongBigList docidList)
+	{
+		return new PartitionedDocidReader(docidList, N);
+	}
+
+	@Override
+	protected void resetDocidReader(final int numEntries, final long docidsPosition)
+	{
+		((PartitionedDocidReader) docidReader).reset(docidsPosition, numEntries);
+	}
+}
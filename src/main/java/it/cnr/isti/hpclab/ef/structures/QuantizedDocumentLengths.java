@@ -0,0 +1,160 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.structures;
+
+import java.io.IOException;
+
+import org.terrier.structures.DocumentIndex;
+
+/**
+ * One-byte quantized document lengths, for weighting models precomputing their length normalisation 
+ * in a table of {@link #NUM_CODES} entries, as {@link it.cnr.isti.hpclab.ef.matching.QuantizedBM25}.
+ * 
+ * Lengths smaller than {@link #EXACT_CODES} (or all lengths, if the longest document is shorter than {@link #NUM_CODES})
+ * have a code of their own; longer lengths are grouped in buckets of geometrically increasing size up to the longest document,
+ * so that the relative error of the representative length of a bucket, the mean length of its documents, is bounded.
+ * Codes and representative lengths are increasing with the lengths; however, the representative length of a code
+ * may exceed the length of its documents, hence upper bounds on the scores computed on quantized lengths must consider
+ * the largest length of every code (see {@link #getMaxLength(int)}).
+ */
+public class QuantizedDocumentLengths
+{
+	/** The number of codes. */
+	public static final int NUM_CODES = 1 << Byte.SIZE;
+	/** The number of codes of lengths stored exactly when the lengths are grouped in buckets. */
+	public static final int EXACT_CODES = 64;
+	
+	/** The codes of the documents. */
+	private final byte[] codes;
+	/** The smallest length of every code. */
+	private final int[] bounds = new int[NUM_CODES];
+	/** The representative length of every code. */
+	private final double[] lengths = new double[NUM_CODES];
+	/** The length of the longest document. */
+	private final int maxLength;
+	
+	/**
+	 * Quantizes the lengths of the documents of a document index.
+	 * 
+	 * @param doi the document index
+	 * @throws IOException if something goes wrong
+	 */
+	public QuantizedDocumentLengths(final DocumentIndex doi) throws IOException
+	{
+		final int numDocs = doi.getNumberOfDocuments();
+		int maxLength = 0;
+		for (int docid = 0; docid < numDocs; docid++)
+			maxLength = Math.max(maxLength, doi.getDocumentLength(docid));
+		
+		if (maxLength < NUM_CODES) {
+			for (int code = 0; code < NUM_CODES; code++)
+				bounds[code] = code;
+		} else {
+			for (int code = 0; code < EXACT_CODES; code++)
+				bounds[code] = code;
+			// every bucket spans the same ratio of the lengths left to the remaining buckets, so that the last bucket ends at the longest document
+			for (int code = EXACT_CODES; code < NUM_CODES; code++) {
+				final double ratio = Math.pow((maxLength + 1.0) / bounds[code - 1], 1.0 / (NUM_CODES - code + 1));
+				bounds[code] = Math.max(bounds[code - 1] + 1, (int) Math.ceil(bounds[code - 1] * ratio));
+			}
+		}
+		
+		this.maxLength = maxLength;
+		codes = new byte[numDocs];
+		final double[] sums = new double[NUM_CODES];
+		final long[] counts = new long[NUM_CODES];
+		for (int docid = 0; docid < numDocs; docid++) {
+			final int length = doi.getDocumentLength(docid);
+			final int code = code(length);
+			codes[docid] = (byte) code;
+			sums[code] += length;
+			counts[code]++;
+		}
+		for (int code = 0; code < NUM_CODES; code++) {
+			if (counts[code] != 0)
+				lengths[code] = sums[code] / counts[code];
+			else
+				lengths[code] = code < NUM_CODES - 1 ? (bounds[code] + bounds[code + 1] - 1) / 2.0 : bounds[code];
+		}
+	}
+	
+	/**
+	 * Returns the code of a length, i.e., the code whose bucket contains the length.
+	 * 
+	 * @param length the length
+	 * @return the code of the length
+	 */
+	public int code(final int length)
+	{
+		int lo = 0, hi = NUM_CODES - 1;
+		while (lo < hi) {
+			final int mid = (lo + hi + 1) >>> 1;
+			if (bounds[mid] <= length)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		return lo;
+	}
+	
+	/**
+	 * Returns the code of the length of a document.
+	 * 
+	 * @param docid the docid
+	 * @return the code of the length of the document
+	 */
+	public int getCode(final int docid)
+	{
+		return codes[docid] & (NUM_CODES - 1);
+	}
+	
+	/**
+	 * Returns the representative length of a code, i.e., the mean length of the documents with the code.
+	 * 
+	 * @param code the code
+	 * @return the representative length of the code
+	 */
+	public double getLength(final int code)
+	{
+		return lengths[code];
+	}
+	
+	/**
+	 * Returns the largest length of a code, i.e., the largest length in its bucket.
+	 * The representative length of a code may be larger than the length of some documents with the code.
+	 * 
+	 * @param code the code
+	 * @return the largest length of the code
+	 */
+	public int getMaxLength(final int code)
+	{
+		return code < NUM_CODES - 1 ? bounds[code + 1] - 1 : Math.max(bounds[code], maxLength);
+	}
+	
+	/**
+	 * Returns the number of documents.
+	 * 
+	 * @return the number of documents
+	 */
+	public int getNumberOfDocuments()
+	{
+		return codes.length;
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package it.cnr.isti.hpclab.ef.util;
+
+import it.unimi.dsi.fastutil.longs.LongBigList;
+
+/**
+ * A reader of docid lists written by {@link BitmapEncoder}.
+ * It exposes the same interface of {@link DocidReader}, so that posting cursors can use either encoding,
+ * but when the list is exhausted it returns the upper bound on the docids.
+ * Docids are found by scanning words for set bits; long skips count the skipped docids through the rank directory,
+ * so that {@link #currentIndex} is always available to access frequencies.
+ */
+public class BitmapDocidReader extends DocidReader
+{
+	/** The upper bound on the docids, returned when the list is exhausted. */
+	private final long upperBound;
+	/** The number of words of a bitmap. */
+	private final int numWords;
+	/** The longword bit reader for the rank directory. */
+	private final LongWordBitReader ranks;
+
+	/** The index of the first word of the bitmap of the current list. */
+	private long firstWord;
+	/** The starting position of the rank directory of the current list. */
+	private long ranksStart;
+	/** The width of an entry of the rank directory of the current list. */
+	private int rankWidth;
+
+	/**
+	 * Creates a reader not yet positioned on any list; {@link #reset(long, long)} must be invoked before reading.
+	 *
+	 * @param list the underlying list
+	 * @param upperBound the upper bound on the docids
+	 */
+	public BitmapDocidReader(final LongBigList list, final long upperBound)
+	{
+		super(list, new LongWordBitReader(list, 0), new LongWordBitReader(list, 0), 0);
+		this.upperBound = upperBound;
+		this.numWords = BitmapEncoder.numberOfWords(upperBound);
+		this.ranks = new LongWordBitReader(list, 0);
+	}
+
+	@Override
+	public void counters(final TraversalCounters counters)
+	{
+		super.counters(counters);
+		ranks.counters(counters);
+	}
+
+	/**
+	 * Positions this reader at the beginning of a new list.
+	 *
+	 * @param position the starting position of the list, a multiple of 64
+	 * @param frequency the number of elements of the list
+	 */
+	public void reset(final long position, final long frequency)
+	{
+		assert position % Long.SIZE == 0 : position;
+		this.frequency = frequency;
+		this.firstWord = position / Long.SIZE;
+		this.ranksStart = position + (long) numWords * Long.SIZE;
+		this.rankWidth = BitmapEncoder.rankWidth(frequency);
+		ranks.width(rankWidth);
+
+		window = word(curr = firstWord);
+		currentIndex = 0;
+	}
+
+	@Override
+	public long getNextPrefixSum()
+	{
+		if (currentIndex == frequency)
+			return upperBound;
+
+		while (window == 0)
+			window = word( ++curr );
+		final long docid = (curr - firstWord) * Long.SIZE + Long.numberOfTrailingZeros(window);
+		window &= window - 1;
+		currentIndex++;
+		if (TraversalCounters.ENABLED && counters != null)
+			counters.decoded++;
+		return docid;
+	}
+
+	@Override
+	public void getNextPrefixSums(final int[] buffer, final int length)
+	{
+		for (int i = 0; i < length; i++)
+			buffer[i] = (int) getNextPrefixSum();
+	}
+
+	@Override
+	public long skipTo(final long lowerBound)
+	{
+		final long from = currentIndex;
+		if (lowerBound >= upperBound) {
+			if (TraversalCounters.ENABLED && counters != null) {
+				counters.skips++;
+				counters.skipped += frequency - from;
+			}
+			currentIndex = frequency;
+			return upperBound;
+		}
+
+		final long targetWord = firstWord + lowerBound / Long.SIZE;
+		if (targetWord != curr) {
+			if (targetWord - curr > BitmapEncoder.SUPERBLOCK_SIZE) {
+				// we restart counting from the beginning of the superblock of the target word
+				final long superblock = (targetWord - firstWord) >>> BitmapEncoder.LOG2_SUPERBLOCK_SIZE;
+				currentIndex = superblock == 0 ? 0 : ranks.extract(ranksStart + (superblock - 1) * rankWidth);
+				curr = firstWord + (superblock << BitmapEncoder.LOG2_SUPERBLOCK_SIZE);
+				if (TraversalCounters.ENABLED && counters != null)
+					counters.skips++;
+			} else {
+				currentIndex += Long.bitCount(window);
+				curr++;
+				if (TraversalCounters.ENABLED && counters != null)
+					counters.scans++;
+			}
+			while (curr < targetWord)
+				currentIndex += Long.bitCount(word( curr++ ));
+			window = word(curr);
+		} else if (TraversalCounters.ENABLED && counters != null) {
+			counters.scans++;
+		}
+
+		// We cancel up to, but not including, the target position.
+		final long mask = -1L << (int)(lowerBound);
+		currentIndex += Long.bitCount(window & ~mask);
+		window &= mask;
+		if (TraversalCounters.ENABLED && counters != null)
+			counters.skipped += currentIndex - from;
+		return getNextPrefixSum();
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package it.cnr.isti.hpclab.ef.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class implements an encoder of increasing sequences of docids as plain bitmaps, for dense posting lists,
+ * and can dump it to a bit file, according to an internally hardcoded structure:
+ * <ul>
+ * <li>the bitmap, one bit per document, padded to a multiple of 64 bits;</li>
+ * <li>the rank directory, i.e., the number of docids preceding every superblock of {@link #SUPERBLOCK_SIZE} words but the first.</li>
+ * </ul>
+ * The list must start at a bit offset multiple of 64, so that the bitmap is made of whole words of the underlying file.
+ */
+public class BitmapEncoder
+{
+	/** The logarithm of the number of words in a superblock of the rank directory. */
+	public static final int LOG2_SUPERBLOCK_SIZE = 3;
+	/** The number of words in a superblock of the rank directory. */
+	public static final int SUPERBLOCK_SIZE = 1 << LOG2_SUPERBLOCK_SIZE;
+
+	/** The bitmap of the current list. */
+	private long[] bits = new long[0];
+	/** The number of elements that will be added to this list. */
+	private long length;
+	/** The current length of the list. */
+	private long currentLength;
+	/** The current prefix sum. */
+	private long currentPrefixSum;
+	/** An upper bound to the docids of the list. */
+	private long upperBound;
+	/** The number of words of the bitmap. */
+	private int numWords;
+
+	/**
+	 * Returns the number of words of the bitmap of a list.
+	 *
+	 * @param upperBound an upper bound to the docids of the list (the number of documents)
+	 * @return the number of words of the bitmap
+	 */
+	public static int numberOfWords(final long upperBound)
+	{
+		return (int) ((upperBound + Long.SIZE - 1) / Long.SIZE);
+	}
+
+	/**
+	 * Returns the width of an entry of the rank directory of a list.
+	 *
+	 * @param length the number of docids of the list
+	 * @return the width of an entry of the rank directory
+	 */
+	public static int rankWidth(final long length)
+	{
+		return Long.SIZE - Long.numberOfLeadingZeros(length);
+	}
+
+	/**
+	 * Returns the number of bits of a list stored as a bitmap, including the rank directory.
+	 *
+	 * @param length the number of docids of the list
+	 * @param upperBound an upper bound to the docids of the list (the number of documents)
+	 * @return the number of bits of the list
+	 */
+	public static long size(final long length, final long upperBound)
+	{
+		final int numWords = numberOfWords(upperBound);
+		final long numSuperblocks = (numWords + SUPERBLOCK_SIZE - 1) >>> LOG2_SUPERBLOCK_SIZE;
+		return (long) numWords * Long.SIZE + (numSuperblocks - 1) * rankWidth(length);
+	}
+
+	/**
+	 * Prepares the encoder to receive a new list.
+	 *
+	 * @param length the number of docids of the list
+	 * @param upperBound an upper bound to the docids of the list (the number of documents)
+	 */
+	public void init(final long length, final long upperBound)
+	{
+		this.length = length;
+		this.upperBound = upperBound;
+		this.numWords = numberOfWords(upperBound);
+		if (bits.length < numWords)
+			bits = new long[numWords];
+		else
+			Arrays.fill(bits, 0, numWords, 0);
+		currentLength = 0;
+		currentPrefixSum = 0;
+	}
+
+	/**
+	 * Adds the gap of the next docid w.r.t. the previous one (or the docid itself, for the first docid).
+	 *
+	 * @param x the gap
+	 */
+	public void add(final long x)
+	{
+		if (currentLength != 0 && x == 0)
+			throw new IllegalArgumentException("Docids must be strictly increasing");
+		currentPrefixSum += x;
+		if (currentPrefixSum >= upperBound)
+			throw new IllegalArgumentException("Too large docid: " + currentPrefixSum + " (upper bound: " + upperBound + ")");
+		bits[(int) (currentPrefixSum / Long.SIZE)] |= 1L << currentPrefixSum;
+		currentLength++;
+	}
+
+	/**
+	 * Dumps the current list to the given writer, that must be positioned at a bit offset multiple of 64.
+	 *
+	 * @param lwobs the writer
+	 * @return the number of written bits
+	 * @throws IOException if something goes wrong
+	 */
+	public long dump(final LongWordBitWriter lwobs) throws IOException
+	{
+		if (currentLength != length)
+			throw new IllegalStateException("Expected " + length + " docids, got " + currentLength);
+
+		long written = lwobs.append(bits, (long) numWords * Long.SIZE);
+
+		final int rankWidth = rankWidth(length);
+		long rank = 0;
+		for (int i = 0; i < numWords; i++) {
+			if (i != 0 && (i & (SUPERBLOCK_SIZE - 1)) == 0)
+				written += lwobs.append(rank, rankWidth);
+			rank += Long.bitCount(bits[i]);
+		}
+		return written;
+	}
+
+	/**
+	 * Releases the memory used by the bitmap.
+	 */
+	public void close()
+	{
+		bits = new long[0];
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package it.cnr.isti.hpclab.ef.util;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+/**
+ * This class accumulates the block-max metadata of a posting list and can dump it to a file of big-endian longs.
+ * Postings are grouped in blocks of 2<sup>log2BlockSize</sup> consecutive postings (the last block may be shorter), 
+ * and every block is described by two longs:
+ * <ul>
+ * <li>the last docid of the block (upper 32 bits) and the maximum frequency in the block (lower 32 bits);</li>
+ * <li>the minimum document length in the block.</li>
+ * </ul>
+ * Since the number of blocks of a list depends only on its length, the metadata of consecutive lists are simply concatenated,
+ * and the file is not padded, so that the files of different term ranges can be concatenated as well.
+ */
+public class BlockMaxEncoder
+{
+	/** The number of longs describing a block. */
+	public static final int ENTRY_SIZE = 2;
+	
+	/** The logarithm of the number of postings in a block. */
+	private final int log2BlockSize;
+	/** The mask to detect the last posting of a block. */
+	private final long blockMask;
+	/** The entries of the blocks of the current list. */
+	private final LongArrayList entries = new LongArrayList();
+	
+	/** The number of postings added to the current list. */
+	private long currentLength;
+	/** The last docid added to the current block. */
+	private long lastDocid;
+	/** The maximum frequency of the current block. */
+	private long maxFrequency;
+	/** The minimum document length of the current block. */
+	private long minDocumentLength;
+
+	/**
+	 * Returns the number of blocks of a list.
+	 * 
+	 * @param length the number of postings of the list
+	 * @param log2BlockSize the logarithm of the number of postings in a block
+	 * @return the number of blocks of the list
+	 */
+	public static long numberOfBlocks(final long length, final int log2BlockSize)
+	{
+		return (length + (1L << log2BlockSize) - 1) >>> log2BlockSize;
+	}
+
+	/**
+	 * Creates a new encoder.
+	 * 
+	 * @param log2BlockSize the logarithm of the number of postings in a block
+	 */
+	public BlockMaxEncoder(final int log2BlockSize)
+	{
+		this.log2BlockSize = log2BlockSize;
+		this.blockMask = (1L << log2BlockSize) - 1;
+	}
+
+	/**
+	 * Prepares the encoder to receive a new list.
+	 */
+	public void init()
+	{
+		entries.clear();
+		currentLength = 0;
+		maxFrequency = 0;
+		minDocumentLength = Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Adds the next posting of the list.
+	 * 
+	 * @param docid the docid of the posting
+	 * @param frequency the frequency of the posting
+	 * @param documentLength the length of the document of the posting
+	 */
+	public void add(final long docid, final long frequency, final long documentLength)
+	{
+		lastDocid = docid;
+		maxFrequency = Math.max(maxFrequency, frequency);
+		minDocumentLength = Math.min(minDocumentLength, documentLength);
+		if ((++currentLength & blockMask) == 0)
+			flush();
+	}
+
+	private void flush()
+	{
+		entries.add(lastDocid << Integer.SIZE | maxFrequency);
+		entries.add(minDocumentLength);
+		maxFrequency = 0;
+		minDocumentLength = Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Dumps the metadata of the current list to the given output.
+	 * 
+	 * @param out the output
+	 * @return the number of written bytes
+	 * @throws IOException if something goes wrong
+	 */
+	public long dump(final DataOutput out) throws IOException
+	{
+		if ((currentLength & blockMask) != 0)
+			flush();
+		assert entries.size() == ENTRY_SIZE * numberOfBlocks(currentLength, log2BlockSize);
+		for (int i = 0; i < entries.size(); i++)
+			out.writeLong(entries.getLong(i));
+		return (long) entries.size() * Long.BYTES;
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.util;
+
+import java.io.File;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A pool of direct buffers shared by the {@link LongWordCache}s of all the threads, whose total size is bounded by an off-heap memory budget.
+ * Caches start with a small buffer, and replace it with a larger one from the pool as their lists grow; when the budget is exhausted,
+ * they spill on disk, in the spill directory of the pool, instead. Released buffers are kept in the pool, and reused by the next caches
+ * asking for a buffer of the same size, or dropped when a buffer of another size is needed and the budget is exhausted.
+ * Without a budget, only the released buffers not larger than {@link #MIN_BUFFER_SIZE} are kept, since nothing would drop the others.
+ */
+public final class BufferPool
+{
+	/** The size in bytes of the smallest buffer of a cache. */
+	public static final int MIN_BUFFER_SIZE = 64 * 1024;
+
+	/** The maximum number of bytes of the buffers allocated by the pool, either used or released. */
+	private static long budget = Long.MAX_VALUE;
+	/** The directory of the spill files, <code>null</code> for the default temporary directory. */
+	private static File spill_directory = null;
+	/** The number of bytes of the buffers allocated by the pool, either used or released. */
+	private static long allocated = 0;
+	/** The peak number of bytes allocated by the pool. */
+	private static long peak_allocated = 0;
+	/** The released buffers, by size. */
+	private static final Map<Integer, ArrayDeque<ByteBuffer>> released = new HashMap<>();
+
+	/**
+	 * Restricted instantiation.
+	 */
+	private BufferPool()
+	{
+	}
+
+	/**
+	 * Sets the budget and the spill directory of the pool, and drops the released buffers.
+	 * @param budget the maximum number of bytes of the buffers allocated by the pool (0 means no budget)
+	 * @param spill_directory the directory of the spill files, <code>null</code> for the default temporary directory
+	 */
+	public static synchronized void configure(final long budget, final File spill_directory)
+	{
+		if (budget < 0)
+			throw new IllegalArgumentException("The memory budget must not be negative: " + budget);
+		if (spill_directory != null && !spill_directory.isDirectory())
+			throw new IllegalArgumentException("The spill directory " + spill_directory + " does not exist");
+		BufferPool.budget = budget == 0 ? Long.MAX_VALUE : budget;
+		BufferPool.spill_directory = spill_directory;
+		clear();
+		peak_allocated = allocated;
+	}
+
+	/**
+	 * Return the maximum number of bytes of the buffers allocated by the pool
+	 * @return the maximum number of bytes of the buffers allocated by the pool, {@link Long#MAX_VALUE} if there is no budget
+	 */
+	public static synchronized long budget()
+	{
+		return budget;
+	}
+
+	/**
+	 * Return the directory of the spill files
+	 * @return the directory of the spill files, <code>null</code> for the default temporary directory
+	 */
+	public static synchronized File spillDirectory()
+	{
+		return spill_directory;
+	}
+
+	/**
+	 * Return the peak number of bytes of the buffers allocated by the pool, either used or released
+	 * @return the peak number of bytes allocated by the pool
+	 */
+	public static synchronized long peakAllocated()
+	{
+		return peak_allocated;
+	}
+
+	/**
+	 * Returns a buffer of the given size, in native byte order, either released or newly allocated within the budget.
+	 * @param size the size in bytes of the buffer
+	 * @param mandatory if <code>true</code>, the buffer is allocated even if the budget is exhausted
+	 * @return the buffer, or <code>null</code> if it is not mandatory and the budget is exhausted
+	 */
+	public static synchronized ByteBuffer allocate(final int size, final boolean mandatory)
+	{
+		final ArrayDeque<ByteBuffer> buffers = released.get(size);
+		if (buffers != null && !buffers.isEmpty()) {
+			final ByteBuffer buffer = buffers.pop();
+			((Buffer)buffer).clear();
+			return buffer;
+		}
+		// The released buffers of other sizes are dropped, from the largest ones, until the new buffer fits in the budget
+		while (allocated + size > budget && drop())
+			;
+		if (allocated + size > budget && !mandatory)
+			return null;
+		allocated += size;
+		peak_allocated = Math.max(peak_allocated, allocated);
+		return ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Releases a buffer returned by {@link #allocate(int, boolean)}, that must not be used anymore.
+	 * @param buffer the buffer
+	 */
+	public static synchronized void release(final ByteBuffer buffer)
+	{
+		if (budget == Long.MAX_VALUE && buffer.capacity() > MIN_BUFFER_SIZE) {
+			allocated -= buffer.capacity();
+			return;
+		}
+		released.computeIfAbsent(buffer.capacity(), size -> new ArrayDeque<>()).push(buffer);
+	}
+
+	/**
+	 * Drops all the released buffers, to be garbage collected.
+	 */
+	public static synchronized void clear()
+	{
+		while (drop())
+			;
+	}
+
+	/**
+	 * Drops one of the largest released buffers.
+	 * @return <code>false</code> if there are no released buffers
+	 */
+	private static boolean drop()
+	{
+		int largest = 0;
+		for (Iterator<Map.Entry<Integer, ArrayDeque<ByteBuffer>>> i = released.entrySet().iterator(); i.hasNext(); ) {
+			final Map.Entry<Integer, ArrayDeque<ByteBuffer>> e = i.next();
+			if (e.getValue().isEmpty())
+				i.remove();
+			else
+				largest = Math.max(largest, e.getKey());
+		}
+		if (largest == 0)
+			return false;
+		released.get(largest).pop();
+		allocated -= largest;
+		return true;
+	}
+}
@@ -0,0 +1,422 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+/*
+ * The original source code is it.unimi.di.big.mg4j.index.QuasiSuccinctIndexWriter class (Accumulator)
+ * 
+ * http://mg4j.di.unimi.it/docs-big/it/unimi/di/big/mg4j/index/QuasiSuccinctIndexWriter.html
+ * 
+ * being part of
+ *  		 
+ * MG4J: Managing Gigabytes for Java (big)
+ *
+ * Copyright (C) 2012 Sebastiano Vigna 
+ */
+package it.cnr.isti.hpclab.ef.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class implements an encoder of sequences of natural numbers according to Elias-Fano, writing them with the same structure 
+ * (pointers, lowers, uppers) as {@link SequenceEncoder}, but directly to the file channel of a bit writer.
+ * The lengths of the pointers and of the lower bits are known when the encoder is initialized, hence the three sections are written 
+ * at their own positions of the file while the elements are added, through small buffers, with no copy and no spill on disk.
+ * The sequence starts at the position of the writer when the first element is added: nothing else must be written to the writer
+ * until {@link #dump()} is called. Second-level inventories are not supported, since their size is known only at the end.
+ */
+public class DirectSequenceEncoder implements Closeable 
+{
+	/** The bit writer where to write. */
+	private final LongWordBitWriter lwobs;
+	/** The section of pointers (to zeros or ones). */
+	private final Section pointers;
+	/** The section of low bits. */
+	private final Section lowerBits;
+	/** The section of high bits. */
+	private final Section upperBits;
+	/** The buffer used to write the longwords shared by sections. */
+	private final ByteBuffer word = ByteBuffer.allocateDirect(Long.BYTES);
+
+	/** The file channel of {@link #lwobs}, while the sequence is written. */
+	private FileChannel channel;
+	/** The bit position of the file where the sequence starts. */
+	private long start;
+
+	/** If true, {@link #add(long)} does not accept zeroes. */
+	private boolean strict;
+
+	/** The number of lower bits. */
+	private int l;
+	/** A mask extracting the {@link #l} lower bits. */
+	private long lowerBitsMask;
+	/** The number of elements that will be added to this list. */
+	private long length;
+	/** The length including the final terminator. */
+	private long correctedLength;
+	/** The current length of the list. */
+	private long currentLength;
+	/** The current prefix sum (decremented by {@link #currentLength} if {@link #strict} is true). */
+	private long currentPrefixSum;
+	/** An upper bound to the sum of all values that will be added to the list (decremented by {@link #currentLength} if {@link #strict} is true). */
+	private long correctedUpperBound;
+	/** The logarithm of the indexing quantum. */
+	private int log2Quantum;
+	/** The indexing quantum. */
+	private long quantum;
+	/** The size of a pointer. */
+	private int pointerSize;
+	/** The mask to decide whether to quantize. */
+	private long quantumMask;
+	/** Whether we should index ones or zeroes. */
+	private boolean indexZeroes;
+	/** The last position where a one was set. */
+	private long lastOnePosition;
+	/** The expected number of points. */
+	private long expectedNumberOfPointers;
+	/** The number of bits used for the upper-bits array. */
+	public long bitsForUpperBits;
+	/** The number of bits used for the lower-bits array. */
+	public long bitsForLowerBits;
+	/** The number of bits used for forward/skip pointers. */
+	public long bitsForPointers;
+
+	/**
+	 * Constructor.
+	 * @param lwobs the bit writer where to write, on a file channel
+	 * @param bufferSize the size in bytes of the buffer of each section
+	 */
+	public DirectSequenceEncoder(final LongWordBitWriter lwobs, final int bufferSize)
+	{
+		this.lwobs = lwobs;
+		final int sectionSize = Math.max(Long.BYTES, bufferSize & -Long.BYTES);
+		pointers  = new Section(sectionSize, lwobs.order());
+		lowerBits = new Section(sectionSize, lwobs.order());
+		upperBits = new Section(sectionSize, lwobs.order());
+		word.order(lwobs.order());
+	}
+
+	/**
+	 * Return the number of lower bits used in encoding so far.
+	 * @return the number of lower bits used in encoding so far
+	 */
+	public int lowerBits() 
+	{
+		return l;
+	}
+
+	/**
+	 * Return the size of a pointer.
+	 * @return The size of a pointer
+	 */
+	public int pointerSize() 
+	{
+		return pointerSize;
+	}
+
+	/**
+	 * Return the expected number of points.
+	 * @return the expected number of points.
+	 */
+	public long numberOfPointers() 
+	{
+		return expectedNumberOfPointers;
+	}
+
+	/**
+	 * Returns the number of bits of an encoded sequence, whose elements sum up to its upper bound
+	 * (e.g., a docid list with its fictional last pointer, or a frequency list with the frequency of its term in the collection),
+	 * so that the sequence can be placed before it is encoded.
+	 * @param length the number of elements to encode
+	 * @param upperBound the upper bound on the last element to encode, i.e., the sum of the elements
+	 * @param strict if <code>true</code> zeroes are not accepted
+	 * @param indexZeroes whether we should index ones or zeroes
+	 * @param log2Quantum the base 2 logarithm of the quantum used to compute skip (or forward) pointer
+	 * @return the number of bits of the encoded sequence, as returned by {@link #dump()}
+	 */
+	public static long size(final long length, final long upperBound, final boolean strict, final boolean indexZeroes, final int log2Quantum)
+	{
+		final long correctedLength = length + (!strict && indexZeroes ? 1 : 0);
+		final long correctedUpperBound = upperBound - (strict ? length : 0);
+		final int l = EFUtils.lowerBits(correctedLength, upperBound, strict);
+		final long numberOfPointers = EFUtils.numberOfPointers(correctedLength, upperBound, log2Quantum, strict, indexZeroes);
+		// the last one of the upper bits is at the position of the upper bits of the upper bound, plus the number of preceding elements
+		return (numberOfPointers == 0 ? 0 : numberOfPointers * EFUtils.pointerSize(correctedLength, upperBound, strict, indexZeroes))
+			+ correctedLength * l + (correctedUpperBound >>> l) + correctedLength;
+	}
+
+	/**
+	 * Initialization of the encoder. Must be called before actual encoding begins.
+	 * @param length the number of elements to encode
+	 * @param upperBound the upper bound on the last element to encode
+	 * @param strict if <code>true</code>  {@link #add(long)} does not accept zeroes.
+	 * @param indexZeroes whether we should index ones or zeroes. if true, skip pointers are used; otherwise, forward pointers are used.
+	 * @param log2Quantum the base 2 logarithm of the quantum used to compute skip (or forward) pointer
+	 */
+	public void init(final long length, final long upperBound, final boolean strict, final boolean indexZeroes, final int log2Quantum) 
+	{
+		if (channel != null)
+			throw new IllegalStateException("The previous sequence has not been dumped");
+		this.indexZeroes = indexZeroes;
+		this.log2Quantum = log2Quantum;
+		this.length = length;
+		this.strict = strict;
+		quantum = 1L << log2Quantum;
+		quantumMask = quantum - 1;
+		correctedUpperBound = upperBound - (strict ? length : 0);
+		correctedLength = length + (!strict && indexZeroes ? 1 : 0);
+		if (correctedUpperBound < 0)
+			throw new IllegalArgumentException();
+
+		currentPrefixSum = 0;
+		currentLength = 0;
+		lastOnePosition = -1;
+
+		l = EFUtils.lowerBits(correctedLength, upperBound, strict);
+
+		lowerBitsMask = (1L << l) - 1;
+
+		pointerSize = EFUtils.pointerSize(correctedLength, upperBound, strict, indexZeroes);
+		expectedNumberOfPointers = EFUtils.numberOfPointers(correctedLength, upperBound, log2Quantum, strict, indexZeroes);
+	}
+
+	/**
+	 * Starts the sequence at the current position of the writer, placing the sections one after the other.
+	 * @throws IOException if something goes wrong
+	 */
+	private void start() throws IOException
+	{
+		channel = lwobs.detach();
+		start = channel.position() * Byte.SIZE + lwobs.partialBits();
+		bitsForPointers = expectedNumberOfPointers * pointerSize;
+		bitsForLowerBits = correctedLength * l;
+		pointers.start(channel, start);
+		lowerBits.start(channel, start + bitsForPointers);
+		upperBits.start(channel, start + bitsForPointers + bitsForLowerBits);
+	}
+
+	/**
+	 * Add a new natural number to the encode.
+	 * @param x the natural number to add
+	 * @throws IOException if something goes wrong
+	 */
+	public void add(final long x) throws IOException 
+	{
+		if (channel == null)
+			start();
+		if (strict && x == 0)
+			throw new IllegalArgumentException("Zeroes are not allowed.");
+		currentPrefixSum += x - (strict ? 1 : 0);
+		if (currentPrefixSum > correctedUpperBound)
+			throw new IllegalArgumentException("Too large prefix sum: "	+ currentPrefixSum + " >= " + correctedUpperBound);
+		if (l != 0)
+			lowerBits.append(currentPrefixSum & lowerBitsMask, l);
+		final long onePosition = (currentPrefixSum >>> l) + currentLength;
+
+		upperBits.writeUnary(onePosition - lastOnePosition - 1);
+
+		if (indexZeroes) {
+			long zeroesBefore = lastOnePosition - currentLength + 1;
+			for (long position = lastOnePosition + (zeroesBefore & -1L << log2Quantum) + quantum - zeroesBefore; position < onePosition; position += quantum, zeroesBefore += quantum)
+				pointers.append(position + 1, pointerSize);
+		} else if ((currentLength + 1 & quantumMask) == 0)
+			pointers.append(onePosition + 1, pointerSize);
+
+		lastOnePosition = onePosition;
+		currentLength++;
+	}
+	
+	/**
+	 * Completes the encoded sequence, and moves the writer after it.
+	 * Could add last fictional document pointer equal to the number of documents.
+	 * 
+	 * @return the number of written bits
+	 * @throws IOException if something goes wrong
+	 */
+	public long dump() throws IOException 
+	{
+		if (currentLength != length)
+			throw new IllegalStateException();
+		if (channel == null)
+			start();
+		if (!strict && indexZeroes) {
+			// Add last fictional document pointer equal to the number of documents.
+			add(correctedUpperBound - currentPrefixSum);
+		}
+		if (indexZeroes && pointerSize != 0)
+			while (pointers.position < start + bitsForPointers)
+				pointers.append(0, pointerSize);
+		if (pointers.position != start + bitsForPointers || lowerBits.position != start + bitsForPointers + bitsForLowerBits)
+			throw new IllegalStateException("The sections of the sequence do not match their expected lengths");
+
+		final long end = upperBits.position;
+		bitsForUpperBits = end - start - bitsForPointers - bitsForLowerBits;
+
+		// The longwords shared by the writer and the sections, or by two sections, are merged here
+		final long[] shared = new long[] { 
+			start >>> 6, lwobs.partialWord(), 
+			pointers.firstIndex, pointers.finish(), 
+			lowerBits.firstIndex, lowerBits.finish(), 
+			upperBits.firstIndex, upperBits.finish(), 
+			pointers.position >>> 6, pointers.word, 
+			lowerBits.position >>> 6, lowerBits.word, 
+			upperBits.position >>> 6, upperBits.word };
+		long partialWord = 0;
+		for (int i = 0; i < shared.length; i += 2) {
+			if (shared[i] < 0)
+				continue;
+			long bits = shared[i + 1];
+			for (int j = i + 2; j < shared.length; j += 2)
+				if (shared[j] == shared[i]) {
+					bits |= shared[j + 1];
+					shared[j] = -1;
+				}
+			if (shared[i] == end >>> 6 && (end & (Long.SIZE - 1)) != 0)
+				partialWord = bits;
+			else if (shared[i] < (end + Long.SIZE - 1) >>> 6)
+				write(shared[i], bits);
+		}
+		lwobs.resume(end, partialWord);
+		channel = null;
+
+		return end - start;
+	}
+
+	/**
+	 * Writes a longword at its position of the file.
+	 * @param index the index of the longword
+	 * @param bits the longword
+	 * @throws IOException if something goes wrong
+	 */
+	private void write(final long index, final long bits) throws IOException
+	{
+		((Buffer)word).clear();
+		word.putLong(bits);
+		((Buffer)word).flip();
+		for (long position = index * Long.BYTES; word.hasRemaining(); )
+			position += channel.write(word, position);
+	}
+
+	/** @inherited */
+	@Override
+	public void close() throws IOException 
+	{
+		if (channel != null)
+			throw new IllegalStateException("The last sequence has not been dumped");
+	}
+
+	/**
+	 * A section of a sequence, written from a given bit position of the file, through a buffer of complete longwords.
+	 * The first longword and the last, incomplete one, possibly shared with other sections or with the writer, are kept aside.
+	 */
+	private static final class Section
+	{
+		/** The buffer of the complete longwords. */
+		private final ByteBuffer byteBuffer;
+		/** The channel where to write. */
+		private FileChannel channel;
+		/** The byte position of the file where the buffer will be written. */
+		private long bufferPosition;
+		/** The bit position of the file of the next bit. */
+		private long position;
+		/** The index of the first longword. */
+		private long firstIndex;
+		/** The first longword, if complete. */
+		private long first;
+		/** The bits of the longword containing {@link #position}, preceding it. */
+		private long word;
+
+		private Section(final int bufferSize, final ByteOrder byteOrder)
+		{
+			byteBuffer = ByteBuffer.allocateDirect(bufferSize).order(byteOrder);
+		}
+
+		private void start(final FileChannel channel, final long position)
+		{
+			this.channel = channel;
+			this.position = position;
+			firstIndex = position >>> 6;
+			bufferPosition = (firstIndex + 1) * Long.BYTES;
+			first = 0;
+			word = 0;
+			((Buffer)byteBuffer).clear();
+		}
+
+		private void append(final long value, final int width) throws IOException
+		{
+			if (width == 0)
+				return;
+			final int used = (int) (position & (Long.SIZE - 1));
+			word |= value << used;
+			if (width >= Long.SIZE - used) {
+				complete(word);
+				word = used == 0 ? 0 : value >>> (Long.SIZE - used);
+			}
+			position += width;
+		}
+
+		private void writeUnary(long zeroes) throws IOException
+		{
+			for (int free; zeroes >= (free = Long.SIZE - (int) (position & (Long.SIZE - 1))); zeroes -= free) {
+				complete(word);
+				word = 0;
+				position += free;
+			}
+			position += zeroes;
+			append(1, 1);
+		}
+
+		private void complete(final long bits) throws IOException
+		{
+			if (position >>> 6 == firstIndex) {
+				first = bits;
+				return;
+			}
+			byteBuffer.putLong(bits);
+			if (!byteBuffer.hasRemaining())
+				flush();
+		}
+
+		private void flush() throws IOException
+		{
+			((Buffer)byteBuffer).flip();
+			while (byteBuffer.hasRemaining())
+				bufferPosition += channel.write(byteBuffer, bufferPosition);
+			((Buffer)byteBuffer).clear();
+		}
+
+		/**
+		 * Writes the buffered longwords, and returns the first longword.
+		 * @return the first longword, if complete, or zero
+		 * @throws IOException if something goes wrong
+		 */
+		private long finish() throws IOException
+		{
+			flush();
+			channel = null;
+			return first;
+		}
+	}
+}
@@ -32,11 +32,6 @@
 
 package it.cnr.isti.hpclab.ef.util;
 
-import static it.unimi.dsi.bits.Fast.MSBS_STEP_8;
-import static it.unimi.dsi.bits.Fast.ONES_STEP_4;
-import static it.unimi.dsi.bits.Fast.ONES_STEP_8;
-
-import it.unimi.dsi.bits.Fast;
 import it.unimi.dsi.fastutil.longs.LongBigList;
 
 public class DocidReader 
@@ -46,67 +41,180 @@ public class DocidReader
 	/** The longword bit reader for pointers. */
 	protected final LongWordBitReader skipPointers;
 	/** The starting position of the pointers. */
-	protected final long skipPointersStart;
+	protected long skipPointersStart;
 	/** The starting position of the upper bits. */
-	protected final long upperBitsStart;
+	protected long upperBitsStart;
 	/** The logarithm of the quantum, cached from the index. */
 	protected final int log2Quantum;
 	/** The quantum, cached from the index. */
 	protected final int quantum;
 	/** The size of a pointer. */
-	protected final int pointerSize;
+	protected int pointerSize;
 	/** The number of pointers. */
-	protected final long numberOfPointers;
+	protected long numberOfPointers;
 	/** The frequency of the term (i.e., the number of elements of the current list). */
-	protected final long frequency;
+	protected long frequency;
 	/** The 64-bit window. */
 	protected long window;
 	/** The current word position in the list of upper bits. */
 	protected long curr;
 	/** The index of the current prefix sum. */
 	public long currentIndex;
+	/** The counters of the reads, null if reads are not counted. */
+	protected TraversalCounters counters;
 		
 	private final static int SKIPPING_THRESHOLD = 8;
 	/** The number of lower bits. */
-	private final int l;
+	private int l;
 	/** The longword bit reader for the lower bits. */
 	private final LongWordBitReader lowerBits;
 	/** The starting position of the power bits. */
-	private final long lowerBitsStart;
+	private long lowerBitsStart;
 	/** The last value returned by {@link #getNextUpperBits()}. */ 
 	private long lastUpperBits;
+	
+	/** The longword bit reader for second-level pointers. */
+	private final LongWordBitReader subPointers;
+	/** The starting position of the second-level pointers. */
+	private long subPointersStart;
+	/** The size of a second-level pointer. */
+	private int subPointerSize;
+	/** The logarithm of the second-level quantum, 0 if the current list has no second-level inventory. */
+	private int log2SubQuantum;
+	/** The second-level quantum. */
+	private int subQuantum;
+	/** The logarithm of the number of second-level blocks in a block. */
+	private int log2Ratio;
+	/** The mask to decide whether a second-level block is aligned to a block. */
+	private long ratioMask;
 		
 	public DocidReader(final LongBigList list, final LongWordBitReader lowerBits, final long lowerBitsStart, final int l, final LongWordBitReader skipPointers, final long skipPointersStart, final long numberOfPointers, final int pointerSize, final long frequency, final int log2Quantum) 
+	{
+		this(list, lowerBits, skipPointers, log2Quantum);
+		reset(lowerBitsStart, l, skipPointersStart, numberOfPointers, pointerSize, frequency);
+	}
+
+	/**
+	 * Creates a reader not yet positioned on any list; {@link #reset(long, int, long, long, int, long)} must be invoked before reading.
+	 * 
+	 * @param list the underlying list
+	 * @param lowerBits the longword bit reader for the lower bits
+	 * @param skipPointers the longword bit reader for pointers
+	 * @param log2Quantum the logarithm of the quantum
+	 */
+	public DocidReader(final LongBigList list, final LongWordBitReader lowerBits, final LongWordBitReader skipPointers, final int log2Quantum) 
 	{
 		this.list = list;
-		this.upperBitsStart = lowerBitsStart + l * ( frequency + 1L );
 		this.skipPointers = skipPointers;
+		this.lowerBits = lowerBits;
+		this.log2Quantum = log2Quantum;
+		this.quantum = 1 << log2Quantum;
+		this.subPointers = new LongWordBitReader(list, 0);
+	}
+
+	/**
+	 * Positions this reader at the beginning of a new list, reusing the underlying bit readers.
+	 * 
+	 * @param lowerBitsStart the starting position of the lower bits
+	 * @param l the number of lower bits
+	 * @param skipPointersStart the starting position of the pointers
+	 * @param numberOfPointers the number of pointers
+	 * @param pointerSize the size of a pointer
+	 * @param frequency the number of elements of the list
+	 */
+	public void reset(final long lowerBitsStart, final int l, final long skipPointersStart, final long numberOfPointers, final int pointerSize, final long frequency) 
+	{
+		this.upperBitsStart = lowerBitsStart + l * ( frequency + 1L );
 		this.skipPointersStart = skipPointersStart;
 				
 		this.pointerSize = pointerSize;
 		this.numberOfPointers = numberOfPointers;
-		this.log2Quantum = log2Quantum;
-		this.quantum = 1 << log2Quantum;
 		this.frequency = frequency;
 		
-		this.lowerBits = lowerBits;
 		this.lowerBitsStart = lowerBitsStart;
 		this.l = l;
+		lowerBits.width(l).position(lowerBitsStart);
+		skipPointers.width(pointerSize);
+		
+		currentIndex = 0;
+		lastUpperBits = 0;
+		log2SubQuantum = 0;
 		position( upperBitsStart );
 	}
 
+	/**
+	 * Positions this reader at the beginning of a new list with a second-level inventory of skip pointers,
+	 * stored between the pointers and the lower bits, as written by {@link SequenceEncoder#init(long, long, boolean, int, int)}.
+	 * 
+	 * @param l the number of lower bits
+	 * @param skipPointersStart the starting position of the pointers
+	 * @param numberOfPointers the number of pointers
+	 * @param pointerSize the size of a pointer
+	 * @param frequency the number of elements of the list
+	 * @param numberOfSubPointers the number of second-level pointers
+	 * @param log2SubQuantum the logarithm of the second-level quantum
+	 */
+	public void reset(final int l, final long skipPointersStart, final long numberOfPointers, final int pointerSize, final long frequency, final long numberOfSubPointers, final int log2SubQuantum) 
+	{
+		final long subInventoryStart = skipPointersStart + pointerSize * numberOfPointers;
+		if (numberOfSubPointers == 0) {
+			reset(subInventoryStart, l, skipPointersStart, numberOfPointers, pointerSize, frequency);
+			return;
+		}
+		
+		final int subPointerSize = (int) subPointers.width(EFUtils.SUB_POINTER_SIZE_WIDTH).extract(subInventoryStart);
+		final long subPointersStart = subInventoryStart + EFUtils.SUB_POINTER_SIZE_WIDTH;
+		reset(subPointersStart + subPointerSize * numberOfSubPointers, l, skipPointersStart, numberOfPointers, pointerSize, frequency);
+		
+		this.subPointersStart = subPointersStart;
+		this.subPointerSize = subPointerSize;
+		subPointers.width(subPointerSize);
+		this.log2SubQuantum = log2SubQuantum;
+		this.subQuantum = 1 << log2SubQuantum;
+		this.log2Ratio = log2Quantum - log2SubQuantum;
+		this.ratioMask = (1L << log2Ratio) - 1;
+	}
+
+	/**
+	 * Sets the counters of the reads of this reader and of its bit readers, effective only if {@link TraversalCounters#ENABLED}.
+	 * 
+	 * @param counters the counters, or null
+	 */
+	public void counters(final TraversalCounters counters) 
+	{
+		this.counters = counters;
+		skipPointers.counters(counters);
+		lowerBits.counters(counters);
+		subPointers.counters(counters);
+	}
+
+	/**
+	 * Reads a longword of the underlying list, counting it if reads are counted.
+	 * 
+	 * @param index the index of the longword
+	 * @return the longword
+	 */
+	protected final long word(final long index) 
+	{
+		if (TraversalCounters.ENABLED && counters != null)
+			counters.longwords++;
+		return list.getLong(index);
+	}
+
 	private void position(final long position) 
 	{
-		window = list.getLong(curr = position / Long.SIZE) & -1L << (int)(position);
+		window = word(curr = position / Long.SIZE) & -1L << (int)(position);
 	}
 
 	private long getNextUpperBits() 
 	{
 		while (window == 0) 
-			window = list.getLong( ++curr );
+			window = word( ++curr );
 		
 		lastUpperBits = curr * Long.SIZE + Long.numberOfTrailingZeros(window) - currentIndex++ - upperBitsStart;
 		window &= window - 1;
+		if (TraversalCounters.ENABLED && counters != null)
+			counters.decoded++;
 		return lastUpperBits;
 	}
 
@@ -115,18 +223,68 @@ public class DocidReader
 		return getNextUpperBits() << l | lowerBits.extract();
 	}
 
+	/**
+	 * Decodes the next <code>length</code> prefix sums into <code>buffer</code>.
+	 * It is equivalent to <code>length</code> calls to {@link #getNextPrefixSum()}, 
+	 * but the window over the upper bits is kept in local variables for the whole block.
+	 * The caller must ensure that at least <code>length</code> prefix sums are available.
+	 * 
+	 * @param buffer the array where to store the decoded prefix sums
+	 * @param length the number of prefix sums to decode
+	 */
+	public void getNextPrefixSums(final int[] buffer, final int length) 
+	{
+		long window = this.window;
+		long curr = this.curr;
+		long currentIndex = this.currentIndex;
+		long upperBits = lastUpperBits;
+		
+		for (int i = 0; i < length; i++) {
+			while (window == 0)
+				window = word( ++curr );
+			upperBits = curr * Long.SIZE + Long.numberOfTrailingZeros(window) - currentIndex++ - upperBitsStart;
+			window &= window - 1;
+			buffer[i] = (int) (upperBits << l | lowerBits.extract());
+		}
+		
+		this.window = window;
+		this.curr = curr;
+		this.currentIndex = currentIndex;
+		this.lastUpperBits = upperBits;
+		if (TraversalCounters.ENABLED && counters != null)
+			counters.decoded += length;
+	}
+
 	public long skipTo(final long lowerBound) 
 	{
 		final long zeroesToSkip = lowerBound >>> l;
 
 		if (zeroesToSkip - lastUpperBits < SKIPPING_THRESHOLD) {
+			if (TraversalCounters.ENABLED && counters != null)
+				counters.scans++;
 			long prefixSum;
 			while ((prefixSum = getNextPrefixSum()) < lowerBound)
 				;
 			return prefixSum;
 		}
-			
-		if (zeroesToSkip - lastUpperBits > quantum) {
+		
+		final long from = currentIndex;
+		boolean followed = false;
+		if (log2SubQuantum != 0) {
+			if (zeroesToSkip - lastUpperBits > subQuantum) {
+				// the second-level block refines the enclosing block (block 0 starts at the beginning of the upper bits)
+				final long subBlock = zeroesToSkip >>> log2SubQuantum;
+				final long block = subBlock >>> log2Ratio;
+				assert block <= numberOfPointers;
+				long skip = block == 0 ? 0 : skipPointers.extract(skipPointersStart + (block - 1) * pointerSize);
+				if ((subBlock & ratioMask) != 0)
+					skip += subPointers.extract(subPointersStart + (subBlock - 1 - block) * subPointerSize);
+				assert skip != 0;
+				position(upperBitsStart + skip);
+				currentIndex = skip - (subBlock << log2SubQuantum);
+				followed = true;
+			}
+		} else if (zeroesToSkip - lastUpperBits > quantum) {
 			final long block = zeroesToSkip >>> log2Quantum;
 			assert block > 0;
 			assert block <= numberOfPointers;
@@ -135,13 +293,14 @@ public class DocidReader
 			assert skip != 0;
 			position(upperBitsStart + skip);
 			currentIndex = skip - blockZeroes;
+			followed = true;
 		}
 
 		long delta = zeroesToSkip - curr * Long.SIZE + currentIndex + upperBitsStart;			
 		assert delta >= 0 : delta;
 
 		for (int bitCount; (bitCount = Long.bitCount( ~window )) < delta; ) {
-			window = list.getLong(++curr);
+			window = word(++curr);
 			delta -= bitCount;
 			currentIndex += Long.SIZE - bitCount;
 		}
@@ -152,26 +311,21 @@ public class DocidReader
 		 * Pre-decrementing won't work as delta might be zero.
 		 */
 		if (delta-- != 0) { 
-			// Phase 1: sums by byte
-			final long word = ~window;
-			assert delta < Long.bitCount( word ) : delta + " >= " + Long.bitCount( word );
-			long byteSums = word - ( ( word & 0xa * ONES_STEP_4 ) >>> 1 );
-			byteSums = ( byteSums & 3 * ONES_STEP_4 ) + ( ( byteSums >>> 2 ) & 3 * ONES_STEP_4 );
-			byteSums = ( byteSums + ( byteSums >>> 4 ) ) & 0x0f * ONES_STEP_8;
-			byteSums *= ONES_STEP_8;
-			// Phase 2: compare each byte sum with delta to obtain the relevant byte
-			final long rankStep8 = delta * ONES_STEP_8;
-			final long byteOffset = ( ( ( ( ( rankStep8 | MSBS_STEP_8 ) - byteSums ) & MSBS_STEP_8 ) >>> 7 ) * ONES_STEP_8 >>> 53 ) & ~0x7;
-			
-			final int byteRank = (int)( delta - ( ( ( byteSums << 8 ) >>> byteOffset ) & 0xFF ) );
-			
-			final int select = (int)( byteOffset + Fast.selectInByte[ (int)( word >>> byteOffset & 0xFF ) | byteRank << 8 ] );
+			final int select = EFUtils.selectInWord( ~window, delta );
 
 			// We cancel up to, but not including, the target one.
 			window &= -1L << select;
 			currentIndex += select - delta;
 		}
 
+		if (TraversalCounters.ENABLED && counters != null) {
+			if (followed)
+				counters.skips++;
+			else
+				counters.scans++;
+			counters.skipped += currentIndex - from;
+		}
+
 		final long lower = lowerBits.extract( lowerBitsStart + l * currentIndex );
 		long prefixSum = getNextUpperBits() << l | lower; 
 			
@@ -31,10 +31,18 @@
  */
 package it.cnr.isti.hpclab.ef.util;
 
+import static it.unimi.dsi.bits.Fast.MSBS_STEP_8;
+import static it.unimi.dsi.bits.Fast.ONES_STEP_4;
+import static it.unimi.dsi.bits.Fast.ONES_STEP_8;
+
 import it.unimi.dsi.bits.Fast;
+import it.unimi.dsi.fastutil.longs.LongBigList;
 
 public class EFUtils 
 {
+	/** The number of bits used to store the size of second-level skip pointers in front of them. */
+	public static final int SUB_POINTER_SIZE_WIDTH = 6;
+	
 	/** 
 	 * Returns the number of lower bits for the Elias&ndash;Fano encoding of a list of given length, upper bound and strictness.
 	 * 
@@ -89,4 +97,66 @@ public class EFUtils
 			return ( ( upperBound - ( strict ? length : 0 ) ) >>> lowerBits( length, upperBound, strict ) ) >>> log2Quantum;
 		return length >>> log2Quantum;
 	}
-}
\ No newline at end of file
+
+	/** 
+	 * Returns the number of second-level skip pointers to the Elias&ndash;Fano encoding of a list of given length, upper bound and strictness,
+	 * i.e., the number of multiples of the second-level quantum not indexed by a skip pointer.
+	 * 
+	 * @param length the number of elements of the list.
+	 * @param upperBound an upper bound for the elements of the list.
+	 * @param log2Quantum the logarithm of the quantum size.
+	 * @param log2SubQuantum the logarithm of the second-level quantum size.
+	 * @param strict if true, the elements of the list are strictly increasing.
+	 * @return an upper bound on the number of second-level skip pointers.
+	 */
+	public static long numberOfSubPointers(final long length, final long upperBound, final int log2Quantum, final int log2SubQuantum, final boolean strict) 
+	{
+		final long subBlocks = numberOfPointers(length, upperBound, log2SubQuantum, strict, true);
+		return subBlocks - (subBlocks >>> (log2Quantum - log2SubQuantum));
+	}
+
+	/**
+	 * Returns the position of the one of given rank in a word, i.e., the position of the (<code>rank</code> + 1)-th lowest one.
+	 * The byte containing the one is located with broadword byte sums, and the one is then selected in the byte by table lookup. 
+	 * 
+	 * @param word the word.
+	 * @param rank the rank of the one to select, smaller than the number of ones in <code>word</code>.
+	 * @return the position of the one of given rank in <code>word</code>.
+	 */
+	public static int selectInWord(final long word, final long rank) 
+	{
+		assert rank < Long.bitCount( word ) : rank + " >= " + Long.bitCount( word );
+		// Phase 1: sums by byte
+		long byteSums = word - ( ( word & 0xa * ONES_STEP_4 ) >>> 1 );
+		byteSums = ( byteSums & 3 * ONES_STEP_4 ) + ( ( byteSums >>> 2 ) & 3 * ONES_STEP_4 );
+		byteSums = ( byteSums + ( byteSums >>> 4 ) ) & 0x0f * ONES_STEP_8;
+		byteSums *= ONES_STEP_8;
+		// Phase 2: compare each byte sum with rank to obtain the relevant byte
+		final long rankStep8 = rank * ONES_STEP_8;
+		final long byteOffset = ( ( ( ( ( rankStep8 | MSBS_STEP_8 ) - byteSums ) & MSBS_STEP_8 ) >>> 7 ) * ONES_STEP_8 >>> 53 ) & ~0x7;
+		
+		final int byteRank = (int)( rank - ( ( ( byteSums << 8 ) >>> byteOffset ) & 0xFF ) );
+		
+		return (int)( byteOffset + Fast.selectInByte[ (int)( word >>> byteOffset & 0xFF ) | byteRank << 8 ] );
+	}
+
+	/**
+	 * Extracts a value of given width at a given bit position of a list of longwords written by {@link LongWordBitWriter}.
+	 * Unlike {@link LongWordBitReader#extract(long)}, it has no state, so it can be used concurrently by several threads.
+	 * 
+	 * @param list the list of longwords.
+	 * @param position the bit position of the value.
+	 * @param width the width of the value, smaller than {@link Long#SIZE}.
+	 * @return the value.
+	 */
+	public static long extract(final LongBigList list, final long position, final int width) 
+	{
+		if (width == 0)
+			return 0;
+		final int bitPosition = (int) (position % Long.SIZE);
+		long value = list.getLong(position / Long.SIZE) >>> bitPosition;
+		if (bitPosition + width > Long.SIZE)
+			value |= list.getLong(position / Long.SIZE + 1) << -bitPosition;
+		return value & (1L << width) - 1;
+	}
+}
@@ -31,11 +31,6 @@
  */
 package it.cnr.isti.hpclab.ef.util;
 
-import static it.unimi.dsi.bits.Fast.MSBS_STEP_8;
-import static it.unimi.dsi.bits.Fast.ONES_STEP_4;
-import static it.unimi.dsi.bits.Fast.ONES_STEP_8;
-
-import it.unimi.dsi.bits.Fast;
 import it.unimi.dsi.fastutil.longs.LongBigList;
 
 public class FreqReader 
@@ -53,18 +48,18 @@ public class FreqReader
 	private long curr;
 
 	/** The starting position of the pointers. */
-	private final long skipPointersStart;
+	private long skipPointersStart;
 	/** The starting position of the power bits. */
-	private final long lowerBitsStart;
+	private long lowerBitsStart;
 	/** The starting position of the upper bits. */
-	private final long upperBitsStart;
+	private long upperBitsStart;
 
 	/** The number of lower bits. */
-	private final int l;
+	private int l;
 	/** The size of a pointer. */
-	private final int pointerSize;
+	private int pointerSize;
 	/** The number of pointers. */
-	private final long numberOfPointers;
+	private long numberOfPointers;
 	/** The logarithm of the quantum, cached from the index. */
 	private final int log2Quantum;
 	/** The quantum. */
@@ -76,16 +71,46 @@ public class FreqReader
 	protected long prevPrefixSum;
 	/** The index of the current prefix sum. */
 	protected long currentIndex;
+	/** The counters of the reads, null if reads are not counted. */
+	private TraversalCounters counters;
 
 	public FreqReader(final LongBigList list, final long position, final long frequency, final long occurrency, final int log2Quantum) 
+	{
+		this(list, log2Quantum);
+		reset(position, frequency, occurrency);
+	}
+
+	/**
+	 * Creates a reader not yet positioned on any list; {@link #reset(long, long, long)} must be invoked before reading.
+	 * 
+	 * @param list the underlying list
+	 * @param log2Quantum the logarithm of the quantum
+	 */
+	public FreqReader(final LongBigList list, final int log2Quantum) 
+	{
+		this.list = list;
+		skipPointers = new LongWordBitReader(list, 0);
+		lowerBits = new LongWordBitReader(list, 0);
+
+		this.log2Quantum = log2Quantum;
+		quantum = 1 << log2Quantum;
+	}
+
+	/**
+	 * Positions this reader at the beginning of a new list, reusing the underlying bit readers.
+	 * 
+	 * @param position the initial bit offset of the list
+	 * @param frequency the number of elements of the list
+	 * @param occurrency the sum of the elements of the list
+	 */
+	public void reset(final long position, final long frequency, final long occurrency) 
 	{
 		this.l = EFUtils.lowerBits(frequency, occurrency, true);
 		this.pointerSize = EFUtils.pointerSize(frequency,	occurrency, true, false);
 		numberOfPointers = EFUtils.numberOfPointers(frequency, -1, log2Quantum, true, false);
 
-		skipPointers = new LongWordBitReader(list, pointerSize);
-		lowerBits = new LongWordBitReader(list, l);
-		this.list = list;
+		skipPointers.width(pointerSize);
+		lowerBits.width(l);
 
 		skipPointersStart = position;
 		lowerBitsStart = skipPointersStart + pointerSize * numberOfPointers;
@@ -93,26 +118,44 @@ public class FreqReader
 		upperBitsStart = lowerBitsStart + l * frequency;
 		currentIndex = prevPrefixSum = prefixSum = 0;
 
-		this.log2Quantum = log2Quantum;
-		quantum = 1 << log2Quantum;
-
 		position(upperBitsStart);
 	}
 
+	/**
+	 * Sets the counters of the reads of this reader and of its bit readers, effective only if {@link TraversalCounters#ENABLED}.
+	 * 
+	 * @param counters the counters, or null
+	 */
+	public void counters(final TraversalCounters counters) 
+	{
+		this.counters = counters;
+		skipPointers.counters(counters);
+		lowerBits.counters(counters);
+	}
+
+	private long word(final long index) 
+	{
+		if (TraversalCounters.ENABLED && counters != null)
+			counters.longwords++;
+		return list.getLong(index);
+	}
+
 	private void position(final long position) 
 	{
-		window = list.getLong(curr = position / Long.SIZE) & -1L << (int) (position);
+		window = word(curr = position / Long.SIZE) & -1L << (int) (position);
 	}
 
 	public long getLong(final long index) 
 	{
 
+		if (TraversalCounters.ENABLED && counters != null)
+			counters.freqs++;
 		long delta = index - currentIndex;
 
 		if (delta == 0) { // shortcut
 			prevPrefixSum = prefixSum;
 			while (window == 0)
-				window = list.getLong(++curr);
+				window = word(++curr);
 			prefixSum = curr * Long.SIZE + Long.numberOfTrailingZeros(window) - currentIndex++ - upperBitsStart << l | lowerBits.extract();
 			window &= window - 1;
 			return prefixSum - prevPrefixSum + 1;
@@ -129,27 +172,14 @@ public class FreqReader
 		}
 
 		for (int bitCount; (bitCount = Long.bitCount(window)) < delta; delta -= bitCount)
-			window = list.getLong(++curr);
+			window = word(++curr);
 
 		/*
 		 * This appears to be faster than != 0.
 		 * Note that for delta == 1 the following code is a NOP.
 		 */
 		if (--delta > 0) {
-			// Phase 1: sums by byte
-			final long word = window;
-			assert delta < Long.bitCount(word) : delta + " >= "	+ Long.bitCount(word);
-			long byteSums = word - ((word & 0xa * ONES_STEP_4) >>> 1);
-			byteSums = (byteSums & 3 * ONES_STEP_4) + ((byteSums >>> 2) & 3 * ONES_STEP_4);
-			byteSums = (byteSums + (byteSums >>> 4)) & 0x0f * ONES_STEP_8;
-			byteSums *= ONES_STEP_8;
-			// Phase 2: compare each byte sum with delta to obtain the relevant byte
-			final long rankStep8 = delta * ONES_STEP_8;
-			final long byteOffset = (((((rankStep8 | MSBS_STEP_8) - byteSums) & MSBS_STEP_8) >>> 7)	* ONES_STEP_8 >>> 53) & ~0x7;
-
-			final int byteRank = (int) (delta - (((byteSums << 8) >>> byteOffset) & 0xFF));
-
-			final int select = (int) (byteOffset + Fast.selectInByte[(int) (word >>> byteOffset & 0xFF)	| byteRank << 8]);
+			final int select = EFUtils.selectInWord(window, delta);
 
 			// We cancel up to, but not including, the target one.
 			window &= -1L << select;
@@ -160,12 +190,48 @@ public class FreqReader
 		prevPrefixSum = curr * Long.SIZE + Long.numberOfTrailingZeros(window) - (index - 1) - upperBitsStart << l | lowerBits.extract(lowerBitsStart + l * (index - 1));
 		window &= window - 1;
 		while (window == 0)
-			window = list.getLong(++curr);
+			window = word(++curr);
 		prefixSum = curr * Long.SIZE + Long.numberOfTrailingZeros(window) - index - upperBitsStart << l | lowerBits.extract();
 		window &= window - 1;
 		return prefixSum - prevPrefixSum + 1;
 	}
 
+	/**
+	 * Decodes <code>length</code> consecutive values, starting from the one at position <code>index</code>, into <code>buffer</code>.
+	 * The first value is located as in {@link #getLong(long)}, the following ones are decoded sequentially.
+	 * 
+	 * @param index the position of the first value to decode
+	 * @param buffer the array where to store the decoded values
+	 * @param length the number of values to decode
+	 */
+	public void getLongs(final long index, final int[] buffer, final int length) 
+	{
+		if (length == 0)
+			return;
+		buffer[0] = (int) getLong(index);
+
+		long window = this.window;
+		long curr = this.curr;
+		long prefixSum = this.prefixSum;
+		long prevPrefixSum = this.prevPrefixSum;
+		
+		for (int i = 1; i < length; i++) {
+			prevPrefixSum = prefixSum;
+			while (window == 0)
+				window = word(++curr);
+			prefixSum = curr * Long.SIZE + Long.numberOfTrailingZeros(window) - currentIndex++ - upperBitsStart << l | lowerBits.extract();
+			window &= window - 1;
+			buffer[i] = (int) (prefixSum - prevPrefixSum + 1);
+		}
+		
+		this.window = window;
+		this.curr = curr;
+		this.prefixSum = prefixSum;
+		this.prevPrefixSum = prevPrefixSum;
+		if (TraversalCounters.ENABLED && counters != null)
+			counters.freqs += length - 1;
+	}
+
 	@Override
 	public String toString() 
 	{
@@ -38,11 +38,11 @@ public final class LongWordBitReader
 	/** The underlying list. */
 	private final LongBigList list;
 	/** The extraction width for {@link #extract()} and {@link #extract(long)}. */
-	private final int l;
+	private int l;
 	/** {@link Long#SIZE} minus {@link #l}, cached. */
-	private final int longSizeMinusl;
+	private int longSizeMinusl;
 	/** The extraction mask for {@link #l} bits. */
-	private final long mask;
+	private long mask;
 
 	/** The 64-bit buffer, whose lower {@link #filled} bits contain data. */
 	private long buffer;
@@ -50,22 +50,58 @@ public final class LongWordBitReader
 	private int filled;
 	/** The current position in the list. */
 	private long curr;
+	/** The counters of the reads, null if reads are not counted. */
+	private TraversalCounters counters;
 
 	public LongWordBitReader(final LongBigList list, final int l) 
 	{
 		assert l < Long.SIZE;
 		
 		this.list = list;
+		this.curr = -1;
+		width(l);
+	}
+
+	/**
+	 * Changes the extraction width, so that the same reader can be reused over a different list.
+	 * 
+	 * @param l the new extraction width
+	 * @return this reader
+	 */
+	public LongWordBitReader width(final int l) 
+	{
+		assert l < Long.SIZE;
+		
 		this.l = l;
 		this.longSizeMinusl = Long.SIZE - l;
 		this.mask = (1L << l) - 1;
-		this.curr = -1;
+
+		return this;
+	}
+
+	/**
+	 * Sets the counters of the longwords read by this reader, effective only if {@link TraversalCounters#ENABLED}.
+	 * 
+	 * @param counters the counters, or null
+	 * @return this reader
+	 */
+	public LongWordBitReader counters(final TraversalCounters counters) 
+	{
+		this.counters = counters;
+		return this;
+	}
+
+	private long word(final long index) 
+	{
+		if (TraversalCounters.ENABLED && counters != null)
+			counters.longwords++;
+		return list.getLong(index);
 	}
 
 	public LongWordBitReader position(final long position) 
 	{
 		curr = position / Long.SIZE;
-		buffer = list.getLong(curr);
+		buffer = word(curr);
 		final int bitPosition = (int) (position % Long.SIZE);
 		buffer >>>= bitPosition;
 		filled = Long.SIZE - bitPosition;
@@ -87,7 +123,7 @@ public final class LongWordBitReader
 			return result;
 		} else {
 			long result = buffer;
-			buffer = list.getLong(++curr);
+			buffer = word(++curr);
 			result |= buffer << filled & mask;
 			// Note that this WON'T WORK if remainder == Long.SIZE, but that's not going to happen.
 			buffer >>>= l - filled;
@@ -100,7 +136,7 @@ public final class LongWordBitReader
 	{
 		final int bitPosition = (int) (position % Long.SIZE);
 		final int totalOffset = bitPosition + l;
-		final long result = list.getLong(curr = position / Long.SIZE) >>> bitPosition;
+		final long result = word(curr = position / Long.SIZE) >>> bitPosition;
 
 		if (totalOffset <= Long.SIZE) {
 			buffer = result >>> l;
@@ -108,7 +144,7 @@ public final class LongWordBitReader
 			return result & mask;
 		}
 
-		final long t = list.getLong(++curr);
+		final long t = word(++curr);
 
 		buffer = t >>> totalOffset;
 		filled = 2 * Long.SIZE - totalOffset;
@@ -132,7 +168,7 @@ public final class LongWordBitReader
 				return msb + accumulated;
 			}
 			accumulated += filled;
-			buffer = list.getLong(++curr);
+			buffer = word(++curr);
 			filled = Long.SIZE;
 		}
 	}
@@ -157,7 +193,7 @@ public final class LongWordBitReader
 			return result;
 		} else {
 			long result = buffer;
-			buffer = list.getLong(++curr);
+			buffer = word(++curr);
 
 			final int remainder = width - filled;
 			// Note that this WON'T WORK if remainder == Long.SIZE, but that's not going to happen.
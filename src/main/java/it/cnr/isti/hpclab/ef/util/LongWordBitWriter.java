@@ -37,6 +37,7 @@ import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
+import java.nio.channels.FileChannel;
 import java.nio.channels.WritableByteChannel;
 
 import it.unimi.dsi.bits.Fast;
@@ -140,6 +141,64 @@ public final class LongWordBitWriter
 		return cache.length();
 	}
 	
+	/**
+	 * Writes the complete longwords buffered so far to the underlying channel, that must be a file channel, and returns it,
+	 * so that the following bits can be written directly at their position by a {@link DirectSequenceEncoder}.
+	 * Nothing must be written by this writer until {@link #resume(long, long)} is called.
+	 * @return the underlying channel, positioned after the complete longwords written so far
+	 * @throws IOException when something goes wrong
+	 */
+	FileChannel detach() throws IOException
+	{
+		if (!(writableByteChannel instanceof FileChannel))
+			throw new UnsupportedOperationException("Direct writes need a file channel, not a " + writableByteChannel.getClass().getName());
+		((Buffer)byteBuffer).flip();
+		while (byteBuffer.hasRemaining())
+			writableByteChannel.write(byteBuffer);
+		((Buffer)byteBuffer).clear();
+		return (FileChannel) writableByteChannel;
+	}
+
+	/**
+	 * Returns the byte order of this writer.
+	 * @return the byte order of this writer
+	 */
+	ByteOrder order()
+	{
+		return byteBuffer.order();
+	}
+
+	/**
+	 * Returns the bits of the longword that is not complete yet.
+	 * @return the bits of the longword that is not complete yet
+	 */
+	long partialWord()
+	{
+		return buffer;
+	}
+
+	/**
+	 * Returns the number of bits of the longword that is not complete yet.
+	 * @return the number of bits of the longword that is not complete yet
+	 */
+	int partialBits()
+	{
+		return Long.SIZE - free;
+	}
+
+	/**
+	 * Resumes writing after {@link #detach()}, once all the longwords before the given bit position have been written to the channel.
+	 * @param position the bit position of the channel where to resume writing
+	 * @param partialWord the bits of the longword containing the given position, preceding it
+	 * @throws IOException when something goes wrong
+	 */
+	void resume(final long position, final long partialWord) throws IOException
+	{
+		((FileChannel) writableByteChannel).position((position >>> 6) * Long.BYTES);
+		buffer = partialWord;
+		free = Long.SIZE - (int) (position & (Long.SIZE - 1));
+	}
+
 	public void close() throws IOException 
 	{
 		byteBuffer.putLong(buffer);
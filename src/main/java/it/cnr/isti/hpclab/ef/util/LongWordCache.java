@@ -38,31 +38,33 @@ import java.io.RandomAccessFile;
 
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 
 import java.nio.channels.FileChannel;
 
 /**
  * This is a cache for long (i.e., 64 bits) objects, accessible at bit level. 
  * This cache contains three levels: (1) a long {@link #buffer}, storing 64 bits,
- * (2) a in-memory byte {@link #cache}, storing {@link #cache_bit_length} bits, and 
- * (3) a {@link #spill_file} random access file on disk accessed via Java NIO's 
- * {@link #spill_channel}. 
+ * (2) a in-memory byte {@link #cache}, taken from the {@link BufferPool} and grown up to {@link #max_cache_size} bytes 
+ * while the budget of the pool allows it, and 
+ * (3) a {@link #spill_file} random access file on disk, created in the spill directory of the pool when first needed, 
+ * accessed via Java NIO's {@link #spill_channel}. 
  * The cache must be populated first, then "rewinded", then accessed sequentially.
  */
 public final class LongWordCache implements Closeable 
 {
-	/** The spill file. */
-	private final File spill_file;
+	/** The suffix of {@link #spill_file}. */
+	private final String tmp_suffix;
+	/** The spill file, <code>null</code> until the cache spills for the first time. */
+	private File spill_file;
 	/** A channel opened on {@link #spill_file}. */
-	private final FileChannel spill_channel;
-	/** Whether {@link #spill_channel} should be repositioned at 0 <b>before usage</b>. */
-	private boolean spill_must_be_rewind;
+	private FileChannel spill_channel;
+	/** Whether the current content of the cache has been partially written to {@link #spill_channel}. */
+	private boolean spilling;
 	
-	/** A cache for longwords. Will be spilled to {@link #spill_channel} in case more than {@link #cache_bit_length} bits are added. */
-	private final ByteBuffer cache;
-	/** The length of the cache, in <b>bits</b>. */
-	private final long cache_bit_length;
+	/** A cache for longwords. Will be grown or spilled to {@link #spill_channel} when full. */
+	private ByteBuffer cache;
+	/** The maximum size of the cache, in bytes. */
+	private final int max_cache_size;
 	
 	/** The current bit buffer. */
 	private long buffer;
@@ -71,27 +73,30 @@ public final class LongWordCache implements Closeable
 	
 	/** The number of bits currently stored. */
 	private long length;
+	/** The number of bytes written to {@link #spill_file} since the creation of the cache. */
+	private long spilled;
+	
+	/** The current bit buffer when reading, whose lower {@link #available} bits are the next ones. */
+	private long read_buffer;
+	/** The current number of bits to read in {@link #read_buffer}. */
+	private int available;
 	
 	/**
-	 * Creates a cache with a length of <code>cache_size</code> bytes. 
+	 * Creates a cache with a length of at most <code>cache_size</code> bytes. 
 	 * The <code>suffix</code> is the suffix of the temporary file created to back up
-	 * the cache on disk. It is deleted on exit.
+	 * the cache on disk, when needed. It is deleted on exit.
 	 * 
-	 * @param cache_size the length of the cache memory buffer in bytes
+	 * @param cache_size the maximum length of the cache memory buffer in bytes, a multiple of 8
 	 * @param tmp_suffix the suffix of the temporary file backing up the cache on disk
 	 * 
 	 * @throws IOException if something goes wrong
 	 */
-	@SuppressWarnings("resource")
 	public LongWordCache(final int cache_size, final String tmp_suffix) throws IOException 
 	{
-		spill_file = File.createTempFile(LongWordCache.class.getName(), tmp_suffix);
-		spill_file.deleteOnExit();
-		spill_channel = new RandomAccessFile(spill_file, "rw").getChannel();
-		
-		cache = ByteBuffer.allocateDirect(cache_size).order(ByteOrder.nativeOrder());
+		this.tmp_suffix = tmp_suffix;
+		max_cache_size = cache_size;
+		cache = BufferPool.allocate(Math.min(cache_size, BufferPool.MIN_BUFFER_SIZE), true);
 		
-		cache_bit_length = cache_size * Byte.SIZE; // in bits
 		length = buffer = 0;
 		free = Long.SIZE;
 	}
@@ -135,8 +140,13 @@ public final class LongWordCache implements Closeable
 	{
 		length = buffer = 0;
 		free = Long.SIZE;
+		spilling = false;
+		// A grown cache is given back to the pool, to be used by the next large lists of any thread
+		if (cache.capacity() > BufferPool.MIN_BUFFER_SIZE) {
+			BufferPool.release(cache);
+			cache = BufferPool.allocate(BufferPool.MIN_BUFFER_SIZE, true);
+		}
 		((Buffer)cache).clear();
-		spill_must_be_rewind = true;
 	}
 
 	/**
@@ -145,8 +155,15 @@ public final class LongWordCache implements Closeable
 	@Override
 	public void close() throws IOException 
 	{
-		spill_channel.close();
-		spill_file.delete();
+		if (cache != null) {
+			BufferPool.release(cache);
+			cache = null;
+		}
+		if (spill_file != null) {
+			spill_channel.close();
+			spill_file.delete();
+			spill_file = null;
+		}
 	}
 
 	/**
@@ -158,6 +175,16 @@ public final class LongWordCache implements Closeable
 		return length;
 	}
 
+	/**
+	 * Return the number of bytes spilled on disk since the creation of the cache, i.e., 
+	 * the temporary disk traffic caused by lists not fitting in the cache memory buffer
+	 * @return the number of bytes spilled on disk
+	 */
+	public long spilledBytes() 
+	{
+		return spilled;
+	}
+
 	/**
 	 * Write an integer in unary coding
 	 * @param l the integer to write
@@ -184,6 +211,66 @@ public final class LongWordCache implements Closeable
 		append(1L << l, l + 1);
 	}
 
+	/**
+	 * Write a strictly positive long in gamma coding
+	 * @param value the long to write
+	 * @return the number of bits written
+	 * @throws IOException if something goes wrong
+	 */
+	public int writeNonZeroGamma(final long value) throws IOException 
+	{
+		if (value <= 0)
+			throw new IllegalArgumentException("The argument " + value + " is not strictly positive.");
+		final int msb = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+		writeUnary(msb);
+		append(value ^ (1L << msb), msb);
+		return 2 * msb + 1;
+	}
+
+	/**
+	 * Return the next strictly positive long, written in gamma coding, from the cache
+	 * @return the next strictly positive long from the cache
+	 * @throws IOException if something goes wrong
+	 */
+	public long readNonZeroGamma() throws IOException 
+	{
+		int msb = 0;
+		while (read_buffer == 0) {
+			msb += available;
+			read_buffer = readLong();
+			available = Long.SIZE;
+		}
+		final int zeroes = Long.numberOfTrailingZeros(read_buffer);
+		msb += zeroes;
+		read_buffer = read_buffer >>> zeroes >>> 1;
+		available -= zeroes + 1;
+		return 1L << msb | readBits(msb);
+	}
+
+	/**
+	 * Return the next <code>bit_width</code> bits from the cache
+	 * @param bit_width the number of bits to read
+	 * @return the next bits from the cache, in the lower positions
+	 * @throws IOException if something goes wrong
+	 */
+	private long readBits(final int bit_width) throws IOException 
+	{
+		if (bit_width == 0)
+			return 0;
+		long value = read_buffer;
+		if (bit_width <= available) {
+			read_buffer = bit_width == Long.SIZE ? 0 : read_buffer >>> bit_width;
+			available -= bit_width;
+		} else {
+			final long next = readLong();
+			value |= next << available;
+			final int width = bit_width - available;
+			read_buffer = width == Long.SIZE ? 0 : next >>> width;
+			available = Long.SIZE - width;
+		}
+		return bit_width == Long.SIZE ? value : value & (1L << bit_width) - 1;
+	}
+
 	/**
 	 * Return the next long from the cache
 	 * @return the next long from the cache 
@@ -205,12 +292,14 @@ public final class LongWordCache implements Closeable
 	 */
 	public void rewind() throws IOException 
 	{
+		read_buffer = 0;
+		available = 0;
 		if (free != Long.SIZE)
 			cache.putLong(buffer);
 
-		if (length > cache_bit_length) {
+		if (spilling) {
 			((Buffer)cache).flip();
-			spill_channel.write(cache);
+			spilled += spill_channel.write(cache);
 			spill_channel.position(0);
 			((Buffer)cache).clear();
 			spill_channel.read(cache);
@@ -222,14 +311,48 @@ public final class LongWordCache implements Closeable
 	private void flushBuffer() throws IOException 
 	{
 		cache.putLong(buffer);
-		if (!cache.hasRemaining()) {
-			if (spill_must_be_rewind) {
-				spill_must_be_rewind = false;
-				spill_channel.position(0);
+		if (!cache.hasRemaining() && (spilling || !grow())) {
+			if (!spilling) {
+				spilling = true;
+				spillChannel().position(0);
 			}
 			((Buffer)cache).flip();
-			spill_channel.write(cache);
+			spilled += spill_channel.write(cache);
 			((Buffer)cache).clear();
 		}
 	}
+
+	/**
+	 * Replaces the full cache with a buffer twice as large from the pool, if allowed by its size and by the budget of the pool.
+	 * @return <code>true</code> if the cache has been grown
+	 */
+	private boolean grow()
+	{
+		if (cache.capacity() >= max_cache_size)
+			return false;
+		final ByteBuffer larger = BufferPool.allocate((int) Math.min(2L * cache.capacity(), max_cache_size), false);
+		if (larger == null)
+			return false;
+		((Buffer)cache).flip();
+		larger.put(cache);
+		BufferPool.release(cache);
+		cache = larger;
+		return true;
+	}
+
+	/**
+	 * Returns the channel of the spill file, creating the file in the spill directory of the pool if needed.
+	 * @return the channel of the spill file
+	 * @throws IOException if something goes wrong
+	 */
+	@SuppressWarnings("resource")
+	private FileChannel spillChannel() throws IOException
+	{
+		if (spill_file == null) {
+			spill_file = File.createTempFile(LongWordCache.class.getName(), tmp_suffix, BufferPool.spillDirectory());
+			spill_file.deleteOnExit();
+			spill_channel = new RandomAccessFile(spill_file, "rw").getChannel();
+		}
+		return spill_channel;
+	}
 }
\ No newline at end of file
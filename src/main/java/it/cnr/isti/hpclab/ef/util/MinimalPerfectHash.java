@@ -0,0 +1,200 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.util;
+
+import it.unimi.dsi.fastutil.longs.LongBigList;
+
+/**
+ * A signed minimal perfect hash function over a set of strings, written by {@link MinimalPerfectHashEncoder},
+ * mapping each of the <i>n</i> strings of the set to a distinct position in [0, <i>n</i>) in constant time,
+ * and reading only a few longwords of the underlying (usually memory-mapped) list.
+ * 
+ * Strings are hashed to buckets of {@link #AVERAGE_BUCKET_SIZE} strings on average, and every bucket stores a <i>pilot</i>
+ * displacing its strings to free positions of a table slightly larger than <i>n</i> (the hash-and-displace scheme of PTHash,
+ * Pibiri and Trani, SIGIR 2021); the few strings displaced past <i>n</i> are remapped to the free positions before <i>n</i>.
+ * Every position stores a signature of the string mapped to it, so that most strings not in the set are rejected.
+ * 
+ * The reader has no state, so it can be used concurrently by several threads.
+ */
+public final class MinimalPerfectHash 
+{
+	/** The average number of strings of a bucket. */
+	public static final int AVERAGE_BUCKET_SIZE = 4;
+	/** The multiplier of the first hash of a string. */
+	private static final long FIRST_MULTIPLIER = 0x9E3779B97F4A7C15L;
+	/** The multiplier of the second hash of a string. */
+	private static final long SECOND_MULTIPLIER = 0xC2B2AE3D27D4EB4FL;
+
+	/** The underlying list. */
+	private final LongBigList list;
+	/** The number of strings. */
+	private final long n;
+	/** The seed of the buckets and of the displacements. */
+	private final long seed;
+	/** The number of buckets. */
+	private final long numberOfBuckets;
+	/** The size of the table the strings are displaced in. */
+	private final long tableSize;
+	/** The width of a pilot. */
+	private final int pilotWidth;
+	/** The width of a position. */
+	private final int positionWidth;
+	/** The width of a signature. */
+	private final int signatureWidth;
+	/** The starting position of the pilots. */
+	private final long pilotsStart;
+	/** The starting position of the remapped positions. */
+	private final long remapStart;
+	/** The starting position of the signatures. */
+	private final long signaturesStart;
+	/** The position following the last bit of this function. */
+	private final long end;
+
+	/**
+	 * Creates a reader of a function written at the given position of a list.
+	 * 
+	 * @param list the underlying list
+	 * @param position the bit position of the function
+	 */
+	public MinimalPerfectHash(final LongBigList list, final long position) 
+	{
+		this.list = list;
+		final LongWordBitReader header = new LongWordBitReader(list, 0).position(position);
+		n = header.readGamma();
+		seed = header.readGamma();
+		pilotWidth = (int) header.readGamma();
+		signatureWidth = (int) header.readGamma();
+		
+		numberOfBuckets = numberOfBuckets(n);
+		tableSize = tableSize(n);
+		positionWidth = width(n - 1);
+		pilotsStart = header.position();
+		remapStart = pilotsStart + numberOfBuckets * pilotWidth;
+		signaturesStart = remapStart + (tableSize - n) * positionWidth;
+		end = signaturesStart + n * signatureWidth;
+	}
+
+	/**
+	 * Returns the position of a string.
+	 * 
+	 * @param key the string
+	 * @return the position of the string, if it belongs to the set; -1 or, if its signature matches, an arbitrary position otherwise
+	 */
+	public long getLong(final CharSequence key) 
+	{
+		if (n == 0)
+			return -1;
+		final long h0 = hash(key, FIRST_MULTIPLIER);
+		final long pilot = EFUtils.extract(list, pilotsStart + bucket(h0, seed, numberOfBuckets) * pilotWidth, pilotWidth);
+		long position = position(hash(key, SECOND_MULTIPLIER), seed, pilot, tableSize);
+		if (position >= n)
+			position = EFUtils.extract(list, remapStart + (position - n) * positionWidth, positionWidth);
+		if (EFUtils.extract(list, signaturesStart + position * signatureWidth, signatureWidth) != signature(h0, signatureWidth))
+			return -1;
+		return position;
+	}
+
+	/**
+	 * Returns the number of strings.
+	 * 
+	 * @return the number of strings
+	 */
+	public long size() 
+	{
+		return n;
+	}
+
+	/**
+	 * Returns the position following the last bit of this function in the underlying list.
+	 * 
+	 * @return the position following the last bit of this function
+	 */
+	public long end() 
+	{
+		return end;
+	}
+
+	/** Returns the first hash of a string. */
+	static long firstHash(final CharSequence key) 
+	{
+		return hash(key, FIRST_MULTIPLIER);
+	}
+
+	/** Returns the second hash of a string. */
+	static long secondHash(final CharSequence key) 
+	{
+		return hash(key, SECOND_MULTIPLIER);
+	}
+
+	private static long hash(final CharSequence key, final long multiplier) 
+	{
+		long h = multiplier ^ key.length();
+		for (int i = 0; i < key.length(); i++)
+			h = (h ^ key.charAt(i)) * multiplier;
+		return mix(h);
+	}
+
+	/** The finalisation step of MurmurHash3, a bijection scattering all the bits of its argument. */
+	static long mix(long x) 
+	{
+		x ^= x >>> 33;
+		x *= 0xFF51AFD7ED558CCDL;
+		x ^= x >>> 33;
+		x *= 0xC4CEB9FE1A85EC53L;
+		x ^= x >>> 33;
+		return x;
+	}
+
+	/** Returns the bucket of a string, given its first hash. */
+	static long bucket(final long h0, final long seed, final long numberOfBuckets) 
+	{
+		return (mix(h0 ^ seed) >>> 33) * numberOfBuckets >>> 31;
+	}
+
+	/** Returns the position in the table of a string, given its second hash and the pilot of its bucket. */
+	static long position(final long h1, final long seed, final long pilot, final long tableSize) 
+	{
+		return Long.remainderUnsigned(mix(h1 ^ seed ^ pilot * FIRST_MULTIPLIER), tableSize);
+	}
+
+	/** Returns the signature of a string, given its first hash. */
+	static long signature(final long h0, final int width) 
+	{
+		return width == 0 ? 0 : h0 >>> Long.SIZE - width;
+	}
+
+	/** Returns the number of buckets of a set of strings. */
+	static long numberOfBuckets(final long n) 
+	{
+		return Math.max(1, (n + AVERAGE_BUCKET_SIZE - 1) / AVERAGE_BUCKET_SIZE);
+	}
+
+	/** Returns the size of the table the strings are displaced in, with a load factor of about 98.5%. */
+	static long tableSize(final long n) 
+	{
+		return n + (n >>> 6);
+	}
+
+	/** Returns the number of bits needed to represent a non-negative value. */
+	static int width(final long value) 
+	{
+		return Long.SIZE - Long.numberOfLeadingZeros(Math.max(0, value));
+	}
+}
@@ -0,0 +1,236 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.util;
+
+import java.io.IOException;
+
+/**
+ * This class builds a signed minimal perfect hash function over a set of strings and dumps it, 
+ * to be read by {@link MinimalPerfectHash}.
+ * 
+ * The strings are added in their order, and the position assigned to the string added as <i>i</i>-th is available from {@link #position(int)},
+ * so that data indexed by the strings can be stored in position order. The two 64-bit hashes of every string are kept in memory
+ * (16 bytes per string, plus 12 bytes per string while building); if no suitable pilot is found for a bucket, 
+ * the function is built again with a different seed.
+ */
+public class MinimalPerfectHashEncoder 
+{
+	/** The maximum pilot tried for a bucket before changing the seed. */
+	private static final int MAX_PILOT = 1 << 20;
+	/** The maximum number of seeds tried. */
+	private static final int MAX_SEEDS = 16;
+
+	/** The number of strings. */
+	private final int n;
+	/** The width of the signatures. */
+	private final int signatureWidth;
+	/** The first hashes of the strings. */
+	private final long[] firstHashes;
+	/** The second hashes of the strings. */
+	private final long[] secondHashes;
+	/** The number of strings added so far. */
+	private int size;
+
+	/** The seed of the function, -1 if it is not built yet. */
+	private long seed = -1;
+	/** The pilot of every bucket. */
+	private int[] pilots;
+	/** The free positions assigned to the positions of the table not smaller than {@link #n}. */
+	private int[] remap;
+	/** The position of every string. */
+	private int[] positions;
+	/** The width of a pilot. */
+	private int pilotWidth;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param n the number of strings that will be added
+	 * @param signatureWidth the width of the signatures, smaller than {@link Long#SIZE}, 0 for no signatures
+	 */
+	public MinimalPerfectHashEncoder(final int n, final int signatureWidth) 
+	{
+		if (n < 0 || MinimalPerfectHash.tableSize(n) > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Invalid number of strings: " + n);
+		if (signatureWidth < 0 || signatureWidth >= Long.SIZE)
+			throw new IllegalArgumentException("Invalid signature width: " + signatureWidth);
+		this.n = n;
+		this.signatureWidth = signatureWidth;
+		this.firstHashes = new long[n];
+		this.secondHashes = new long[n];
+	}
+
+	/**
+	 * Adds a new string, that must differ from the strings already added.
+	 * 
+	 * @param key the string to add
+	 */
+	public void add(final CharSequence key) 
+	{
+		if (size == n)
+			throw new IllegalStateException("All the " + n + " strings have already been added");
+		firstHashes[size] = MinimalPerfectHash.firstHash(key);
+		secondHashes[size] = MinimalPerfectHash.secondHash(key);
+		size++;
+	}
+
+	/**
+	 * Returns the position assigned to a string, building the function if needed.
+	 * 
+	 * @param index the index of the string, in order of addition
+	 * @return the position of the string
+	 */
+	public int position(final int index) 
+	{
+		build();
+		return positions[index];
+	}
+
+	/**
+	 * Dumps the function, building it if needed.
+	 * 
+	 * @param lwobs the output bit stream where to dump
+	 * @return the number of dumped bits
+	 * @throws IOException if something goes wrong
+	 */
+	public long dump(final LongWordBitWriter lwobs) throws IOException 
+	{
+		build();
+		long bits = lwobs.writeGamma(n);
+		bits += lwobs.writeGamma(seed);
+		bits += lwobs.writeGamma(pilotWidth);
+		bits += lwobs.writeGamma(signatureWidth);
+		for (int pilot: pilots)
+			bits += lwobs.append(pilot, pilotWidth);
+		final int positionWidth = MinimalPerfectHash.width(n - 1);
+		for (int position: remap)
+			bits += lwobs.append(position, positionWidth);
+		if (signatureWidth != 0) {
+			final long[] signatures = new long[n];
+			for (int i = 0; i < n; i++)
+				signatures[positions[i]] = MinimalPerfectHash.signature(firstHashes[i], signatureWidth);
+			for (long signature: signatures)
+				bits += lwobs.append(signature, signatureWidth);
+		}
+		return bits;
+	}
+
+	private void build() 
+	{
+		if (size != n)
+			throw new IllegalStateException("Only " + size + " strings out of " + n + " have been added");
+		for (long s = 0; seed == -1; s++) {
+			if (s == MAX_SEEDS)
+				throw new IllegalStateException("No minimal perfect hash function found after " + MAX_SEEDS + " seeds");
+			if (build(s))
+				seed = s;
+		}
+	}
+
+	/**
+	 * Tries to build the function with the given seed.
+	 * 
+	 * @param seed the seed
+	 * @return true if a pilot was found for every bucket
+	 */
+	private boolean build(final long seed) 
+	{
+		final int numberOfBuckets = (int) MinimalPerfectHash.numberOfBuckets(n);
+		final int tableSize = (int) MinimalPerfectHash.tableSize(n);
+
+		// the strings, grouped by bucket
+		final int[] bucketStart = new int[numberOfBuckets + 1];
+		for (int i = 0; i < n; i++)
+			bucketStart[(int) MinimalPerfectHash.bucket(firstHashes[i], seed, numberOfBuckets) + 1]++;
+		int maxBucketSize = 0;
+		for (int b = 0; b < numberOfBuckets; b++) {
+			maxBucketSize = Math.max(maxBucketSize, bucketStart[b + 1]);
+			bucketStart[b + 1] += bucketStart[b];
+		}
+		final int[] keys = new int[n];
+		final int[] next = bucketStart.clone();
+		for (int i = 0; i < n; i++)
+			keys[next[(int) MinimalPerfectHash.bucket(firstHashes[i], seed, numberOfBuckets)]++] = i;
+
+		// the buckets, by decreasing size, since large buckets are easier to place in an empty table
+		final int[] sizeStart = new int[maxBucketSize + 2];
+		for (int b = 0; b < numberOfBuckets; b++)
+			sizeStart[maxBucketSize - (bucketStart[b + 1] - bucketStart[b]) + 1]++;
+		for (int s = 0; s <= maxBucketSize; s++)
+			sizeStart[s + 1] += sizeStart[s];
+		final int[] buckets = new int[numberOfBuckets];
+		for (int b = 0; b < numberOfBuckets; b++)
+			buckets[sizeStart[maxBucketSize - (bucketStart[b + 1] - bucketStart[b])]++] = b;
+
+		final long[] taken = new long[(tableSize + Long.SIZE - 1) / Long.SIZE];
+		final int[] pilots = new int[numberOfBuckets];
+		final int[] positions = new int[n];
+		int maxPilot = 0;
+		for (int b: buckets) {
+			final int from = bucketStart[b], to = bucketStart[b + 1];
+			if (from == to)
+				break;
+			for (int i = from; i < to; i++)
+				for (int j = from; j < i; j++)
+					if (firstHashes[keys[i]] == firstHashes[keys[j]] && secondHashes[keys[i]] == secondHashes[keys[j]])
+						throw new IllegalArgumentException("The strings added as " + keys[j] + "-th and " + keys[i] + "-th have the same hashes (duplicate strings?)");
+			
+			for (int pilot = 0; ; pilot++) {
+				if (pilot == MAX_PILOT)
+					return false;
+				int i = from;
+				for (; i < to; i++) {
+					final int position = (int) MinimalPerfectHash.position(secondHashes[keys[i]], seed, pilot, tableSize);
+					if ((taken[position / Long.SIZE] & 1L << position) != 0)
+						break;
+					taken[position / Long.SIZE] |= 1L << position;
+					positions[keys[i]] = position;
+				}
+				if (i == to) {
+					pilots[b] = pilot;
+					maxPilot = Math.max(maxPilot, pilot);
+					break;
+				}
+				// some strings collide: the positions taken so far are freed
+				for (int j = from; j < i; j++)
+					taken[positions[keys[j]] / Long.SIZE] &= ~(1L << positions[keys[j]]);
+			}
+		}
+
+		// the positions not smaller than n are remapped to the free positions smaller than n
+		final int[] remap = new int[tableSize - n];
+		for (int position = n, free = 0; position < tableSize; position++) {
+			if ((taken[position / Long.SIZE] & 1L << position) == 0)
+				continue;
+			while ((taken[free / Long.SIZE] & 1L << free) != 0)
+				free++;
+			remap[position - n] = free++;
+		}
+		for (int i = 0; i < n; i++)
+			if (positions[i] >= n)
+				positions[i] = remap[positions[i] - n];
+
+		this.pilots = pilots;
+		this.remap = remap;
+		this.positions = positions;
+		this.pilotWidth = MinimalPerfectHash.width(maxPilot);
+		return true;
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.util;
+
+import it.unimi.dsi.fastutil.longs.LongBigList;
+
+/**
+ * A random-access reader of a non-decreasing sequence written by {@link SequenceEncoder} as a non-strict list with forward pointers
+ * (i.e., initialised with <code>strict</code> and <code>indexZeroes</code> false), such as the offsets of the posting lists in termid order.
+ * 
+ * The <i>i</i>-th element is located in constant time, by its lower bits and by selecting the <i>i</i>-th one in the upper bits,
+ * starting from the forward pointer preceding it. Unlike the other readers, it has no state, so it can be used concurrently by several threads.
+ */
+public final class OffsetReader 
+{
+	/** The underlying list. */
+	private final LongBigList list;
+	/** The number of elements. */
+	private final long length;
+	/** The logarithm of the quantum. */
+	private final int log2Quantum;
+	/** The number of lower bits. */
+	private final int l;
+	/** The size of a pointer. */
+	private final int pointerSize;
+	/** The starting position of the pointers. */
+	private final long pointersStart;
+	/** The starting position of the lower bits. */
+	private final long lowerBitsStart;
+	/** The starting position of the upper bits. */
+	private final long upperBitsStart;
+	/** The position following the last bit of the sequence. */
+	private final long end;
+
+	/**
+	 * Creates a reader of a sequence written at the given position of a list.
+	 * 
+	 * @param list the underlying list
+	 * @param position the bit position of the sequence
+	 * @param length the number of elements of the sequence
+	 * @param last the last element of the sequence, used as its upper bound when it was encoded
+	 * @param log2Quantum the logarithm of the quantum of the forward pointers
+	 */
+	public OffsetReader(final LongBigList list, final long position, final long length, final long last, final int log2Quantum) 
+	{
+		this.list = list;
+		this.length = length;
+		this.log2Quantum = log2Quantum;
+		this.l = EFUtils.lowerBits(length, last, false);
+		this.pointerSize = EFUtils.pointerSize(length, last, false, false);
+		
+		pointersStart = position;
+		lowerBitsStart = pointersStart + EFUtils.numberOfPointers(length, last, log2Quantum, false, false) * pointerSize;
+		upperBitsStart = lowerBitsStart + length * l;
+		// the last one of the upper bits is written at the position of the upper bits of the last element, plus its index
+		end = upperBitsStart + (length == 0 ? 0 : (last >>> l) + length);
+	}
+
+	/**
+	 * Returns an element of the sequence.
+	 * 
+	 * @param index the index of the element, smaller than the length of the sequence
+	 * @return the element
+	 */
+	public long getLong(final long index) 
+	{
+		final long block = index >>> log2Quantum;
+		// the position to start the search of the one of the element from, and the number of ones to skip
+		long position = upperBitsStart;
+		long rank = index;
+		if (block > 0) {
+			position += EFUtils.extract(list, pointersStart + (block - 1) * pointerSize, pointerSize);
+			rank -= block << log2Quantum;
+		}
+		
+		long curr = position / Long.SIZE;
+		long window = list.getLong(curr) & -1L << (int) position;
+		for (int bitCount; (bitCount = Long.bitCount(window)) <= rank; rank -= bitCount)
+			window = list.getLong(++curr);
+		final long upperBits = curr * Long.SIZE + EFUtils.selectInWord(window, rank) - upperBitsStart - index;
+		
+		return upperBits << l | EFUtils.extract(list, lowerBitsStart + index * l, l);
+	}
+
+	/**
+	 * Returns the number of elements of the sequence.
+	 * 
+	 * @return the number of elements of the sequence
+	 */
+	public long size() 
+	{
+		return length;
+	}
+
+	/**
+	 * Returns the position following the last bit of the sequence in the underlying list.
+	 * 
+	 * @return the position following the last bit of the sequence
+	 */
+	public long end() 
+	{
+		return end;
+	}
+}
@@ -0,0 +1,333 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.util;
+
+import it.unimi.dsi.fastutil.longs.LongBigList;
+
+/**
+ * A reader of docid lists written by {@link PartitionedSequenceEncoder}.
+ * It exposes the same interface of {@link DocidReader}, so that posting cursors can use either encoding,
+ * but when the list is exhausted it returns the upper bound on the docids (there is no fictional last element to decode).
+ * Long skips first look for the target chunk among the chunk endpoints, then move inside the chunk
+ * in constant time (runs and bitvectors) or through the upper bits (Elias-Fano chunks).
+ */
+public class PartitionedDocidReader extends DocidReader
+{
+	/** The upper bound on the docids, returned when the list is exhausted. */
+	private final long upperBound;
+	/** The longword bit reader for the list header. */
+	private final LongWordBitReader header;
+	/** The longword bit reader for the chunk endpoints. */
+	private final LongWordBitReader endpoints;
+	/** The longword bit reader for the chunk counts. */
+	private final LongWordBitReader counts;
+	/** The longword bit reader for the chunk offsets. */
+	private final LongWordBitReader offsets;
+	/** The longword bit reader for the lower bits of Elias-Fano chunks. */
+	private final LongWordBitReader lowerBits;
+
+	/** The number of chunks of the current list. */
+	private int numChunks;
+	/** The starting position of the chunk endpoints. */
+	private long endpointsStart;
+	/** The starting position of the chunk counts. */
+	private long countsStart;
+	/** The starting position of the chunk offsets. */
+	private long offsetsStart;
+	/** The starting position of the first chunk. */
+	private long chunksStart;
+	/** The width of a chunk endpoint. */
+	private int endpointWidth;
+	/** The width of a chunk count. */
+	private int countWidth;
+	/** The width of a chunk offset. */
+	private int offsetWidth;
+	/** The last docid of the current list. */
+	private long lastDocid;
+
+	/** The current chunk. */
+	private int chunk;
+	/** The type of the current chunk. */
+	private int chunkType;
+	/** The smallest docid that the current chunk can contain. */
+	private long chunkBase;
+	/** The last docid of the current chunk. */
+	private long chunkLast;
+	/** The index of the first docid of the current chunk. */
+	private long chunkBegin;
+	/** The index following the last docid of the current chunk. */
+	private long chunkEnd;
+	/** The number of lower bits of the current chunk, if it is an Elias-Fano chunk. */
+	private int l;
+	/** The starting position of the lower bits of the current chunk. */
+	private long lowerBitsStart;
+	/** The starting position of the upper bits (or of the bitvector) of the current chunk. */
+	private long upperBitsStart;
+	/** The last value returned by {@link #getNextUpperBits()}. */
+	private long lastUpperBits;
+
+	/**
+	 * Creates a reader not yet positioned on any list; {@link #reset(long, long)} must be invoked before reading.
+	 *
+	 * @param list the underlying list
+	 * @param upperBound the upper bound on the docids
+	 */
+	public PartitionedDocidReader(final LongBigList list, final long upperBound)
+	{
+		super(list, new LongWordBitReader(list, 0), new LongWordBitReader(list, 0), 0);
+		this.upperBound = upperBound;
+		this.header = new LongWordBitReader(list, 0);
+		this.endpoints = new LongWordBitReader(list, 0);
+		this.counts = new LongWordBitReader(list, 0);
+		this.offsets = new LongWordBitReader(list, 0);
+		this.lowerBits = new LongWordBitReader(list, 0);
+	}
+
+	@Override
+	public void counters(final TraversalCounters counters)
+	{
+		super.counters(counters);
+		header.counters(counters);
+		endpoints.counters(counters);
+		counts.counters(counters);
+		offsets.counters(counters);
+		lowerBits.counters(counters);
+	}
+
+	/**
+	 * Positions this reader at the beginning of a new list.
+	 *
+	 * @param position the starting position of the list
+	 * @param frequency the number of elements of the list
+	 */
+	public void reset(final long position, final long frequency)
+	{
+		this.frequency = frequency;
+
+		header.position(position);
+		numChunks = (int) header.readNonZeroGamma();
+		offsetWidth = numChunks > 1 ? (int) header.readGamma() : 0;
+		endpointWidth = PartitionedSequenceEncoder.width(upperBound);
+		countWidth = PartitionedSequenceEncoder.width(frequency);
+
+		endpointsStart = header.position();
+		countsStart = endpointsStart + (long) numChunks * endpointWidth;
+		offsetsStart = countsStart + (numChunks - 1L) * countWidth;
+		chunksStart = offsetsStart + (numChunks - 1L) * offsetWidth;
+
+		endpoints.width(endpointWidth);
+		counts.width(countWidth);
+		offsets.width(offsetWidth);
+		lastDocid = endpoints.extract(endpointsStart + (numChunks - 1L) * endpointWidth);
+
+		loadChunk(0);
+	}
+
+	/**
+	 * Positions this reader at the beginning of the given chunk.
+	 *
+	 * @param chunk the chunk
+	 */
+	private void loadChunk(final int chunk)
+	{
+		this.chunk = chunk;
+		chunkBase = chunk == 0 ? 0 : endpoints.extract(endpointsStart + (chunk - 1L) * endpointWidth) + 1;
+		chunkLast = endpoints.extract(endpointsStart + (long) chunk * endpointWidth);
+		chunkBegin = chunk == 0 ? 0 : counts.extract(countsStart + (chunk - 1L) * countWidth);
+		chunkEnd = chunk == numChunks - 1 ? frequency : counts.extract(countsStart + (long) chunk * countWidth);
+		final long chunkStart = chunksStart + (chunk == 0 ? 0 : offsets.extract(offsetsStart + (chunk - 1L) * offsetWidth));
+
+		final long n = chunkEnd - chunkBegin;
+		final long u = chunkLast - chunkBase + 1;
+		chunkType = PartitionedSequenceEncoder.chunkType(n, u);
+		if (chunkType == PartitionedSequenceEncoder.ELIAS_FANO) {
+			l = EFUtils.lowerBits(n, u, false);
+			lowerBitsStart = chunkStart;
+			lowerBits.width(l).position(lowerBitsStart);
+			upperBitsStart = chunkStart + n * l;
+		} else {
+			upperBitsStart = chunkStart;
+		}
+		if (chunkType != PartitionedSequenceEncoder.ALL_ONES)
+			position(upperBitsStart);
+
+		currentIndex = chunkBegin;
+		lastUpperBits = 0;
+	}
+
+	private void position(final long position)
+	{
+		window = word(curr = position / Long.SIZE) & -1L << (int)(position);
+	}
+
+	private long getNextUpperBits()
+	{
+		while (window == 0)
+			window = word( ++curr );
+
+		lastUpperBits = curr * Long.SIZE + Long.numberOfTrailingZeros(window) - (currentIndex++ - chunkBegin) - upperBitsStart;
+		window &= window - 1;
+		if (TraversalCounters.ENABLED && counters != null)
+			counters.decoded++;
+		return lastUpperBits;
+	}
+
+	/** Decodes the next docid of the current chunk, that must not be exhausted. */
+	private long getNextInChunk()
+	{
+		switch (chunkType) {
+			case PartitionedSequenceEncoder.ALL_ONES:
+				if (TraversalCounters.ENABLED && counters != null)
+					counters.decoded++;
+				return chunkBase + currentIndex++ - chunkBegin;
+			case PartitionedSequenceEncoder.BITVECTOR: {
+				while (window == 0)
+					window = word( ++curr );
+				final long docid = chunkBase + curr * Long.SIZE + Long.numberOfTrailingZeros(window) - upperBitsStart;
+				window &= window - 1;
+				currentIndex++;
+				if (TraversalCounters.ENABLED && counters != null)
+					counters.decoded++;
+				return docid;
+			}
+			default:
+				return chunkBase + (getNextUpperBits() << l | lowerBits.extract());
+		}
+	}
+
+	@Override
+	public long getNextPrefixSum()
+	{
+		if (currentIndex == chunkEnd) {
+			if (currentIndex == frequency)
+				return upperBound;
+			loadChunk(chunk + 1);
+		}
+		return getNextInChunk();
+	}
+
+	@Override
+	public void getNextPrefixSums(final int[] buffer, final int length)
+	{
+		for (int i = 0; i < length; i++)
+			buffer[i] = (int) getNextPrefixSum();
+	}
+
+	@Override
+	public long skipTo(final long lowerBound)
+	{
+		final long from = currentIndex;
+		if (lowerBound > chunkLast) {
+			if (lowerBound > lastDocid) {
+				if (TraversalCounters.ENABLED && counters != null) {
+					counters.skips++;
+					counters.skipped += frequency - from;
+				}
+				currentIndex = frequency;
+				return upperBound;
+			}
+			// the first chunk whose last docid is not smaller than the lower bound
+			int lo = chunk + 1, hi = numChunks - 1;
+			while (lo < hi) {
+				final int mid = (lo + hi) >>> 1;
+				if (endpoints.extract(endpointsStart + (long) mid * endpointWidth) < lowerBound)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			loadChunk(lo);
+			if (TraversalCounters.ENABLED && counters != null) {
+				counters.skips++;
+				counters.skipped += currentIndex - from;
+			}
+		} else if (TraversalCounters.ENABLED && counters != null) {
+			counters.scans++;
+		}
+		// from now on, the answer is in the current chunk
+		if (lowerBound <= chunkBase)
+			return getNextPrefixSum();
+
+		switch (chunkType) {
+			case PartitionedSequenceEncoder.ALL_ONES:
+				if (TraversalCounters.ENABLED && counters != null) {
+					counters.skipped += chunkBegin + lowerBound - chunkBase - currentIndex;
+					counters.decoded++;
+				}
+				currentIndex = chunkBegin + lowerBound - chunkBase + 1;
+				return lowerBound;
+			case PartitionedSequenceEncoder.BITVECTOR: {
+				final long bitvectorFrom = currentIndex;
+				// we count the ones we skip, up to, but not including, the target position
+				final long target = upperBitsStart + lowerBound - chunkBase;
+				while ((curr + 1) * Long.SIZE <= target) {
+					currentIndex += Long.bitCount(window);
+					window = word( ++curr );
+				}
+				final long mask = -1L << (int)(target);
+				currentIndex += Long.bitCount(window & ~mask);
+				window &= mask;
+				if (TraversalCounters.ENABLED && counters != null)
+					counters.skipped += currentIndex - bitvectorFrom;
+				return getNextInChunk();
+			}
+			default:
+				return skipToInEliasFanoChunk(lowerBound - chunkBase) + chunkBase;
+		}
+	}
+
+	/**
+	 * Skips to the first element of the current Elias-Fano chunk not smaller than the given lower bound,
+	 * as {@link DocidReader#skipTo(long)} does on a whole list, but without skip pointers.
+	 *
+	 * @param lowerBound the lower bound, relative to the chunk base
+	 * @return the first element not smaller than the lower bound, relative to the chunk base
+	 */
+	private long skipToInEliasFanoChunk(final long lowerBound)
+	{
+		final long zeroesToSkip = lowerBound >>> l;
+
+		if (zeroesToSkip > lastUpperBits) {
+			final long from = currentIndex;
+			long delta = zeroesToSkip - curr * Long.SIZE + (currentIndex - chunkBegin) + upperBitsStart;
+			assert delta >= 0 : delta;
+
+			for (int bitCount; (bitCount = Long.bitCount( ~window )) < delta; ) {
+				window = word(++curr);
+				delta -= bitCount;
+				currentIndex += Long.SIZE - bitCount;
+			}
+
+			if (delta-- != 0) {
+				final int select = EFUtils.selectInWord( ~window, delta );
+				// We cancel up to, but not including, the target one.
+				window &= -1L << select;
+				currentIndex += select - delta;
+			}
+			if (TraversalCounters.ENABLED && counters != null)
+				counters.skipped += currentIndex - from;
+			lowerBits.position(lowerBitsStart + l * (currentIndex - chunkBegin));
+		}
+
+		long value;
+		while ((value = getNextUpperBits() << l | lowerBits.extract()) < lowerBound)
+			;
+		return value;
+	}
+}
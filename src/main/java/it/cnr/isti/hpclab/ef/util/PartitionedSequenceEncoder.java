@@ -0,0 +1,279 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.util;
+
+import java.io.IOException;
+
+/**
+ * This class implements an encoder of increasing sequences of docids according to partitioned Elias-Fano
+ * (Ottaviano and Venturini, SIGIR 2014) and can dump it to a bit file.
+ *
+ * The list is split into chunks whose boundaries are chosen by dynamic programming over blocks of {@link #BLOCK_SIZE} docids,
+ * and every chunk is encoded relatively to the docid following the last docid of the previous chunk, either
+ * <ul>
+ * <li>as nothing at all, if the chunk is a run of consecutive docids,</li>
+ * <li>as a bitvector, if it is dense enough, or</li>
+ * <li>as an Elias-Fano sequence (lower bits, then upper bits, without skip pointers).</li>
+ * </ul>
+ * The type of a chunk is not stored, since it is fully determined by its length and universe (see {@link #chunkType(long, long)}).
+ *
+ * The hardcoded structure of a list is:
+ * <ul>
+ * <li>the number of chunks <i>P</i>, in &gamma; coding (non-zero);</li>
+ * <li>if <i>P</i> &gt; 1, the width of the chunk offsets, in &gamma; coding;</li>
+ * <li>the last docid of every chunk (<i>P</i> values);</li>
+ * <li>the number of docids preceding every chunk but the first (<i>P</i> - 1 values);</li>
+ * <li>the bit offset of every chunk but the first w.r.t. the first chunk (<i>P</i> - 1 values);</li>
+ * <li>the chunks.</li>
+ * </ul>
+ * Docids are accumulated in memory, since the partitioning needs the whole list.
+ */
+public class PartitionedSequenceEncoder
+{
+	/** The chunk is a run of consecutive docids, nothing is stored. */
+	static final int ALL_ONES = 0;
+	/** The chunk is stored as a bitvector over its universe. */
+	static final int BITVECTOR = 1;
+	/** The chunk is stored as an Elias-Fano sequence. */
+	static final int ELIAS_FANO = 2;
+
+	/** The logarithm of the number of docids in a block, i.e., the granularity of chunk boundaries. */
+	public static final int LOG2_BLOCK_SIZE = 6;
+	/** The number of docids in a block. */
+	public static final int BLOCK_SIZE = 1 << LOG2_BLOCK_SIZE;
+	/** The maximum number of blocks in a chunk, bounding the cost of the dynamic programming. */
+	public static final int MAX_BLOCKS_PER_CHUNK = 32;
+	/** The estimated cost in bits of the header entries of a chunk. */
+	private static final long CHUNK_COST = 64;
+
+	/** The docids accumulated so far. */
+	private int[] docids = new int[1024];
+	/** The number of elements that will be added to this list. */
+	private int length;
+	/** The current length of the list. */
+	private int currentLength;
+	/** The current prefix sum. */
+	private long currentPrefixSum;
+	/** An upper bound to the docids of the list. */
+	private long upperBound;
+
+	/**
+	 * Returns the number of bits of an Elias-Fano chunk.
+	 *
+	 * @param n the number of elements of the chunk
+	 * @param u the universe of the chunk
+	 * @return the number of bits of an Elias-Fano chunk
+	 */
+	static long eliasFanoCost(final long n, final long u)
+	{
+		final int l = EFUtils.lowerBits(n, u, false);
+		return n * l + n + ((u - 1) >>> l);
+	}
+
+	/**
+	 * Returns the type of a chunk, i.e., the cheapest representation among {@link #ALL_ONES}, {@link #BITVECTOR} and {@link #ELIAS_FANO}.
+	 *
+	 * @param n the number of elements of the chunk
+	 * @param u the universe of the chunk
+	 * @return the type of the chunk
+	 */
+	static int chunkType(final long n, final long u)
+	{
+		if (n == u)
+			return ALL_ONES;
+		return u <= eliasFanoCost(n, u) ? BITVECTOR : ELIAS_FANO;
+	}
+
+	/**
+	 * Returns the number of bits of a chunk.
+	 *
+	 * @param n the number of elements of the chunk
+	 * @param u the universe of the chunk
+	 * @return the number of bits of the chunk
+	 */
+	static long chunkCost(final long n, final long u)
+	{
+		switch (chunkType(n, u)) {
+			case ALL_ONES: return 0;
+			case BITVECTOR: return u;
+			default: return eliasFanoCost(n, u);
+		}
+	}
+
+	/**
+	 * Returns the number of bits needed to write a value.
+	 *
+	 * @param value the value
+	 * @return the number of bits needed to write the value (0 for 0)
+	 */
+	static int width(final long value)
+	{
+		return Long.SIZE - Long.numberOfLeadingZeros(value);
+	}
+
+	/**
+	 * Prepares the encoder to receive a new list.
+	 *
+	 * @param length the number of docids of the list
+	 * @param upperBound an upper bound to the docids of the list (the number of documents)
+	 */
+	public void init(final long length, final long upperBound)
+	{
+		this.length = (int) length;
+		this.upperBound = upperBound;
+		if (docids.length < length)
+			docids = new int[(int) Math.max(length, 2L * docids.length)];
+		currentLength = 0;
+		currentPrefixSum = 0;
+	}
+
+	/**
+	 * Adds the gap of the next docid w.r.t. the previous one (or the docid itself, for the first docid).
+	 *
+	 * @param x the gap
+	 */
+	public void add(final long x)
+	{
+		if (currentLength != 0 && x == 0)
+			throw new IllegalArgumentException("Docids must be strictly increasing");
+		currentPrefixSum += x;
+		if (currentPrefixSum >= upperBound)
+			throw new IllegalArgumentException("Too large docid: " + currentPrefixSum + " (upper bound: " + upperBound + ")");
+		docids[currentLength++] = (int) currentPrefixSum;
+	}
+
+	/**
+	 * Chooses the chunk boundaries, minimizing the estimated size of the list.
+	 *
+	 * @return the (exclusive) end index of every chunk
+	 */
+	private int[] partition()
+	{
+		final int numBlocks = (length + BLOCK_SIZE - 1) >>> LOG2_BLOCK_SIZE;
+		final long[] cost = new long[numBlocks + 1];
+		final int[] previous = new int[numBlocks + 1];
+
+		for (int j = 1; j <= numBlocks; j++) {
+			final int end = Math.min(j << LOG2_BLOCK_SIZE, length);
+			cost[j] = Long.MAX_VALUE;
+			for (int i = Math.max(0, j - MAX_BLOCKS_PER_CHUNK); i < j; i++) {
+				final int begin = i << LOG2_BLOCK_SIZE;
+				final long base = begin == 0 ? 0 : docids[begin - 1] + 1L;
+				final long c = cost[i] + CHUNK_COST + chunkCost(end - begin, docids[end - 1] - base + 1);
+				if (c < cost[j]) {
+					cost[j] = c;
+					previous[j] = i;
+				}
+			}
+		}
+
+		int numChunks = 0;
+		for (int j = numBlocks; j > 0; j = previous[j])
+			numChunks++;
+		final int[] ends = new int[numChunks];
+		for (int j = numBlocks; j > 0; j = previous[j])
+			ends[--numChunks] = Math.min(j << LOG2_BLOCK_SIZE, length);
+		return ends;
+	}
+
+	/**
+	 * Dumps the current list to the given writer.
+	 *
+	 * @param lwobs the writer
+	 * @return the number of written bits
+	 * @throws IOException if something goes wrong
+	 */
+	public long dump(final LongWordBitWriter lwobs) throws IOException
+	{
+		if (currentLength != length)
+			throw new IllegalStateException("Expected " + length + " docids, got " + currentLength);
+
+		final int[] ends = partition();
+		final int numChunks = ends.length;
+
+		final long[] offsets = new long[numChunks + 1];
+		for (int p = 0; p < numChunks; p++) {
+			final int begin = p == 0 ? 0 : ends[p - 1];
+			final long base = begin == 0 ? 0 : docids[begin - 1] + 1L;
+			offsets[p + 1] = offsets[p] + chunkCost(ends[p] - begin, docids[ends[p] - 1] - base + 1);
+		}
+
+		final int endpointWidth = width(upperBound);
+		final int countWidth = width(length);
+		final int offsetWidth = width(offsets[numChunks]);
+
+		long bits = lwobs.writeNonZeroGamma(numChunks);
+		if (numChunks > 1)
+			bits += lwobs.writeGamma(offsetWidth);
+		for (int p = 0; p < numChunks; p++)
+			bits += lwobs.append(docids[ends[p] - 1], endpointWidth);
+		for (int p = 0; p < numChunks - 1; p++)
+			bits += lwobs.append(ends[p], countWidth);
+		for (int p = 1; p < numChunks; p++)
+			bits += lwobs.append(offsets[p], offsetWidth);
+
+		for (int p = 0; p < numChunks; p++) {
+			final int begin = p == 0 ? 0 : ends[p - 1];
+			final long base = begin == 0 ? 0 : docids[begin - 1] + 1L;
+			bits += dumpChunk(lwobs, begin, ends[p], base, docids[ends[p] - 1] - base + 1);
+		}
+		return bits;
+	}
+
+	private long dumpChunk(final LongWordBitWriter lwobs, final int begin, final int end, final long base, final long u) throws IOException
+	{
+		final int n = end - begin;
+		switch (chunkType(n, u)) {
+			case ALL_ONES:
+				return 0;
+			case BITVECTOR: {
+				final long[] bitvector = new long[(int) ((u + Long.SIZE - 1) / Long.SIZE)];
+				for (int i = begin; i < end; i++) {
+					final long x = docids[i] - base;
+					bitvector[(int) (x / Long.SIZE)] |= 1L << x;
+				}
+				return lwobs.append(bitvector, u);
+			}
+			default: {
+				final int l = EFUtils.lowerBits(n, u, false);
+				final long lowerBitsMask = (1L << l) - 1;
+				long bits = 0;
+				for (int i = begin; i < end; i++)
+					bits += lwobs.append((docids[i] - base) & lowerBitsMask, l);
+
+				final long upperBitsLength = n + ((u - 1) >>> l);
+				final long[] upperBits = new long[(int) ((upperBitsLength + Long.SIZE - 1) / Long.SIZE)];
+				for (int i = begin; i < end; i++) {
+					final long position = ((docids[i] - base) >>> l) + i - begin;
+					upperBits[(int) (position / Long.SIZE)] |= 1L << position;
+				}
+				return bits + lwobs.append(upperBits, upperBitsLength);
+			}
+		}
+	}
+
+	/**
+	 * Releases the memory used to accumulate docids.
+	 */
+	public void close()
+	{
+		docids = new int[0];
+	}
+}
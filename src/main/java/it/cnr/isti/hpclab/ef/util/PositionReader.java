@@ -32,11 +32,6 @@
 
 package it.cnr.isti.hpclab.ef.util;
 
-import static it.unimi.dsi.bits.Fast.MSBS_STEP_8;
-import static it.unimi.dsi.bits.Fast.ONES_STEP_4;
-import static it.unimi.dsi.bits.Fast.ONES_STEP_8;
-
-import it.unimi.dsi.bits.Fast;
 import it.unimi.dsi.fastutil.longs.LongBigList;
 
 public class PositionReader 
@@ -54,18 +49,18 @@ public class PositionReader
 	private long curr;
 
 	/** The starting position of the pointers. */
-	private final long skipPointersStart;
+	private long skipPointersStart;
 	/** The starting position of the power bits. */
-	private final long lowerBitsStart;
+	private long lowerBitsStart;
 	/** The starting position of the upper bits. */
-	private final long upperBitsStart;
+	private long upperBitsStart;
 
 	/** The number of lower bits. */
-	private final int l;
+	private int l;
 	/** The size of a pointer. */
-	private final int pointerSize;
+	private int pointerSize;
 	/** The number of pointers. */
-	private final long numberOfPointers;
+	private long numberOfPointers;
 	/** The logarithm of the quantum, cached from the index. */
 	private final int log2Quantum;
 	/** The quantum. */
@@ -77,46 +72,97 @@ public class PositionReader
 	private long currentIndex;
 	/** The base of the sequence of positions currently returned. */
 	private long base;
+	/** The counters of the reads, null if reads are not counted. */
+	private TraversalCounters counters;
 
 	public PositionReader(final LongBigList list, final int l, final long skipPointersStart, final long numberOfPointers, final int pointerSize, final long occurrency, final int log2Quantum) 
+	{
+		this(list, log2Quantum);
+		reset(l, skipPointersStart, numberOfPointers, pointerSize, occurrency);
+	}
+
+	/**
+	 * Creates a reader not yet positioned on any list; {@link #reset(int, long, long, int, long)} must be invoked before reading.
+	 * 
+	 * @param list the underlying list
+	 * @param log2Quantum the logarithm of the quantum
+	 */
+	public PositionReader(final LongBigList list, final int log2Quantum) 
 	{
 		this.list = list; 
+		skipPointers = new LongWordBitReader( list, 0 );
+		lowerBits = new LongWordBitReader( list, 0 );
+
+		this.log2Quantum = log2Quantum;
+		quantum = 1 << log2Quantum;
+	}
+
+	/**
+	 * Positions this reader at the beginning of a new list, reusing the underlying bit readers.
+	 * 
+	 * @param l the number of lower bits
+	 * @param skipPointersStart the starting position of the pointers
+	 * @param numberOfPointers the number of pointers
+	 * @param pointerSize the size of a pointer
+	 * @param occurrency the number of elements of the list
+	 */
+	public void reset(final int l, final long skipPointersStart, final long numberOfPointers, final int pointerSize, final long occurrency) 
+	{
 		this.l = l;
 		this.skipPointersStart = skipPointersStart;
 		this.numberOfPointers = numberOfPointers;
 		this.pointerSize = pointerSize;
 
-		skipPointers = new LongWordBitReader( list, pointerSize );
-		lowerBits = new LongWordBitReader( list, l );
+		skipPointers.width( pointerSize );
+		lowerBits.width( l );
 		lowerBitsStart = skipPointersStart + pointerSize * numberOfPointers;
 		lowerBits.position( lowerBitsStart );
 		upperBitsStart = lowerBitsStart + l * occurrency;
 		currentIndex = prefixSum = 0;
+		base = 0;
 
 		position( upperBitsStart );
+	}
 
-		this.log2Quantum = log2Quantum;
-		quantum = 1 << log2Quantum;
+	/**
+	 * Sets the counters of the reads of this reader and of its bit readers, effective only if {@link TraversalCounters#ENABLED}.
+	 * 
+	 * @param counters the counters, or null
+	 */
+	public void counters(final TraversalCounters counters) 
+	{
+		this.counters = counters;
+		skipPointers.counters(counters);
+		lowerBits.counters(counters);
+	}
+
+	private long word(final long index) 
+	{
+		if (TraversalCounters.ENABLED && counters != null)
+			counters.longwords++;
+		return list.getLong(index);
 	}
 
 	private void position(final long position) 
 	{
-		window = list.getLong(curr = position / Long.SIZE) & -1L << (int)(position);
+		window = word(curr = position / Long.SIZE) & -1L << (int)(position);
 	}
 
 	public int getFirstPosition(long index) 
 	{
+		if (TraversalCounters.ENABLED && counters != null)
+			counters.positions++;
 		long delta = index - currentIndex;
 
 		if (delta == 0) {	// shortcut
 			/*while( delta-- != 0 ) { // Alternative code. Intended for small deltas.
-				while( window == 0 ) window = list.getLong( ( curr += Long.SIZE ) / Long.SIZE );
+				while( window == 0 ) window = word( ( curr += Long.SIZE ) / Long.SIZE );
 				prefixSum = curr + Long.numberOfTrailingZeros( window ) - currentIndex++ - upperBitsStart << l | lowerBits.extract();
 				window &= window - 1;
 			}*/
 			base = prefixSum;
 			while (window == 0)
-				window = list.getLong( ++curr );
+				window = word( ++curr );
 			prefixSum = curr * Long.SIZE + Long.numberOfTrailingZeros( window ) - currentIndex++ - upperBitsStart << l | lowerBits.extract();
 			window &= window - 1;
 			return (int)( prefixSum - base );
@@ -133,27 +179,14 @@ public class PositionReader
 		}
 
 		for (int bitCount; ( bitCount = Long.bitCount( window ) ) < delta; delta -= bitCount)
-			window = list.getLong( ++curr );
+			window = word( ++curr );
 
 		/* 
 		 * This appears to be faster than != 0.
 		 * Note that for delta == 1 the following code is a NOP. 
 		 */
 		if ( --delta > 0 ) {
-			// Phase 1: sums by byte
-			final long word = window;
-			assert delta < Long.bitCount( word ) : delta + " >= " + Long.bitCount( word );
-			long byteSums = word - ( ( word & 0xa * ONES_STEP_4 ) >>> 1 );
-			byteSums = ( byteSums & 3 * ONES_STEP_4 ) + ( ( byteSums >>> 2 ) & 3 * ONES_STEP_4 );
-			byteSums = ( byteSums + ( byteSums >>> 4 ) ) & 0x0f * ONES_STEP_8;
-			byteSums *= ONES_STEP_8;
-			// Phase 2: compare each byte sum with k + 1 to obtain the relevant byte
-			final long residualPlusOneStep8 = ( delta + 1 ) * ONES_STEP_8;
-			final long byteOffset = Long.numberOfTrailingZeros( ( ( ( byteSums | MSBS_STEP_8 ) - residualPlusOneStep8 ) & MSBS_STEP_8 ) >>> 7 );
-
-			final int byteRank = (int)( delta - ( ( ( byteSums << 8 ) >>> byteOffset ) & 0xFF ) );
-
-			final int select = (int)( byteOffset + Fast.selectInByte[ (int)( word >>> byteOffset & 0xFF ) | byteRank << 8 ] );
+			final int select = EFUtils.selectInWord( window, delta );
 
 			// We cancel up to, but not including, the target one.
 			window &= -1L << select;
@@ -163,7 +196,7 @@ public class PositionReader
 		currentIndex = index + 1;
 		base = curr * Long.SIZE + Long.numberOfTrailingZeros( window ) - index + 1 - upperBitsStart << l | lowerBits.extract( lowerBitsStart + l * ( index - 1 ) );
 		window &= window - 1;
-		while( window == 0 ) window = list.getLong( ++curr );
+		while( window == 0 ) window = word( ++curr );
 		prefixSum = curr * Long.SIZE + Long.numberOfTrailingZeros( window ) - index - upperBitsStart << l | lowerBits.extract();
 		window &= window - 1;
 		return (int)( prefixSum - base );
@@ -171,7 +204,9 @@ public class PositionReader
 	
 	public int getNextPosition() 
 	{
-		while( window == 0 ) window = list.getLong( ++curr );
+		if (TraversalCounters.ENABLED && counters != null)
+			counters.positions++;
+		while( window == 0 ) window = word( ++curr );
 		prefixSum = curr * Long.SIZE + Long.numberOfTrailingZeros( window ) - currentIndex++ - upperBitsStart << l | lowerBits.extract();
 		window &= window - 1;
 		return (int)( prefixSum - --base );
@@ -31,6 +31,8 @@
  */
 package it.cnr.isti.hpclab.ef.util;
 
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
 import java.io.Closeable;
 import java.io.IOException;
 
@@ -86,6 +88,19 @@ public class SequenceEncoder implements Closeable
 	/** The number of bits used for forward/skip pointers. */
 	public long bitsForPointers;
 
+	/** The logarithm of the second-level indexing quantum, 0 if there is no second-level inventory. */
+	private int log2SubQuantum;
+	/** The second-level indexing quantum. */
+	private long subQuantum;
+	/** The mask to decide whether a second-level pointer is aligned to a skip pointer. */
+	private long ratioMask;
+	/** The value of the last skip pointer, second-level pointers are relative to it. */
+	private long subPointerBase;
+	/** The second-level pointers, kept in memory since their size is known only at the end. */
+	private final LongArrayList subPointers = new LongArrayList();
+	/** The expected number of second-level pointers. */
+	private long expectedNumberOfSubPointers;
+
 	/**
 	 * Constructor.
 	 * @param bufferSize the size of the buffer in the file-backed caches used to perform encoding
@@ -166,6 +181,33 @@ public class SequenceEncoder implements Closeable
 
 		pointerSize = EFUtils.pointerSize(correctedLength, upperBound, strict, indexZeroes);
 		expectedNumberOfPointers = EFUtils.numberOfPointers(correctedLength, upperBound, log2Quantum, strict, indexZeroes);
+		
+		log2SubQuantum = 0;
+		subPointers.clear();
+	}
+
+	/**
+	 * Initialization of the encoder with a second-level inventory of skip pointers. Must be called before actual encoding begins.
+	 * A second-level pointer is stored every 2<sup><code>log2SubQuantum</code></sup> zeroes not already indexed by a skip pointer, 
+	 * relatively to the previous skip pointer, with the minimum width needed, written in front of the pointers.
+	 * @param length the number of elements to encode
+	 * @param upperBound the upper bound on the last element to encode
+	 * @param strict if <code>true</code>  {@link #add(long)} does not accept zeroes.
+	 * @param log2Quantum the base 2 logarithm of the quantum used to compute skip pointers
+	 * @param log2SubQuantum the base 2 logarithm of the quantum used to compute second-level skip pointers, smaller than <code>log2Quantum</code>
+	 */
+	public void init(final long length, final long upperBound, final boolean strict, final int log2Quantum, final int log2SubQuantum) 
+	{
+		if (log2SubQuantum <= 0 || log2SubQuantum >= log2Quantum)
+			throw new IllegalArgumentException("The second-level quantum must be smaller than the quantum: " + log2SubQuantum + " >= " + log2Quantum);
+		init(length, upperBound, strict, true, log2Quantum);
+		
+		this.log2SubQuantum = log2SubQuantum;
+		subQuantum = 1L << log2SubQuantum;
+		ratioMask = (1L << (log2Quantum - log2SubQuantum)) - 1;
+		subPointerBase = 0;
+		final long correctedLength = length + (!strict ? 1 : 0);
+		expectedNumberOfSubPointers = EFUtils.numberOfSubPointers(correctedLength, upperBound, log2Quantum, log2SubQuantum, strict);
 	}
 
 	/**
@@ -190,6 +232,16 @@ public class SequenceEncoder implements Closeable
 			long zeroesBefore = lastOnePosition - currentLength + 1;
 			for (long position = lastOnePosition + (zeroesBefore & -1L << log2Quantum) + quantum - zeroesBefore; position < onePosition; position += quantum, zeroesBefore += quantum)
 				pointers.append(position + 1, pointerSize);
+			if (log2SubQuantum != 0) {
+				zeroesBefore = lastOnePosition - currentLength + 1;
+				long subBlock = (zeroesBefore >>> log2SubQuantum) + 1;
+				for (long position = lastOnePosition + (zeroesBefore & -1L << log2SubQuantum) + subQuantum - zeroesBefore; position < onePosition; position += subQuantum, subBlock++) {
+					if ((subBlock & ratioMask) == 0)
+						subPointerBase = position + 1;
+					else
+						subPointers.add(position + 1 - subPointerBase);
+				}
+			}
 		} else if ((currentLength + 1 & quantumMask) == 0)
 			pointers.append(onePosition + 1, pointerSize);
 
@@ -218,12 +270,31 @@ public class SequenceEncoder implements Closeable
 				pointers.append(0, pointerSize);
 
 		bitsForPointers  = lwobs.append(pointers);
+		if (log2SubQuantum != 0 && expectedNumberOfSubPointers != 0) {
+			long max = 0;
+			for (int i = 0; i < subPointers.size(); i++)
+				max = Math.max(max, subPointers.getLong(i));
+			final int subPointerSize = Long.SIZE - Long.numberOfLeadingZeros(max);
+			bitsForPointers += lwobs.append(subPointerSize, EFUtils.SUB_POINTER_SIZE_WIDTH);
+			for (int i = 0; i < expectedNumberOfSubPointers; i++)
+				bitsForPointers += lwobs.append(i < subPointers.size() ? subPointers.getLong(i) : 0, subPointerSize);
+		}
 		bitsForLowerBits = lwobs.append(lowerBits);
 		bitsForUpperBits = lwobs.append(upperBits);
 
 		return bitsForLowerBits + bitsForUpperBits + bitsForPointers;
 	}
 
+	/**
+	 * Returns the number of bytes spilled on disk by the caches of this encoder since its creation.
+	 * 
+	 * @return the number of bytes spilled on disk
+	 */
+	public long spilledBytes()
+	{
+		return pointers.spilledBytes() + lowerBits.spilledBytes() + upperBits.spilledBytes();
+	}
+
 	/** @inherited */
 	@Override
 	public void close() throws IOException 
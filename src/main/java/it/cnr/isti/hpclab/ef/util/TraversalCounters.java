@@ -0,0 +1,82 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.util;
+
+import it.cnr.isti.hpclab.ef.EliasFano;
+
+/**
+ * Counters of the work done by the readers of a posting list, to attribute the cost of a query to its terms.
+ * Counting is enabled by the <tt>traversalCounters</tt> system property; since {@link #ENABLED} is a constant,
+ * when counting is disabled the counting code is removed by the JIT compiler and the readers run as fast as without counters.
+ * Counters are not thread-safe, as the cursors they belong to.
+ */
+public final class TraversalCounters 
+{
+	/** True if counting is enabled. */
+	public static final boolean ENABLED = Boolean.getBoolean(EliasFano.TRAVERSAL_COUNTERS);
+
+	/** The number of longwords read from the underlying lists. */
+	public long longwords;
+	/** The number of moves that followed a skip pointer (or a chunk endpoint, or a rank directory entry). */
+	public long skips;
+	/** The number of moves that scanned the upper bits (or the bitmap) without following any pointer. */
+	public long scans;
+	/** The number of docids decoded. */
+	public long decoded;
+	/** The number of docids skipped over without decoding them. */
+	public long skipped;
+	/** The number of frequencies decoded. */
+	public long freqs;
+	/** The number of positions decoded. */
+	public long positions;
+
+	/**
+	 * Adds the given counters to these counters.
+	 * 
+	 * @param counters the counters to add
+	 * @return these counters
+	 */
+	public TraversalCounters add(final TraversalCounters counters) 
+	{
+		longwords += counters.longwords;
+		skips += counters.skips;
+		scans += counters.scans;
+		decoded += counters.decoded;
+		skipped += counters.skipped;
+		freqs += counters.freqs;
+		positions += counters.positions;
+		return this;
+	}
+
+	/**
+	 * Sets all counters to zero.
+	 */
+	public void clear() 
+	{
+		longwords = skips = scans = decoded = skipped = freqs = positions = 0;
+	}
+
+	@Override
+	public String toString() 
+	{
+		return "longwords=" + longwords + " skips=" + skips + " scans=" + scans + " decoded=" + decoded + " skipped=" + skipped 
+				+ " freqs=" + freqs + " positions=" + positions;
+	}
+}
@@ -38,22 +38,29 @@ package org.terrier.structures.postings.bit;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.Arrays;
 
 import org.apache.hadoop.io.WritableUtils;
 
 import org.terrier.compression.bit.BitIn;
 import org.terrier.structures.DocumentIndex;
-import org.terrier.structures.postings.BlockPosting;
 import org.terrier.structures.postings.BlockPostingImpl;
 import org.terrier.structures.postings.WritablePosting;
 import org.terrier.utility.ArrayUtils;
+
+import it.cnr.isti.hpclab.ef.structures.BufferedBlockPosting;
 /** 
  * A writable block iterable posting list
  */
-public class BlockIterablePosting extends BasicIterablePosting implements BlockPosting
+public class BlockIterablePosting extends BasicIterablePosting implements BufferedBlockPosting
 {
 	private static final long serialVersionUID = 1L;
-	private int[] positions;
+	/** The positions of the current posting, in a buffer reused by all the postings. */
+	private int[] positions = new int[16];
+	/** The number of positions of the current posting. */
+	private int numPositions;
+	/** A copy of the positions of the current posting returned by {@link #getPositions()}, or null. */
+	private int[] currentPositions;
 	/**
 	 * Constructs an instance of the BlockIterablePosting.
 	 */
@@ -71,8 +78,30 @@ public class BlockIterablePosting extends BasicIterablePosting implements BlockP
 	
 	/** {@inheritDoc} */
 	public int[] getPositions() {
+		if (currentPositions == null)
+			currentPositions = Arrays.copyOf(positions, numPositions);
+		return currentPositions;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public int[] getPositionBuffer() {
 		return positions;
 	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public int getPositionCount() {
+		return numPositions;
+	}
+	
+	/** Makes room for the given number of positions in the buffer, forgetting the positions of the previous posting. */
+	private void resizePositions(final int numPositions) {
+		if (positions.length < numPositions)
+			positions = new int[Math.max(numPositions, 2 * positions.length)];
+		this.numPositions = numPositions;
+		this.currentPositions = null;
+	}
 
 	@Override
 	public int next() throws IOException 
@@ -83,12 +112,11 @@ public class BlockIterablePosting extends BasicIterablePosting implements BlockP
 			id += bitFileReader.readGamma();
 			tf = bitFileReader.readUnary();
 			numEntries--;
-			//TODO: this has a memory allocation for every posting in the posting list. can we reuse an array?
-			positions = new int[bitFileReader.readUnary() -1];
-			if (positions.length == 0)
+			resizePositions(bitFileReader.readUnary() -1);
+			if (numPositions == 0)
 				return id;
 			positions[0] = bitFileReader.readGamma() -1;
-			for(int i=1;i<positions.length;i++)
+			for(int i=1;i<numPositions;i++)
 				positions[i] = positions[i-1] + bitFileReader.readGamma();
 		}
 		return id;
@@ -98,7 +126,7 @@ public class BlockIterablePosting extends BasicIterablePosting implements BlockP
 	public void readFields(DataInput in) throws IOException {
 		super.readFields(in);
 		final int blockCount = WritableUtils.readVInt(in);
-		positions = new int[blockCount]; 
+		resizePositions(blockCount); 
 		for(int i=0;i<blockCount;i++)
 			positions[i] = WritableUtils.readVInt(in);
 	}
@@ -106,21 +134,19 @@ public class BlockIterablePosting extends BasicIterablePosting implements BlockP
 	@Override
 	public void write(DataOutput out) throws IOException {
 		super.write(out);
-		WritableUtils.writeVInt(out, positions.length);
-		for(int pos : positions)
-			WritableUtils.writeVInt(out, pos);
+		WritableUtils.writeVInt(out, numPositions);
+		for(int i=0;i<numPositions;i++)
+			WritableUtils.writeVInt(out, positions[i]);
 	}
 
 	@Override
 	public WritablePosting asWritablePosting() {
-		int[] newPositions = new int[positions.length];
-		System.arraycopy(positions, 0, newPositions, 0, positions.length);
-		return new BlockPostingImpl(getId(), getFrequency(), newPositions);
+		return new BlockPostingImpl(getId(), getFrequency(), Arrays.copyOf(positions, numPositions));
 	}
 
 	@Override
 	public String toString()
 	{
-		return "(" + id + "," + tf + ",B[" + ArrayUtils.join(positions, ",") + "])";
+		return "(" + id + "," + tf + ",B[" + ArrayUtils.join(Arrays.copyOf(positions, numPositions), ",") + "])";
 	}
 }
@@ -0,0 +1,70 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import it.cnr.isti.hpclab.ef.structures.EFLexiconEntry;
+
+/**
+ * Runs all the reading tests over an index where the docids of the most frequent terms are stored as bitmaps.
+ */
+@RunWith(value = Parameterized.class)
+public class BitmapIndexReadingTest extends IndexReadingTest
+{
+    public BitmapIndexReadingTest(int parallelism, int skipSize)
+    {
+        super(parallelism, skipSize);
+    }
+
+    @Before
+    @Override
+    public void createIndex() throws Exception
+    {
+        System.setProperty(EliasFano.BITMAP_DENSITY, "0.05");
+        super.createIndex();
+    }
+
+    @Test
+    public void testSomeBitmaps()
+    {
+        int bitmaps = 0;
+        for (int i = 0; i < efIndex.getCollectionStatistics().getNumberOfUniqueTerms(); i++) {
+            EFLexiconEntry le = (EFLexiconEntry) efIndex.getLexicon().getIthLexiconEntry(i).getValue();
+            assertEquals(le.getDocumentFrequency() >= 0.05 * efIndex.getCollectionStatistics().getNumberOfDocuments(), le.isBitmap());
+            if (le.isBitmap())
+                bitmaps++;
+        }
+        assertTrue(bitmaps > 0);
+    }
+
+    @After
+    public void clearBitmapDensity()
+    {
+        System.clearProperty(EliasFano.BITMAP_DENSITY);
+    }
+}
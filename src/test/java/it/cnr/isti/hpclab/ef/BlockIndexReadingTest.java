@@ -163,6 +163,25 @@ public class BlockIndexReadingTest extends EFSetupTest
 		}
 	}
 
+	@Test 
+	public void testPostingListsPositionBuffer() throws IOException
+	{
+		for (int i = 0; i < originalIndex.getCollectionStatistics().getNumberOfUniqueTerms(); i++) {
+			BasicLexiconEntry ble = (BasicLexiconEntry) originalIndex.getLexicon().getIthLexiconEntry(i).getValue();
+			EFLexiconEntry sle = (EFLexiconEntry) efIndex.getLexicon().getIthLexiconEntry(i).getValue();
+			
+			BlockIterablePosting op = (BlockIterablePosting) originalIndex.getInvertedIndex().getPostings(ble);
+			EFBlockIterablePosting sp = (EFBlockIterablePosting) efIndex.getInvertedIndex().getPostings(sle);
+			
+			while (op.next() != IterablePosting.EOL && sp.next() != IterablePosting.EOL) {
+				assertEquals(op.getId(), sp.getId());
+				assertEquals(op.getPositionCount(), sp.getPositionCount());
+				assertArrayEquals(Arrays.copyOf(op.getPositionBuffer(), op.getPositionCount()), Arrays.copyOf(sp.getPositionBuffer(), sp.getPositionCount()));
+				assertArrayEquals(op.getPositions(), sp.getPositions());
+			}
+		}
+	}
+
 	@Test 
 	public void testPostingListsRepeatPositionsRead() throws IOException
 	{
@@ -0,0 +1,103 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.postings.IterablePosting;
+
+import it.cnr.isti.hpclab.ef.structures.EFBasicIterablePosting;
+
+/**
+ * Runs all the reading tests over an index with a block-max sidecar of 4 postings per block, 
+ * and checks the sidecar against the original index.
+ */
+@RunWith(value = Parameterized.class)
+public class BlockMaxIndexReadingTest extends IndexReadingTest
+{
+    private static final int LOG2BLOCKMAX = 2;
+    
+    public BlockMaxIndexReadingTest(int parallelism, int skipSize)
+    {
+        super(parallelism, skipSize);
+    }
+
+    @Before
+    @Override
+    public void createIndex() throws Exception
+    {
+        System.setProperty(EliasFano.LOG2BLOCKMAX, Integer.toString(LOG2BLOCKMAX));
+        super.createIndex();
+    }
+
+    @Test
+    public void testBlockMaxMetadata() throws IOException
+    {
+        assertEquals(LOG2BLOCKMAX, efIndex.getIntIndexProperty(EliasFano.LOG2BLOCKMAX, 0));
+        
+        for (int i = 0; i < originalIndex.getCollectionStatistics().getNumberOfUniqueTerms(); i++) {
+            LexiconEntry ble = originalIndex.getLexicon().getIthLexiconEntry(i).getValue();
+            LexiconEntry sle = efIndex.getLexicon().getIthLexiconEntry(i).getValue();
+            
+            IterablePosting op = originalIndex.getInvertedIndex().getPostings(ble);
+            EFBasicIterablePosting sp = (EFBasicIterablePosting) efIndex.getInvertedIndex().getPostings(sle);
+            assertTrue(sp.hasBlockMax());
+            
+            // walk the list one block at a time, checking the metadata of the block before entering it
+            int first = sp.next();
+            while (op.next() != IterablePosting.EOL) {
+                assertEquals(op.getId(), first);
+                int maxFrequency = 0, minDocumentLength = Integer.MAX_VALUE, last = 0;
+                for (int j = 0; j < 1 << LOG2BLOCKMAX && op.getId() != IterablePosting.EOL; j++, op.next()) {
+                    maxFrequency = Math.max(maxFrequency, op.getFrequency());
+                    minDocumentLength = Math.min(minDocumentLength, op.getDocumentLength());
+                    last = op.getId();
+                }
+                assertEquals(last, sp.getBlockLastDocid());
+                assertEquals(maxFrequency, sp.getBlockMaxFrequency());
+                assertEquals(minDocumentLength, sp.getBlockMinDocumentLength());
+                first = sp.skipToNextBlock();
+                assertEquals(op.getId(), first);
+                if (op.getId() == IterablePosting.EOL)
+                    break;
+                // shallow moves never move the cursor
+                assertEquals(sp.getBlockLastDocid(), sp.shallowNext(first));
+                assertEquals(first, sp.getId());
+            }
+            assertEquals(IterablePosting.EOL, sp.getBlockLastDocid());
+            sp.close();
+        }
+    }
+
+    @After
+    public void clearBlockMax()
+    {
+        System.clearProperty(EliasFano.LOG2BLOCKMAX);
+    }
+}
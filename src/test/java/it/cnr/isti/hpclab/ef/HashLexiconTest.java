@@ -0,0 +1,142 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.terrier.structures.Index;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.Lexicon;
+import org.terrier.structures.LexiconEntry;
+
+import it.cnr.isti.hpclab.ef.structures.EFHashLexicon;
+import it.cnr.isti.hpclab.ef.structures.EFLexiconEntry;
+import it.cnr.isti.hpclab.ef.structures.EFLexiconValues;
+
+/**
+ * Checks the lexicon looking up terms with a minimal perfect hash function, and the values and terms of its entries, against the original lexicon.
+ */
+public class HashLexiconTest extends EFSetupTest
+{
+	protected IndexOnDisk originalIndex = null;
+	protected IndexOnDisk efIndex = null;
+
+	@Before 
+	public void createIndex() throws Exception
+	{
+		super.doShakespeareIndexing();
+		originalIndex = Index.createIndex();
+		
+		String[] args = {"-path", originalIndex.getPath(), "-prefix", originalIndex.getPrefix() + ".ef", "-index", originalIndex.getPath() + File.separator + originalIndex.getPrefix() + ".properties", "-p", Integer.toString(2), "-lexicon", EliasFano.HASH_CODEC};
+
+		System.setProperty(EliasFano.LOG2QUANTUM, "3");
+
+		Generator.main(args);
+		
+		efIndex = Index.createIndex(args[1], args[3]);
+	}
+	
+	@After
+	public void closeIndex() throws IOException
+	{
+		System.clearProperty(EliasFano.LEXICON_CODEC);
+		originalIndex.close();
+		efIndex.close();
+	}
+
+	@Test
+	public void testLexiconCodecProperty()
+	{
+		assertEquals(EliasFano.HASH_CODEC, efIndex.getIndexProperty(EliasFano.LEXICON_CODEC, EliasFano.MAP_CODEC));
+		assertTrue(efIndex.getLexicon() instanceof EFHashLexicon);
+	}
+
+	@Test
+	public void testAllTerms() throws IOException
+	{
+		final Lexicon<String> lexicon = efIndex.getLexicon();
+		assertEquals(originalIndex.getLexicon().numberOfEntries(), lexicon.numberOfEntries());
+		
+		for (Map.Entry<String, LexiconEntry> entry: originalIndex.getLexicon()) {
+			final LexiconEntry le = lexicon.getLexiconEntry(entry.getKey());
+			assertNotNull(entry.getKey(), le);
+			assertEquals(entry.getValue().getTermId(), le.getTermId());
+			assertEquals(entry.getValue().getDocumentFrequency(), le.getDocumentFrequency());
+			assertEquals(entry.getValue().getFrequency(), le.getFrequency());
+		}
+	}
+
+	@Test
+	public void testMissingTerms() throws IOException
+	{
+		final Lexicon<String> lexicon = efIndex.getLexicon();
+		final Random rnd = new Random(42);
+		for (int i = 0; i < 100000; i++) {
+			final String term = Integer.toString(rnd.nextInt(), Character.MAX_RADIX) + "#";
+			assertNull(term, lexicon.getLexiconEntry(term));
+		}
+	}
+
+	@Test
+	public void testValues() throws IOException
+	{
+		final EFLexiconValues values = ((EFHashLexicon) efIndex.getLexicon()).getValues();
+		assertEquals(efIndex.getLexicon().numberOfEntries(), values.numberOfEntries());
+		
+		for (Map.Entry<String, LexiconEntry> entry: efIndex.getLexicon()) {
+			final EFLexiconEntry expected = (EFLexiconEntry) entry.getValue();
+			final EFLexiconEntry le = values.getLexiconEntry(expected.getTermId());
+			assertEquals(expected.getTermId(), le.getTermId());
+			assertEquals(expected.getDocumentFrequency(), le.getDocumentFrequency());
+			assertEquals(expected.getFrequency(), le.getFrequency());
+			assertEquals(expected.getMaxFrequencyInDocuments(), le.getMaxFrequencyInDocuments());
+			assertEquals(expected.isBitmap(), le.isBitmap());
+			assertEquals(expected.getDocidOffset(), le.getDocidOffset());
+			assertEquals(expected.getFreqOffset(), le.getFreqOffset());
+		}
+	}
+
+	@Test
+	public void testTermids() throws IOException
+	{
+		final EFHashLexicon lexicon = (EFHashLexicon) efIndex.getLexicon();
+		for (Map.Entry<String, LexiconEntry> entry: originalIndex.getLexicon()) {
+			final int termid = entry.getValue().getTermId();
+			assertEquals(entry.getKey(), lexicon.getTerm(termid));
+			final Map.Entry<String, LexiconEntry> efEntry = lexicon.getLexiconEntry(termid);
+			assertEquals(entry.getKey(), efEntry.getKey());
+			assertEquals(termid, efEntry.getValue().getTermId());
+			assertEquals(entry.getValue().getDocumentFrequency(), efEntry.getValue().getDocumentFrequency());
+			assertEquals(entry.getValue().getFrequency(), efEntry.getValue().getFrequency());
+		}
+		assertNull(lexicon.getLexiconEntry(lexicon.numberOfEntries()));
+	}
+}
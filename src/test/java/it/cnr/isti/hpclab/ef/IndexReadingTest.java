@@ -21,9 +21,13 @@ package it.cnr.isti.hpclab.ef;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Map;
@@ -41,6 +45,7 @@ import org.terrier.structures.IndexOnDisk;
 import org.terrier.structures.LexiconEntry;
 import org.terrier.structures.postings.IterablePosting;
 
+import it.cnr.isti.hpclab.ef.structures.EFBasicIterablePosting;
 import it.cnr.isti.hpclab.ef.structures.EFLexiconEntry;
 
 @RunWith(value = Parameterized.class)
@@ -86,6 +91,15 @@ public class IndexReadingTest extends EFSetupTest
         randomSanityCheck(originalIndex, efIndex);
     }
 
+    @Test 
+    public void testCompressionReport() throws IOException
+    {
+        String report = new String(Files.readAllBytes(Paths.get(efIndex.getPath(), efIndex.getPrefix() + EliasFano.REPORT_EXTENSION)), StandardCharsets.UTF_8);
+        
+        assertTrue(report.contains("\"terms\": " + originalIndex.getCollectionStatistics().getNumberOfUniqueTerms() + ","));
+        assertTrue(report.contains("\"postings\": " + originalIndex.getCollectionStatistics().getNumberOfPointers() + ","));
+    }
+
     @Test 
     public void testPostingLists() throws IOException
     {
@@ -214,6 +228,118 @@ public class IndexReadingTest extends EFSetupTest
         }
     }
     
+    @Test
+    public void nextBlockEverySkip() throws IOException
+    {
+        Map.Entry<String, LexiconEntry> originalEntry;
+        Map.Entry<String, LexiconEntry> efEntry;
+
+        LexiconEntry ble;
+        LexiconEntry sle;
+
+        final int[] docids = new int[skipSize];
+        final int[] freqs = new int[skipSize];
+
+        for (int i = 0; i < originalIndex.getCollectionStatistics().getNumberOfUniqueTerms(); i++) {
+            originalEntry = originalIndex.getLexicon().getIthLexiconEntry(i);
+            efEntry = efIndex.getLexicon().getIthLexiconEntry(i);
+
+            assertEquals(originalEntry.getKey(), efEntry.getKey());
+
+            ble = originalEntry.getValue();
+            sle = efEntry.getValue();
+
+            IterablePosting op = originalIndex.getInvertedIndex().getPostings(ble);
+            EFBasicIterablePosting sp = (EFBasicIterablePosting) efIndex.getInvertedIndex().getPostings(sle);
+
+            // alternate one block of skipSize postings with a single next()
+            int n;
+            while ((n = sp.nextBlock(docids, freqs)) > 0) {
+                for (int j = 0; j < n; j++) {
+                    op.next();
+                    assertEquals(op.getId(), docids[j]);
+                    assertEquals(op.getFrequency(), freqs[j]);
+                }
+                assertEquals(op.getId(), sp.getId());
+                assertEquals(op.getFrequency(), sp.getFrequency());
+
+                assertEquals(op.next(), sp.next());
+                if (op.getId() == IterablePosting.EOL)
+                    break;
+                assertEquals(op.getFrequency(), sp.getFrequency());
+            }
+            assertEquals(IterablePosting.EOL, op.next());
+            assertTrue(sp.endOfPostings());
+        }
+    }
+
+    @Test
+    public void testReusedPostingLists() throws IOException
+    {
+        // cursors over bitmaps and over Elias-Fano lists are pooled separately
+        IterablePosting[] previous = new IterablePosting[2];
+
+        // walk the lexicon backwards, so that every closed cursor is reset to a different posting list
+        for (int i = originalIndex.getCollectionStatistics().getNumberOfUniqueTerms() - 1; i >= 0; i--) {
+            LexiconEntry ble = originalIndex.getLexicon().getIthLexiconEntry(i).getValue();
+            LexiconEntry sle = efIndex.getLexicon().getIthLexiconEntry(i).getValue();
+
+            IterablePosting op = originalIndex.getInvertedIndex().getPostings(ble);
+            IterablePosting sp = efIndex.getInvertedIndex().getPostings(sle);
+            int kind = ((EFLexiconEntry) sle).isBitmap() ? 1 : 0;
+            
+            // a late close of the previous cursor, whose state has been reissued, must not return the reissued state to the pool
+            if (previous[kind] != null) {
+                previous[kind].close();
+                IterablePosting other = efIndex.getInvertedIndex().getPostings(sle);
+                assertTrue(other != sp);
+                other.close();
+            }
+
+            // stop halfway, the next reset must not depend on where the cursor was left, nor on the other cursor
+            int cnt = 0;
+            while (op.next() != IterablePosting.EOL && cnt++ < ble.getDocumentFrequency() / 2) {
+                assertEquals(op.getId(), sp.next());
+                assertEquals(op.getFrequency(), sp.getFrequency());
+            }
+            sp.close();
+            sp.close();
+            previous[kind] = sp;
+        }
+    }
+
+    @Test
+    public void testClosedPostingLists() throws IOException
+    {
+        for (int i = 0; i < originalIndex.getCollectionStatistics().getNumberOfUniqueTerms(); i++) {
+            LexiconEntry ble = originalIndex.getLexicon().getIthLexiconEntry(i).getValue();
+            LexiconEntry sle = efIndex.getLexicon().getIthLexiconEntry(i).getValue();
+
+            IterablePosting closed = efIndex.getInvertedIndex().getPostings(sle);
+            closed.next();
+            closed.close();
+            IterablePosting op = originalIndex.getInvertedIndex().getPostings(ble);
+            IterablePosting sp = efIndex.getInvertedIndex().getPostings(sle);
+
+            // a closed cursor is at the end of its list and has no readers, so reading it does not move the reissued cursor
+            while (op.next() != IterablePosting.EOL) {
+                assertEquals(IterablePosting.EOL, closed.next());
+                assertEquals(IterablePosting.EOL, closed.next(op.getId()));
+                assertEquals(op.getId(), sp.next());
+                assertEquals(op.getFrequency(), sp.getFrequency());
+            }
+            assertEquals(IterablePosting.EOL, sp.next());
+            try {
+                closed.getFrequency();
+                fail("A closed cursor must not decode frequencies");
+            } catch (NullPointerException e) {
+                // expected, the readers have been taken over by the reissued cursor
+            }
+            op.close();
+            sp.close();
+        }
+    }
+
     @After 
     public void deleteIndex() throws IOException
     {
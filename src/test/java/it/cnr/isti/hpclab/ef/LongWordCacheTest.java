@@ -0,0 +1,133 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import it.cnr.isti.hpclab.ef.util.BufferPool;
+import it.cnr.isti.hpclab.ef.util.LongWordCache;
+
+/**
+ * Checks a cache growing within the budget of the buffer pool, spilling when the budget is exhausted, and reusing the released buffers.
+ */
+public class LongWordCacheTest
+{
+	private static final int MIN = BufferPool.MIN_BUFFER_SIZE;
+
+	@Rule
+	public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+	protected File spillDirectory = null;
+	/** The bytes allocated by the pool before the test, for buffers still in use elsewhere. */
+	protected long base = 0;
+
+	@Before
+	public void configurePool() throws IOException
+	{
+		spillDirectory = tmpFolder.newFolder("spill");
+		BufferPool.configure(0, null);
+		base = BufferPool.peakAllocated();
+		// room for the smallest buffer and one buffer twice as large
+		BufferPool.configure(base + 3 * MIN, spillDirectory);
+	}
+
+	@After
+	public void resetPool()
+	{
+		BufferPool.configure(0, null);
+	}
+
+	@Test
+	public void testGrowAndSpill() throws IOException
+	{
+		final LongWordCache cache = new LongWordCache(8 * MIN, "test");
+		assertEquals(base + MIN, BufferPool.peakAllocated());
+		
+		// longer than the largest buffer allowed by the budget
+		final long[] values = write(cache, 3 * MIN, new Random(42));
+		assertEquals(base + 3 * MIN, BufferPool.peakAllocated());
+		assertEquals(1, spillDirectory.list().length);
+		// the grown buffer is in use, and the smallest one has been dropped when refusing a buffer four times as large
+		assertNull(BufferPool.allocate(2 * MIN, false));
+		
+		cache.rewind();
+		assertTrue(cache.spilledBytes() > 0);
+		read(cache, values);
+		
+		cache.close();
+		assertEquals(0, spillDirectory.list().length);
+	}
+
+	@Test
+	public void testClearAndReuse() throws IOException
+	{
+		final LongWordCache cache = new LongWordCache(8 * MIN, "test");
+		write(cache, 3 * MIN, new Random(42));
+		cache.rewind();
+		final long spilled = cache.spilledBytes();
+		
+		// the grown buffer is given back to the pool, and taken again when the next list does not fit in the smallest one
+		cache.clear();
+		final long[] values = write(cache, 3 * MIN / 2, new Random(43));
+		cache.rewind();
+		assertEquals(spilled, cache.spilledBytes());
+		assertEquals(base + 3 * MIN, BufferPool.peakAllocated());
+		read(cache, values);
+		cache.close();
+		
+		// the released buffers are reused without allocating beyond the budget
+		assertTrue(BufferPool.allocate(2 * MIN, false) != null);
+		assertTrue(BufferPool.allocate(MIN, false) != null);
+		assertEquals(base + 3 * MIN, BufferPool.peakAllocated());
+	}
+
+	/** Writes random gamma-coded values into the cache, until it holds more than the given number of bytes. */
+	private static long[] write(final LongWordCache cache, final int bytes, final Random rnd) throws IOException
+	{
+		long[] values = new long[1024];
+		int n = 0;
+		while (cache.length() <= (long) bytes * Byte.SIZE) {
+			if (n == values.length)
+				values = Arrays.copyOf(values, 2 * n);
+			values[n] = 1 + rnd.nextInt(1 << rnd.nextInt(20));
+			cache.writeNonZeroGamma(values[n++]);
+		}
+		return Arrays.copyOf(values, n);
+	}
+
+	private static void read(final LongWordCache cache, final long[] values) throws IOException
+	{
+		for (long value: values)
+			assertEquals(value, cache.readNonZeroGamma());
+	}
+}
@@ -0,0 +1,234 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.terrier.matching.MatchingQueryTerms;
+import org.terrier.matching.ResultSet;
+import org.terrier.matching.models.BM25;
+import org.terrier.matching.models.WeightingModel;
+import org.terrier.structures.Index;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.postings.IterablePosting;
+
+import it.cnr.isti.hpclab.ef.matching.BlockMaxWAND;
+import it.cnr.isti.hpclab.ef.matching.Conjunctive;
+import it.cnr.isti.hpclab.ef.matching.EFMatching;
+import it.cnr.isti.hpclab.ef.matching.MaxScore;
+import it.cnr.isti.hpclab.ef.matching.TopQueue;
+import it.cnr.isti.hpclab.ef.matching.WAND;
+
+/**
+ * Checks the matching strategies over Elias-Fano indices against exhaustive scoring over the original index.
+ */
+public class MatchingTest extends EFSetupTest
+{
+	protected IndexOnDisk originalIndex = null;
+	protected IndexOnDisk efIndex = null;
+
+	@Before 
+	public void createIndex() throws Exception
+	{
+		super.doShakespeareIndexing();
+		originalIndex = Index.createIndex();
+		
+		String[] args = {"-path", originalIndex.getPath(), "-prefix", originalIndex.getPrefix() + ".ef", "-index", originalIndex.getPath() + File.separator + originalIndex.getPrefix() + ".properties", "-p", Integer.toString(2)};
+
+		System.setProperty(EliasFano.LOG2QUANTUM, "3");
+		System.setProperty(EliasFano.LOG2BLOCKMAX, "2");
+
+		Generator.main(args);
+		
+		efIndex = Index.createIndex(args[1], args[3]);
+	}
+	
+	@After
+	public void closeIndex() throws IOException
+	{
+		System.clearProperty(EliasFano.LOG2BLOCKMAX);
+		originalIndex.close();
+		efIndex.close();
+	}
+	
+	@Test
+	public void testWAND() throws IOException
+	{
+		checkTopScores(new WAND(efIndex), false);
+	}
+
+	@Test
+	public void testMaxScore() throws IOException
+	{
+		checkTopScores(new MaxScore(efIndex), false);
+	}
+
+	@Test
+	public void testBlockMaxWAND() throws IOException
+	{
+		checkTopScores(new BlockMaxWAND(efIndex), false);
+	}
+
+	@Test
+	public void testConjunctive() throws IOException
+	{
+		checkTopScores(new Conjunctive(efIndex), true);
+	}
+
+	@Test
+	public void testNegativeScores() throws IOException
+	{
+		final int numDocs = efIndex.getCollectionStatistics().getNumberOfDocuments();
+		int terms = 0;
+		for (int i = 0; i < efIndex.getCollectionStatistics().getNumberOfUniqueTerms(); i++) {
+			final LexiconEntry le = efIndex.getLexicon().getIthLexiconEntry(i).getValue();
+			if (le.getDocumentFrequency() <= numDocs / 2)
+				continue;
+			terms++;
+			
+			// BM25 scores negatively the terms occurring in most documents
+			WeightingModel model = new BM25();
+			model.setCollectionStatistics(efIndex.getCollectionStatistics());
+			model.setEntryStatistics(le);
+			model.setKeyFrequency(1);
+			model.prepare();
+			final double upperBound = EFMatching.upperBound(le, new WeightingModel[] { model });
+			assertTrue(upperBound >= 0);
+			
+			IterablePosting p = efIndex.getInvertedIndex().getPostings(le);
+			while (p.next() != IterablePosting.EOL)
+				assertTrue(model.score(p) <= upperBound);
+			p.close();
+		}
+		assertTrue(terms > 0);
+	}
+
+	@Test
+	public void testConjunctiveMissingTerm() throws IOException
+	{
+		final Conjunctive matching = new Conjunctive(efIndex);
+		final MatchingQueryTerms mqt = new MatchingQueryTerms();
+		mqt.setDefaultTermWeightingModel(new BM25());
+		mqt.setTermProperty(efIndex.getLexicon().getIthLexiconEntry(0).getKey(), 1d);
+		assertTrue(matching.count(mqt) > 0);
+		assertTrue(matching.match("1", mqt).getResultSize() > 0);
+		// every matching document is offered to the queue, so the exact result size counts them all
+		assertEquals(matching.count(mqt), matching.match("1", mqt).getExactResultSize());
+		
+		// no document contains a term not in the lexicon
+		mqt.setTermProperty("notinthelexicon", 1d);
+		assertEquals(0, matching.count(mqt));
+		assertEquals(0, matching.match("1", mqt).getResultSize());
+	}
+
+	/**
+	 * Runs random queries with the given strategy and checks that it finds the top scores of exhaustive BM25 scoring.
+	 * Conjunctive strategies must also count the documents containing all the query terms.
+	 */
+	private void checkTopScores(final EFMatching matching, final boolean conjunctive) throws IOException
+	{
+		final int numTerms = efIndex.getCollectionStatistics().getNumberOfUniqueTerms();
+		final int numDocs = efIndex.getCollectionStatistics().getNumberOfDocuments();
+		final Random rnd = new Random(42);
+		
+		for (int q = 0; q < 50; q++) {
+			final int k = 1 + rnd.nextInt(20);
+			final int n = 1 + rnd.nextInt(4);
+			final IterablePosting[] postings = new IterablePosting[n];
+			final LexiconEntry[] stats = new LexiconEntry[n];
+			final WeightingModel[][] models = new WeightingModel[n][];
+			final double[] exhaustive = new double[numDocs];
+			final int[] matches = new int[numDocs];
+			
+			for (int i = 0; i < n; i++) {
+				// favour frequent terms, whose lists span several blocks, but not too frequent, as BM25 scores them negatively
+				LexiconEntry le;
+				int tries = 0;
+				do {
+					le = efIndex.getLexicon().getIthLexiconEntry(rnd.nextInt(numTerms)).getValue();
+				} while (le.getDocumentFrequency() > numDocs / 2 || (tries++ < 3 && le.getDocumentFrequency() < 8));
+				
+				WeightingModel model = new BM25();
+				model.setCollectionStatistics(efIndex.getCollectionStatistics());
+				model.setEntryStatistics(le);
+				model.setKeyFrequency(1);
+				model.prepare();
+				stats[i] = le;
+				models[i] = new WeightingModel[] { model };
+				final double upperBound = EFMatching.upperBound(le, models[i]);
+				
+				IterablePosting op = originalIndex.getInvertedIndex().getPostings(originalIndex.getLexicon().getLexiconEntry(le.getTermId()).getValue());
+				while (op.next() != IterablePosting.EOL) {
+					final double score = model.score(op);
+					assertTrue(score <= upperBound);
+					exhaustive[op.getId()] += score;
+					matches[op.getId()]++;
+				}
+				op.close();
+				
+				postings[i] = efIndex.getInvertedIndex().getPostings(le);
+				postings[i].next();
+			}
+			
+			final TopQueue top = new TopQueue(k);
+			matching.match(postings, stats, models, top);
+			final ResultSet rs = top.toResultSet();
+			for (IterablePosting p: postings)
+				p.close();
+			
+			if (conjunctive) {
+				int count = 0;
+				for (int d = 0; d < numDocs; d++) {
+					if (matches[d] < n)
+						exhaustive[d] = 0;
+					else
+						count++;
+				}
+				assertEquals(count, top.offered());
+				
+				for (int i = 0; i < n; i++) {
+					postings[i] = efIndex.getInvertedIndex().getPostings(stats[i]);
+					postings[i].next();
+				}
+				assertEquals(count, Conjunctive.count(postings, stats));
+				for (IterablePosting p: postings)
+					p.close();
+			}
+			
+			// the top scores must be the exhaustive ones, docids may differ on ties
+			final double[] expected = Arrays.stream(exhaustive).filter(s -> s != 0).map(s -> -s).sorted().map(s -> -s).limit(k).toArray();
+			assertEquals(expected.length, rs.getResultSize());
+			for (int i = 0; i < expected.length; i++) {
+				assertEquals(expected[i], rs.getScores()[i], 1e-9);
+				assertEquals(exhaustive[rs.getDocids()[i]], rs.getScores()[i], 1e-9);
+			}
+		}
+	}
+}
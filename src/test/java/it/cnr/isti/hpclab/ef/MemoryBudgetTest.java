@@ -0,0 +1,139 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.terrier.structures.Index;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.utility.ApplicationSetup;
+
+import it.cnr.isti.hpclab.ef.util.BufferPool;
+
+/**
+ * Checks an index with positions compressed within a memory budget too small for more than one thread, spilling in a given directory.
+ * Besides the Shakespeare collection, the index contains a term occurring every other token of a few hundred documents, 
+ * whose positions spill since most of the budget is held by buffers in use elsewhere.
+ */
+public class MemoryBudgetTest extends EFSetupTest
+{
+	protected IndexOnDisk originalIndex = null;
+	protected IndexOnDisk efIndex = null;
+	protected File spillDirectory = null;
+	/** The number of documents with the dense term. */
+	private static final int DENSE_DOCS = 500;
+	/** The number of tokens of a document with the dense term. */
+	private static final int DENSE_LENGTH = 1000;
+
+	@Override
+	protected void makeCollectionSpec(PrintWriter p) throws Exception 
+	{
+		// about 3 bits per position gap of 2, i.e., more than the smallest buffer of a cache
+		final File dense = tmpFolder.newFile("dense.trec");
+		try (PrintWriter out = new PrintWriter(dense, "UTF-8")) {
+			for (int d = 0; d < DENSE_DOCS; d++) {
+				out.println("<DOC>");
+				out.println("<DOCNO>DENSE-" + d + "</DOCNO>");
+				for (int i = 0; i < DENSE_LENGTH / 2; i++)
+					out.print("spool filler" + (i % 10) + " ");
+				out.println();
+				out.println("</DOC>");
+			}
+		}
+		p.println(dense.getPath());
+		super.makeCollectionSpec(p);
+	}
+
+	@Before 
+	public void createIndex() throws Exception
+	{
+		ApplicationSetup.BLOCK_INDEXING = true;
+		super.doShakespeareIndexing();
+		originalIndex = Index.createIndex();
+		
+		spillDirectory = Files.createTempDirectory("spill").toFile();
+		String[] args = {"-path", originalIndex.getPath(), "-prefix", originalIndex.getPrefix() + ".ef", "-index", originalIndex.getPath() + File.separator + originalIndex.getPrefix() + ".properties", "-p", Integer.toString(2), "-b", "-memory", Integer.toString(1), "-spill", spillDirectory.getPath()};
+
+		System.setProperty(EliasFano.LOG2QUANTUM, "3");
+
+		// the whole budget is taken, so the caches cannot grow beyond their smallest buffer
+		BufferPool.configure(0, null);
+		final ByteBuffer held = BufferPool.allocate(1024 * 1024, true);
+		Generator.main(args);
+		BufferPool.release(held);
+		
+		efIndex = Index.createIndex(args[1], args[3]);
+	}
+	
+	@After
+	public void closeIndex() throws IOException
+	{
+		System.clearProperty(EliasFano.MEMORY_BUDGET);
+		System.clearProperty(EliasFano.SPILL_DIRECTORY);
+		BufferPool.configure(0, null);
+		originalIndex.close();
+		efIndex.close();
+		spillDirectory.delete();
+	}
+
+	@Test
+	public void testPostingLists() throws IOException
+	{
+		assertEquals(originalIndex.getCollectionStatistics().getNumberOfUniqueTerms(), efIndex.getCollectionStatistics().getNumberOfUniqueTerms());
+		assertEquals(originalIndex.getCollectionStatistics().getNumberOfPointers(), efIndex.getCollectionStatistics().getNumberOfPointers());
+		BlockIndexReadingTest.randomSanityCheck(originalIndex, efIndex);
+	}
+
+	@Test 
+	public void testCompressionReport() throws IOException
+	{
+		String report = new String(Files.readAllBytes(Paths.get(efIndex.getPath(), efIndex.getPrefix() + EliasFano.REPORT_EXTENSION)), StandardCharsets.UTF_8);
+		
+		// one megabyte is less than the memory of a thread, so the parallelism degree is reduced
+		assertTrue(report.contains("\"threads\": 1,"));
+		assertTrue(report.contains("\"" + EliasFano.MEMORY_BUDGET + "\": \"1\""));
+		
+		// the positions of the dense term do not fit in the memory of the cache
+		final Matcher total = Pattern.compile("\"total\": \\{.*\"spilled_bytes\": (\\d+)").matcher(report);
+		assertTrue(total.find());
+		assertTrue(Long.parseLong(total.group(1)) > 0);
+	}
+
+	@Test
+	public void testSpillDirectory()
+	{
+		// the spill files, if any, are deleted once the encoders are closed
+		assertEquals(0, spillDirectory.list().length);
+	}
+}
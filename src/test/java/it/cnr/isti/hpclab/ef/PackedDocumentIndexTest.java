@@ -0,0 +1,120 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.terrier.structures.DocumentIndex;
+import org.terrier.structures.DocumentIndexEntry;
+
+import it.cnr.isti.hpclab.ef.structures.EFDocumentIndex;
+
+/**
+ * Runs all the document index tests over an index whose document lengths are bit-packed.
+ */
+public class PackedDocumentIndexTest extends EFDocumentIndexTest
+{
+	@Before
+	@Override
+	public void createIndex() throws Exception
+	{
+		System.setProperty(EliasFano.SIZES_CODEC, EliasFano.PACKED_CODEC);
+		super.createIndex();
+	}
+
+	@After
+	public void clearSizesCodec()
+	{
+		System.clearProperty(EliasFano.SIZES_CODEC);
+	}
+
+	@Test
+	public void testSizesCodecProperty()
+	{
+		assertEquals(EliasFano.PACKED_CODEC, efIndex.getIndexProperty(EliasFano.SIZES_CODEC, EliasFano.GAMMA_CODEC));
+	}
+
+	@Test
+	public void testAllDocuments() throws IOException
+	{
+		DocumentIndex doi1 = originalIndex.getDocumentIndex();
+		DocumentIndex doi2 = efIndex.getDocumentIndex();
+		
+		assertEquals(doi1.getNumberOfDocuments(), doi2.getNumberOfDocuments());
+		for (int docid = 0; docid < doi1.getNumberOfDocuments(); docid++)
+			assertEquals(doi1.getDocumentLength(docid), doi2.getDocumentLength(docid));
+	}
+
+	@Test
+	public void testSyntheticLengths() throws IOException
+	{
+		// empty documents, outliers and blocks of every width, with a partial last block
+		final Random rnd = new Random(42);
+		final int[] lengths = new int[10 * EFDocumentIndex.PACKED_BLOCK_SIZE + 17];
+		for (int i = 0; i < lengths.length; i++) {
+			final int block = i / EFDocumentIndex.PACKED_BLOCK_SIZE;
+			if (block == 0)
+				lengths[i] = 0;
+			else if (block == 1)
+				lengths[i] = rnd.nextInt(100) == 0 ? Integer.MAX_VALUE : rnd.nextInt(100);
+			else
+				lengths[i] = rnd.nextInt(1 << (3 * block % 31));
+		}
+		
+		final File file = File.createTempFile("packed", EliasFano.SIZE_EXTENSION);
+		file.deleteOnExit();
+		EFDocumentIndex.writePacked(new DocumentIndex() {
+			@Override
+			public DocumentIndexEntry getDocumentEntry(int docid) 
+			{
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public int getDocumentLength(int docid) 
+			{
+				return lengths[docid];
+			}
+
+			@Override
+			public int getNumberOfDocuments() 
+			{
+				return lengths.length;
+			}
+		}, file.getPath());
+		
+		// the directory and the lengths take less than the 32-bit lengths
+		assertTrue(file.length() < lengths.length * 4L);
+		
+		final DocumentIndex doi = new EFDocumentIndex(file.getPath(), lengths.length, ByteOrder.nativeOrder());
+		assertEquals(lengths.length, doi.getNumberOfDocuments());
+		for (int docid = 0; docid < lengths.length; docid++)
+			assertEquals(lengths[docid], doi.getDocumentLength(docid));
+	}
+}
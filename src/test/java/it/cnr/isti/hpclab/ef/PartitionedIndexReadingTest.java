@@ -0,0 +1,60 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+/**
+ * Runs all the reading tests over an index whose docid lists are encoded with partitioned Elias-Fano.
+ */
+@RunWith(value = Parameterized.class)
+public class PartitionedIndexReadingTest extends IndexReadingTest
+{
+    public PartitionedIndexReadingTest(int parallelism, int skipSize)
+    {
+        super(parallelism, skipSize);
+    }
+
+    @Before
+    @Override
+    public void createIndex() throws Exception
+    {
+        System.setProperty(EliasFano.DOCID_CODEC, EliasFano.PEF_CODEC);
+        super.createIndex();
+    }
+
+    @Test
+    public void testDocidCodecProperty()
+    {
+        assertEquals(EliasFano.PEF_CODEC, efIndex.getIndexProperty(EliasFano.DOCID_CODEC, EliasFano.EF_CODEC));
+    }
+
+    @After
+    public void clearDocidCodec()
+    {
+        System.clearProperty(EliasFano.DOCID_CODEC);
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.terrier.matching.models.Tf;
+import org.terrier.querying.Manager;
+import org.terrier.querying.ManagerFactory;
+import org.terrier.querying.ScoredDoc;
+import org.terrier.querying.ScoredDocList;
+import org.terrier.querying.SearchRequest;
+import org.terrier.structures.EntryStatistics;
+import org.terrier.structures.Index;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.postings.BlockPosting;
+import org.terrier.structures.postings.IterablePosting;
+import org.terrier.utility.ApplicationSetup;
+
+import it.cnr.isti.hpclab.ef.matching.Conjunctive;
+import it.cnr.isti.hpclab.ef.matching.OrderedWindowIterablePosting;
+import it.cnr.isti.hpclab.ef.matching.PositionalIterablePosting;
+import it.cnr.isti.hpclab.ef.matching.UnorderedWindowIterablePosting;
+import it.cnr.isti.hpclab.ef.structures.EFBlockIterablePosting;
+
+/**
+ * Checks phrases and windows over Elias-Fano indices with positions against the positions of the original index.
+ * The query terms are sampled from nearby positions of the documents, so that every query matches at least one document.
+ */
+public class PositionalMatchingTest extends EFSetupTest
+{
+	protected IndexOnDisk originalIndex = null;
+	protected IndexOnDisk efIndex = null;
+	/** The terms of every document of the original index, by position. */
+	protected String[][] documents = null;
+
+	@Before 
+	public void createIndex() throws Exception
+	{
+		ApplicationSetup.BLOCK_INDEXING = true;
+		super.doShakespeareIndexing();
+		originalIndex = Index.createIndex();
+		
+		String[] args = {"-path", originalIndex.getPath(), "-prefix", originalIndex.getPrefix() + ".ef", "-index", originalIndex.getPath() + File.separator + originalIndex.getPrefix() + ".properties", "-p", Integer.toString(1), "-b"};
+
+		System.setProperty(EliasFano.LOG2QUANTUM, "3");
+
+		Generator.main(args);
+		
+		efIndex = Index.createIndex(args[1], args[3]);
+		documents = documents(originalIndex);
+	}
+	
+	@After
+	public void closeIndex() throws IOException
+	{
+		System.clearProperty(EliasFano.LOG2QUANTUM);
+		originalIndex.close();
+		efIndex.close();
+	}
+	
+	@Test
+	public void testPhrase() throws IOException
+	{
+		final Random rnd = new Random(42);
+		for (int q = 0; q < 50; q++) {
+			final String[] terms = sample(rnd, 2 + rnd.nextInt(2), 0);
+			final Map<Integer, Integer> expected = expected(terms, false, terms.length);
+			checkPosting(OrderedWindowIterablePosting.phrase(postings(terms), stats(terms)), expected);
+			checkSearch("\"" + String.join(" ", terms) + "\"", false, expected);
+		}
+	}
+	
+	@Test
+	public void testOrderedWindow() throws IOException
+	{
+		final Random rnd = new Random(42);
+		for (int q = 0; q < 50; q++) {
+			final String[] terms = sample(rnd, 2 + rnd.nextInt(2), 3);
+			checkPosting(new OrderedWindowIterablePosting(postings(terms), stats(terms), terms.length + 3), expected(terms, false, terms.length + 3));
+		}
+	}
+	
+	@Test
+	public void testUnorderedWindow() throws IOException
+	{
+		final Random rnd = new Random(42);
+		for (int slack: new int[] {0, 4}) {
+			for (int q = 0; q < 50; q++) {
+				final String[] terms = sample(rnd, 2 + rnd.nextInt(2), slack);
+				final int width = terms.length + slack;
+				final Map<Integer, Integer> expected = expected(terms, true, width);
+				checkPosting(new UnorderedWindowIterablePosting(postings(terms), stats(terms), width), expected);
+				checkSearch("#uw" + width + "(" + String.join(" ", terms) + ")", true, expected);
+			}
+		}
+	}
+	
+	/**
+	 * Reads the terms of every document of an index with positions from its inverted index.
+	 */
+	private static String[][] documents(final IndexOnDisk index) throws IOException
+	{
+		final String[][] documents = new String[index.getCollectionStatistics().getNumberOfDocuments()][];
+		for (int docid = 0; docid < documents.length; docid++)
+			documents[docid] = new String[index.getDocumentIndex().getDocumentLength(docid)];
+		for (int i = 0; i < index.getCollectionStatistics().getNumberOfUniqueTerms(); i++) {
+			final Map.Entry<String, LexiconEntry> entry = index.getLexicon().getIthLexiconEntry(i);
+			final IterablePosting p = index.getInvertedIndex().getPostings(entry.getValue());
+			while (p.next() != IterablePosting.EOL) {
+				for (int pos: ((BlockPosting) p).getPositions()) {
+					if (pos >= documents[p.getId()].length)
+						documents[p.getId()] = Arrays.copyOf(documents[p.getId()], pos + 1);
+					documents[p.getId()][pos] = entry.getKey();
+				}
+			}
+			p.close();
+		}
+		return documents;
+	}
+	
+	/**
+	 * Samples distinct terms at increasing positions of a random document, within a window of the given slack.
+	 * 
+	 * @param n the number of terms
+	 * @param slack how much the width of the window exceeds the number of terms, 0 for adjacent terms
+	 */
+	private String[] sample(final Random rnd, final int n, final int slack)
+	{
+		while (true) {
+			final String[] document = documents[rnd.nextInt(documents.length)];
+			final int width = n + slack;
+			if (document.length < width)
+				continue;
+			final int start = rnd.nextInt(document.length - width + 1);
+			
+			// the first term starts the window, the others are at random increasing offsets in the window
+			final int[] offsets = rnd.ints(1, width).distinct().limit(n - 1).sorted().toArray();
+			final String[] terms = new String[n];
+			final Set<String> distinct = new HashSet<String>();
+			terms[0] = document[start];
+			distinct.add(terms[0]);
+			for (int i = 1; i < n; i++) {
+				terms[i] = document[start + offsets[i - 1]];
+				distinct.add(terms[i]);
+			}
+			if (!distinct.contains(null) && distinct.size() == n)
+				return terms;
+		}
+	}
+	
+	private EFBlockIterablePosting[] postings(final String[] terms) throws IOException
+	{
+		final EFBlockIterablePosting[] postings = new EFBlockIterablePosting[terms.length];
+		for (int i = 0; i < terms.length; i++)
+			postings[i] = (EFBlockIterablePosting) efIndex.getInvertedIndex().getPostings(efIndex.getLexicon().getLexiconEntry(terms[i]));
+		return postings;
+	}
+	
+	private EntryStatistics[] stats(final String[] terms)
+	{
+		final EntryStatistics[] stats = new EntryStatistics[terms.length];
+		for (int i = 0; i < terms.length; i++)
+			stats[i] = efIndex.getLexicon().getLexiconEntry(terms[i]);
+		return stats;
+	}
+	
+	/**
+	 * Computes the number of windows of the terms in every document matching them, from the positions of the original index.
+	 * 
+	 * @param unordered true for unordered windows, false for ordered windows
+	 * @param width the width of the windows
+	 * @return the number of windows, by docid
+	 */
+	private Map<Integer, Integer> expected(final String[] terms, final boolean unordered, final int width)
+	{
+		final Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+		for (int docid = 0; docid < documents.length; docid++) {
+			final int[][] positions = new int[terms.length][];
+			boolean all = true;
+			for (int i = 0; i < terms.length; i++) {
+				final String term = terms[i];
+				final String[] document = documents[docid];
+				positions[i] = IntStream.range(0, document.length).filter(pos -> term.equals(document[pos])).toArray();
+				all &= positions[i].length > 0;
+			}
+			final int count = all ? (unordered ? unorderedMatches(positions, width) : orderedMatches(positions, width)) : 0;
+			if (count > 0)
+				expected.put(docid, count);
+		}
+		assertTrue(expected.size() > 0);
+		return expected;
+	}
+	
+	/** Checks the documents of a positional posting list and their number of windows. */
+	private static void checkPosting(final PositionalIterablePosting pp, final Map<Integer, Integer> expected) throws IOException
+	{
+		int docid;
+		int found = 0;
+		while ((docid = pp.next()) != IterablePosting.EOL) {
+			assertTrue(expected.containsKey(docid));
+			assertEquals((int) expected.get(docid), pp.getFrequency());
+			found++;
+		}
+		assertEquals(expected.size(), found);
+		pp.close();
+	}
+	
+	/**
+	 * Runs a query through Terrier, so that its phrase or window is matched by the operators of the Elias-Fano matching strategies,
+	 * and checks its documents; the documents are scored by the number of windows in them.
+	 * 
+	 * @param query the query, in the Terrier query language or, if matchop is true, in the matching operators query language
+	 */
+	private void checkSearch(final String query, final boolean matchop, final Map<Integer, Integer> expected)
+	{
+		final Manager manager = ManagerFactory.from(efIndex.getIndexRef());
+		final SearchRequest srq = manager.newSearchRequest("1", query);
+		srq.setControl(SearchRequest.CONTROL_WMODEL, Tf.class.getName());
+		srq.setControl(SearchRequest.CONTROL_MATCHING, Conjunctive.class.getName());
+		// the terms are taken from the lexicon, hence they are already stemmed
+		srq.setControl("applypipeline", "off");
+		if (matchop) {
+			srq.setControl("terrierql", "off");
+			srq.setControl("parsecontrols", "off");
+			srq.setControl("parseql", "off");
+			srq.setControl("matchopql", "on");
+		}
+		manager.runSearchRequest(srq);
+		
+		final ScoredDocList results = srq.getResults();
+		assertEquals(expected.size(), results.size());
+		for (ScoredDoc doc: results) {
+			assertTrue(expected.containsKey(doc.getDocid()));
+			assertEquals((int) expected.get(doc.getDocid()), doc.getScore(), 1e-9);
+		}
+	}
+	
+	/** Counts the positions of the first term starting an ordered window. */
+	private static int orderedMatches(final int[][] positions, final int width)
+	{
+		int count = 0;
+		for (int start: positions[0]) {
+			int last = start;
+			for (int i = 1; i < positions.length && last - start < width; i++) {
+				int next = Integer.MAX_VALUE;
+				for (int p: positions[i]) {
+					if (p > last) {
+						next = p;
+						break;
+					}
+				}
+				last = next;
+			}
+			if (last - start < width)
+				count++;
+		}
+		return count;
+	}
+	
+	/** 
+	 * Counts the positions of the terms starting an unordered window, i.e., such that the following position of every other term 
+	 * is in the window; positions are distinct, since the terms are.
+	 */
+	private static int unorderedMatches(final int[][] positions, final int width)
+	{
+		int count = 0;
+		for (int i = 0; i < positions.length; i++) {
+			for (int start: positions[i]) {
+				boolean all = true;
+				for (int j = 0; j < positions.length && all; j++) {
+					if (j == i)
+						continue;
+					int next = Integer.MAX_VALUE;
+					for (int p: positions[j]) {
+						if (p > start) {
+							next = p;
+							break;
+						}
+					}
+					all = next != Integer.MAX_VALUE && next - start < width;
+				}
+				if (all)
+					count++;
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,235 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.terrier.matching.ResultSet;
+import org.terrier.matching.models.BM25;
+import org.terrier.matching.models.WeightingModel;
+import org.terrier.structures.DocumentIndex;
+import org.terrier.structures.DocumentIndexEntry;
+import org.terrier.structures.Index;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.postings.IterablePosting;
+
+import it.cnr.isti.hpclab.ef.matching.EFMatching;
+import it.cnr.isti.hpclab.ef.matching.QuantizedBM25;
+import it.cnr.isti.hpclab.ef.matching.TopQueue;
+import it.cnr.isti.hpclab.ef.matching.WAND;
+import it.cnr.isti.hpclab.ef.structures.EFDocumentIndex;
+import it.cnr.isti.hpclab.ef.structures.QuantizedDocumentLengths;
+
+/**
+ * Checks quantized document lengths and BM25 on quantized lengths against exact BM25.
+ */
+public class QuantizedBM25Test extends EFSetupTest
+{
+	protected IndexOnDisk efIndex = null;
+
+	@Before 
+	public void createIndex() throws Exception
+	{
+		super.doShakespeareIndexing();
+		IndexOnDisk originalIndex = Index.createIndex();
+		
+		String[] args = {"-path", originalIndex.getPath(), "-prefix", originalIndex.getPrefix() + ".ef", "-index", originalIndex.getPath() + File.separator + originalIndex.getPrefix() + ".properties", "-p", Integer.toString(1)};
+
+		System.setProperty(EliasFano.LOG2QUANTUM, "3");
+
+		Generator.main(args);
+		originalIndex.close();
+		
+		efIndex = Index.createIndex(args[1], args[3]);
+	}
+	
+	@After
+	public void closeIndex() throws IOException
+	{
+		efIndex.close();
+	}
+
+	@Test
+	public void testQuantizedLengths() throws IOException
+	{
+		final DocumentIndex doi = efIndex.getDocumentIndex();
+		final QuantizedDocumentLengths lengths = ((EFDocumentIndex) doi).getQuantizedLengths();
+		assertEquals(doi.getNumberOfDocuments(), lengths.getNumberOfDocuments());
+		
+		for (int code = 1; code < QuantizedDocumentLengths.NUM_CODES; code++)
+			assertTrue(lengths.getLength(code - 1) < lengths.getLength(code));
+		for (int docid = 0; docid < doi.getNumberOfDocuments(); docid++) {
+			final int length = doi.getDocumentLength(docid);
+			assertEquals(lengths.code(length), lengths.getCode(docid));
+			assertEquals(length, lengths.getLength(lengths.getCode(docid)), 0.1 * length);
+		}
+	}
+
+	@Test
+	public void testSyntheticLengths() throws IOException
+	{
+		final Random rnd = new Random(42);
+		final int[] docLengths = new int[100000];
+		for (int i = 0; i < docLengths.length; i++)
+			docLengths[i] = (int) (Math.pow(rnd.nextDouble(), 3) * 1000000);
+		final QuantizedDocumentLengths lengths = new QuantizedDocumentLengths(new DocumentIndex() {
+			@Override
+			public DocumentIndexEntry getDocumentEntry(int docid) 
+			{
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public int getDocumentLength(int docid) 
+			{
+				return docLengths[docid];
+			}
+
+			@Override
+			public int getNumberOfDocuments() 
+			{
+				return docLengths.length;
+			}
+		});
+		for (int docid = 0; docid < docLengths.length; docid++) {
+			final int length = docLengths[docid];
+			assertEquals(length, lengths.getLength(lengths.getCode(docid)), length < QuantizedDocumentLengths.EXACT_CODES ? 0 : 0.1 * length);
+		}
+	}
+
+	@Test
+	public void testScores() throws IOException
+	{
+		final int numTerms = efIndex.getCollectionStatistics().getNumberOfUniqueTerms();
+		final Random rnd = new Random(42);
+		
+		for (int t = 0; t < 100; t++) {
+			final LexiconEntry le = efIndex.getLexicon().getIthLexiconEntry(rnd.nextInt(numTerms)).getValue();
+			final WeightingModel exact = prepare(new BM25(), le);
+			final QuantizedBM25 quantized = (QuantizedBM25) prepare(new QuantizedBM25(), le);
+			
+			// without quantized lengths, the scores are exact
+			for (int tf = 1; tf < 10; tf++)
+				assertEquals(exact.score(tf, 10 * tf), quantized.score(tf, 10 * tf), 1e-9);
+			
+			// the quantized lengths are obtained from the posting list
+			final IterablePosting p = efIndex.getInvertedIndex().getPostings(le);
+			while (p.next() != IterablePosting.EOL)
+				assertEquals(exact.score(p), quantized.score(p), 0.1 * Math.abs(exact.score(p)));
+			p.close();
+			assertTrue(quantized.getDocumentLengths() != null);
+		}
+	}
+
+	@Test
+	public void testUpperBound() throws IOException
+	{
+		final int numTerms = efIndex.getCollectionStatistics().getNumberOfUniqueTerms();
+		final QuantizedDocumentLengths lengths = ((EFDocumentIndex) efIndex.getDocumentIndex()).getQuantizedLengths();
+		final Random rnd = new Random(42);
+		
+		for (int t = 0; t < 100; t++) {
+			final LexiconEntry le = efIndex.getLexicon().getIthLexiconEntry(rnd.nextInt(numTerms)).getValue();
+			final QuantizedBM25 model = (QuantizedBM25) prepare(new QuantizedBM25(), le);
+			model.setDocumentLengths(lengths);
+			final double upperBound = model.upperBound(le.getMaxFrequencyInDocuments());
+			
+			// every frequency possible in a document of every code
+			for (int code = 0; code < QuantizedDocumentLengths.NUM_CODES; code++) {
+				final int length = lengths.getMaxLength(code);
+				assertEquals(code, lengths.code(length));
+				for (int tf = 1; tf <= Math.min(le.getMaxFrequencyInDocuments(), length); tf++)
+					assertTrue(model.score(tf, length) <= upperBound);
+			}
+		}
+	}
+
+	@Test
+	public void testMatching() throws IOException
+	{
+		final int numTerms = efIndex.getCollectionStatistics().getNumberOfUniqueTerms();
+		final int numDocs = efIndex.getCollectionStatistics().getNumberOfDocuments();
+		final QuantizedDocumentLengths lengths = ((EFDocumentIndex) efIndex.getDocumentIndex()).getQuantizedLengths();
+		final Random rnd = new Random(42);
+		
+		for (int q = 0; q < 20; q++) {
+			final int k = 1 + rnd.nextInt(20);
+			final int n = 1 + rnd.nextInt(4);
+			final IterablePosting[] postings = new IterablePosting[n];
+			final LexiconEntry[] stats = new LexiconEntry[n];
+			final WeightingModel[][] models = new WeightingModel[n][];
+			final double[] exhaustive = new double[numDocs];
+			
+			for (int i = 0; i < n; i++) {
+				LexiconEntry le;
+				do {
+					le = efIndex.getLexicon().getIthLexiconEntry(rnd.nextInt(numTerms)).getValue();
+				} while (le.getDocumentFrequency() > numDocs / 2);
+				
+				final QuantizedBM25 model = (QuantizedBM25) prepare(new QuantizedBM25(), le);
+				model.setDocumentLengths(lengths);
+				stats[i] = le;
+				models[i] = new WeightingModel[] { model };
+				final double upperBound = EFMatching.upperBound(le, models[i]);
+				
+				final IterablePosting p = efIndex.getInvertedIndex().getPostings(le);
+				while (p.next() != IterablePosting.EOL) {
+					final double score = model.score(p);
+					assertTrue(score <= upperBound);
+					exhaustive[p.getId()] += score;
+				}
+				p.close();
+				
+				postings[i] = efIndex.getInvertedIndex().getPostings(le);
+				postings[i].next();
+			}
+			
+			final TopQueue top = new TopQueue(k);
+			new WAND(efIndex).match(postings, stats, models, top);
+			final ResultSet rs = top.toResultSet();
+			for (IterablePosting p: postings)
+				p.close();
+			
+			final double[] expected = Arrays.stream(exhaustive).filter(s -> s != 0).map(s -> -s).sorted().map(s -> -s).limit(k).toArray();
+			assertEquals(expected.length, rs.getResultSize());
+			for (int i = 0; i < expected.length; i++)
+				assertEquals(expected[i], rs.getScores()[i], 1e-9);
+		}
+	}
+	
+	private WeightingModel prepare(final WeightingModel model, final LexiconEntry le)
+	{
+		model.setCollectionStatistics(efIndex.getCollectionStatistics());
+		model.setEntryStatistics(le);
+		model.setKeyFrequency(1);
+		model.prepare();
+		return model;
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import it.cnr.isti.hpclab.ef.util.DirectSequenceEncoder;
+import it.cnr.isti.hpclab.ef.util.EFUtils;
+import it.cnr.isti.hpclab.ef.util.FreqReader;
+import it.cnr.isti.hpclab.ef.util.LongWordBitReader;
+import it.cnr.isti.hpclab.ef.util.LongWordBitWriter;
+import it.cnr.isti.hpclab.ef.util.PositionReader;
+import it.cnr.isti.hpclab.ef.util.SequenceEncoder;
+import it.unimi.dsi.fastutil.longs.LongBigList;
+import it.unimi.dsi.util.ByteBufferLongBigList;
+
+public class SelectInWordTest
+{
+	@Rule
+	public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+	private static int linearSelect(long word, long rank)
+	{
+		for (int i = 0; i < Long.SIZE; i++)
+			if ((word >>> i & 1) != 0 && rank-- == 0)
+				return i;
+		throw new IllegalArgumentException();
+	}
+
+	@Test
+	public void testRandomWords()
+	{
+		Random rnd = new Random(42);
+		for (int i = 0; i < 100000; i++) {
+			// from very sparse to very dense words
+			long word = rnd.nextLong();
+			for (int j = rnd.nextInt(4); j-- > 0; )
+				word = (i % 2 == 0) ? word & rnd.nextLong() : word | rnd.nextLong();
+			if (word == 0)
+				continue;
+			for (int rank = 0; rank < Long.bitCount(word); rank++)
+				assertEquals(linearSelect(word, rank), EFUtils.selectInWord(word, rank));
+		}
+	}
+
+	@Test
+	@SuppressWarnings("resource")
+	public void testRandomAccessFrequencies() throws IOException
+	{
+		Random rnd = new Random(42);
+		final int log2Quantum = 3;
+		final int n = 50000;
+
+		final long[] values = new long[n];
+		long sum = 0;
+		for (int i = 0; i < n; i++) {
+			values[i] = 1 + ((i / 1000) % 2 == 0 ? rnd.nextInt(3) : rnd.nextInt(200));
+			sum += values[i];
+		}
+
+		File file = tmpFolder.newFile("freqs" + EliasFano.FREQ_EXTENSION);
+		LongWordBitWriter writer = new LongWordBitWriter(new FileOutputStream(file).getChannel(), ByteOrder.nativeOrder());
+		SequenceEncoder encoder = new SequenceEncoder(1 << 16, log2Quantum);
+		encoder.init(n, sum, true, false, log2Quantum);
+		for (long v: values)
+			encoder.add(v);
+		encoder.dump(writer);
+		encoder.close();
+		writer.close();
+
+		LongBigList list = ByteBufferLongBigList.map(new FileInputStream(file).getChannel(), ByteOrder.nativeOrder(), MapMode.READ_ONLY);
+
+		// the linear path, decoding one value after the other
+		FreqReader reader = new FreqReader(list, 0, n, sum, log2Quantum);
+		for (int i = 0; i < n; i++)
+			assertEquals(values[i], reader.getLong(i));
+
+		// random forward jumps, short ones within a word and long ones through forward pointers
+		for (int maxJump : new int[] {2, 7, 64, 1000}) {
+			reader = new FreqReader(list, 0, n, sum, log2Quantum);
+			for (int i = rnd.nextInt(maxJump); i < n; i += 1 + rnd.nextInt(maxJump))
+				assertEquals(values[i], reader.getLong(i));
+		}
+	}
+
+	@Test
+	@SuppressWarnings("resource")
+	public void testRandomAccessPositions() throws IOException
+	{
+		Random rnd = new Random(42);
+		final int log2Quantum = 3;
+		final int n = 20000;
+
+		// the positions of every posting, few in short documents and many in long ones
+		final int[][] positions = new int[n][];
+		final long[] firstIndex = new long[n + 1];
+		long sumMaxPos = 0;
+		for (int j = 0; j < n; j++) {
+			positions[j] = new int[1 + ((j / 1000) % 2 == 0 ? rnd.nextInt(3) : rnd.nextInt(100))];
+			int pos = rnd.nextInt(10);
+			for (int i = 0; i < positions[j].length; i++, pos += 1 + rnd.nextInt(50))
+				positions[j][i] = pos;
+			sumMaxPos += positions[j][positions[j].length - 1];
+			firstIndex[j + 1] = firstIndex[j] + positions[j].length;
+		}
+		final long occurrency = firstIndex[n];
+
+		// the layout of the positions written by the block compressor
+		File file = tmpFolder.newFile("positions" + EliasFano.POS_EXTENSION);
+		LongWordBitWriter writer = new LongWordBitWriter(new FileOutputStream(file).getChannel(), ByteOrder.nativeOrder());
+		DirectSequenceEncoder encoder = new DirectSequenceEncoder(writer, 1 << 16);
+		encoder.init(occurrency, n + sumMaxPos, true, false, log2Quantum);
+		writer.writeGamma(encoder.lowerBits());
+		if (encoder.numberOfPointers() != 0)
+			writer.writeNonZeroGamma(encoder.pointerSize());
+		for (int[] p: positions) {
+			encoder.add(1 + p[0]);
+			for (int i = 1; i < p.length; i++)
+				encoder.add(p[i] - p[i - 1]);
+		}
+		encoder.dump();
+		encoder.close();
+		writer.close();
+
+		LongBigList list = ByteBufferLongBigList.map(new FileInputStream(file).getChannel(), ByteOrder.nativeOrder(), MapMode.READ_ONLY);
+		LongWordBitReader header = new LongWordBitReader(list, 0);
+		final int l = (int) header.readGamma();
+		final long numberOfPointers = EFUtils.numberOfPointers(occurrency, -1, log2Quantum, true, false);
+		final int pointerSize = numberOfPointers == 0 ? -1 : (int) header.readNonZeroGamma();
+		final long start = header.position();
+		PositionReader reader = new PositionReader(list, log2Quantum);
+
+		// the sequential path, decoding the positions of every posting
+		reader.reset(l, start, numberOfPointers, pointerSize, occurrency);
+		for (int j = 0; j < n; j++)
+			assertPositions(positions[j], firstIndex[j], reader);
+
+		// random forward jumps over postings, short ones within a word and long ones through forward pointers
+		for (int maxJump : new int[] {2, 7, 64, 1000}) {
+			reader.reset(l, start, numberOfPointers, pointerSize, occurrency);
+			for (int j = rnd.nextInt(maxJump); j < n; j += 1 + rnd.nextInt(maxJump)) {
+				// the positions of a posting are not always read completely
+				if (rnd.nextBoolean())
+					assertPositions(positions[j], firstIndex[j], reader);
+				else
+					assertEquals(positions[j][0], reader.getFirstPosition(firstIndex[j]));
+			}
+		}
+	}
+
+	private static void assertPositions(final int[] positions, final long index, final PositionReader reader)
+	{
+		assertEquals(positions[0], reader.getFirstPosition(index));
+		for (int i = 1; i < positions.length; i++)
+			assertEquals(positions[i], reader.getNextPosition());
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+/**
+ * Runs all the reading tests over an index where every docid list has second-level skip pointers.
+ */
+@RunWith(value = Parameterized.class)
+public class SubInventoryIndexReadingTest extends IndexReadingTest
+{
+    public SubInventoryIndexReadingTest(int parallelism, int skipSize)
+    {
+        super(parallelism, skipSize);
+    }
+
+    @Before
+    @Override
+    public void createIndex() throws Exception
+    {
+        System.setProperty(EliasFano.LOG2SUBQUANTUM, "1");
+        System.setProperty(EliasFano.SUB_INVENTORY_THRESHOLD, "1");
+        super.createIndex();
+    }
+
+    @Test
+    public void testSubInventoryProperties()
+    {
+        assertEquals(1, efIndex.getIntIndexProperty(EliasFano.LOG2SUBQUANTUM, 0));
+        assertEquals(1, efIndex.getIntIndexProperty(EliasFano.SUB_INVENTORY_THRESHOLD, 0));
+    }
+
+    @After
+    public void clearSubInventory()
+    {
+        System.clearProperty(EliasFano.LOG2SUBQUANTUM);
+        System.clearProperty(EliasFano.SUB_INVENTORY_THRESHOLD);
+    }
+}
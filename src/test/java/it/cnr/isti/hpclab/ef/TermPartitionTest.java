@@ -0,0 +1,112 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.terrier.structures.Index;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.LexiconEntry;
+
+/**
+ * Checks the cost-balanced term partitions, and an index compressed with more partitions than threads.
+ */
+public class TermPartitionTest extends EFSetupTest
+{
+	protected IndexOnDisk originalIndex = null;
+	protected IndexOnDisk efIndex = null;
+
+	@Before 
+	public void createIndex() throws Exception
+	{
+		super.doShakespeareIndexing();
+		originalIndex = Index.createIndex();
+		
+		String[] args = {"-path", originalIndex.getPath(), "-prefix", originalIndex.getPrefix() + ".ef", "-index", originalIndex.getPath() + File.separator + originalIndex.getPrefix() + ".properties", "-p", Integer.toString(2), "-partitions", Integer.toString(7)};
+
+		System.setProperty(EliasFano.LOG2QUANTUM, "3");
+
+		Generator.main(args);
+		
+		efIndex = Index.createIndex(args[1], args[3]);
+	}
+	
+	@After
+	public void closeIndex() throws IOException
+	{
+		originalIndex.close();
+		efIndex.close();
+	}
+
+	@Test
+	public void testSplit()
+	{
+		long total = 0;
+		for (Map.Entry<String, LexiconEntry> entry: originalIndex.getLexicon())
+			total += TermPartition.cost(entry.getValue(), false);
+		
+		final int numberOfTerms = originalIndex.getLexicon().numberOfEntries();
+		for (int bins = 1; bins <= 16; bins++) {
+			final TermPartition[] partitions = TermPartition.split(originalIndex.getLexicon(), bins, false);
+			assertEquals(Math.min(bins, numberOfTerms), partitions.length);
+			
+			// contiguous, non-empty partitions covering all the terms
+			int begin = 0;
+			long cost = 0;
+			for (int id = 0; id < partitions.length; id++) {
+				assertEquals(id, partitions[id].id());
+				assertEquals(begin, partitions[id].begin());
+				assertTrue(partitions[id].end() > partitions[id].begin());
+				begin = partitions[id].end();
+				cost += partitions[id].cost();
+			}
+			assertEquals(numberOfTerms, begin);
+			assertEquals(total, cost);
+		}
+	}
+
+	@Test
+	public void testPostingLists() throws IOException
+	{
+		assertEquals(originalIndex.getCollectionStatistics().getNumberOfUniqueTerms(), efIndex.getCollectionStatistics().getNumberOfUniqueTerms());
+		assertEquals(originalIndex.getCollectionStatistics().getNumberOfPointers(), efIndex.getCollectionStatistics().getNumberOfPointers());
+		IndexReadingTest.randomSanityCheck(originalIndex, efIndex);
+	}
+
+	@Test 
+	public void testCompressionReport() throws IOException
+	{
+		String report = new String(Files.readAllBytes(Paths.get(efIndex.getPath(), efIndex.getPrefix() + EliasFano.REPORT_EXTENSION)), StandardCharsets.UTF_8);
+		
+		assertTrue(report.contains("\"partitions\": 7"));
+		assertTrue(report.contains("\"terms\": " + originalIndex.getCollectionStatistics().getNumberOfUniqueTerms() + ","));
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2020 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.terrier.structures.Index;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.postings.IterablePosting;
+
+import it.cnr.isti.hpclab.ef.structures.EFBasicIterablePosting;
+import it.cnr.isti.hpclab.ef.util.TraversalCounters;
+
+/**
+ * Checks the traversal counters of the posting cursors, enabled by the build only for this test, in a JVM of its own.
+ */
+public class TraversalCountersTest extends EFSetupTest
+{
+	protected IndexOnDisk efIndex = null;
+
+	@Before 
+	public void createIndex() throws Exception
+	{
+		Assume.assumeTrue(TraversalCounters.ENABLED);
+		
+		super.doShakespeareIndexing();
+		IndexOnDisk originalIndex = Index.createIndex();
+		
+		String[] args = {"-path", originalIndex.getPath(), "-prefix", originalIndex.getPrefix() + ".ef", "-index", originalIndex.getPath() + File.separator + originalIndex.getPrefix() + ".properties"};
+
+		System.setProperty(EliasFano.LOG2QUANTUM, "3");
+
+		Generator.main(args);
+		originalIndex.close();
+		
+		efIndex = Index.createIndex(args[1], args[3]);
+	}
+	
+	@After
+	public void closeIndex() throws IOException
+	{
+		if (efIndex != null)
+			efIndex.close();
+	}
+	
+	@Test
+	public void testNext() throws IOException
+	{
+		for (int i = 0; i < efIndex.getCollectionStatistics().getNumberOfUniqueTerms(); i++) {
+			Map.Entry<String, LexiconEntry> entry = efIndex.getLexicon().getIthLexiconEntry(i);
+			EFBasicIterablePosting p = (EFBasicIterablePosting) efIndex.getInvertedIndex().getPostings(entry.getValue());
+			TraversalCounters counters = p.getCounters();
+			
+			long postings = 0;
+			long freqs = 0;
+			while (p.next() != IterablePosting.END_OF_LIST) {
+				postings++;
+				assertEquals(postings, counters.decoded);
+				if (postings % 2 == 0) {
+					p.getFrequency();
+					p.getFrequency();
+					freqs++;
+				}
+				assertEquals(freqs, counters.freqs);
+			}
+			assertEquals(0, counters.skipped);
+			assertEquals(0, counters.skips + counters.scans);
+			assertTrue(counters.longwords > 0);
+			p.close();
+		}
+	}
+
+	@Test
+	public void testSkip() throws IOException
+	{
+		long skipped = 0;
+		for (int i = 0; i < efIndex.getCollectionStatistics().getNumberOfUniqueTerms(); i++) {
+			Map.Entry<String, LexiconEntry> entry = efIndex.getLexicon().getIthLexiconEntry(i);
+			if (entry.getValue().getDocumentFrequency() < 64)
+				continue;
+			EFBasicIterablePosting p = (EFBasicIterablePosting) efIndex.getInvertedIndex().getPostings(entry.getValue());
+			TraversalCounters counters = p.getCounters();
+			
+			long moves = 0;
+			for (int target = 0; p.next(target) != IterablePosting.END_OF_LIST; target = p.getId() + 1 + efIndex.getCollectionStatistics().getNumberOfDocuments() / 16) {
+				moves++;
+				assertEquals(moves, counters.skips + counters.scans);
+				assertEquals(p.getCurrentDocidPosition() + 1, counters.decoded + counters.skipped);
+			}
+			skipped += counters.skipped;
+			p.close();
+		}
+		assertTrue(skipped > 0);
+	}
+
+	@Test
+	public void testReset() throws IOException
+	{
+		Map.Entry<String, LexiconEntry> entry = efIndex.getLexicon().getIthLexiconEntry(0);
+		EFBasicIterablePosting p = (EFBasicIterablePosting) efIndex.getInvertedIndex().getPostings(entry.getValue());
+		while (p.next() != IterablePosting.END_OF_LIST)
+			p.getFrequency();
+		p.close();
+		
+		p = (EFBasicIterablePosting) efIndex.getInvertedIndex().getPostings(entry.getValue());
+		assertEquals(0, p.getCounters().decoded);
+		assertEquals(0, p.getCounters().freqs);
+		p.close();
+	}
+}